@@ -1,5 +1,8 @@
 package com.nutomic.syncthingandroid.activities;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -9,27 +12,32 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
-import android.widget.ScrollView;
+import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.core.content.FileProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.service.Constants;
+import com.nutomic.syncthingandroid.service.SyncthingLogWriter;
+import com.nutomic.syncthingandroid.util.KeywordMatcher;
+import com.nutomic.syncthingandroid.util.MappedLogReader;
 import com.nutomic.syncthingandroid.util.Util;
+import com.nutomic.syncthingandroid.views.LogLineAdapter;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.ListIterator;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.regex.Pattern;
 
 /**
  * Shows the log information from Syncthing.
@@ -40,18 +48,138 @@ public class LogActivity extends SyncthingActivity {
 
     private static final int ANDROID_LOG_FILE_MAX_LINES = 2000;
 
+    /**
+     * "Copy log" copies the last lines up to this length, clips are passed through binder
+     * which rejects transactions larger than 1 MB.
+     */
+    private static final int CLIPBOARD_MAX_CHARS = 256 * 1024;
+
+    /**
+     * Android log lines containing one of these are hidden.
+     */
+    private static final KeywordMatcher ANDROID_LOG_BLACKLIST = new KeywordMatcher(
+            "--- beginning of ",
+            "/AbsListViewStubImpl",
+            "W/ActionBarDrawerToggle",
+            "/ActivityThread",
+            "/Adreno",
+            "/AdrenoUtils",
+            "/AiRecognition",
+            "/androidtc",
+            "/AssistStructure",
+            "/AudioCapabilities",
+            "/BLASTBufferQueue_Java",
+            "/BinderMonitor",
+            "I/chatty",
+            "/CameraExtImplXiaoMi",
+            "/CameraManagerGlobal",
+            "/Choreographer",
+            "W/chmod",
+            "/chromium",
+            "/ContentCaptureHelper",
+            "/ContentCatcher",
+            "/cr_AwContents",
+            "/cr_base",
+            "/cr_BrowserStartup",
+            "/cr_CachingUmaRecorder",
+            "/cr_ChildProcessConn",
+            "/cr_ChildProcLH",
+            "/cr_CombinedPProvider",
+            "/cr_CrashFileManager",
+            "/cr_LibraryLoader",
+            "/cr_media",
+            "/cr_MediaCodecUtil",
+            "/cr_PolicyProvider",
+            "/cr_VAUtil",
+            "/cr_WVCFactoryProvider",
+            "I/ConfigStore",
+            "/dalvikvm",
+            "/DecorView",
+            "/DpmTcmClient",
+            "/EditorStubImpl",
+            "/EGL",
+            "/EpFrameworkFactory",
+            "/eglCodecCommon",
+            "/FeatureParser",
+            "/FenceTime",
+            "E/FileUtils err",
+            "/FloatingActionMode",
+            "/ForceDarkHelperStubImpl",
+            "/FrameEvents",
+            "/FramePredict",
+            "/FrameTracker",
+            "/Gralloc",
+            "/HandWritingStubImpl",
+            "/HWUI",
+            "/IInputConnectionWrapper",
+            "/ImeTracker",
+            "/ImeBackDispatcher",
+            "/ImeFocusController",
+            "/InputEventReceiver",
+            "/InputMethodManager",
+            "/InsetsController",
+            "/InsetsSourceConsumer",
+            "/JavaheapMonitor",
+            "E/LB",
+            "W/Looper",
+            "/libEGL",
+            "/libMiGL",
+            "E/libc",
+            "W/libc",
+            "/MessageMonitor",
+            "/MIUI",
+            "/MiInputConsumer",
+            "/Miui",
+            "MiuiBoosterUtils",
+            "/NativeTurboSchedManager",
+            "W/netstat",
+            "/ngandroid.debu",
+            "/OpenGLRenderer",
+            "/PacProxySelector",
+            "/Perf",
+            "/re-initialized",
+            "/RemoteInputConnectionImpl",
+            "/RenderInspector",
+            "/RenderThread",
+            "/ResourceType",
+            "W/sh",
+            "W/Settings",
+            "/SplineOverScroller",
+            "/StrictMode",
+            "/studio.deploy",
+            "/SurfaceComposerClient",
+            "/SurfaceSyncGroup",
+            "I/System.out",
+            "W/TextView",
+            "I/Timeline",
+            "I/VRI",
+            "/VideoCapabilities",
+            "/ViewRootImpl",
+            "I/WebViewFactory",
+            "WindowOnBackDispatcher",
+            "I/X509Util",
+            "/ziparchive",
+            "/zygote",
+            "/zygote64"
+    );
+
+    private static final Pattern ANDROID_LOG_PID = Pattern.compile("\\(\\s?[0-9]+\\):");
+    private static final Pattern ANDROID_LOG_DATE = Pattern.compile("^[0-9]{2}-[0-9]{2}\\s");
+    private static final Pattern ANDROID_LOG_MILLISECONDS =
+            Pattern.compile("^([0-9]{2}:[0-9]{2}:[0-9]{2})\\.[0-9]{3}\\s");
+
     /**
      * Show Android Log by default.
      */
     private boolean mShowSyncthingLog = false;
 
-    private TextView mLog;
+    private RecyclerView mLog;
+    private LinearLayoutManager mLogLayoutManager;
+    private LogLineAdapter mLogAdapter;
+    private MappedLogReader mLogReader = null;
+    private TextView mLogStatus;
     private AsyncTask mFetchLogTask = null;
-    private ScrollView mScrollView;
     private Intent mShareIntent;
-   
-    private String androidLogContent = "";   
-    private String syncthingLogContent = "";
 
     /**
      * Initialize Log.
@@ -69,7 +197,11 @@ public class LogActivity extends SyncthingActivity {
         }
 
         mLog = findViewById(R.id.log);
-        mScrollView = findViewById(R.id.scroller);
+        mLogLayoutManager = new LinearLayoutManager(this);
+        mLog.setLayoutManager(mLogLayoutManager);
+        mLogAdapter = new LogLineAdapter(this);
+        mLog.setAdapter(mLogAdapter);
+        mLogStatus = findViewById(R.id.log_status);
 
         fetchAndViewLog();
     }
@@ -105,6 +237,12 @@ public class LogActivity extends SyncthingActivity {
             }
             fetchAndViewLog();
             return true;
+        } else if (itemId == R.id.menu_copy_visible_log_lines) {
+            copyVisibleLines();
+            return true;
+        } else if (itemId == R.id.menu_copy_log) {
+            copyLog();
+            return true;
         } else if (itemId == R.id.menu_share_log_file) {
             if (mShowSyncthingLog) {
                 File syncthingLog = Constants.getSyncthingLogFile(this);
@@ -139,22 +277,73 @@ public class LogActivity extends SyncthingActivity {
         return true;
     }
 
+    /**
+     * Copies the lines currently shown on screen, as lines of the list cannot be selected together.
+     */
+    private void copyVisibleLines() {
+        int first = mLogLayoutManager.findFirstVisibleItemPosition();
+        int last = mLogLayoutManager.findLastVisibleItemPosition();
+        if (mLogReader == null || first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            if (i > first) {
+                text.append('\n');
+            }
+            text.append(mLogReader.getLine(i));
+        }
+        copyToClipboard(text.toString(), last - first + 1);
+    }
+
+    /**
+     * Copies the end of the log, up to {@link #CLIPBOARD_MAX_CHARS}.
+     */
+    private void copyLog() {
+        if (mLogReader == null || mLogReader.getLineCount() == 0) {
+            return;
+        }
+        ArrayDeque<String> lines = new ArrayDeque<>();
+        int length = 0;
+        for (int i = mLogReader.getLineCount() - 1; i >= 0; i--) {
+            String line = mLogReader.getLine(i);
+            length += line.length() + 1;
+            if (length > CLIPBOARD_MAX_CHARS && !lines.isEmpty()) {
+                break;
+            }
+            lines.addFirst(line);
+        }
+        copyToClipboard(TextUtils.join("\n", lines), lines.size());
+    }
+
+    private void copyToClipboard(String text, int lineCount) {
+        ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+        clipboard.setPrimaryClip(ClipData.newPlainText(getTitle(), text));
+        Toast.makeText(this, getResources().getQuantityString(
+                R.plurals.log_lines_copied_to_clipboard, lineCount, lineCount),
+                Toast.LENGTH_SHORT).show();
+    }
+
     private void fetchAndViewLog() {
         if (mFetchLogTask != null) {
             mFetchLogTask.cancel(true);
         }
-        mLog.setText(R.string.retrieving_logs);
-        mFetchLogTask = new UpdateLogTask(this).execute();
+        mLogReader = null;
+        mLogAdapter.setLogReader(null);
+        mLogStatus.setVisibility(View.VISIBLE);
+        mFetchLogTask = new UpdateLogTask(this, mShowSyncthingLog).execute();
     }
 
-    private static class UpdateLogTask extends AsyncTask<Void, Void, Void> {
+    private static class UpdateLogTask extends AsyncTask<Void, Void, MappedLogReader> {
         private WeakReference<LogActivity> refLogActivity;
+        private final boolean mShowSyncthingLog;
 
-        UpdateLogTask(LogActivity context) {
+        UpdateLogTask(LogActivity context, boolean showSyncthingLog) {
             refLogActivity = new WeakReference<>(context);
+            mShowSyncthingLog = showSyncthingLog;
         }
 
-        protected Void doInBackground(Void... voids) {
+        protected MappedLogReader doInBackground(Void... voids) {
             // Get a reference to the activity if it is still there.
             LogActivity logActivity = refLogActivity.get();
             if (logActivity == null || logActivity.isFinishing()) {
@@ -162,213 +351,67 @@ public class LogActivity extends SyncthingActivity {
                 return null;
             }
 
-            // Get Android log.
-            logActivity.androidLogContent = getAndroidLog();
-            writeLogFile(Constants.getAndroidLogFile(logActivity), logActivity.androidLogContent);
+            // Get Android log, the file is also required for sharing it.
+            File androidLogFile = Constants.getAndroidLogFile(logActivity);
+            writeAndroidLog(androidLogFile);
+            if (!mShowSyncthingLog) {
+                return MappedLogReader.open(androidLogFile);
+            }
 
-            // Get SyncthingNative log.
-            logActivity.syncthingLogContent = readLogFile(Constants.getSyncthingLogFile(logActivity));
-            return null;
+            // Get SyncthingNative log including the most recently rotated segment.
+            File syncthingLogFile = Constants.getSyncthingLogFile(logActivity);
+            return MappedLogReader.open(
+                    SyncthingLogWriter.getRotatedSegment(syncthingLogFile, 1),
+                    syncthingLogFile
+            );
         }
 
-        protected void onPostExecute(Void aVoid) {
+        protected void onPostExecute(MappedLogReader logReader) {
             // Get a reference to the activity if it is still there.
             LogActivity logActivity = refLogActivity.get();
             if (logActivity == null || logActivity.isFinishing()) {
                 return;
             }
 
-            // Show one of the two logs available.
-            logActivity.mLog.setText(logActivity.mShowSyncthingLog ? logActivity.syncthingLogContent : logActivity.androidLogContent);
+            // Show the requested log, lines are decoded while scrolling.
+            logActivity.mLogStatus.setVisibility(View.GONE);
+            logActivity.mLogReader = logReader;
+            logActivity.mLogAdapter.setLogReader(logReader);
 
             // Scroll to bottom
-            logActivity.mScrollView.post(() -> logActivity.mScrollView.scrollTo(0, logActivity.mLog.getBottom()));
+            if (logReader.getLineCount() > 0) {
+                logActivity.mLog.scrollToPosition(logReader.getLineCount() - 1);
+            }
         }
 
         /**
-         * Queries logcat to obtain a log.
-         *
-         * @param syncthingLog Filter on Syncthing's native messages.
+         * Queries logcat to obtain a log and writes the lines of interest to logFile.
          */
-        private String getAndroidLog() {
+        private void writeAndroidLog(final File logFile) {
             String output = Util.runShellCommandGetOutput("/system/bin/logcat -t " + Integer.toString(ANDROID_LOG_FILE_MAX_LINES) + " -v time *:i ps:s art:s");
-
-            // Filter Android log.
-            output = output.replaceAll("I/SyncthingNativeCode", "");
-            // Remove PID.
-            output = output.replaceAll("\\(\\s?[0-9]+\\):", "");
-            String[] lines = output.split("\n");
-            List<String> list = new ArrayList<String>(Arrays.asList(lines));
-            ListIterator<String> it = list.listIterator();
-            while (it.hasNext()) {
-                String logline = it.next();
-                if (
-                            logline.contains("--- beginning of ") ||
-                            logline.contains("/AbsListViewStubImpl") ||
-                            logline.contains("W/ActionBarDrawerToggle") ||
-                            logline.contains("/ActivityThread") ||
-                            logline.contains("/Adreno") ||
-                            logline.contains("/AdrenoUtils") ||
-                            logline.contains("/AiRecognition") ||
-                            logline.contains("/androidtc") ||
-                            logline.contains("/AssistStructure") ||
-                            logline.contains("/AudioCapabilities") ||
-                            logline.contains("/BLASTBufferQueue_Java") ||
-                            logline.contains("/BinderMonitor") ||
-                            logline.contains("I/chatty") ||
-                            logline.contains("/CameraExtImplXiaoMi") ||
-                            logline.contains("/CameraManagerGlobal") ||
-                            logline.contains("/Choreographer") ||
-                            logline.contains("W/chmod") ||
-                            logline.contains("/chromium") ||
-                            logline.contains("/ContentCaptureHelper") ||
-                            logline.contains("/ContentCatcher") ||
-                            logline.contains("/cr_AwContents") ||
-                            logline.contains("/cr_base") ||
-                            logline.contains("/cr_BrowserStartup") ||
-                            logline.contains("/cr_CachingUmaRecorder") ||
-                            logline.contains("/cr_ChildProcessConn") ||
-                            logline.contains("/cr_ChildProcLH") ||
-                            logline.contains("/cr_CombinedPProvider") ||
-                            logline.contains("/cr_CrashFileManager") ||
-                            logline.contains("/cr_LibraryLoader") ||
-                            logline.contains("/cr_media") ||
-                            logline.contains("/cr_MediaCodecUtil") ||
-                            logline.contains("/cr_PolicyProvider") ||
-                            logline.contains("/cr_VAUtil") ||
-                            logline.contains("/cr_WVCFactoryProvider") ||
-                            logline.contains("I/ConfigStore") ||
-                            logline.contains("/dalvikvm") ||
-                            logline.contains("/DecorView") ||
-                            logline.contains("/DpmTcmClient") ||
-                            logline.contains("/EditorStubImpl") ||
-                            logline.contains("/EGL") ||
-                            logline.contains("/EpFrameworkFactory") ||
-                            logline.contains("/eglCodecCommon") ||
-                            logline.contains("/FeatureParser") ||
-                            logline.contains("/FenceTime") ||
-                            logline.contains("E/FileUtils err") ||
-                            logline.contains("/FloatingActionMode") ||
-                            logline.contains("/ForceDarkHelperStubImpl") ||
-                            logline.contains("/FrameEvents") ||
-                            logline.contains("/FramePredict") ||
-                            logline.contains("/FrameTracker") ||
-                            logline.contains("/Gralloc") ||
-                            logline.contains("/HandWritingStubImpl") ||
-                            logline.contains("/HWUI") ||
-                            logline.contains("/IInputConnectionWrapper") ||
-                            logline.contains("/ImeTracker") ||
-                            logline.contains("/ImeBackDispatcher") ||
-                            logline.contains("/ImeFocusController") ||
-                            logline.contains("/InputEventReceiver") ||
-                            logline.contains("/InputMethodManager") ||
-                            logline.contains("/InsetsController") ||
-                            logline.contains("/InsetsSourceConsumer") ||
-                            logline.contains("/JavaheapMonitor") ||
-                            logline.contains("E/LB") ||
-                            logline.contains("W/Looper") ||
-                            logline.contains("/libEGL") ||
-                            logline.contains("/libMiGL") ||
-                            logline.contains("E/libc") ||
-                            logline.contains("W/libc") ||
-                            logline.contains("/MessageMonitor") ||
-                            logline.contains("/MIUI") ||
-                            logline.contains("/MiInputConsumer") ||
-                            logline.contains("/Miui") ||
-                            logline.contains("MiuiBoosterUtils") ||
-                            logline.contains("/NativeTurboSchedManager") ||
-                            logline.contains("W/netstat") ||
-                            logline.contains("/ngandroid.debu") ||
-                            logline.contains("/OpenGLRenderer") ||
-                            logline.contains("/PacProxySelector") ||
-                            logline.contains("/Perf") ||
-                            logline.contains("/re-initialized") ||
-                            logline.contains("/RemoteInputConnectionImpl") ||
-                            logline.contains("/RenderInspector") ||
-                            logline.contains("/RenderThread") ||
-                            logline.contains("/ResourceType") ||
-                            logline.contains("W/sh") ||
-                            logline.contains("W/Settings") ||
-                            logline.contains("/SplineOverScroller") ||
-                            logline.contains("/StrictMode") ||
-                            logline.contains("/studio.deploy") ||
-                            logline.contains("/SurfaceComposerClient") ||
-                            logline.contains("/SurfaceSyncGroup") ||
-                            logline.contains("I/System.out") ||
-                            logline.contains("W/TextView") ||
-                            logline.contains("I/Timeline") ||
-                            logline.contains("I/VRI") ||
-                            logline.contains("/VideoCapabilities") ||
-                            logline.contains("/ViewRootImpl") ||
-                            logline.contains("I/WebViewFactory") ||
-                            logline.contains("WindowOnBackDispatcher") ||
-                            logline.contains("I/X509Util") ||
-                            logline.contains("/ziparchive") ||
-                            logline.contains("/zygote") ||
-                            logline.contains("/zygote64")
-                        ) {
-                    it.remove();
-                    continue;
-                }
-                // Remove date.
-                logline = logline.replaceFirst("^[0-9]{2}-[0-9]{2}\\s", "");
-                // Remove milliseconds.
-                logline = logline.replaceFirst("^([0-9]{2}:[0-9]{2}:[0-9]{2})\\.[0-9]{3}\\s", "$1");
-                it.set(logline);
-            }
-            return TextUtils.join("\n", list.toArray(new String[0]));
-        }
-    }
-
-    /**
-     * Read or write log file.
-     */
-    private static String readLogFile(final File file) {
-        String content = "";
-        FileInputStream fileInputStream = null;
-        try {
-            if (file.exists()) {
-                fileInputStream = new FileInputStream(file);
-                InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, StandardCharsets.UTF_8);
-                byte[] data = new byte[(int) file.length()];
-                fileInputStream.read(data);
-                content = new String(data, StandardCharsets.UTF_8);
-            } else {
-                // File not found.
-                Log.e(TAG, "readLogFile: File missing '" + file.toString() + "'");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "readLogFile: Failed to read '" + file.toString() + "' #1", e);
-        } finally {
-            try {
-                if (fileInputStream != null) {
-                    fileInputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "readLogFile: Failed to read '" + file.toString() + "' #2", e);
-            }
-        }
-        return content;
-    }
-
-    private static void writeLogFile(final File file, String logContent) {
-        FileOutputStream fileOutputStream = null;
-        try {
-            if (!file.exists()) {
-                file.createNewFile();
-            }
-            fileOutputStream = new FileOutputStream(file);
-            fileOutputStream.write(logContent.getBytes(StandardCharsets.UTF_8));
-            fileOutputStream.flush();
-        } catch (IOException e) {
-            Log.w(TAG, "writeLogFile: Failed to write '" + file.toString() + "' #1", e);
-        } finally {
-            try {
-                if (fileOutputStream != null) {
-                    fileOutputStream.close();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(logFile), StandardCharsets.UTF_8))) {
+                boolean firstLine = true;
+                for (String logline : output.split("\n")) {
+                    // Filter Android log.
+                    logline = logline.replace("I/SyncthingNativeCode", "");
+                    // Remove PID.
+                    logline = ANDROID_LOG_PID.matcher(logline).replaceAll("");
+                    if (ANDROID_LOG_BLACKLIST.containsAny(logline)) {
+                        continue;
+                    }
+                    // Remove date.
+                    logline = ANDROID_LOG_DATE.matcher(logline).replaceFirst("");
+                    // Remove milliseconds.
+                    logline = ANDROID_LOG_MILLISECONDS.matcher(logline).replaceFirst("$1");
+                    if (!firstLine) {
+                        writer.write('\n');
+                    }
+                    writer.write(logline);
+                    firstLine = false;
                 }
             } catch (IOException e) {
-                Log.e(TAG, "writeLogFile: Failed to write '" + file.toString() + "' #2", e);
+                Log.w(TAG, "writeAndroidLog: Failed to write '" + logFile.toString() + "'", e);
             }
         }
     }
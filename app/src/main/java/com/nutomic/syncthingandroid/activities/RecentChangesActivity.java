@@ -1,10 +1,10 @@
 package com.nutomic.syncthingandroid.activities;
 
-import android.annotation.SuppressLint;
 import android.content.ComponentName;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.IBinder;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import android.text.TextUtils;
@@ -14,8 +14,6 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
@@ -23,20 +21,23 @@ import com.nutomic.syncthingandroid.model.Device;
 import com.nutomic.syncthingandroid.model.DiskEvent;
 import com.nutomic.syncthingandroid.model.Folder;
 import com.nutomic.syncthingandroid.service.AppPrefs;
+import com.nutomic.syncthingandroid.service.Constants;
 import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.service.SyncthingServiceBinder;
+import com.nutomic.syncthingandroid.util.DiskEventFeed;
+import com.nutomic.syncthingandroid.util.DiskEventReducer;
 import com.nutomic.syncthingandroid.util.FileUtils;
 import com.nutomic.syncthingandroid.views.ChangeListAdapter;
 import com.nutomic.syncthingandroid.views.ChangeListAdapter.ItemClickListener;
 
 import java.io.File;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -61,6 +62,20 @@ public class RecentChangesActivity extends SyncthingActivity
     private RecyclerView.LayoutManager mLayoutManager;
     private SyncthingService.State mServiceState = SyncthingService.State.INIT;
 
+    /**
+     * Stores and filters received disk events off the main thread.
+     * mDiskEventFeed, mDiskEventReducer and mDisplayedEvents must only be accessed from this executor.
+     */
+    private final ExecutorService mDiskEventExecutor = Executors.newSingleThreadExecutor();
+    private DiskEventFeed mDiskEventFeed;
+    private DiskEventReducer mDiskEventReducer;
+    private List<DiskEvent> mDisplayedEvents = new ArrayList<>();
+
+    /**
+     * Id of the newest event in mDiskEventFeed, the next query continues after it.
+     */
+    private volatile long mLastDiskEventId = 0;
+
     @Inject SharedPreferences mPreferences;
 
     @Override
@@ -68,6 +83,9 @@ public class RecentChangesActivity extends SyncthingActivity
         super.onCreate(savedInstanceState);
         ((SyncthingApp) getApplication()).component().inject(this);
         ENABLE_VERBOSE_LOG = AppPrefs.getPrefVerboseLog(mPreferences);
+        mDiskEventFeed = new DiskEventFeed(Constants.getDiskEventFeedFile(this),
+                DISK_EVENT_LIMIT, ENABLE_VERBOSE_LOG);
+        mDiskEventReducer = new DiskEventReducer(ENABLE_VERBOSE_LOG);
         setContentView(R.layout.activity_recent_changes);
         mRecyclerView = findViewById(R.id.changes_recycler_view);
         mRecyclerView.setHasFixedSize(true);
@@ -117,6 +135,13 @@ public class RecentChangesActivity extends SyncthingActivity
             }
         );
         mRecyclerView.setAdapter(mRecentChangeAdapter);
+
+        // Show the changes known from the last visit until the service is ready.
+        mDiskEventExecutor.execute(() -> {
+            mDiskEventFeed.load();
+            mLastDiskEventId = mDiskEventFeed.getLastId();
+            publishDiskEvents();
+        });
     }
 
     @Override
@@ -157,6 +182,7 @@ public class RecentChangesActivity extends SyncthingActivity
         if (syncthingService != null) {
             syncthingService.unregisterOnServiceStateChangeListener(this);
         }
+        mDiskEventExecutor.shutdown();
         super.onDestroy();
     }
 
@@ -179,50 +205,105 @@ public class RecentChangesActivity extends SyncthingActivity
         }
         mDevices = restApi.getDevices(true);
         mLocalDeviceId = restApi.getLocalDevice().deviceID;
-        LogV("Querying disk events");
-        restApi.getDiskEvents(DISK_EVENT_LIMIT, this::onReceiveDiskEvents);
         if (ENABLE_TEST_DATA) {
-            onReceiveDiskEvents(new ArrayList());
+            List<DiskEvent> diskEvents = new ArrayList<>();
+            getTestData(diskEvents);
+            onReceiveDiskEvents("test", 0, diskEvents);
+            return;
         }
+        restApi.getSystemStatus(systemStatus -> {
+            // Event ids start over whenever SyncthingNative restarts.
+            final String session = systemStatus.myID + "@" + systemStatus.startTime;
+            final long sinceId = mLastDiskEventId;
+            LogV("Querying disk events since id " + sinceId);
+            restApi.getDiskEvents(sinceId, DISK_EVENT_LIMIT,
+                    diskEvents -> onReceiveDiskEvents(session, sinceId, diskEvents));
+        });
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    private void onReceiveDiskEvents(List<DiskEvent> diskEvents) {
+    private void onReceiveDiskEvents(final String session, final long sinceId,
+                                        final List<DiskEvent> diskEvents) {
         LogV("onReceiveDiskEvents");
-        if (isFinishing()) {
+        if (isFinishing() || mDiskEventExecutor.isShutdown()) {
             return;
         }
 
-        if (ENABLE_TEST_DATA) {
-            getTestData(diskEvents);
-        }
+        final List<Device> devices = mDevices;
+        final String localDeviceId = mLocalDeviceId;
+        final String thisDeviceName = getString(R.string.this_device);
+        mDiskEventExecutor.execute(() -> {
+            boolean changed = false;
+            if (mDiskEventFeed.setSession(session)) {
+                mDiskEventReducer.reset();
+                mLastDiskEventId = 0;
+                changed = true;
+                if (sinceId > 0) {
+                    // The events were requested after an id of the previous session.
+                    // Drop the previous session's events now, the fresh session may have none yet.
+                    mDiskEventFeed.save();
+                    publishDiskEvents();
+                    runOnUiThread(this::onTimerEvent);
+                    return;
+                }
+            }
 
-        // Hide disk events that are useless to display.
-        removeUselessDiskEvents(diskEvents);
+            // Events are stored with readable device names.
+            for (DiskEvent diskEvent : diskEvents) {
+                if (diskEvent.id > mDiskEventFeed.getLastId() && diskEvent.data != null) {
+                    setModifiedByDisplayName(diskEvent, devices, localDeviceId, thisDeviceName);
+                }
+            }
+            changed |= mDiskEventFeed.append(diskEvents);
+            if (!changed) {
+                return;
+            }
+            mLastDiskEventId = mDiskEventFeed.getLastId();
+            mDiskEventFeed.save();
+            publishDiskEvents();
+        });
+    }
 
-        // Show text if the list is empty.
-        findViewById(R.id.no_recent_changes).setVisibility(diskEvents.size() > 0 ? View.GONE : View.VISIBLE);
+    /**
+     * Hides disk events that are useless to display and passes the changes to the adapter.
+     * Runs on mDiskEventExecutor.
+     */
+    private void publishDiskEvents() {
+        final List<DiskEvent> displayedEvents = mDiskEventReducer.update(mDiskEventFeed.getEvents());
+        final DiffUtil.DiffResult diffResult =
+                ChangeListAdapter.calculateDiff(mDisplayedEvents, displayedEvents);
+        mDisplayedEvents = displayedEvents;
+        runOnUiThread(() -> showDiskEvents(displayedEvents, diffResult));
+    }
 
-        mRecentChangeAdapter.clear();
-        for (DiskEvent diskEvent : diskEvents) {
-            if (diskEvent.data != null) {
-                // Replace "modifiedBy" partial device ID by readable device name.
-                if (!TextUtils.isEmpty(diskEvent.data.modifiedBy)) {
-                    for (Device device : mDevices) {
-                        if (diskEvent.data.modifiedBy.equals(device.deviceID.substring(0, diskEvent.data.modifiedBy.length()))) {
-                            if (device.deviceID.equals(mLocalDeviceId)) {
-                                diskEvent.data.modifiedBy = getString(R.string.this_device);
-                            } else {
-                                diskEvent.data.modifiedBy = device.getDisplayName();
-                            }
-                            break;
-                        }
-                    }
+    /**
+     * Replaces "modifiedBy" partial device ID by readable device name.
+     */
+    private static void setModifiedByDisplayName(DiskEvent diskEvent, List<Device> devices,
+                                                    String localDeviceId, String thisDeviceName) {
+        if (TextUtils.isEmpty(diskEvent.data.modifiedBy)) {
+            return;
+        }
+        for (Device device : devices) {
+            if (diskEvent.data.modifiedBy.equals(device.deviceID.substring(0, diskEvent.data.modifiedBy.length()))) {
+                if (device.deviceID.equals(localDeviceId)) {
+                    diskEvent.data.modifiedBy = thisDeviceName;
+                } else {
+                    diskEvent.data.modifiedBy = device.getDisplayName();
                 }
-                mRecentChangeAdapter.add(diskEvent);
+                return;
             }
         }
-        mRecentChangeAdapter.notifyDataSetChanged();
+    }
+
+    private void showDiskEvents(List<DiskEvent> diskEvents, DiffUtil.DiffResult diffResult) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+
+        // Show text if the list is empty.
+        findViewById(R.id.no_recent_changes).setVisibility(diskEvents.size() > 0 ? View.GONE : View.VISIBLE);
+
+        mRecentChangeAdapter.setChanges(diskEvents, diffResult);
     }
 
     private void getTestData(List<DiskEvent> diskEvents) {
@@ -235,9 +316,9 @@ public class RecentChangesActivity extends SyncthingActivity
         */
 
         /**
-         * Items on UI without "removeUselessDiskEvents"
+         * Items on UI without "DiskEventReducer"
          *  10
-         * Items on UI after "removeUselessDiskEvents"
+         * Items on UI after "DiskEventReducer"
          *  6
          */
         int id = 11;
@@ -265,14 +346,14 @@ public class RecentChangesActivity extends SyncthingActivity
         fakeDiskEvent.time = "2020-04-13T15:01:00.6183215+01:00";
         addFakeDiskEvent(diskEvents, fakeDiskEvent);
 
-        // + "document2.txt" - to be removed by Pass 2
+        // + "document2.txt" - to be removed, deleted afterwards
         fakeDiskEvent.id = --id;
         fakeDiskEvent.data.action = "added";
         fakeDiskEvent.data.path = "document2.txt";
         fakeDiskEvent.time = "2020-04-13T15:00:00.6183215+01:00";
         addFakeDiskEvent(diskEvents, fakeDiskEvent);
 
-        // - "Camera - Copy/IMG_20200413_130936.jpg" - to be removed by Pass 3
+        // - "Camera - Copy/IMG_20200413_130936.jpg" - to be removed, folder deleted afterwards
         fakeDiskEvent.id = --id;
         fakeDiskEvent.data.action = "deleted";
         fakeDiskEvent.data.path = "Camera - Copy/IMG_20200413_130936.jpg";
@@ -286,14 +367,14 @@ public class RecentChangesActivity extends SyncthingActivity
         fakeDiskEvent.time = "2018-10-29T17:08:00.6183215+01:00";
         addFakeDiskEvent(diskEvents, fakeDiskEvent);
 
-        // - "Camera - Copy/IMG_20200413_132532.jpg" - to be removed by Pass 3
+        // - "Camera - Copy/IMG_20200413_132532.jpg" - to be removed, folder deleted afterwards
         fakeDiskEvent.id = --id;
         fakeDiskEvent.data.action = "deleted";
         fakeDiskEvent.data.path = "Camera - Copy/IMG_20200413_132532.jpg";
         fakeDiskEvent.time = "2018-10-29T15:18:50.6183215+01:00";
         addFakeDiskEvent(diskEvents, fakeDiskEvent);
 
-        // - "Camera - Copy/IMG_20200413_132049.jpg" - to be removed by Pass 3
+        // - "Camera - Copy/IMG_20200413_132049.jpg" - to be removed, folder deleted afterwards
         fakeDiskEvent.id = --id;
         fakeDiskEvent.data.action = "deleted";
         fakeDiskEvent.data.path = "Camera - Copy/IMG_20200413_132049.jpg";
@@ -314,77 +395,7 @@ public class RecentChangesActivity extends SyncthingActivity
 
     private void addFakeDiskEvent(List<DiskEvent> diskEvents,
                                         final DiskEvent fakeDiskEvent) {
-        diskEvents.add(deepCopy(fakeDiskEvent, new TypeToken<DiskEvent>(){}.getType()));
-    }
-
-    private void removeUselessDiskEvents(List<DiskEvent> diskEvents) {
-        /**
-         * Pass 1
-         * Remove invalid disk events
-         */
-        for (Iterator<DiskEvent> it = diskEvents.iterator(); it.hasNext();) {
-            DiskEvent diskEvent = it.next();
-            if (diskEvent.data == null) {
-                Log.d(TAG, "removeUselessDiskEvents: Pass 1: Clearing event with data == null");
-                it.remove();
-            }
-        }
-
-        /**
-         * Pass 2
-         * Check if a file has been created and deleted afterwards.
-         * We can remove the creation event for the non-existent file.
-         */
-        for (Iterator<DiskEvent> it = diskEvents.iterator(); it.hasNext();) {
-            DiskEvent diskEvent = it.next();
-            for (Iterator<DiskEvent> it2 = diskEvents.iterator(); it2.hasNext();) {
-                DiskEvent diskEvent2 = it2.next();
-                if (diskEvent2.id > diskEvent.id) {
-                    // diskEvent2 occured after diskEvent.
-                    // LogV("removeUselessDiskEvents: Pass 2: curId=" + diskEvent.id + ", foundId=" + diskEvent2.id);
-                    if (diskEvent2.data.path.equals(diskEvent.data.path) &&
-                            diskEvent.data.action.equals("added") &&
-                            diskEvent2.data.action.equals("deleted")) {
-                        LogV("removeUselessDiskEvents: Pass 2: Removing \"added\" event because file was deleted afterwards, path=[" + diskEvent.data.path + "]");
-                        it.remove();
-                        break;
-                    }
-                }
-            }
-        }
-
-        /**
-         * Pass 3
-         * Check if a folder has been removed.
-         * We can remove prior events corresponding to the folder.
-         */
-        for (Iterator<DiskEvent> it = diskEvents.iterator(); it.hasNext();) {
-            DiskEvent diskEvent = it.next();
-            for (Iterator<DiskEvent> it2 = diskEvents.iterator(); it2.hasNext();) {
-                DiskEvent diskEvent2 = it2.next();
-                if (diskEvent2.id > diskEvent.id) {
-                    // diskEvent2 occured after diskEvent.
-                    // LogV("removeUselessDiskEvents: Pass 3: curId=" + diskEvent.id + ", foundId=" + diskEvent2.id);
-                    if (diskEvent2.data.type.equals("dir") &&
-                            diskEvent2.data.action.equals("deleted") &&
-                            diskEvent.data.path.startsWith(diskEvent2.data.path + "/")) {
-                        LogV("removeUselessDiskEvents: Pass 3: Removing event because folder was deleted afterwards, path=[" + diskEvent.data.path + "]");
-                        it.remove();
-                        break;
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Returns a deep copy of object.
-     *
-     * This method uses Gson and only works with objects that can be converted with Gson.
-     */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
+        diskEvents.add(fakeDiskEvent.copy());
     }
 
     private void LogV(String logMessage) {
@@ -2,12 +2,12 @@ package com.nutomic.syncthingandroid.activities;
 
 import android.app.ProgressDialog;
 import android.content.ComponentName;
+import android.content.DialogInterface;
 import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.provider.MediaStore;
@@ -25,7 +25,6 @@ import android.widget.Toast;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import com.google.common.io.Files;
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.model.Folder;
@@ -35,12 +34,10 @@ import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.service.SyncthingServiceBinder;
 import com.nutomic.syncthingandroid.util.ConfigRouter;
 import com.nutomic.syncthingandroid.util.ConfigXml.OpenConfigException;
+import com.nutomic.syncthingandroid.util.FileCopyEngine;
 import com.nutomic.syncthingandroid.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.text.DateFormat;
 import java.util.ArrayList;
@@ -210,8 +207,11 @@ public class ShareActivity extends SyncthingActivity
             }
             File directory = new File(folder.path, getSavedSubDirectory());
             boolean allowOverwrite = mPreferences.getBoolean(Constants.PREF_ALLOW_OVERWRITE_FILES, false);
-            CopyFilesTask mCopyFilesTask = new CopyFilesTask(this, files, folder, directory, allowOverwrite);
-            mCopyFilesTask.execute();
+            CopyFilesListener copyFilesListener = new CopyFilesListener(this, folder);
+            FileCopyEngine copyEngine = new FileCopyEngine(getContentResolver(), files,
+                    directory, allowOverwrite, copyFilesListener);
+            copyFilesListener.showProgress(copyEngine);
+            copyEngine.start();
         });
 
         mFoldersSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
@@ -380,72 +380,53 @@ public class ShareActivity extends SyncthingActivity
         return savedSubDirectory;
     }
 
-    private static class CopyFilesTask extends AsyncTask<Void, Void, Boolean> {
+    private static class CopyFilesListener implements FileCopyEngine.Listener {
         private WeakReference<ShareActivity> refShareActivity;
         private ProgressDialog mProgress;
-        private final Map<Uri, String> mFiles;
         private final Folder mFolder;
-        private final File mDirectory;
-        private final boolean mAllowOverwrite;
-        private int mCopied = 0, mIgnored = 0;
 
-        CopyFilesTask(ShareActivity context, Map<Uri, String> files, Folder folder, File directory, boolean allowOverwrite) {
+        CopyFilesListener(ShareActivity context, Folder folder) {
             refShareActivity = new WeakReference<>(context);
-            this.mFiles = files;
             this.mFolder = folder;
-            this.mDirectory = directory;
-            this.mAllowOverwrite = allowOverwrite;
         }
 
-        protected void onPreExecute() {
+        void showProgress(FileCopyEngine copyEngine) {
             // Get a reference to the activity if it is still there.
             ShareActivity shareActivity = refShareActivity.get();
-            // shareActivity cannot be null before the task executes.
-            mProgress = ProgressDialog.show(shareActivity, null,
-                    shareActivity.getString(R.string.copy_progress), true);
+            // shareActivity cannot be null before the copy starts.
+            mProgress = new ProgressDialog(shareActivity);
+            mProgress.setMessage(shareActivity.getString(R.string.copy_progress));
+            mProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgress.setIndeterminate(true);
+            mProgress.setProgressNumberFormat(null);
+            mProgress.setCancelable(false);
+            mProgress.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    shareActivity.getString(android.R.string.cancel),
+                    (dialog, which) -> copyEngine.cancel());
+            mProgress.show();
         }
 
-        protected Boolean doInBackground(Void... params) {
+        @Override
+        public void onProgress(long copiedBytes, long totalBytes) {
             // Get a reference to the activity if it is still there.
             ShareActivity shareActivity = refShareActivity.get();
-            if (shareActivity == null || shareActivity.isFinishing()) {
-                cancel(true);
-                return true;
+            if (shareActivity == null || shareActivity.isFinishing() || !mProgress.isShowing()) {
+                return;
             }
-
-            boolean isError = false;
-            for (Map.Entry<Uri, String> entry : mFiles.entrySet()) {
-                InputStream inputStream = null;
-                try {
-                    File outFile = new File(mDirectory, entry.getValue());
-                    if (outFile.isFile() && !mAllowOverwrite) {
-                        mIgnored++;
-                        continue;
-                    }
-                    inputStream = shareActivity.getContentResolver().openInputStream(entry.getKey());
-                    Files.asByteSink(outFile).writeFrom(inputStream);
-                    mCopied++;
-                } catch (FileNotFoundException e) {
-                    Log.e(TAG, String.format("Can't find input file \"%s\" to copy",
-                            entry.getKey()), e);
-                    isError = true;
-                } catch (IOException e) {
-                    Log.e(TAG, String.format("IO exception during file \"%s\" sharing",
-                            entry.getKey()), e);
-                    isError = true;
-                } finally {
-                    try {
-                        if (inputStream != null)
-                            inputStream.close();
-                    } catch (IOException e) {
-                        Log.w(TAG, "Exception on input/output stream close", e);
-                    }
-                }
+            String copied = Util.readableFileSize(shareActivity, copiedBytes);
+            if (totalBytes <= 0) {
+                mProgress.setProgressNumberFormat(copied);
+                return;
             }
-            return isError;
+            mProgress.setIndeterminate(false);
+            mProgress.setMax(100);
+            mProgress.setProgress((int) (copiedBytes * 100 / totalBytes));
+            mProgress.setProgressNumberFormat(copied + " / " +
+                    Util.readableFileSize(shareActivity, totalBytes));
         }
 
-        protected void onPostExecute(Boolean isError) {
+        @Override
+        public void onFinished(FileCopyEngine.Result result) {
             // Get a reference to the activity if it is still there.
             ShareActivity shareActivity = refShareActivity.get();
             if (shareActivity == null || shareActivity.isFinishing()) {
@@ -453,17 +434,28 @@ public class ShareActivity extends SyncthingActivity
             }
             Util.dismissDialogSafe(mProgress, shareActivity);
 
-            if (isError) {
+            if (result.isCancelled) {
+                // Files renamed into place before cancelling are kept.
+                if (result.copied > 0) {
+                    Toast.makeText(shareActivity, shareActivity.getResources().getQuantityString(
+                            R.plurals.copy_cancelled, result.copied, result.copied, mFolder.label),
+                            Toast.LENGTH_LONG).show();
+                }
+                // Let the user pick another folder or cancel sharing.
+                return;
+            }
+
+            if (result.isError) {
                 Toast.makeText(shareActivity, shareActivity.getString(R.string.copy_exception),
                         Toast.LENGTH_SHORT).show();
                 shareActivity.finish();
                 return;
             }
 
-            Toast.makeText(shareActivity, mIgnored > 0 ?
-                            shareActivity.getResources().getQuantityString(R.plurals.copy_success_partially, mCopied,
-                                    mCopied, mFolder.label, mIgnored) :
-                            shareActivity.getResources().getQuantityString(R.plurals.copy_success, mCopied, mCopied,
+            Toast.makeText(shareActivity, result.ignored > 0 ?
+                            shareActivity.getResources().getQuantityString(R.plurals.copy_success_partially, result.copied,
+                                    result.copied, mFolder.label, result.ignored) :
+                            shareActivity.getResources().getQuantityString(R.plurals.copy_success, result.copied, result.copied,
                                     mFolder.label),
                     Toast.LENGTH_LONG).show();
 
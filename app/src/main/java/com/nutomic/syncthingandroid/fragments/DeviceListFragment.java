@@ -3,16 +3,21 @@ package com.nutomic.syncthingandroid.fragments;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.Handler;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.fragment.app.ListFragment;
+import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
@@ -37,8 +42,8 @@ import javax.inject.Inject;
 /**
  * Displays a list of all existing devices.
  */
-public class DeviceListFragment extends ListFragment implements SyncthingService.OnServiceStateChangeListener,
-        ListView.OnItemClickListener {
+public class DeviceListFragment extends Fragment implements SyncthingService.OnServiceStateChangeListener,
+        DevicesAdapter.ItemClickListener {
 
     private final static String TAG = "DeviceListFragment";
 
@@ -57,17 +62,22 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
         return lhsName.compareTo(rhsName);
     };
 
-    private Runnable mUpdateListRunnable = new Runnable() {
-        @Override
-        public void run() {
-            onTimerEvent();
-            mUpdateListHandler.postDelayed(this, Constants.REST_UPDATE_INTERVAL);
-        }
-    };
-
-    private final Handler mUpdateListHandler = new Handler();
     private Boolean mLastVisibleToUser = false;
+
+    /**
+     * True while the user looks at the tab and the list should be kept up to date.
+     */
+    private Boolean mListUpdatesWanted = false;
+
+    /**
+     * RestApi instance we are subscribed to for device status updates, or null.
+     */
+    private RestApi mSubscribedRestApi = null;
+
     private DevicesAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private ProgressBar mProgress;
+    private TextView mEmptyView;
     private SyncthingService.State mServiceState = SyncthingService.State.INIT;
 
     @Override
@@ -82,18 +92,18 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
     {
         super.setUserVisibleHint(isVisibleToUser);
         if (isVisibleToUser) {
-            // User switched to the current tab, start handler.
-            startUpdateListHandler();
+            // User switched to the current tab, start updates.
+            startListUpdates();
         } else {
-            // User switched away to another tab, stop handler.
-            stopUpdateListHandler();
+            // User switched away to another tab, stop updates.
+            stopListUpdates();
         }
         mLastVisibleToUser = isVisibleToUser;
     }
 
     @Override
     public void onPause() {
-        stopUpdateListHandler();
+        stopListUpdates();
         super.onPause();
     }
 
@@ -101,24 +111,61 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
     public void onResume() {
         super.onResume();
         if (mLastVisibleToUser) {
-            startUpdateListHandler();
+            startListUpdates();
         }
     }
 
-    private void startUpdateListHandler() {
-        LogV("startUpdateListHandler");
-        mUpdateListHandler.removeCallbacks(mUpdateListRunnable);
-        mUpdateListHandler.post(mUpdateListRunnable);
+    private void startListUpdates() {
+        LogV("startListUpdates");
+        mListUpdatesWanted = true;
+        updateSubscription();
+        updateList();
     }
 
-    private void stopUpdateListHandler() {
-        LogV("stopUpdateListHandler");
-        mUpdateListHandler.removeCallbacks(mUpdateListRunnable);
+    private void stopListUpdates() {
+        LogV("stopListUpdates");
+        mListUpdatesWanted = false;
+        updateSubscription();
+    }
+
+    /**
+     * Subscribes to device status updates of the current RestApi while the list is shown.
+     * The RestApi shares its queries with other screens showing the same information.
+     */
+    private void updateSubscription() {
+        RestApi restApi = null;
+        MainActivity mainActivity = (MainActivity) getActivity();
+        if (mListUpdatesWanted &&
+                mServiceState == SyncthingService.State.ACTIVE &&
+                mainActivity != null &&
+                !mainActivity.isFinishing()) {
+            restApi = mainActivity.getApi();
+        }
+        if (restApi == mSubscribedRestApi) {
+            return;
+        }
+        if (mSubscribedRestApi != null) {
+            mSubscribedRestApi.unsubscribe(this);
+        }
+        mSubscribedRestApi = restApi;
+        if (restApi != null) {
+            restApi.subscribeDeviceStatus(this, Constants.REST_UPDATE_INTERVAL, connections -> updateList());
+        }
     }
 
     @Override
     public void onServiceStateChange(SyncthingService.State currentState) {
         mServiceState = currentState;
+        updateSubscription();
+        if (mListUpdatesWanted) {
+            updateList();
+        }
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.fragment_list, container, false);
     }
 
     @Override
@@ -126,30 +173,22 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
         super.onViewCreated(view, savedInstanceState);
 
         setHasOptionsMenu(true);
-        setEmptyText(getString(R.string.no_devices_configured));
-        getListView().setOnItemClickListener(this);
-    }
-
-    /**
-     * Invokes updateList which polls the REST API for device status updates
-     *  while the user is looking at the current tab.
-     */
-    private void onTimerEvent() {
-        MainActivity mainActivity = (MainActivity) getActivity();
-        if (mainActivity == null) {
-            return;
-        }
-        if (mainActivity.isFinishing()) {
-            return;
+        mProgress = view.findViewById(R.id.progress);
+        mEmptyView = view.findViewById(R.id.empty);
+        mEmptyView.setText(R.string.no_devices_configured);
+        if (mAdapter == null) {
+            mAdapter = new DevicesAdapter(getActivity());
+            mAdapter.setOnClickListener(this);
         }
-        LogV("Invoking updateList on UI thread");
-        mainActivity.runOnUiThread(DeviceListFragment.this::updateList);
+        mRecyclerView = view.findViewById(R.id.list);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // Rows are updated in place while syncing, fading them would flicker.
+        ((SimpleItemAnimator) mRecyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
+        mRecyclerView.setAdapter(mAdapter);
     }
 
     /**
-     * Refreshes ListView by updating devices and info.
-     *
-     * Also creates adapter if it doesn't exist yet.
+     * Refreshes RecyclerView by updating devices and info.
      */
     private void updateList() {
         SyncthingActivity activity = (SyncthingActivity) getActivity();
@@ -170,36 +209,19 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
         if (devices == null) {
             return;
         }
-        if (mServiceState == SyncthingService.State.ACTIVE &&
-                restApi != null &&
-                restApi.isConfigLoaded()) {
-            /**
-             * Syncthing is running and REST API is available.
-             * Force a cache-miss to query status of all devices asynchronously.
-            */
-            restApi.getRemoteDeviceStatus("");
-        }
-
-        if (mAdapter == null) {
-            mAdapter = new DevicesAdapter(activity);
-            setListAdapter(mAdapter);
-        }
-        mAdapter.setRestApi(mConfigRouter, restApi);
 
-        // Prevent scroll position reset due to list update from clear().
-        mAdapter.setNotifyOnChange(false);
-        mAdapter.clear();
         Collections.sort(devices, DEVICES_COMPARATOR);
-        mAdapter.addAll(devices);
-        mAdapter.notifyDataSetChanged();
-        setListShown(true);
+        mAdapter.setDevices(devices, mConfigRouter, restApi);
+        mProgress.setVisibility(View.GONE);
+        mEmptyView.setVisibility(devices.isEmpty() ? View.VISIBLE : View.GONE);
+        mRecyclerView.setVisibility(devices.isEmpty() ? View.GONE : View.VISIBLE);
     }
 
     @Override
-    public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+    public void onItemClick(Device device) {
         Intent intent = new Intent(getActivity(), DeviceActivity.class);
         intent.putExtra(DeviceActivity.EXTRA_IS_CREATE, false);
-        intent.putExtra(DeviceActivity.EXTRA_DEVICE_ID, mAdapter.getItem(i).deviceID);
+        intent.putExtra(DeviceActivity.EXTRA_DEVICE_ID, device.deviceID);
         startActivity(intent);
     }
 
@@ -4,14 +4,21 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.fragment.app.ListFragment;
+import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
@@ -34,8 +41,8 @@ import javax.inject.Inject;
 /**
  * Displays a list of all existing folders.
  */
-public class FolderListFragment extends ListFragment implements SyncthingService.OnServiceStateChangeListener,
-        AdapterView.OnItemClickListener {
+public class FolderListFragment extends Fragment implements SyncthingService.OnServiceStateChangeListener,
+        FoldersAdapter.ItemClickListener {
 
     private static final String TAG = "FolderListFragment";
 
@@ -57,6 +64,9 @@ public class FolderListFragment extends ListFragment implements SyncthingService
     private final Handler mUpdateListHandler = new Handler();
     private Boolean mLastVisibleToUser = false;
     private FoldersAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private ProgressBar mProgress;
+    private TextView mEmptyView;
     private SyncthingService.State mServiceState = SyncthingService.State.INIT;
 
     @Override
@@ -110,13 +120,29 @@ public class FolderListFragment extends ListFragment implements SyncthingService
         mServiceState = currentState;
     }
 
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.fragment_list, container, false);
+    }
+
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
         setHasOptionsMenu(true);
-        setEmptyText(getString(R.string.folder_list_empty));
-        getListView().setOnItemClickListener(this);
+        mProgress = view.findViewById(R.id.progress);
+        mEmptyView = view.findViewById(R.id.empty);
+        mEmptyView.setText(R.string.folder_list_empty);
+        if (mAdapter == null) {
+            mAdapter = new FoldersAdapter(getActivity());
+            mAdapter.setOnClickListener(this);
+        }
+        mRecyclerView = view.findViewById(R.id.list);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // Rows are updated in place while syncing, fading them would flicker.
+        ((SimpleItemAnimator) mRecyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
+        mRecyclerView.setAdapter(mAdapter);
     }
 
     /**
@@ -138,9 +164,7 @@ public class FolderListFragment extends ListFragment implements SyncthingService
     }
 
     /**
-     * Refreshes ListView by updating folders and info.
-     *
-     * Also creates adapter if it doesn't exist yet.
+     * Refreshes RecyclerView by updating folders and info.
      */
     private void updateList() {
         SyncthingActivity activity = (SyncthingActivity) getActivity();
@@ -161,25 +185,17 @@ public class FolderListFragment extends ListFragment implements SyncthingService
         if (folders == null) {
             return;
         }
-        if (mAdapter == null) {
-            mAdapter = new FoldersAdapter(activity);
-            setListAdapter(mAdapter);
-        }
-        mAdapter.setRestApi(restApi);
-
-        // Prevent scroll position reset due to list update from clear().
-        mAdapter.setNotifyOnChange(false);
-        mAdapter.clear();
-        mAdapter.addAll(folders);
-        mAdapter.notifyDataSetChanged();
-        setListShown(true);
+        mAdapter.setFolders(folders, restApi);
+        mProgress.setVisibility(View.GONE);
+        mEmptyView.setVisibility(folders.isEmpty() ? View.VISIBLE : View.GONE);
+        mRecyclerView.setVisibility(folders.isEmpty() ? View.GONE : View.VISIBLE);
     }
 
     @Override
-    public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+    public void onItemClick(Folder folder) {
         Intent intent = new Intent(getActivity(), FolderActivity.class)
                 .putExtra(FolderActivity.EXTRA_IS_CREATE, false)
-                .putExtra(FolderActivity.EXTRA_FOLDER_ID, mAdapter.getItem(i).id);
+                .putExtra(FolderActivity.EXTRA_FOLDER_ID, folder.id);
         startActivity(intent);
     }
 
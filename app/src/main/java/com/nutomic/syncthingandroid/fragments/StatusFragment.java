@@ -3,7 +3,6 @@ package com.nutomic.syncthingandroid.fragments;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.Handler;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.ListFragment;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -54,19 +53,20 @@ public class StatusFragment extends ListFragment implements SyncthingService.OnS
 
     @Inject SharedPreferences mPreferences;
 
-    private Runnable mRestApiQueryRunnable = new Runnable() {
-        @Override
-        public void run() {
-            onTimerEvent();
-            mRestApiQueryHandler.postDelayed(this, Constants.REST_UPDATE_INTERVAL);
-        }
-    };
-
     private MainActivity mActivity;
     private ArrayAdapter mAdapter;
     private SyncthingService.State mServiceState = SyncthingService.State.INIT;
-    private final Handler mRestApiQueryHandler = new Handler();
     private Boolean mLastVisibleToUser = false;
+
+    /**
+     * True while the user looks at the tab and status updates should be received.
+     */
+    private Boolean mStatusUpdatesWanted = false;
+
+    /**
+     * RestApi instance we are subscribed to for status updates, or null.
+     */
+    private RestApi mSubscribedRestApi = null;
     private SegmentedButton btnForceStartStop;
     /**
      * Object that must be locked upon accessing the status holders.
@@ -94,18 +94,18 @@ public class StatusFragment extends ListFragment implements SyncthingService.OnS
     {
         super.setUserVisibleHint(isVisibleToUser);
         if (isVisibleToUser) {
-            // User switched to the current tab, start handler.
-            startRestApiQueryHandler();
+            // User switched to the current tab, start updates.
+            startStatusUpdates();
         } else {
-            // User switched away to another tab, stop handler.
-            stopRestApiQueryHandler();
+            // User switched away to another tab, stop updates.
+            stopStatusUpdates();
         }
         mLastVisibleToUser = isVisibleToUser;
     }
 
     @Override
     public void onPause() {
-        stopRestApiQueryHandler();
+        stopStatusUpdates();
         super.onPause();
     }
 
@@ -113,24 +113,48 @@ public class StatusFragment extends ListFragment implements SyncthingService.OnS
     public void onResume() {
         super.onResume();
         if (mLastVisibleToUser) {
-            startRestApiQueryHandler();
+            startStatusUpdates();
         }
     }
 
-    private void startRestApiQueryHandler() {
-        LogV("startUpdateListHandler");
-        mRestApiQueryHandler.removeCallbacks(mRestApiQueryRunnable);
-        mRestApiQueryHandler.post(mRestApiQueryRunnable);
+    private void startStatusUpdates() {
+        LogV("startStatusUpdates");
+        mStatusUpdatesWanted = true;
+        updateSubscription();
+        updateStatus();
+    }
+
+    private void stopStatusUpdates() {
+        LogV("stopStatusUpdates");
+        mStatusUpdatesWanted = false;
+        updateSubscription();
     }
 
-    private void stopRestApiQueryHandler() {
-        LogV("stopUpdateListHandler");
-        mRestApiQueryHandler.removeCallbacks(mRestApiQueryRunnable);
+    /**
+     * Subscribes to status updates of the current RestApi while they are wanted.
+     * The RestApi shares its queries with other screens showing the same information.
+     */
+    private void updateSubscription() {
+        RestApi restApi = mStatusUpdatesWanted ? getRestApiSafe() : null;
+        if (restApi == mSubscribedRestApi) {
+            return;
+        }
+        if (mSubscribedRestApi != null) {
+            mSubscribedRestApi.unsubscribe(this);
+        }
+        mSubscribedRestApi = restApi;
+        if (restApi != null) {
+            // Keeps connection stats for onReceiveSystemStatus up to date.
+            restApi.subscribeDeviceStatus(this, Constants.REST_UPDATE_INTERVAL, connections -> {});
+            // onReceiveSystemStatus will call {@link #updateStatus}.
+            restApi.subscribeSystemStatus(this, Constants.REST_UPDATE_INTERVAL, this::onReceiveSystemStatus);
+        }
     }
 
     @Override
     public void onServiceStateChange(SyncthingService.State currentState) {
         mServiceState = currentState;
+        updateSubscription();
         updateStatus();
     }
 
@@ -263,35 +287,6 @@ public class StatusFragment extends ListFragment implements SyncthingService.OnS
         mAdapter.notifyDataSetChanged();
     }
 
-    /**
-     * Invokes status callbacks via syncthing's REST API
-     * while the user is looking at the current tab.
-     */
-    private void onTimerEvent() {
-        MainActivity mainActivity = (MainActivity) getActivity();
-        if (mainActivity == null) {
-            return;
-        }
-        if (mainActivity.isFinishing()) {
-            return;
-        }
-        if (mServiceState != SyncthingService.State.ACTIVE) {
-            updateStatus();
-            return;
-        }
-        RestApi restApi = mainActivity.getApi();
-        if (restApi == null) {
-            return;
-        }
-        // LogV("Invoking REST status queries");
-
-        // Force a cache-miss to query status of all devices asynchronously.
-        restApi.getRemoteDeviceStatus("");
-
-        // onReceiveSystemStatus will call {@link #updateStatus}.
-        restApi.getSystemStatus(this::onReceiveSystemStatus);
-    }
-
     /**
      * Populates status holders with status received via {@link RestApi#getSystemStatus}.
      */
@@ -11,6 +11,8 @@ import android.widget.ImageView;
 import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
@@ -21,12 +23,18 @@ import com.android.volley.toolbox.StringRequest;
 import com.android.volley.toolbox.Volley;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
 
 import com.nutomic.syncthingandroid.service.AppPrefs;
 import com.nutomic.syncthingandroid.service.Constants;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -37,6 +45,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -54,6 +63,15 @@ public abstract class ApiRequest {
      */
     private static final String HEADER_API_KEY = "X-API-Key";
 
+    /**
+     * Setting this header ourselves turns off the transparent decompression of
+     * HttpURLConnection, see {@link #openResponseReader}.
+     */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    static final int DEFAULT_TIMEOUT_MS = 5000;
+    static final int DEFAULT_MAX_RETRIES = 5;
+
     public interface OnSuccessListener {
         void onSuccess(String result);
     }
@@ -66,14 +84,33 @@ public abstract class ApiRequest {
         void onError(VolleyError error);
     }
 
+    /**
+     * Parses a response body. Called on a Volley network thread.
+     */
+    public interface ResponseParser<T> {
+        T parse(Reader reader) throws IOException;
+    }
+
+    public interface OnParsedListener<T> {
+        void onParsed(T result);
+    }
+
     private static RequestQueue sVolleyQueue;
 
+    /**
+     * Shared by all requests, so HttpURLConnection can reuse pooled keep-alive connections
+     * and resume TLS sessions instead of performing a full handshake per request.
+     */
+    private static SSLSocketFactory sSslSocketFactory;
+
     private RequestQueue getVolleyQueue() {
-        if (sVolleyQueue == null) {
-            Context context = mContext.getApplicationContext();
-            sVolleyQueue = Volley.newRequestQueue(context, new NetworkStack());
+        synchronized (ApiRequest.class) {
+            if (sVolleyQueue == null) {
+                Context context = mContext.getApplicationContext();
+                sVolleyQueue = Volley.newRequestQueue(context, new NetworkStack(getSslSocketFactory(context)));
+            }
+            return sVolleyQueue;
         }
-        return sVolleyQueue;
     }
 
     private final Context mContext;
@@ -136,6 +173,19 @@ public abstract class ApiRequest {
      */
     void connect(int requestMethod, Uri uri, @Nullable String requestBody,
                  @Nullable OnSuccessListener listener, @Nullable OnErrorListener errorListener) {
+        // Some requests seem to be slow or fail, make sure this doesn't break the app
+        // (eg if an event request fails, new event requests won't be triggered).
+        connect(requestMethod, uri, requestBody, listener, errorListener,
+                DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Opens the connection with a custom socket timeout and retry count, then returns success
+     * status and response string.
+     */
+    void connect(int requestMethod, Uri uri, @Nullable String requestBody,
+                 @Nullable OnSuccessListener listener, @Nullable OnErrorListener errorListener,
+                 int timeoutMs, int maxNumRetries) {
         /*
         if (ENABLE_VERBOSE_LOG) {
             Log.v(TAG, "Performing request to " + uri.toString());
@@ -145,20 +195,10 @@ public abstract class ApiRequest {
             if (listener != null) {
                 listener.onSuccess(reply);
             }
-        }, error -> {
-            if (errorListener != null) {
-                errorListener.onError(error);
-            } else {
-                int statusCode = 0;
-                if (error.networkResponse != null) {
-                    statusCode = error.networkResponse.statusCode;
-                }
-                Log.w(TAG, "Request to " + uri + " failed, code=" + statusCode + ", msg=" + error.getMessage());
-            }
-        }) {
+        }, error -> onRequestError(uri, error, errorListener)) {
             @Override
             public Map<String, String> getHeaders() throws AuthFailureError {
-                return ImmutableMap.of(HEADER_API_KEY, mApiKey);
+                return getRequestHeaders();
             }
 
             @Override
@@ -168,37 +208,114 @@ public abstract class ApiRequest {
 
             @Override
             protected Response<String> parseNetworkResponse(NetworkResponse response) {
-                Charset charset = StandardCharsets.ISO_8859_1; // Volley default
-                Map<String, String> headers = response.headers;
-
-                if (headers != null) {
-                    // explicit charset
-                    String parsedCharset = HttpHeaderParser.parseCharset(headers, null);
-                    if (parsedCharset != null) {
-                        charset = Charset.forName(parsedCharset);
-                    }
-                    // application/json without charset → UTF-8
-                    else {
-                        String contentType = headers.get("Content-Type");
-                        if (contentType != null &&
-                                contentType.toLowerCase(Locale.US).startsWith("application/json")) {
-                            charset = StandardCharsets.UTF_8;
-                        }
+                try (Reader reader = openResponseReader(response)) {
+                    String parsed = CharStreams.toString(reader);
+                    return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
+                } catch (IOException e) {
+                    return Response.error(new ParseError(e));
+                }
+            }
+        };
+
+        request.setRetryPolicy(new DefaultRetryPolicy(timeoutMs, maxNumRetries,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        getVolleyQueue().add(request);
+    }
+
+    /**
+     * Opens the connection and decodes the response body with parser on a background thread,
+     * without building an intermediate string. The result is delivered on the main thread.
+     */
+    <T> void connect(int requestMethod, Uri uri, ResponseParser<T> parser,
+                     @Nullable OnParsedListener<T> listener, @Nullable OnErrorListener errorListener,
+                     int timeoutMs, int maxNumRetries) {
+        Request<T> request = new Request<T>(requestMethod, uri.toString(),
+                error -> onRequestError(uri, error, errorListener)) {
+            @Override
+            public Map<String, String> getHeaders() throws AuthFailureError {
+                return getRequestHeaders();
+            }
+
+            @Override
+            protected Response<T> parseNetworkResponse(NetworkResponse response) {
+                try (Reader reader = openResponseReader(response)) {
+                    T parsed = parser.parse(reader);
+                    if (parsed == null) {
+                        return Response.error(new ParseError(response));
                     }
+                    return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
+                } catch (IOException | RuntimeException e) {
+                    return Response.error(new ParseError(e));
                 }
+            }
 
-                String parsed = new String(response.data, charset);
-                return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
+            @Override
+            protected void deliverResponse(T response) {
+                if (listener != null) {
+                    listener.onParsed(response);
+                }
             }
         };
 
-        // Some requests seem to be slow or fail, make sure this doesn't break the app
-        // (eg if an event request fails, new event requests won't be triggered).
-        request.setRetryPolicy(new DefaultRetryPolicy(5000, 5,
+        request.setRetryPolicy(new DefaultRetryPolicy(timeoutMs, maxNumRetries,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
         getVolleyQueue().add(request);
     }
 
+    private Map<String, String> getRequestHeaders() {
+        return ImmutableMap.of(
+                HEADER_API_KEY, mApiKey,
+                HEADER_ACCEPT_ENCODING, "gzip"
+        );
+    }
+
+    private static void onRequestError(Uri uri, VolleyError error, @Nullable OnErrorListener errorListener) {
+        if (errorListener != null) {
+            errorListener.onError(error);
+        } else {
+            int statusCode = 0;
+            if (error.networkResponse != null) {
+                statusCode = error.networkResponse.statusCode;
+            }
+            Log.w(TAG, "Request to " + uri + " failed, code=" + statusCode + ", msg=" + error.getMessage());
+        }
+    }
+
+    /**
+     * Returns a reader over the response body, inflating it if syncthing sent it gzip encoded.
+     * Runs on a Volley network thread.
+     */
+    private static Reader openResponseReader(NetworkResponse response) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(response.data);
+        Map<String, String> headers = response.headers;
+        if (headers != null &&
+                response.data.length > 0 &&
+                "gzip".equalsIgnoreCase(headers.get("Content-Encoding"))) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        return new BufferedReader(new InputStreamReader(inputStream, getResponseCharset(headers)));
+    }
+
+    private static Charset getResponseCharset(@Nullable Map<String, String> headers) {
+        Charset charset = StandardCharsets.ISO_8859_1; // Volley default
+        if (headers != null) {
+            // explicit charset
+            String parsedCharset = HttpHeaderParser.parseCharset(headers, null);
+            if (parsedCharset != null) {
+                charset = Charset.forName(parsedCharset);
+            }
+            // application/json without charset → UTF-8
+            else {
+                String contentType = headers.get("Content-Type");
+                if (contentType != null &&
+                        contentType.toLowerCase(Locale.US).startsWith("application/json")) {
+                    charset = StandardCharsets.UTF_8;
+                }
+            }
+        }
+        return charset;
+    }
+
     /**
      * Opens the connection, then returns success status and response bitmap.
      */
@@ -224,17 +341,17 @@ public abstract class ApiRequest {
     }
 
     /**
-     * Extends {@link HurlStack}, uses {@link #getSslSocketFactory()} and disables hostname
+     * Extends {@link HurlStack}, uses {@link #getSslSocketFactory} and disables hostname
      * verification.
      */
-    private class NetworkStack extends HurlStack {
+    private static class NetworkStack extends HurlStack {
 
-        public NetworkStack() {
-            super(null, getSslSocketFactory());
+        public NetworkStack(SSLSocketFactory sslSocketFactory) {
+            super(null, sslSocketFactory);
         }
         @Override
         protected HttpURLConnection createConnection(URL url) throws IOException {
-            if (mUrl.toString().startsWith("https://")) {
+            if ("https".equals(url.getProtocol())) {
                 HttpsURLConnection connection = (HttpsURLConnection) super.createConnection(url);
                 // Safe to skip hostname verification: the connection is pinned to the loopback
                 // interface (see forceLoopbackHost), so there is no network MITM surface and the
@@ -249,13 +366,20 @@ public abstract class ApiRequest {
         }
     }
 
-    private SSLSocketFactory getSslSocketFactory() {
+    /**
+     * Precondition: ApiRequest.class is locked.
+     */
+    private static SSLSocketFactory getSslSocketFactory(Context context) {
+        if (sSslSocketFactory != null) {
+            return sSslSocketFactory;
+        }
         try {
             SSLContext sslContext = SSLContext.getInstance("TLS");
-            File httpsCertPath = Constants.getHttpsCertFile(mContext);
+            File httpsCertPath = Constants.getHttpsCertFile(context);
             sslContext.init(null, new TrustManager[]{new SyncthingTrustManager(httpsCertPath)},
                     new SecureRandom());
-            return sslContext.getSocketFactory();
+            sSslSocketFactory = sslContext.getSocketFactory();
+            return sSslSocketFactory;
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             Log.w(TAG, e);
             return null;
@@ -43,4 +43,30 @@ public class GetRequest extends ApiRequest {
         connect(Request.Method.GET, uri, null, onSuccess, onError);
     }
 
+    /**
+     * Performs a GET request which may legitimately stay open for up to timeoutMs,
+     * e.g. a long-polling request to {@link #URI_EVENTS}. The request is not retried on failure.
+     */
+    public GetRequest(Context context, URL url, String path, String apiKey,
+                      @Nullable Map<String, String> params, int timeoutMs,
+                      OnSuccessListener onSuccess, OnErrorListener onError) {
+        super(context, url, path, apiKey);
+        Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
+        Uri uri = buildUri(safeParams);
+        connect(Request.Method.GET, uri, null, onSuccess, onError, timeoutMs, 0);
+    }
+
+    /**
+     * Performs a GET request and decodes the response with parser on a background thread.
+     * onSuccess receives the parsed result on the main thread.
+     */
+    public <T> GetRequest(Context context, URL url, String path, String apiKey,
+                          @Nullable Map<String, String> params, ResponseParser<T> parser,
+                          OnParsedListener<T> onSuccess, OnErrorListener onError) {
+        super(context, url, path, apiKey);
+        Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
+        Uri uri = buildUri(safeParams);
+        connect(Request.Method.GET, uri, parser, onSuccess, onError, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES);
+    }
+
 }
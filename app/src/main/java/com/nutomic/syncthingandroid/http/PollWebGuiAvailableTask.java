@@ -8,13 +8,24 @@ import android.util.Log;
 
 import com.android.volley.Request;
 import com.android.volley.VolleyError;
+import com.nutomic.syncthingandroid.util.Util;
 
 import java.net.ConnectException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Polls to load the web interface, until it is available.
+ *
+ * HTTP requests are only sent once the web gui is expected to answer: either the native
+ * binary reported it is listening (see {@link #onGuiListening}), or a TCP probe found its port
+ * listening. Probes are repeated with exponential backoff. If neither happens within
+ * {@link #MAX_PROBE_TIME}, HTTP polling starts anyway.
  */
 public class PollWebGuiAvailableTask extends ApiRequest {
 
@@ -25,8 +36,32 @@ public class PollWebGuiAvailableTask extends ApiRequest {
      */
     private static final long WEB_GUI_POLL_INTERVAL = 150;
 
+    /**
+     * Delay in ms before the first TCP probe, doubled after each probe up to MAX_PROBE_DELAY.
+     */
+    private static final long INITIAL_PROBE_DELAY = 50;
+    private static final long MAX_PROBE_DELAY = 2000;
+
+    /**
+     * Time in ms after which HTTP polling starts even if the port was not seen listening.
+     */
+    private static final long MAX_PROBE_TIME = 15000;
+
     private final Handler mHandler = new Handler();
 
+    private final ScheduledExecutorService mProbeExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final int mPort;
+
+    private final long mProbeStartTime;
+
+    private long mProbeDelay = INITIAL_PROBE_DELAY;
+
+    /**
+     * Set once HTTP polling started, so it is only started once.
+     */
+    private final AtomicBoolean mPollingStarted = new AtomicBoolean(false);
+
     private OnSuccessListener mListener;
 
     private Integer logIncidence = 0;
@@ -36,21 +71,79 @@ public class PollWebGuiAvailableTask extends ApiRequest {
      */
     private final Object mListenerLock = new Object();
 
-    public PollWebGuiAvailableTask(Context context, URL url, String apiKey,
+    /**
+     * @param port TCP port the web gui binds to.
+     */
+    public PollWebGuiAvailableTask(Context context, URL url, String apiKey, int port,
                                    OnSuccessListener listener) {
         super(context, url, "", apiKey);
         Log.i(TAG, "Starting to poll for web gui availability");
         mListener = listener;
-        performRequest();
+        mPort = port;
+        mProbeStartTime = System.currentTimeMillis();
+        scheduleProbe();
     }
 
     public void cancelRequestsAndCallback() {
         synchronized(mListenerLock) {
             mListener = null;
         }
+        mProbeExecutor.shutdownNow();
+    }
+
+    /**
+     * Called when the native binary logged that the web gui is listening.
+     * May be called from any thread.
+     */
+    public void onGuiListening() {
+        Log.v(TAG, "Native binary reported web gui listening");
+        startPolling();
+    }
+
+    private void scheduleProbe() {
+        try {
+            mProbeExecutor.schedule(this::probe, mProbeDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Cancelled.
+        }
+    }
+
+    /**
+     * Runs on mProbeExecutor.
+     */
+    private void probe() {
+        if (mPollingStarted.get()) {
+            return;
+        }
+        if (Util.isTcpPortListening(mPort)) {
+            Log.v(TAG, "Web gui port " + mPort + " is listening");
+            startPolling();
+            return;
+        }
+        if (System.currentTimeMillis() - mProbeStartTime >= MAX_PROBE_TIME) {
+            Log.w(TAG, "Web gui port " + mPort + " not seen listening, polling anyway");
+            startPolling();
+            return;
+        }
+        mProbeDelay = Math.min(mProbeDelay * 2, MAX_PROBE_DELAY);
+        scheduleProbe();
+    }
+
+    private void startPolling() {
+        if (!mPollingStarted.compareAndSet(false, true)) {
+            return;
+        }
+        mProbeExecutor.shutdownNow();
+        mHandler.post(this::performRequest);
     }
 
     private void performRequest() {
+        synchronized(mListenerLock) {
+            if (mListener == null) {
+                Log.v(TAG, "Cancelled callback and outstanding requests");
+                return;
+            }
+        }
         Uri uri = buildUri(Collections.emptyMap());
         connect(Request.Method.GET, uri, null, this::onSuccess, this::onError);
     }
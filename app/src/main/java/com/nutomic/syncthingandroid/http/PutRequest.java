@@ -0,0 +1,27 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+
+import java.net.URL;
+import java.util.Collections;
+
+/**
+ * Performs a PUT request to the Syncthing API
+ */
+public class PutRequest extends ApiRequest {
+
+    public static final String URI_CONFIG           = "/rest/config";
+
+    public PutRequest(Context context, URL url, String path, String apiKey,
+                      @Nullable String putBody,
+                      @Nullable OnSuccessListener listener, @Nullable OnErrorListener errorListener) {
+        super(context, url, path, apiKey);
+        Uri uri = buildUri(Collections.emptyMap());
+        connect(Request.Method.PUT, uri, putBody, listener, errorListener);
+    }
+
+}
@@ -10,13 +10,18 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.net.ssl.X509TrustManager;
 
@@ -40,8 +45,40 @@ class SyncthingTrustManager implements X509TrustManager {
 
     private static final String TAG = "SyncthingTrustManager";
 
+    /**
+     * Number of certificates remembered as verified against the pinned public key.
+     * The local instance presents a single certificate, so this only needs to cover replacements.
+     */
+    private static final int VERIFIED_CACHE_SIZE = 8;
+
     private final File mHttpsCertPath;
 
+    /**
+     * Object that must be locked upon accessing mPinnedKey, mPinnedCertModified,
+     * mPinnedCertLength and mVerifiedFingerprints.
+     */
+    private final Object mPinnedCertLock = new Object();
+
+    /**
+     * Public key of the certificate in mHttpsCertPath, null if not parsed yet.
+     * Parsed again when the file's modification time or length changes.
+     */
+    private PublicKey mPinnedKey = null;
+    private long mPinnedCertModified = 0;
+    private long mPinnedCertLength = 0;
+
+    /**
+     * SHA-256 fingerprints of certificates whose signature was verified against mPinnedKey.
+     * Cleared when the pinned certificate changes.
+     */
+    private final Map<ByteBuffer, Boolean> mVerifiedFingerprints =
+            new LinkedHashMap<ByteBuffer, Boolean>(VERIFIED_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > VERIFIED_CACHE_SIZE;
+                }
+            };
+
     SyncthingTrustManager(File httpsCertPath) {
         mHttpsCertPath = httpsCertPath;
     }
@@ -79,18 +116,54 @@ class SyncthingTrustManager implements X509TrustManager {
     /**
      * Verifies that every presented certificate is signed by the public key of the certificate
      * pinned in {@link #mHttpsCertPath} (the certificate the local syncthing instance generated).
+     *
+     * The pinned certificate is only parsed again after the file changed, and certificates
+     * that were already verified against it are recognized by their fingerprint.
      */
     private void verifyAgainstPinnedCert(X509Certificate[] certs) throws CertificateException {
+        synchronized (mPinnedCertLock) {
+            PublicKey pinnedKey = getPinnedKey();
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (X509Certificate cert : certs) {
+                    ByteBuffer fingerprint = ByteBuffer.wrap(digest.digest(cert.getEncoded()));
+                    if (mVerifiedFingerprints.containsKey(fingerprint)) {
+                        continue;
+                    }
+                    cert.verify(pinnedKey);
+                    mVerifiedFingerprints.put(fingerprint, true);
+                }
+            } catch (NoSuchAlgorithmException | InvalidKeyException |
+                    NoSuchProviderException | SignatureException e) {
+                throw new CertificateException("Untrusted Certificate!", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the public key of the pinned certificate, parsing the file if it changed.
+     *
+     * Precondition: mPinnedCertLock is locked.
+     */
+    private PublicKey getPinnedKey() throws CertificateException {
+        long modified = mHttpsCertPath.lastModified();
+        long length = mHttpsCertPath.length();
+        if (mPinnedKey != null && modified == mPinnedCertModified && length == mPinnedCertLength) {
+            return mPinnedKey;
+        }
+        mPinnedKey = null;
+        mVerifiedFingerprints.clear();
         InputStream is = null;
         try {
             is = new FileInputStream(mHttpsCertPath);
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
             X509Certificate ca = (X509Certificate) cf.generateCertificate(is);
-            for (X509Certificate cert : certs) {
-                cert.verify(ca.getPublicKey());
-            }
-        } catch (FileNotFoundException | NoSuchAlgorithmException | InvalidKeyException |
-                NoSuchProviderException | SignatureException e) {
+            mPinnedKey = ca.getPublicKey();
+            mPinnedCertModified = modified;
+            mPinnedCertLength = length;
+            Log.d(TAG, "Loaded pinned certificate " + mHttpsCertPath.getName());
+            return mPinnedKey;
+        } catch (FileNotFoundException e) {
             throw new CertificateException("Untrusted Certificate!", e);
         } finally {
             try {
@@ -5,7 +5,7 @@ package com.nutomic.syncthingandroid.model;
  * to save expensive calls to Syncthing's REST API.
  * Vars in class do not correspond to JSON results.
  */
-public class CachedFolderStatus {
+public class CachedFolderStatus implements Cloneable {
     /**
      * Calculated
      */
@@ -30,4 +30,18 @@ public class CachedFolderStatus {
     public boolean remoteIndexUpdated = false;
 
     public boolean paused = false;
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public CachedFolderStatus copy() {
+        CachedFolderStatus copy;
+        try {
+            copy = (CachedFolderStatus) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.discoveredConflictFiles = discoveredConflictFiles.clone();
+        return copy;
+    }
 }
@@ -0,0 +1,87 @@
+package com.nutomic.syncthingandroid.model;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable running total of completion percentages, maintained by
+ * {@link LocalCompletion} and {@link RemoteCompletion} so that overall completion
+ * can be read without iterating their caches.
+ *
+ * Percentages are summed as fixed point values, so repeatedly adding and
+ * subtracting contributions does not accumulate rounding errors.
+ */
+final class CompletionSum {
+
+    static final CompletionSum EMPTY = new CompletionSum(0, 0, 0);
+
+    /**
+     * Fixed point scale of sumCompletion, i.e. 1/1000 percent.
+     */
+    private static final double SCALE = 1000;
+
+    /**
+     * Number of connected devices contributing to the sum, only used by {@link RemoteCompletion}.
+     */
+    final int deviceCount;
+
+    /**
+     * Number of folders contributing to the sum.
+     */
+    final int folderCount;
+
+    final long sumCompletion;
+
+    CompletionSum(int deviceCount, int folderCount, long sumCompletion) {
+        this.deviceCount = deviceCount;
+        this.folderCount = folderCount;
+        this.sumCompletion = sumCompletion;
+    }
+
+    static CompletionSum ofFolder(double completion) {
+        return new CompletionSum(0, 1, Math.round(completion * SCALE));
+    }
+
+    CompletionSum plus(CompletionSum other) {
+        return new CompletionSum(
+                deviceCount + other.deviceCount,
+                folderCount + other.folderCount,
+                sumCompletion + other.sumCompletion
+        );
+    }
+
+    CompletionSum minus(CompletionSum other) {
+        return new CompletionSum(
+                deviceCount - other.deviceCount,
+                folderCount - other.folderCount,
+                sumCompletion - other.sumCompletion
+        );
+    }
+
+    /**
+     * Returns the average completion percentage, or 100 if no folder contributes.
+     */
+    int getAverage() {
+        if (folderCount <= 0) {
+            return 100;
+        }
+        int average = (int) Math.floor(sumCompletion / SCALE / folderCount);
+        return Math.min(100, Math.max(0, average));
+    }
+
+    /**
+     * Atomically replaces the contribution removed by added within total.
+     */
+    static void update(AtomicReference<CompletionSum> total,
+                       CompletionSum removed, CompletionSum added) {
+        if (removed == added) {
+            return;
+        }
+        while (true) {
+            CompletionSum current = total.get();
+            CompletionSum updated = current.minus(removed).plus(added);
+            if (total.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+}
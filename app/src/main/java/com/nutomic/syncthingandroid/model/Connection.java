@@ -1,6 +1,6 @@
 package com.nutomic.syncthingandroid.model;
 
-public class Connection {
+public class Connection implements Cloneable {
 
     public String address = "";
     public String at = "";                      // "0001-01-01T00:00:00Z"
@@ -23,4 +23,16 @@ public class Connection {
         outBits = Math.max(0, outBytes);
     }
 
+    /**
+     * Returns a deep copy of this object.
+     */
+    public Connection copy() {
+        Connection copy;
+        try {
+            copy = (Connection) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
@@ -4,13 +4,10 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.common.io.BaseEncoding;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
 
 import com.nutomic.syncthingandroid.util.Luhn;
 
 import java.lang.System;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -19,7 +16,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
-public class Device {
+public class Device implements Cloneable {
     public String deviceID;
     public String name = "";
     public List<String> addresses;
@@ -54,6 +51,27 @@ public class Device {
      *  </folder>
      */
 
+    /**
+     * Returns a deep copy of this object.
+     */
+    public Device copy() {
+        Device copy;
+        try {
+            copy = (Device) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.addresses = (addresses == null) ? null : new ArrayList<>(addresses);
+        copy.allowedNetworks = (allowedNetworks == null) ? null : new ArrayList<>(allowedNetworks);
+        if (ignoredFolders != null) {
+            copy.ignoredFolders = new ArrayList<>(ignoredFolders.size());
+            for (IgnoredFolder ignoredFolder : ignoredFolders) {
+                copy.ignoredFolders.add(ignoredFolder.copy());
+            }
+        }
+        return copy;
+    }
+
     /**
      * Returns the device name, or the first characters of the ID if the name is empty.
      */
@@ -269,16 +287,6 @@ public class Device {
         return true;
     }
 
-    /**
-     * Returns a deep copy of object.
-     *
-     * This method uses Gson and only works with objects that can be converted with Gson.
-     */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
-    }
-
     private Boolean testCheckDeviceAddress() {
         Boolean failSuccess = true;
 
@@ -3,7 +3,7 @@ package com.nutomic.syncthingandroid.model;
 /**
  * REST API endpoint "/rest/events/disk"
  */
-public class DiskEvent {
+public class DiskEvent implements Cloneable {
     public long id = 0;
     public long globalID = 0;
     public String time = "";
@@ -12,4 +12,18 @@ public class DiskEvent {
     public String type = "";
 
     public DiskEventData data = new DiskEventData();
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public DiskEvent copy() {
+        DiskEvent copy;
+        try {
+            copy = (DiskEvent) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.data = (data == null) ? null : data.copy();
+        return copy;
+    }
 }
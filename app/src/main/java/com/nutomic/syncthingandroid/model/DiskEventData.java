@@ -3,7 +3,7 @@ package com.nutomic.syncthingandroid.model;
 /**
  * REST API endpoint "/rest/events/disk"
  */
-public class DiskEventData {
+public class DiskEventData implements Cloneable {
     // action = {"added", "deleted", "modified"}
     public String action = "";
 
@@ -15,4 +15,17 @@ public class DiskEventData {
 
     // type = {"file", "dir"}
     public String type = "";
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public DiskEventData copy() {
+        DiskEventData copy;
+        try {
+            copy = (DiskEventData) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
@@ -16,7 +16,7 @@ import java.util.Map;
  * - https://github.com/syncthing/syncthing/tree/master/lib/config
  * - https://github.com/syncthing/syncthing/blob/master/lib/config/folderconfiguration.go
  */
-public class Folder {
+public class Folder implements Cloneable {
 
     // Folder Configuration
     public String group = "";
@@ -155,6 +155,38 @@ public class Folder {
         }
     }
 
+    /**
+     * Returns a deep copy of this object.
+     */
+    public Folder copy() {
+        Folder copy;
+        try {
+            copy = (Folder) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        if (devices != null) {
+            copy.devices = new ArrayList<>(devices.size());
+            for (SharedWithDevice device : devices) {
+                copy.devices.add(device.copy());
+            }
+        }
+        if (minDiskFree != null) {
+            copy.minDiskFree = new MinDiskFree();
+            copy.minDiskFree.value = minDiskFree.value;
+            copy.minDiskFree.unit = minDiskFree.unit;
+        }
+        if (versioning != null) {
+            copy.versioning = new Versioning();
+            copy.versioning.type = versioning.type;
+            copy.versioning.cleanupIntervalS = versioning.cleanupIntervalS;
+            copy.versioning.params = (versioning.params == null) ? null : new HashMap<>(versioning.params);
+            copy.versioning.fsPath = versioning.fsPath;
+            copy.versioning.fsType = versioning.fsType;
+        }
+        return copy;
+    }
+
     @Override
     public String toString() {
         return (TextUtils.isEmpty(label))
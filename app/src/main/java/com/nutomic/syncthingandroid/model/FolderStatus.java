@@ -1,6 +1,6 @@
 package com.nutomic.syncthingandroid.model;
 
-public class FolderStatus {
+public class FolderStatus implements Cloneable {
     public String error = "";
     public long errors = 0;
     public long globalBytes = 0;
@@ -37,4 +37,17 @@ public class FolderStatus {
     public String stateChanged = "";                        // "2019-11-12T20:59:04.9882373Z"
     public long version = 0;
     public String watchError = "";
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public FolderStatus copy() {
+        FolderStatus copy;
+        try {
+            copy = (FolderStatus) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
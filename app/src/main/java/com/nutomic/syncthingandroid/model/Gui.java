@@ -5,7 +5,7 @@ package com.nutomic.syncthingandroid.model;
  * - https://github.com/syncthing/syncthing/tree/master/lib/config
  * - https://github.com/syncthing/syncthing/blob/master/lib/config/guiconfiguration.go
  */
-public class Gui {
+public class Gui implements Cloneable {
     public boolean enabled = true;
 
     /**
@@ -44,4 +44,17 @@ public class Gui {
         String[] split = address.split(":");
         return split.length < 2 ? "" : split[1];
     }
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public Gui copy() {
+        Gui copy;
+        try {
+            copy = (Gui) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
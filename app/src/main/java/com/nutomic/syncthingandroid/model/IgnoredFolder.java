@@ -2,7 +2,7 @@ package com.nutomic.syncthingandroid.model;
 
 import android.text.TextUtils;
 
-public class IgnoredFolder {
+public class IgnoredFolder implements Cloneable {
     public String id = "";
     public String label = "";
     public String time = "";
@@ -15,4 +15,17 @@ public class IgnoredFolder {
                 ? id.substring(0, 7)
                 : label;
     }
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public IgnoredFolder copy() {
+        IgnoredFolder copy;
+        try {
+            copy = (IgnoredFolder) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
@@ -2,15 +2,14 @@ package com.nutomic.syncthingandroid.model;
 
 import android.util.Log;
 
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-
-import java.lang.reflect.Type;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.text.TextUtils;
 
@@ -19,6 +18,14 @@ import android.text.TextUtils;
  * completion indicators defined in {@link CachedFolderStatus}
  * according to Syncthing's "FolderSummary" event JSON result schema.
  * Completion model of Syncthing's web UI is completion[folderId]
+ *
+ * Entries are copy-on-write: Objects stored in mFolderMap are never modified after
+ * they were published. Setters store a modified copy instead, so readers can share
+ * the returned objects without copying them.
+ *
+ * Each setter applies the difference between the old and new entry to a published
+ * total, so {@link #getTotalFolderCompletion} does not iterate the cache. Updates are
+ * serialized per lock stripe and reads never block.
  */
 public class LocalCompletion {
 
@@ -26,16 +33,26 @@ public class LocalCompletion {
 
     private Boolean ENABLE_VERBOSE_LOG = false;
 
-    HashMap<String, Map.Entry<FolderStatus, CachedFolderStatus>> mFolderMap =
-        new HashMap<String, Map.Entry<FolderStatus, CachedFolderStatus>>();
+    private static final int LOCK_STRIPES = 16;
+
+    private final Map<String, Map.Entry<FolderStatus, CachedFolderStatus>> mFolderMap =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Objects that must be locked upon replacing an entry of mFolderMap, see {@link #getFolderLock}.
+     */
+    private final Object[] mFolderLocks = new Object[LOCK_STRIPES];
 
     /**
-     * Object that must be locked upon accessing mFolderMapLock.
+     * Sum of {@link #getContribution} of all entries in mFolderMap.
      */
-    private final Object mFolderMapLock = new Object();
+    private final AtomicReference<CompletionSum> mTotal = new AtomicReference<>(CompletionSum.EMPTY);
 
     public LocalCompletion(Boolean enableVerboseLog) {
         ENABLE_VERBOSE_LOG = enableVerboseLog;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mFolderLocks[i] = new Object();
+        }
     }
 
     /**
@@ -43,40 +60,32 @@ public class LocalCompletion {
      * after a config update.
      */
     public void updateFromConfig(final List<Folder> newFolders) {
-        synchronized(mFolderMapLock) {
-            // Handle folders that were removed from the config.
-            List<String> removedFolders = new ArrayList<>();
-            Boolean folderFound;
-            for (String folderId : mFolderMap.keySet()) {
-                folderFound = false;
-                for (Folder folder : newFolders) {
-                    if (folder.id.equals(folderId)) {
-                        folderFound = true;
-                        break;
-                    }
-                }
-                if (!folderFound) {
-                    removedFolders.add(folderId);
-                }
-            }
-            for (String folderId : removedFolders) {
+        Set<String> newFolderIds = new HashSet<>();
+        for (Folder folder : newFolders) {
+            newFolderIds.add(folder.id);
+        }
+
+        // Handle folders that were removed from the config.
+        for (String folderId : new ArrayList<>(mFolderMap.keySet())) {
+            if (!newFolderIds.contains(folderId)) {
                 LogV("updateFromConfig: Remove folder '" + folderId + "' from cache model");
-                if (mFolderMap.containsKey(folderId)) {
-                    mFolderMap.remove(folderId);
+                synchronized (getFolderLock(folderId)) {
+                    Map.Entry<FolderStatus, CachedFolderStatus> oldEntry = mFolderMap.remove(folderId);
+                    if (oldEntry != null) {
+                        CompletionSum.update(mTotal, getContribution(oldEntry), CompletionSum.EMPTY);
+                    }
                 }
             }
+        }
 
-            // Handle folders that were added to the config.
-            for (Folder folder : newFolders) {
-                if (!mFolderMap.containsKey(folder.id)) {
-                    LogV("updateFromConfig: Add folder '" + folder.id + "' to cache model.");
-                    mFolderMap.put(
-                            folder.id,
-                            new SimpleEntry(
-                                    new FolderStatus(),
-                                    new CachedFolderStatus()
-                            )
-                    );
+        // Handle folders that were added to the config.
+        for (String folderId : newFolderIds) {
+            if (!mFolderMap.containsKey(folderId)) {
+                LogV("updateFromConfig: Add folder '" + folderId + "' to cache model.");
+                synchronized (getFolderLock(folderId)) {
+                    if (!mFolderMap.containsKey(folderId)) {
+                        putFolderEntry(folderId, new FolderStatus(), new CachedFolderStatus());
+                    }
                 }
             }
         }
@@ -86,55 +95,22 @@ public class LocalCompletion {
      * Calculates local folder sync completion percentage across all folders.
      */
     public int getTotalFolderCompletion() {
-        synchronized(mFolderMapLock) {
-            int folderCount = 0;
-            double sumCompletion = 0;
-            for (Map.Entry<String, Map.Entry<FolderStatus, CachedFolderStatus>> folder : mFolderMap.entrySet()) {
-                CachedFolderStatus cachedFolderStatus = folder.getValue().getValue();
-
-                // Filter invalid percentage values we may have got from the REST API.
-                if (cachedFolderStatus.completion < 0) {
-                    cachedFolderStatus.completion = 0;
-                } else if (cachedFolderStatus.completion > 100) {
-                    cachedFolderStatus.completion = 100;
-                }
-
-                if (!cachedFolderStatus.paused &&
-                        cachedFolderStatus.completion != 100) {
-                    sumCompletion += cachedFolderStatus.completion;
-                    folderCount++;
-                }
-            }
-            if (folderCount == 0) {
-                return 100;
-            }
-            int totalFolderCompletion = (int) Math.floor(sumCompletion / folderCount);
-            if (totalFolderCompletion < 0) {
-                totalFolderCompletion = 0;
-            } else if (totalFolderCompletion > 100) {
-                totalFolderCompletion = 100;
-            }
-            return totalFolderCompletion;
-        }
+        return mTotal.get().getAverage();
     }
 
     /**
      * Returns local folder status including completion info.
+     * The returned objects are shared and must not be modified.
      */
     public final Map.Entry<FolderStatus, CachedFolderStatus> getFolderStatus (final String folderId) {
-        synchronized(mFolderMapLock) {
-            if (!mFolderMap.containsKey(folderId)) {
-                return new SimpleEntry(
-                        new FolderStatus(),
-                        new CachedFolderStatus()
-                );
-            }
-            Map.Entry<FolderStatus, CachedFolderStatus> folderEntry = mFolderMap.get(folderId);
+        Map.Entry<FolderStatus, CachedFolderStatus> folderEntry = mFolderMap.get(folderId);
+        if (folderEntry == null) {
             return new SimpleEntry(
-                    deepCopy(folderEntry.getKey(), new TypeToken<FolderStatus>(){}.getType()),
-                    deepCopy(folderEntry.getValue(), new TypeToken<CachedFolderStatus>(){}.getType())
+                    new FolderStatus(),
+                    new CachedFolderStatus()
             );
         }
+        return folderEntry;
     }
 
     /**
@@ -144,9 +120,9 @@ public class LocalCompletion {
     public void setFolderStatus(final String folderId,
                                     final Boolean folderPaused,
                                     final FolderStatus folderStatus) {
-        synchronized(mFolderMapLock) {
+        synchronized(getFolderLock(folderId)) {
             final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = getFolderStatus(folderId);
-            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue();
+            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue().copy();
             cachedFolderStatus.paused = folderPaused;
             if (folderStatus.globalBytes == 0 ||
                     (folderStatus.inSyncBytes > folderStatus.globalBytes)) {
@@ -165,13 +141,13 @@ public class LocalCompletion {
             }
 
             // Add folder or update existing folder entry.
-            mFolderMap.put(folderId, new SimpleEntry(folderStatus, cachedFolderStatus));
+            putFolderEntry(folderId, folderStatus, cachedFolderStatus);
         }
     }
 
     public void setFolderStatus(final String folderId,
                                     final FolderStatus folderStatus) {
-        synchronized(mFolderMapLock) {
+        synchronized(getFolderLock(folderId)) {
             // Persist cachedFolderStatus.paused from the previous entry.
             final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = getFolderStatus(folderId);
             setFolderStatus(folderId, cacheEntry.getValue().paused, folderStatus);
@@ -186,50 +162,74 @@ public class LocalCompletion {
                                         final String lastItemFinishedAction,
                                         final String lastItemFinishedItem,
                                         final String lastItemFinishedTime) {
-        synchronized(mFolderMapLock) {
+        synchronized(getFolderLock(folderId)) {
             final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = getFolderStatus(folderId);
-            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue();
+            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue().copy();
             cachedFolderStatus.lastItemFinishedAction = lastItemFinishedAction;
             cachedFolderStatus.lastItemFinishedItem = lastItemFinishedItem;
             cachedFolderStatus.lastItemFinishedTime = lastItemFinishedTime;
 
             // Add folder or update existing folder entry.
-            mFolderMap.put(folderId, new SimpleEntry(cacheEntry.getKey(), cachedFolderStatus));
+            putFolderEntry(folderId, cacheEntry.getKey(), cachedFolderStatus);
         }
     }
 
     public void setRemoteIndexUpdated(final String folderId,
                                             final boolean remoteIndexUpdated) {
-        synchronized(mFolderMapLock) {
+        synchronized(getFolderLock(folderId)) {
             final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = getFolderStatus(folderId);
-            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue();
+            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue().copy();
             cachedFolderStatus.remoteIndexUpdated = remoteIndexUpdated;
 
             // Add folder or update existing folder entry.
-            mFolderMap.put(folderId, new SimpleEntry(cacheEntry.getKey(), cachedFolderStatus));
+            putFolderEntry(folderId, cacheEntry.getKey(), cachedFolderStatus);
         }
     }
 
     public void setDiscoveredConflictFiles(final String folderId,
                                             final String[] discoveredConflictFiles) {
-        synchronized(mFolderMapLock) {
+        synchronized(getFolderLock(folderId)) {
             final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = getFolderStatus(folderId);
-            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue();
+            CachedFolderStatus cachedFolderStatus = cacheEntry.getValue().copy();
             cachedFolderStatus.discoveredConflictFiles = discoveredConflictFiles;
 
             // Add folder or update existing folder entry.
-            mFolderMap.put(folderId, new SimpleEntry(cacheEntry.getKey(), cachedFolderStatus));
+            putFolderEntry(folderId, cacheEntry.getKey(), cachedFolderStatus);
         }
     }
 
     /**
-     * Returns a deep copy of object.
-     *
-     * This method uses Gson and only works with objects that can be converted with Gson.
+     * Publishes a new entry and applies the difference to the previous entry to mTotal.
+     * Precondition: The lock of folderId is held.
      */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
+    private void putFolderEntry(final String folderId,
+                                    final FolderStatus folderStatus,
+                                    final CachedFolderStatus cachedFolderStatus) {
+        Map.Entry<FolderStatus, CachedFolderStatus> newEntry = new SimpleEntry<>(folderStatus, cachedFolderStatus);
+        Map.Entry<FolderStatus, CachedFolderStatus> previousEntry = mFolderMap.put(folderId, newEntry);
+        CompletionSum.update(
+                mTotal,
+                (previousEntry == null) ? CompletionSum.EMPTY : getContribution(previousEntry),
+                getContribution(newEntry)
+        );
+    }
+
+    /**
+     * Returns the contribution of an entry to {@link #getTotalFolderCompletion}.
+     */
+    private static CompletionSum getContribution(Map.Entry<FolderStatus, CachedFolderStatus> entry) {
+        CachedFolderStatus cachedFolderStatus = entry.getValue();
+
+        // Filter invalid percentage values we may have got from the REST API.
+        double completion = Math.min(100, Math.max(0, cachedFolderStatus.completion));
+        if (cachedFolderStatus.paused || completion == 100) {
+            return CompletionSum.EMPTY;
+        }
+        return CompletionSum.ofFolder(completion);
+    }
+
+    private Object getFolderLock(String folderId) {
+        return mFolderLocks[(folderId.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
     }
 
     private void LogV(String logMessage) {
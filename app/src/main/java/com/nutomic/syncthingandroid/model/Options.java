@@ -5,7 +5,7 @@ package com.nutomic.syncthingandroid.model;
  * - https://github.com/syncthing/syncthing/tree/main/lib/config
  * - https://github.com/syncthing/syncthing/blob/main/lib/config/optionsconfiguration.go
  */
-public class Options {
+public class Options implements Cloneable {
     public String[] listenAddresses;                // json:"listenAddresses" xml:"listenAddress" default:"default"
     public String[] globalAnnounceServers;          // json:"globalAnnounceServers" xml:"globalAnnounceServer" default:"default"
     public boolean globalAnnounceEnabled = true;
@@ -85,6 +85,27 @@ public class Options {
         public String unit = "%";
     }
 
+    /**
+     * Returns a deep copy of this object.
+     */
+    public Options copy() {
+        Options copy;
+        try {
+            copy = (Options) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.listenAddresses = (listenAddresses == null) ? null : listenAddresses.clone();
+        copy.globalAnnounceServers = (globalAnnounceServers == null) ? null : globalAnnounceServers.clone();
+        copy.alwaysLocalNets = (alwaysLocalNets == null) ? null : alwaysLocalNets.clone();
+        if (minHomeDiskFree != null) {
+            copy.minHomeDiskFree = new MinHomeDiskFree();
+            copy.minHomeDiskFree.value = minHomeDiskFree.value;
+            copy.minHomeDiskFree.unit = minHomeDiskFree.unit;
+        }
+        return copy;
+    }
+
     public static final int USAGE_REPORTING_UNDECIDED = 0;
     public static final int USAGE_REPORTING_DENIED    = -1;
 
@@ -2,15 +2,15 @@ package com.nutomic.syncthingandroid.model;
 
 import android.util.Log;
 
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-
-import java.lang.reflect.Type;
-import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.text.TextUtils;
 
@@ -19,6 +19,12 @@ import android.text.TextUtils;
  * completion indicators defined in {@link RemoteCompletionInfo}
  * according to syncthing's REST "/completion" JSON result schema.
  * Completion model of syncthing's web UI is completion[deviceId][folderId]
+ *
+ * Each device is cached as an immutable {@link DeviceEntry} carrying its own completion
+ * totals. Updates replace the entry of one device and apply the difference to the
+ * published total across connected devices, so neither per-device nor total completion
+ * queries iterate the cache. Updates are serialized per lock stripe, so updates of
+ * different devices rarely block each other, and reads never block.
  */
 public class RemoteCompletion {
 
@@ -27,30 +33,116 @@ public class RemoteCompletion {
     private Boolean ENABLE_DEBUG_LOG = false;
     private Boolean ENABLE_VERBOSE_LOG = false;
 
-    HashMap<String, Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>>> mDeviceFolderMap =
-        new HashMap<String, Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>>>();
-
     /**
-     * Object that must be locked upon accessing mDeviceFolderMap.
+     * Immutable cache entry of a remote device.
      */
-    private final Object mDeviceFolderMapLock = new Object();
+    private static final class DeviceEntry {
+
+        static final DeviceEntry EMPTY = new DeviceEntry(
+                new Connection(),
+                Collections.emptyMap(),
+                CompletionSum.EMPTY,
+                0
+        );
+
+        final Connection connection;
+
+        /**
+         * Maps folderId to completion info, never modified after the entry was created.
+         */
+        final Map<String, RemoteCompletionInfo> folders;
+
+        /**
+         * Completion of folders shared with the device which are not up-to-date.
+         */
+        final CompletionSum completion;
+
+        final double needBytes;
+
+        DeviceEntry(Connection connection, Map<String, RemoteCompletionInfo> folders,
+                    CompletionSum completion, double needBytes) {
+            this.connection = connection;
+            this.folders = folders;
+            this.completion = completion;
+            this.needBytes = needBytes;
+        }
 
-    public RemoteCompletion(Boolean enableVerboseLog) {
-        ENABLE_VERBOSE_LOG = enableVerboseLog;
+        DeviceEntry withConnection(Connection newConnection) {
+            return new DeviceEntry(newConnection, folders, completion, needBytes);
+        }
+
+        /**
+         * Returns a copy with the folder added or replaced, or removed if completionInfo is null.
+         */
+        DeviceEntry withFolder(String folderId, RemoteCompletionInfo completionInfo) {
+            Map<String, RemoteCompletionInfo> newFolders = new HashMap<>(folders);
+            RemoteCompletionInfo oldInfo = (completionInfo == null)
+                    ? newFolders.remove(folderId)
+                    : newFolders.put(folderId, completionInfo);
+            return new DeviceEntry(
+                    connection,
+                    newFolders,
+                    completion.minus(getFolderCompletion(oldInfo)).plus(getFolderCompletion(completionInfo)),
+                    needBytes - getNeedBytes(oldInfo) + getNeedBytes(completionInfo)
+            );
+        }
+
+        /**
+         * Returns this device's share of the total across connected devices.
+         */
+        CompletionSum getTotalContribution() {
+            if (!connection.connected) {
+                return CompletionSum.EMPTY;
+            }
+            return new CompletionSum(1, completion.folderCount, completion.sumCompletion);
+        }
+
+        static DeviceEntry create(Connection connection, Map<String, RemoteCompletionInfo> folders) {
+            CompletionSum completion = CompletionSum.EMPTY;
+            double needBytes = 0;
+            for (RemoteCompletionInfo completionInfo : folders.values()) {
+                completion = completion.plus(getFolderCompletion(completionInfo));
+                needBytes += getNeedBytes(completionInfo);
+            }
+            return new DeviceEntry(connection, folders, completion, needBytes);
+        }
+
+        private static CompletionSum getFolderCompletion(RemoteCompletionInfo completionInfo) {
+            if (completionInfo == null) {
+                return CompletionSum.EMPTY;
+            }
+            double folderCompletion = Math.min(100, Math.max(0, completionInfo.completion));
+
+            // Syncthing's WebUI considers remote folders with 0% and 100% completion as up-to-date.
+            if (folderCompletion == 0 || folderCompletion == 100) {
+                return CompletionSum.EMPTY;
+            }
+            return CompletionSum.ofFolder(folderCompletion);
+        }
+
+        private static double getNeedBytes(RemoteCompletionInfo completionInfo) {
+            return (completionInfo == null) ? 0 : completionInfo.needBytes;
+        }
     }
 
+    private static final int LOCK_STRIPES = 16;
+
+    private final Map<String, DeviceEntry> mDeviceMap = new ConcurrentHashMap<>();
+
     /**
-     * Removes a folder from the cache model.
+     * Objects that must be locked upon replacing an entry of mDeviceMap, see {@link #getDeviceLock}.
      */
-    private void removeFolder(String folderId) {
-        synchronized(mDeviceFolderMapLock) {
-            for (Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>> folderMapEntry : mDeviceFolderMap.values()) {
-                HashMap<String, RemoteCompletionInfo> folderMap = folderMapEntry.getValue();
-                if (folderMap.containsKey(folderId)) {
-                    folderMap.remove(folderId);
-                    break;
-                }
-            }
+    private final Object[] mDeviceLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Sum of {@link DeviceEntry#getTotalContribution} of all entries in mDeviceMap.
+     */
+    private final AtomicReference<CompletionSum> mTotal = new AtomicReference<>(CompletionSum.EMPTY);
+
+    public RemoteCompletion(Boolean enableVerboseLog) {
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mDeviceLocks[i] = new Object();
         }
     }
 
@@ -59,80 +151,58 @@ public class RemoteCompletion {
      * after a config update.
      */
     public void updateFromConfig(final List<Device> newDevices, final List<Folder> newFolders) {
-        synchronized(mDeviceFolderMapLock) {
-            HashMap<String, RemoteCompletionInfo> folderMap;
-
-            // Handle devices that were removed from the config.
-            List<String> removedDevices = new ArrayList<>();
-            Boolean deviceFound;
-            for (String deviceId : mDeviceFolderMap.keySet()) {
-                deviceFound = false;
-                for (Device device : newDevices) {
-                    if (device.deviceID.equals(deviceId)) {
-                        deviceFound = true;
-                        break;
-                    }
-                }
-                if (!deviceFound) {
-                    removedDevices.add(deviceId);
-                }
-            }
-            for (String deviceId : removedDevices) {
-                LogV("updateFromConfig: Remove device '" + getShortenedDeviceId(deviceId) + "' from cache model");
-                mDeviceFolderMap.remove(deviceId);
-            }
-
-            // Handle devices that were added to the config.
-            for (Device device : newDevices) {
-                if (!mDeviceFolderMap.containsKey(device.deviceID)) {
-                    LogV("updateFromConfig: Add device '" + getShortenedDeviceId(device.deviceID) + "' to cache model");
-                    mDeviceFolderMap.put(
-                            device.deviceID,
-                            new SimpleEntry(
-                                    new Connection(),
-                                    new HashMap<String, RemoteCompletionInfo>()
-                            )
-                    );
+        // Collect the folders shared with each device.
+        Map<String, List<String>> deviceFolders = new HashMap<>();
+        for (Device device : newDevices) {
+            deviceFolders.put(device.deviceID, new ArrayList<>());
+        }
+        for (Folder folder : newFolders) {
+            for (SharedWithDevice sharedWithDevice : folder.getSharedWithDevices()) {
+                List<String> folderIds = deviceFolders.get(sharedWithDevice.deviceID);
+                if (folderIds != null) {
+                    folderIds.add(folder.id);
                 }
             }
+        }
 
-            // Handle folders that were removed from the config.
-            List<String> removedFolders = new ArrayList<>();
-            Boolean folderFound;
-            for (Map.Entry<String, Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>>> device : mDeviceFolderMap.entrySet()) {
-                //                            Map.Entry   HashMap    String
-                for (String folderId : device.getValue().getValue().keySet()) {
-                    folderFound = false;
-                    for (Folder folder : newFolders) {
-                        if (folder.id.equals(folderId)) {
-                            folderFound = true;
-                            break;
-                        }
-                    }
-                    if (!folderFound) {
-                        removedFolders.add(folderId);
+        // Handle devices that were removed from the config.
+        for (String deviceId : new ArrayList<>(mDeviceMap.keySet())) {
+            if (!deviceFolders.containsKey(deviceId)) {
+                LogV("updateFromConfig: Remove device '" + getShortenedDeviceId(deviceId) + "' from cache model");
+                synchronized (getDeviceLock(deviceId)) {
+                    DeviceEntry oldEntry = mDeviceMap.remove(deviceId);
+                    if (oldEntry != null) {
+                        CompletionSum.update(mTotal, oldEntry.getTotalContribution(), CompletionSum.EMPTY);
                     }
                 }
             }
-            for (String folderId : removedFolders) {
-                LogV("updateFromConfig: Remove folder '" + folderId + "' from cache model");
-                removeFolder(folderId);
-            }
+        }
 
-            // Handle folders that were added to the config.
-            for (Folder folder : newFolders) {
-                for (Device device : newDevices) {
-                    if (folder.getDevice(device.deviceID) != null) {
-                        // folder is shared with device.
-                        folderMap = mDeviceFolderMap.get(device.deviceID).getValue();
-                        if (!folderMap.containsKey(folder.id)) {
-                            LogV("updateFromConfig: Add folder '" + folder.id +
-                                    "' shared with device '" + getShortenedDeviceId(device.deviceID) + "' to cache model.");
-                            folderMap.put(folder.id, new RemoteCompletionInfo());
-                        }
+        // Handle devices and folders that were added to or removed from the config.
+        for (Map.Entry<String, List<String>> deviceFolder : deviceFolders.entrySet()) {
+            final String deviceId = deviceFolder.getKey();
+            final List<String> folderIds = deviceFolder.getValue();
+            updateDevice(deviceId, oldEntry -> {
+                if (oldEntry == DeviceEntry.EMPTY) {
+                    LogV("updateFromConfig: Add device '" + getShortenedDeviceId(deviceId) + "' to cache model");
+                }
+                Set<String> sharedFolderIds = new HashSet<>(folderIds);
+                if (oldEntry.folders.size() == sharedFolderIds.size() &&
+                        sharedFolderIds.containsAll(oldEntry.folders.keySet())) {
+                    return oldEntry;
+                }
+                Map<String, RemoteCompletionInfo> newFolderMap = new HashMap<>();
+                for (String folderId : sharedFolderIds) {
+                    RemoteCompletionInfo completionInfo = oldEntry.folders.get(folderId);
+                    if (completionInfo == null) {
+                        LogV("updateFromConfig: Add folder '" + folderId +
+                                "' shared with device '" + getShortenedDeviceId(deviceId) + "' to cache model.");
+                        completionInfo = new RemoteCompletionInfo();
                     }
+                    newFolderMap.put(folderId, completionInfo);
                 }
-            }
+                return DeviceEntry.create(oldEntry.connection, newFolderMap);
+            });
         }
     }
 
@@ -141,47 +211,11 @@ public class RemoteCompletion {
      * Returns "-1" if sync completion is not applicable.
      */
     public int getTotalDeviceCompletion() {
-        synchronized(mDeviceFolderMapLock) {
-            int connectedDeviceCount = 0;
-            int folderCount = 0;
-            double sumCompletion = 0;
-            for (Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>> device : mDeviceFolderMap.values()) {
-                if (!device.getKey().connected) {
-                    continue;
-                }
-                connectedDeviceCount++;
-
-                //                                                 HashMap   RemoteCompletionInfo
-                for (RemoteCompletionInfo completionInfo : device.getValue().values())
-                {
-                    double folderCompletion = completionInfo.completion;
-                    if (folderCompletion < 0) {
-                        folderCompletion = 0;
-                    } else if (folderCompletion > 100) {
-                        folderCompletion = 100;
-                    }
-
-                    // Syncthing's WebUI considers remote folders with 0% and 100% completion as up-to-date.
-                    if (folderCompletion != 0 && folderCompletion != 100) {
-                        sumCompletion += folderCompletion;
-                        folderCount++;
-                    }
-                }
-            }
-            if (connectedDeviceCount == 0) {
-                return -1;
-            }
-            if (folderCount == 0) {
-                return 100;
-            }
-            int totalDeviceCompletion = (int) Math.floor(sumCompletion / folderCount);
-            if (totalDeviceCompletion < 0) {
-                totalDeviceCompletion = 0;
-            } else if (totalDeviceCompletion > 100) {
-                totalDeviceCompletion = 100;
-            }
-            return totalDeviceCompletion;
+        CompletionSum total = mTotal.get();
+        if (total.deviceCount == 0) {
+            return -1;
         }
+        return total.getAverage();
     }
 
     /**
@@ -189,163 +223,101 @@ public class RemoteCompletion {
      * shared with the device.
      */
     public int getDeviceCompletion(String deviceId) {
-        synchronized(mDeviceFolderMapLock) {
-            if (!mDeviceFolderMap.containsKey(deviceId)) {
-                LogV("getDeviceCompletion: Cache miss for deviceId=[" + deviceId + "]");
-                return 100;
-            }
-
-            int folderCount = 0;
-            double sumCompletion = 0;
-            HashMap<String, RemoteCompletionInfo> folderMap = mDeviceFolderMap.get(deviceId).getValue();
-            if (folderMap != null) {
-                for (Map.Entry<String, RemoteCompletionInfo> folder : folderMap.entrySet()) {
-                    double folderCompletion = folder.getValue().completion;
-                    if (folderCompletion < 0) {
-                        folderCompletion = 0;
-                    } else if (folderCompletion > 100) {
-                        folderCompletion = 100;
-                    }
-
-                    // Syncthing's WebUI considers remote folders with 0% and 100% completion as up-to-date.
-                    if (folderCompletion != 0 && folderCompletion != 100) {
-                        sumCompletion += folderCompletion;
-                        folderCount++;
-                    }
-                }
-            }
-            if (folderCount == 0) {
-                return 100;
-            }
-            int deviceCompletion = (int) Math.floor(sumCompletion / folderCount);
-            if (deviceCompletion < 0) {
-                deviceCompletion = 0;
-            } else if (deviceCompletion > 100) {
-                deviceCompletion = 100;
-            }
-            return deviceCompletion;
+        DeviceEntry entry = mDeviceMap.get(deviceId);
+        if (entry == null) {
+            LogV("getDeviceCompletion: Cache miss for deviceId=[" + deviceId + "]");
+            return 100;
         }
+        return entry.completion.getAverage();
     }
 
     public double getDeviceNeedBytes(String deviceId) {
-        synchronized(mDeviceFolderMapLock) {
-            if (!mDeviceFolderMap.containsKey(deviceId)) {
-                LogV("getDeviceNeedBytes: Cache miss for deviceId=[" + deviceId + "]");
-                return 0;
-            }
-
-            double sumNeedBytes = 0;
-            HashMap<String, RemoteCompletionInfo> folderMap = mDeviceFolderMap.get(deviceId).getValue();
-            if (folderMap != null) {
-                for (Map.Entry<String, RemoteCompletionInfo> folder : folderMap.entrySet()) {
-                    sumNeedBytes += folder.getValue().needBytes;
-                }
-            }
-            return sumNeedBytes;
+        DeviceEntry entry = mDeviceMap.get(deviceId);
+        if (entry == null) {
+            LogV("getDeviceNeedBytes: Cache miss for deviceId=[" + deviceId + "]");
+            return 0;
         }
+        return entry.needBytes;
     }
 
     /**
      * Set completionInfo within the completion[deviceId][folderId] model.
+     * The caller must not modify completionInfo afterwards.
      */
     public void setCompletionInfo(String deviceId, String folderId,
                                     final RemoteCompletionInfo completionInfo) {
-        synchronized(mDeviceFolderMapLock) {
-            // Add device parent node if it does not exist.
-            if (!mDeviceFolderMap.containsKey(deviceId)) {
-                mDeviceFolderMap.put(
-                        deviceId,
-                        new SimpleEntry(
-                                new Connection(),
-                                new HashMap<String, RemoteCompletionInfo>()
-                        )
-                );
-            }
-            LogV("setCompletionInfo: Storing " + completionInfo.completion + "% for folder \"" +
-                    folderId + "\" at device \"" +
-                    getShortenedDeviceId(deviceId) + "\".");
-            // Add folder or update existing folder entry.
-            mDeviceFolderMap.get(deviceId).getValue().put(folderId, completionInfo);
-        }
+        LogV("setCompletionInfo: Storing " + completionInfo.completion + "% for folder \"" +
+                folderId + "\" at device \"" +
+                getShortenedDeviceId(deviceId) + "\".");
+        // Add device parent node if it does not exist, add folder or update existing folder entry.
+        updateDevice(deviceId, oldEntry -> oldEntry.withFolder(folderId, completionInfo));
     }
 
     /**
      * Returns remote device status.
+     * The returned object is shared and must not be modified, pass a modified
+     * {@link Connection#copy} to {@link #setDeviceStatus} instead.
      */
     public final Connection getDeviceStatus(final String deviceId) {
-        synchronized(mDeviceFolderMapLock) {
-            if (!mDeviceFolderMap.containsKey(deviceId)) {
-                return new Connection();
-            }
-            //                                      Map.Entry     Connection
-            Connection connection = mDeviceFolderMap.get(deviceId).getKey();
-            return deepCopy(connection, new TypeToken<Connection>(){}.getType());
+        DeviceEntry entry = mDeviceMap.get(deviceId);
+        if (entry == null) {
+            return new Connection();
         }
+        return entry.connection;
     }
 
     public int getOnlineDeviceCount() {
-        synchronized(mDeviceFolderMapLock) {
-            int onlineDeviceCount = 0;
-            for (Map.Entry<Connection, HashMap<String, RemoteCompletionInfo>> device : mDeviceFolderMap.values()) {
-                if (device.getKey().connected) {
-                    onlineDeviceCount++;
-                }
-            }
-            return onlineDeviceCount;
-        }
+        return mTotal.get().deviceCount;
     }
 
     /**
      * Store remote device status for later when we need info for the UI.
+     * The caller must not modify connection afterwards.
      */
     public void setDeviceStatus(final String deviceId,
                                     final Connection connection) {
-        synchronized(mDeviceFolderMapLock) {
-            // Add device parent node if it does not exist.
-            if (!mDeviceFolderMap.containsKey(deviceId)) {
-                mDeviceFolderMap.put(
-                        deviceId,
-                        new SimpleEntry(
-                                new Connection(),
-                                new HashMap<String, RemoteCompletionInfo>()
-                        )
-                );
-            }
-
-            if (ENABLE_DEBUG_LOG) {
-                Log.d(TAG, "setDeviceStatus: deviceId=\"" + deviceId + "\"" +
-                        ", connected=" + Boolean.toString(connection.connected) +
-                        ", paused=" + Boolean.toString(connection.paused)
-                );
-            }
-
-            // Update device status information.
-            Map.Entry updatedEntry = new SimpleEntry(
-                    deepCopy(connection, new TypeToken<Connection>(){}.getType()),
-                    deepCopy(
-                            mDeviceFolderMap.get(deviceId).getValue(),
-                            new TypeToken<HashMap<String, RemoteCompletionInfo>>(){}.getType()
-                    )
+        if (ENABLE_DEBUG_LOG) {
+            Log.d(TAG, "setDeviceStatus: deviceId=\"" + deviceId + "\"" +
+                    ", connected=" + Boolean.toString(connection.connected) +
+                    ", paused=" + Boolean.toString(connection.paused)
             );
-            mDeviceFolderMap.put(deviceId, updatedEntry);
         }
+        // Add device parent node if it does not exist, update device status information.
+        updateDevice(deviceId, oldEntry -> oldEntry.withConnection(connection));
+    }
+
+    private interface EntryUpdate {
+        DeviceEntry apply(DeviceEntry oldEntry);
     }
 
     /**
-     * Returns the first characters of the device ID for logging purposes.
+     * Replaces the entry of a device and updates the total accordingly.
+     * update receives {@link DeviceEntry#EMPTY} if the device is not cached yet.
      */
-    public String getShortenedDeviceId(String deviceId) {
-        return (TextUtils.isEmpty(deviceId) ? "" : deviceId.substring(0, 7));
+    private void updateDevice(final String deviceId, final EntryUpdate update) {
+        synchronized (getDeviceLock(deviceId)) {
+            DeviceEntry oldEntry = mDeviceMap.get(deviceId);
+            if (oldEntry == null) {
+                oldEntry = DeviceEntry.EMPTY;
+            }
+            DeviceEntry newEntry = update.apply(oldEntry);
+            if (newEntry == oldEntry) {
+                return;
+            }
+            mDeviceMap.put(deviceId, newEntry);
+            CompletionSum.update(mTotal, oldEntry.getTotalContribution(), newEntry.getTotalContribution());
+        }
+    }
+
+    private Object getDeviceLock(String deviceId) {
+        return mDeviceLocks[(deviceId.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
     }
 
     /**
-     * Returns a deep copy of object.
-     *
-     * This method uses Gson and only works with objects that can be converted with Gson.
+     * Returns the first characters of the device ID for logging purposes.
      */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
+    public String getShortenedDeviceId(String deviceId) {
+        return (TextUtils.isEmpty(deviceId) ? "" : deviceId.substring(0, 7));
     }
 
     private void LogV(String logMessage) {
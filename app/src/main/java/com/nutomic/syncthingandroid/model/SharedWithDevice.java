@@ -2,7 +2,7 @@ package com.nutomic.syncthingandroid.model;
 
 import android.text.TextUtils;
 
-public class SharedWithDevice {
+public class SharedWithDevice implements Cloneable {
     public String deviceID;
     public String introducedBy = "";
 
@@ -16,4 +16,17 @@ public class SharedWithDevice {
     public String getDisplayName() {
         return (TextUtils.isEmpty(deviceID) ? "" : deviceID.substring(0, 7));
     }
+
+    /**
+     * Returns a deep copy of this object.
+     */
+    public SharedWithDevice copy() {
+        SharedWithDevice copy;
+        try {
+            copy = (SharedWithDevice) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copy;
+    }
 }
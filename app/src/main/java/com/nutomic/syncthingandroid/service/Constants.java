@@ -238,6 +238,15 @@ public class Constants {
         return new File(context.getFilesDir(), HTTPS_KEY_FILE);
     }
 
+    /**
+     * Name of the file in the cache directory persisting recent changes.
+     */
+    private static final String DISK_EVENT_FEED_FILE = "disk-events.json";
+
+    public static File getDiskEventFeedFile(Context context) {
+        return new File(context.getCacheDir(), DISK_EVENT_FEED_FILE);
+    }
+
     /**
      * Name of the file holding the SharedPreferences backup.
      * Do not use getCacheDir() because the path to import will then be wrong as
@@ -1,19 +1,18 @@
 package com.nutomic.syncthingandroid.service;
 
 import android.app.PendingIntent;
-import android.content.AsyncQueryHandler;
-import android.content.ContentResolver;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.media.MediaScannerConnection;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
-import android.provider.MediaStore;
+import android.os.PowerManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.core.content.ContextCompat;
 import androidx.core.util.Consumer;
 
 import com.annimon.stream.Stream;
@@ -41,6 +40,8 @@ import javax.inject.Inject;
  * Run by the syncthing service to convert syncthing events into local broadcasts.
  *
  * It uses {@link RestApi#getEvents} to read the pending events and wait for new events.
+ * One long-polling request is kept open at a time, syncthing answers it as soon as new
+ * events occur. Polling is throttled while the screen is off and paused during Doze.
  */
 public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener {
 
@@ -49,11 +50,24 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
     private Boolean ENABLE_VERBOSE_LOG = false;
 
     /**
-     * Minimum interval in seconds at which the events are polled from syncthing and processed.
+     * Minimum interval in seconds at which the events are polled from syncthing and processed
+     * while the screen is off. Bursts of events are collected into one batch meanwhile.
      * This interval will not wake up the device to save battery power.
      */
     private static final long EVENT_UPDATE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
 
+    /**
+     * Seconds syncthing holds a long-polling request open if no new event occurs.
+     */
+    private static final int EVENT_LONG_POLL_TIMEOUT_S = 60;
+
+    /**
+     * Bounds of the delay before retrying after a failed event request.
+     * The delay doubles on each consecutive failure.
+     */
+    private static final long EVENT_RETRY_DELAY_MIN = TimeUnit.SECONDS.toMillis(1);
+    private static final long EVENT_RETRY_DELAY_MAX = TimeUnit.MINUTES.toMillis(1);
+
     /**
      * Use the MainThread for all callbacks and message handling
      * or we have to track down nasty threading problems.
@@ -63,8 +77,20 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
     private volatile long mLastEventId = 0;
     private volatile boolean mShutdown = true;
 
+    /**
+     * The following variables are only accessed from the main thread.
+     */
+    private boolean mRequestPending = false;
+    private boolean mDeviceIdle = false;
+    private boolean mScreenOn = true;
+    private long mRetryDelay = EVENT_RETRY_DELAY_MIN;
+
+    private final Runnable mPollEventsRunnable = this::pollEvents;
+    private final BroadcastReceiver mPowerStateReceiver = new PowerStateReceiver();
+
     private final Context mContext;
     private final RestApi mRestApi;
+    private final MediaStoreUpdater mMediaStoreUpdater;
     @Inject SharedPreferences mPreferences;
     @Inject NotificationHandler mNotificationHandler;
 
@@ -73,10 +99,15 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
         ENABLE_VERBOSE_LOG = AppPrefs.getPrefVerboseLog(mPreferences);
         mContext = context;
         mRestApi = restApi;
+        mMediaStoreUpdater = new MediaStoreUpdater(context, ENABLE_VERBOSE_LOG);
     }
 
     @Override
     public void run() {
+        if (mShutdown || mDeviceIdle || mRequestPending) {
+            return;
+        }
+
         // Restore the last event id if the event processor may have been restarted.
         if (mLastEventId == 0) {
             mLastEventId = mPreferences.getLong(Constants.PREF_EVENT_PROCESSOR_LAST_SYNC_ID, 0);
@@ -84,9 +115,11 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
 
         // First check if the event number ran backwards.
         // If that's the case we've to start at zero because syncthing was restarted.
+        mRequestPending = true;
         mRestApi.getEvents(0, 1, new RestApi.OnReceiveEventListener() {
             @Override
             public void onError() {
+                EventProcessor.this.onError();
             }
 
             @Override
@@ -95,15 +128,27 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
 
             @Override
             public void onDone(long lastId) {
+                mRequestPending = false;
                 if (lastId < mLastEventId) mLastEventId = 0;
 
                 LogV("Reading events starting with id " + mLastEventId);
 
-                mRestApi.getEvents(mLastEventId, 0, EventProcessor.this);
+                pollEvents();
             }
         });
     }
 
+    /**
+     * Opens a long-polling request returning as soon as events after mLastEventId are available.
+     */
+    private void pollEvents() {
+        if (mShutdown || mDeviceIdle || mRequestPending) {
+            return;
+        }
+        mRequestPending = true;
+        mRestApi.getEvents(mLastEventId, 0, EVENT_LONG_POLL_TIMEOUT_S, this);
+    }
+
     /**
      * Performs the actual event handling.
      */
@@ -113,7 +158,7 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
             case "ConfigSaved":
                 if (mRestApi != null) {
                     LogV("Forwarding ConfigSaved event to RestApi to get the updated config.");
-                    mRestApi.reloadConfig();
+                    mRestApi.onConfigSaved(((JsonObject) json).get("data"));
                 }
                 break;
             case "DeviceConnected":
@@ -188,6 +233,7 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
                     if (TextUtils.isEmpty(error)) {
                         // We don't intend to show errors as the last synced item on the UI.
                         mRestApi.setLocalFolderLastItemFinished(folderId, action, relativeFilePath, event.time);
+                        mRestApi.onFolderFileChanged(folderId, relativeFilePath);
                     }
                     onItemFinished(action, error, folderType, folderPath + File.separator + relativeFilePath);
                 } else {
@@ -247,6 +293,8 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
 
     @Override
     public void onDone(long id) {
+        mRequestPending = false;
+        mRetryDelay = EVENT_RETRY_DELAY_MIN;
         if (mLastEventId < id) {
             mLastEventId = id;
 
@@ -256,32 +304,49 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
 
         synchronized (mMainThreadHandler) {
             if (!mShutdown) {
-                mMainThreadHandler.removeCallbacks(this);
-                mMainThreadHandler.postDelayed(this, EVENT_UPDATE_INTERVAL);
+                removeCallbacks();
+                /**
+                 * An empty result means the long-polling request timed out. Check if the
+                 * event number ran backwards in the meantime before polling again.
+                 */
+                Runnable next = (id == 0) ? this : mPollEventsRunnable;
+                mMainThreadHandler.postDelayed(next, mScreenOn ? 0 : EVENT_UPDATE_INTERVAL);
             }
         }
     }
 
     @Override
     public void onError() {
+        mRequestPending = false;
         synchronized (mMainThreadHandler) {
             if (!mShutdown) {
-                Log.d(TAG, "Event sink aborted, will retry in " + Long.toString(EVENT_UPDATE_INTERVAL) + " ms");
-                mMainThreadHandler.removeCallbacks(this);
-                mMainThreadHandler.postDelayed(this, EVENT_UPDATE_INTERVAL);
+                Log.d(TAG, "Event sink aborted, will retry in " + Long.toString(mRetryDelay) + " ms");
+                removeCallbacks();
+                mMainThreadHandler.postDelayed(this, mRetryDelay);
+                mRetryDelay = Math.min(mRetryDelay * 2, EVENT_RETRY_DELAY_MAX);
             }
         }
     }
 
     public void start() {
         Log.d(TAG, "Starting event processor.");
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            mScreenOn = powerManager.isInteractive();
+            mDeviceIdle = powerManager.isDeviceIdleMode();
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        ContextCompat.registerReceiver(mContext, mPowerStateReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
 
         // Remove all pending callbacks and add a new one. This makes sure that only one
         // event poller is running at any given time.
         synchronized (mMainThreadHandler) {
             mShutdown = false;
-            mMainThreadHandler.removeCallbacks(this);
-            mMainThreadHandler.postDelayed(this, EVENT_UPDATE_INTERVAL);
+            removeCallbacks();
+            mMainThreadHandler.post(this);
         }
     }
 
@@ -289,7 +354,59 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
         Log.d(TAG, "Stopping event processor.");
         synchronized (mMainThreadHandler) {
             mShutdown = true;
-            mMainThreadHandler.removeCallbacks(this);
+            removeCallbacks();
+        }
+        try {
+            mContext.unregisterReceiver(mPowerStateReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "stop: mPowerStateReceiver was not registered");
+        }
+        mMediaStoreUpdater.shutdown();
+    }
+
+    private void removeCallbacks() {
+        mMainThreadHandler.removeCallbacks(this);
+        mMainThreadHandler.removeCallbacks(mPollEventsRunnable);
+    }
+
+    /**
+     * Throttles event polling while the screen is off and pauses it during Doze.
+     * Network access is suspended during Doze anyway, syncthing keeps buffering the events
+     * and we catch up when the device leaves idle mode.
+     */
+    private class PowerStateReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getAction() == null) {
+                return;
+            }
+            switch (intent.getAction()) {
+                case Intent.ACTION_SCREEN_ON:
+                    mScreenOn = true;
+                    break;
+                case Intent.ACTION_SCREEN_OFF:
+                    mScreenOn = false;
+                    return;
+                case PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED:
+                    PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                    mDeviceIdle = powerManager != null && powerManager.isDeviceIdleMode();
+                    LogV("Device idle mode changed, mDeviceIdle=" + mDeviceIdle);
+                    break;
+                default:
+                    return;
+            }
+            synchronized (mMainThreadHandler) {
+                if (mShutdown) {
+                    return;
+                }
+                if (mDeviceIdle) {
+                    removeCallbacks();
+                } else if (!mRequestPending) {
+                    // Poll right away instead of waiting for a throttled or backed-off retry.
+                    removeCallbacks();
+                    mMainThreadHandler.post(EventProcessor.this);
+                }
+            }
         }
     }
 
@@ -432,26 +549,12 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
 
         switch (action) {
             case "delete":          // file deleted
-                if (new File(fullFilePath).exists()) {
-                    Log.i(TAG, "onItemFinished: MediaStore, Skip file deletion because file exists: " + fullFilePath);
-                    break;
-                }
-                Log.i(TAG, "onItemFinished: MediaStore, Deleting file: " + fullFilePath);
-                Uri contentUri = MediaStore.Files.getContentUri("external");
-                ContentResolver resolver = mContext.getContentResolver();
-                LoggingAsyncQueryHandler asyncQueryHandler = new LoggingAsyncQueryHandler(resolver);
-                asyncQueryHandler.startDelete(
-                    0,                          // this will be passed to "onUpdatedComplete#token"
-                    fullFilePath,               // this will be passed to "onUpdatedComplete#cookie"
-                    contentUri,
-                    MediaStore.Images.ImageColumns.DATA + " = ?",
-                    new String[]{fullFilePath}
-                );
+                LogV("onItemFinished: MediaStore, Queueing file deletion: " + fullFilePath);
+                mMediaStoreUpdater.scheduleDelete(fullFilePath);
                 break;
             case "update":          // file contents changed
-                Log.i(TAG, "onItemFinished: MediaScanner, Rescanning file: " + fullFilePath);
-                MediaScannerConnection.scanFile(mContext, new String[]{fullFilePath},
-                        null, null);
+                LogV("onItemFinished: MediaScanner, Queueing file rescan: " + fullFilePath);
+                mMediaStoreUpdater.scheduleScan(fullFilePath);
                 break;
             case "metadata":        // file metadata changed but not contents
                 Log.i(TAG, "onItemFinished: MediaScanner, Skipping file: " + fullFilePath);
@@ -479,6 +582,7 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
             if (!TextUtils.isEmpty(filename)) {
                 filename = filename.replaceAll("^\"|\"$", "");
                 LogV("onLocalIndexUpdated: filename=[" + filename + "], time=[" + dateTimeStamp + "]");
+                mRestApi.onFolderFileChanged(folderId, filename);
                 if (i == filenames.size() - 1) {
                     // Send the last (latest) local change to the UI.
                     mRestApi.setLocalFolderLastItemFinished(
@@ -524,21 +628,6 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
         // LogV("onStateChanged: folder=[" + folderId + "], newState=[" + newState + "]");
     }
 
-    private static class LoggingAsyncQueryHandler extends AsyncQueryHandler {
-
-        public LoggingAsyncQueryHandler(ContentResolver contentResolver) {
-            super(contentResolver);
-        }
-
-        @Override
-        protected void onDeleteComplete(int token, Object cookie, int result) {
-            super.onUpdateComplete(token, cookie, result);
-            if (result == 1 && cookie != null) {
-                // Log.v(TAG, "onItemFinished: onDeleteComplete: [ok] file=" + cookie.toString() + ", token=" + Integer.toString(token));
-            }
-        }
-    }
-
     private <T> void mapNullable(List<T> l, Consumer<T> c) {
         if (l != null) {
             for (T m : l) {
@@ -0,0 +1,255 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import com.nutomic.syncthingandroid.model.Folder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs workloads that follow the completion of a folder, e.g. scanning for sync conflicts,
+ * running the folder's script set and notifying third-party apps.
+ *
+ * Jobs of one folder run one after another, jobs of different folders run in parallel on a
+ * bounded pool, so a slow folder does not delay the others. Completions reported while a job
+ * of the folder is still waiting are merged into that job instead of queuing another one.
+ */
+public class FolderFinisherScheduler {
+
+    private static final String TAG = "FolderFinisherScheduler";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    private static final int MAX_THREADS = 4;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Work requested for a folder. Fields are final once the job was handed to the {@link Runner}.
+     */
+    public static class Job {
+        public final String folderId;
+
+        /**
+         * Config of the folder at the time of the latest merged completion.
+         */
+        public Folder folder;
+
+        public boolean scanConflicts = false;
+
+        /**
+         * Maps deviceId to folder state of each device that completed the folder.
+         */
+        public final Map<String, String> syncCompletedDevices = new LinkedHashMap<>();
+
+        /**
+         * Number of completions merged into this job.
+         */
+        int completions = 0;
+
+        /**
+         * Timestamp of the first completion in {@link SystemClock#elapsedRealtime} ms.
+         */
+        final long queuedAt = SystemClock.elapsedRealtime();
+
+        Job(String folderId) {
+            this.folderId = folderId;
+        }
+    }
+
+    public interface Runner {
+        void run(Job job);
+    }
+
+    /**
+     * Queue depth and latency of a folder's jobs, latency is measured from the first
+     * completion merged into a job until the job finished.
+     */
+    public static class FolderStats {
+        public int queueDepth = 0;
+        public boolean running = false;
+        public int runs = 0;
+        public int mergedCompletions = 0;
+        public long lastLatencyMs = 0;
+        public long maxLatencyMs = 0;
+        public long averageLatencyMs = 0;
+    }
+
+    private static class FolderQueue {
+        /**
+         * Job waiting for the running one to finish, null if there is none.
+         */
+        Job pending = null;
+        boolean running = false;
+        int runs = 0;
+        int mergedCompletions = 0;
+        long lastLatencyMs = 0;
+        long maxLatencyMs = 0;
+        long totalLatencyMs = 0;
+    }
+
+    private final Runner mRunner;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Object that must be locked upon accessing mFolderQueues, its contents and mShutdown.
+     */
+    private final Object mLock = new Object();
+
+    private final Map<String, FolderQueue> mFolderQueues = new HashMap<>();
+
+    private boolean mShutdown = false;
+
+    public FolderFinisherScheduler(Runner runner, Boolean enableVerboseLog) {
+        mRunner = runner;
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+        int threads = Math.max(2, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        mExecutor = new ThreadPoolExecutor(threads, threads,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Requests work after the folder completed, merging it into a waiting job of the folder.
+     *
+     * @param syncCompletedDeviceId Device which completed the folder if the script set and
+     *                              broadcast should run, null to only scan for conflicts.
+     */
+    public void submit(final Folder folder, final boolean scanConflicts,
+                       @Nullable final String syncCompletedDeviceId, final String folderState) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            FolderQueue queue = mFolderQueues.get(folder.id);
+            if (queue == null) {
+                queue = new FolderQueue();
+                mFolderQueues.put(folder.id, queue);
+            }
+            Job job = queue.pending;
+            if (job == null) {
+                job = new Job(folder.id);
+                queue.pending = job;
+            } else {
+                queue.mergedCompletions++;
+                LogV("submit: Merged completion of folder '" + folder.id + "' into waiting job");
+            }
+            job.folder = folder;
+            job.scanConflicts |= scanConflicts;
+            if (syncCompletedDeviceId != null) {
+                job.syncCompletedDevices.put(syncCompletedDeviceId, folderState);
+            }
+            job.completions++;
+            if (!queue.running) {
+                dispatch(queue);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the folder's statistics, null if no job was submitted for it.
+     */
+    @Nullable
+    public FolderStats getStats(final String folderId) {
+        synchronized (mLock) {
+            FolderQueue queue = mFolderQueues.get(folderId);
+            if (queue == null) {
+                return null;
+            }
+            FolderStats stats = new FolderStats();
+            stats.queueDepth = (queue.pending == null) ? 0 : queue.pending.completions;
+            stats.running = queue.running;
+            stats.runs = queue.runs;
+            stats.mergedCompletions = queue.mergedCompletions;
+            stats.lastLatencyMs = queue.lastLatencyMs;
+            stats.maxLatencyMs = queue.maxLatencyMs;
+            stats.averageLatencyMs = (queue.runs == 0) ? 0 : queue.totalLatencyMs / queue.runs;
+            return stats;
+        }
+    }
+
+    /**
+     * Drops statistics of idle folders which are no longer configured.
+     */
+    public void retainFolders(final Collection<String> folderIds) {
+        synchronized (mLock) {
+            Iterator<Map.Entry<String, FolderQueue>> it = mFolderQueues.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, FolderQueue> entry = it.next();
+                FolderQueue queue = entry.getValue();
+                if (!folderIds.contains(entry.getKey()) && !queue.running && queue.pending == null) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized (mLock) {
+            return mShutdown;
+        }
+    }
+
+    /**
+     * Drops waiting jobs and interrupts running ones.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            for (FolderQueue queue : mFolderQueues.values()) {
+                queue.pending = null;
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Starts the waiting job of the folder.
+     * Precondition: mLock is held, queue is not running and has a pending job.
+     */
+    private void dispatch(final FolderQueue queue) {
+        final Job job = queue.pending;
+        queue.pending = null;
+        queue.running = true;
+        mExecutor.execute(() -> runJob(queue, job));
+    }
+
+    private void runJob(final FolderQueue queue, final Job job) {
+        try {
+            mRunner.run(job);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "runJob: Job of folder '" + job.folderId + "' failed", e);
+        } finally {
+            long latencyMs = SystemClock.elapsedRealtime() - job.queuedAt;
+            synchronized (mLock) {
+                queue.running = false;
+                queue.runs++;
+                queue.lastLatencyMs = latencyMs;
+                queue.maxLatencyMs = Math.max(queue.maxLatencyMs, latencyMs);
+                queue.totalLatencyMs += latencyMs;
+                LogV("runJob: Finished folder '" + job.folderId + "' in " + latencyMs +
+                        " ms, completions=" + job.completions +
+                        ", queueDepth=" + ((queue.pending == null) ? 0 : queue.pending.completions));
+                if (!mShutdown && queue.pending != null) {
+                    dispatch(queue);
+                }
+            }
+        }
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
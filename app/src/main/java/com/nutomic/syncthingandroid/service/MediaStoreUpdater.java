@@ -0,0 +1,191 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects file changes reported by {@link EventProcessor} and forwards them to Android's
+ * MediaStore in batches instead of issuing one binder call per file.
+ *
+ * Changes are collected for {@link #FLUSH_DELAY}. If a file is updated and deleted within
+ * that window, only the latest action is applied. Rescans are issued through one
+ * {@link MediaScannerConnection#scanFile} call per batch, deletions through one
+ * {@link ContentResolver#applyBatch} call per batch.
+ */
+public class MediaStoreUpdater {
+
+    private static final String TAG = "MediaStoreUpdater";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    /**
+     * Time window in which changes are collected before they are passed to the MediaStore.
+     */
+    private static final long FLUSH_DELAY = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * Pending changes are flushed immediately once this many paths are queued.
+     */
+    private static final int MAX_PENDING_PATHS = 1000;
+
+    /**
+     * Maximum number of paths passed to the MediaStore in a single call.
+     */
+    private static final int MAX_BATCH_SIZE = 200;
+
+    private final Context mContext;
+
+    /**
+     * Maps full file path to true if the file should be removed from the MediaStore,
+     * false if it should be rescanned.
+     */
+    private final LinkedHashMap<String, Boolean> mPendingPaths = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Object that must be locked upon accessing mPendingPaths, mScheduledFlush
+     */
+    private final Object mPendingLock = new Object();
+
+    private ScheduledFuture<?> mScheduledFlush = null;
+
+    public MediaStoreUpdater(Context context, Boolean enableVerboseLog) {
+        mContext = context;
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+    }
+
+    /**
+     * Queues a file whose contents changed for rescanning.
+     */
+    public void scheduleScan(String fullFilePath) {
+        enqueue(fullFilePath, false);
+    }
+
+    /**
+     * Queues a deleted file for removal from the MediaStore.
+     */
+    public void scheduleDelete(String fullFilePath) {
+        enqueue(fullFilePath, true);
+    }
+
+    /**
+     * Stops accepting new changes. Pending changes are still passed to the MediaStore
+     * by a final flush on the background thread, this does not wait for it.
+     */
+    public void shutdown() {
+        synchronized (mPendingLock) {
+            if (mExecutor.isShutdown()) {
+                return;
+            }
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            mExecutor.execute(this::flush);
+            mExecutor.shutdown();
+        }
+    }
+
+    private void enqueue(String fullFilePath, Boolean delete) {
+        synchronized (mPendingLock) {
+            if (mExecutor.isShutdown()) {
+                Log.w(TAG, "enqueue: Dropping MediaStore update after shutdown: " + fullFilePath);
+                return;
+            }
+            // Re-insert so the latest action for a path wins and keeps its order.
+            mPendingPaths.remove(fullFilePath);
+            mPendingPaths.put(fullFilePath, delete);
+            if (mPendingPaths.size() >= MAX_PENDING_PATHS) {
+                if (mScheduledFlush != null) {
+                    mScheduledFlush.cancel(false);
+                }
+                mScheduledFlush = null;
+                mExecutor.execute(this::flush);
+            } else if (mScheduledFlush == null) {
+                mScheduledFlush = mExecutor.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        List<String> scanPaths = new ArrayList<>();
+        List<String> deletePaths = new ArrayList<>();
+        synchronized (mPendingLock) {
+            mScheduledFlush = null;
+            for (Map.Entry<String, Boolean> entry : mPendingPaths.entrySet()) {
+                if (entry.getValue()) {
+                    deletePaths.add(entry.getKey());
+                } else {
+                    scanPaths.add(entry.getKey());
+                }
+            }
+            mPendingPaths.clear();
+        }
+        if (!scanPaths.isEmpty()) {
+            for (int i = 0; i < scanPaths.size(); i += MAX_BATCH_SIZE) {
+                List<String> batch = scanPaths.subList(i, Math.min(i + MAX_BATCH_SIZE, scanPaths.size()));
+                Log.i(TAG, "flush: MediaScanner, Rescanning " + batch.size() + " file(s)");
+                MediaScannerConnection.scanFile(mContext, batch.toArray(new String[0]), null, null);
+            }
+        }
+        if (!deletePaths.isEmpty()) {
+            applyDeletes(deletePaths);
+        }
+    }
+
+    private void applyDeletes(List<String> deletePaths) {
+        Uri contentUri = MediaStore.Files.getContentUri("external");
+        ContentResolver resolver = mContext.getContentResolver();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (String fullFilePath : deletePaths) {
+            if (new File(fullFilePath).exists()) {
+                Log.i(TAG, "applyDeletes: MediaStore, Skip file deletion because file exists: " + fullFilePath);
+                continue;
+            }
+            LogV("applyDeletes: MediaStore, Deleting file: " + fullFilePath);
+            operations.add(ContentProviderOperation.newDelete(contentUri)
+                    .withSelection(MediaStore.Images.ImageColumns.DATA + " = ?", new String[]{fullFilePath})
+                    .build());
+            if (operations.size() >= MAX_BATCH_SIZE) {
+                applyBatch(resolver, operations);
+                operations = new ArrayList<>();
+            }
+        }
+        if (!operations.isEmpty()) {
+            applyBatch(resolver, operations);
+        }
+    }
+
+    private void applyBatch(ContentResolver resolver, ArrayList<ContentProviderOperation> operations) {
+        Log.i(TAG, "applyBatch: MediaStore, Deleting " + operations.size() + " file(s)");
+        try {
+            resolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SecurityException e) {
+            Log.w(TAG, "applyBatch: Failed to delete files from MediaStore", e);
+        }
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
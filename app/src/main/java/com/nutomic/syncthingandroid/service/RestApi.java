@@ -8,6 +8,7 @@ import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.preference.PreferenceManager;
 
 import com.annimon.stream.Stream;
@@ -17,14 +18,16 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.activities.ShareActivity;
 import com.nutomic.syncthingandroid.http.GetRequest;
 import com.nutomic.syncthingandroid.http.PostRequest;
+import com.nutomic.syncthingandroid.http.PutRequest;
 import com.nutomic.syncthingandroid.model.CachedFolderStatus;
 import com.nutomic.syncthingandroid.model.CompletionInfo;
 import com.nutomic.syncthingandroid.model.Config;
@@ -57,7 +60,7 @@ import com.nutomic.syncthingandroid.util.Util;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -67,12 +70,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -88,6 +91,12 @@ public class RestApi {
 
     private Boolean ENABLE_VERBOSE_LOG = false;
 
+    /**
+     * Seconds a request to {@link GetRequest#URI_EVENTS} may take on top of the
+     * long-polling timeout requested from syncthing.
+     */
+    private static final int EVENT_REQUEST_TIMEOUT_GRACE_S = 10;
+
     /**
      * Intents we sent to to other apps that subscribed to us.
      */
@@ -141,6 +150,19 @@ public class RestApi {
      */
     private long mPreviousConnectionTime = 0;
 
+    /**
+     * Shares periodic status queries between UI components, see {@link #subscribeSystemStatus}
+     * and {@link #subscribeDeviceStatus}.
+     */
+    private final RestPollScheduler mPollScheduler;
+
+    private final SyncConflictIndex mSyncConflictIndex;
+
+    /**
+     * Runs workloads after folder completion, see {@link #runFolderFinisher}.
+     */
+    private final FolderFinisherScheduler mFolderFinisher;
+
     /**
      * In the last-finishing {@link #readConfigFromRestApi} callback, we have to call
      * {@link SyncthingService#onApiAvailable} to indicate that the RestApi class is fully initialized.
@@ -160,10 +182,54 @@ public class RestApi {
     private final Object mAsyncQueryCompleteLock = new Object();
 
     /**
-     * Object that must be locked upon accessing mConfig
+     * Object that must be locked upon accessing mConfig, mConfigSnapshot, mLastSentConfigJson
      */
     private final Object mConfigLock = new Object();
 
+    /**
+     * Config last sent by {@link ConfigTransaction#commit}, serialized by mGson, until a
+     * "ConfigSaved" event carrying the same config was received. mConfig already holds
+     * that config, so the event needs no reload. Null if nothing is expected.
+     */
+    private String mLastSentConfigJson = null;
+
+    /**
+     * Read-only copy of mConfig shared by all readers. It is dropped whenever mConfig
+     * is modified and lazily rebuilt on the next read, so reads do not copy the config.
+     */
+    private ConfigSnapshot mConfigSnapshot = null;
+
+    private static class ConfigSnapshot {
+        /**
+         * Sorted by {@link #FOLDERS_COMPARATOR} with "~/" expanded in paths.
+         */
+        final List<Folder> folders;
+        final Map<String, Folder> foldersById;
+        final List<Device> devices;
+        final Options options;
+        final Gui gui;
+
+        ConfigSnapshot(final Config config) {
+            folders = new ArrayList<>(config.folders.size());
+            foldersById = new HashMap<>();
+            for (Folder folder : config.folders) {
+                Folder copy = folder.copy();
+                if (copy.path.startsWith("~/")) {
+                    copy.path = copy.path.replaceFirst("^~", FileUtils.getSyncthingTildeAbsolutePath());
+                }
+                folders.add(copy);
+                foldersById.put(copy.id, copy);
+            }
+            Collections.sort(folders, FOLDERS_COMPARATOR);
+            devices = new ArrayList<>(config.devices.size());
+            for (Device device : config.devices) {
+                devices.add(device.copy());
+            }
+            options = (config.options == null) ? null : config.options.copy();
+            gui = (config.gui == null) ? null : config.gui.copy();
+        }
+    }
+
     /**
      * Stores the latest result of device and folder completion events.
      */
@@ -176,8 +242,6 @@ public class RestApi {
 
     private Gson mGson;
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
-
     @Inject NotificationHandler mNotificationHandler;
 
     public RestApi(Context context, URL url, String apiKey, OnApiAvailableListener apiListener,
@@ -191,7 +255,20 @@ public class RestApi {
         mOnConfigChangedListener = configListener;
         mLocalCompletion = new LocalCompletion(ENABLE_VERBOSE_LOG);
         mRemoteCompletion = new RemoteCompletion(ENABLE_VERBOSE_LOG);
+        mSyncConflictIndex = new SyncConflictIndex(ENABLE_VERBOSE_LOG);
+        mFolderFinisher = new FolderFinisherScheduler(this::runFolderFinisher, ENABLE_VERBOSE_LOG);
         mGson = getGson();
+        mPollScheduler = new RestPollScheduler((path, parser, onSuccess, onError) ->
+                new GetRequest(mContext, mUrl, path, mApiKey, null, parser, onSuccess, onError),
+                ENABLE_VERBOSE_LOG);
+        mPollScheduler.registerEndpoint(GetRequest.URI_SYSTEM_STATUS,
+                reader -> mGson.fromJson(reader, SystemStatus.class), null);
+        mPollScheduler.registerEndpoint(GetRequest.URI_CONNECTIONS,
+                reader -> mGson.fromJson(reader, Connections.class), this::onReceiveConnections);
+        mPollScheduler.registerEndpoint(GetRequest.URI_STATS_DEVICE,
+                reader -> mGson.<Map<String, DeviceStat>>fromJson(reader,
+                        new TypeToken<Map<String, DeviceStat>>(){}.getType()),
+                this::onReceiveDeviceStats);
     }
 
     public interface OnApiAvailableListener {
@@ -278,6 +355,34 @@ public class RestApi {
         }, 10000); 
     }
 
+    /**
+     * Called by {@link EventProcessor} on "ConfigSaved" events.
+     * Reloads the config, unless the saved config is the one sent by the last
+     * {@link ConfigTransaction}. Any other save, e.g. from the web GUI, is reloaded.
+     *
+     * @param savedConfig The event's data, which is the config Syncthing saved.
+     */
+    public void onConfigSaved(@Nullable JsonElement savedConfig) {
+        if (savedConfig != null) {
+            String savedConfigJson;
+            try {
+                // Serialize through our model, so fields we don't know about are left out.
+                savedConfigJson = mGson.toJson(mGson.fromJson(savedConfig, Config.class));
+            } catch (JsonParseException e) {
+                Log.w(TAG, "onConfigSaved: Failed to parse event data", e);
+                savedConfigJson = null;
+            }
+            synchronized (mConfigLock) {
+                if (mLastSentConfigJson != null && mLastSentConfigJson.equals(savedConfigJson)) {
+                    mLastSentConfigJson = null;
+                    LogV("onConfigSaved: Skipping reload after own config transaction");
+                    return;
+                }
+            }
+        }
+        reloadConfig();
+    }
+
     public void reloadConfig() {
         new GetRequest(mContext, mUrl, GetRequest.URI_CONFIG, mApiKey, null, this::onReloadConfigComplete, error -> {});
     }
@@ -286,6 +391,7 @@ public class RestApi {
         Boolean configParseSuccess;
         synchronized(mConfigLock) {
             mConfig = mGson.fromJson(configResult, Config.class);
+            mConfigSnapshot = null;
             configParseSuccess = mConfig != null;
         }
         if (!configParseSuccess) {
@@ -300,7 +406,7 @@ public class RestApi {
             }
 
             // Loop through devices to get ignoredFolders per device.
-            for (final Device device : getDevices(false)) {
+            for (final Device device : getConfigSnapshot().devices) {
                 String logIgnoredFolders = mGson.toJson(device.ignoredFolders);
                 if (!logIgnoredFolders.equals("[]")) {
                     LogV("ORCC: device[" + device.getDisplayName() + "].ignoredFolders = " + logIgnoredFolders);
@@ -369,12 +475,12 @@ public class RestApi {
                     }
                     final PendingFolder pendingFolder = mGson.fromJson(offeredByEntry.getValue(), PendingFolder.class);
                     Log.d(TAG, "ORCC: resultFolderId = " + resultFolderId + "('" + pendingFolder.label + "')");
-                    Device matchingDevice = Stream.of(getDevices(false))
+                    ConfigSnapshot configSnapshot = getConfigSnapshot();
+                    Device matchingDevice = Stream.of(configSnapshot.devices)
                             .filter(d -> d.deviceID.equals(offeredByDeviceId))
                             .findFirst()
                             .get();
-                    Boolean isNewFolder = Stream.of(getFolders())
-                            .noneMatch(f -> f.id.equals(resultFolderId));
+                    Boolean isNewFolder = !configSnapshot.foldersById.containsKey(resultFolderId);
                     mNotificationHandler.showFolderShareNotification(
                         offeredByDeviceId,
                         matchingDevice.getDisplayName(),
@@ -389,9 +495,12 @@ public class RestApi {
         }, error -> {});
 
         // Update cached device and folder information.
-        final List<Folder> tmpFolders = getFolders();
+        final ConfigSnapshot configSnapshot = getConfigSnapshot();
+        final List<Folder> tmpFolders = configSnapshot.folders;
         mLocalCompletion.updateFromConfig(tmpFolders);
-        mRemoteCompletion.updateFromConfig(getDevices(true), tmpFolders);
+        mRemoteCompletion.updateFromConfig(configSnapshot.devices, tmpFolders);
+        mSyncConflictIndex.retainFolders(configSnapshot.foldersById.keySet());
+        mFolderFinisher.retainFolders(configSnapshot.foldersById.keySet());
 
         // Perform first query for remote device status by forcing a cache miss.
         getRemoteDeviceStatus("");
@@ -542,6 +651,7 @@ public class RestApi {
             for (Device device : mConfig.devices) {
                 device.ignoredFolders.clear();
             }
+            mConfigSnapshot = null;
         }
     }
 
@@ -598,6 +708,7 @@ public class RestApi {
         String jsonConfig;
         synchronized (mConfigLock) {
             jsonConfig = mGson.toJson(mConfig);
+            mConfigSnapshot = null;
         }
         // LogVMultipleLines("sendConfig: config=" + jsonToPrettyFormat(jsonConfig));
         new PostRequest(mContext, mUrl, PostRequest.URI_SYSTEM_CONFIG, mApiKey,
@@ -606,14 +717,97 @@ public class RestApi {
         mOnConfigChangedListener.onConfigChanged();
     }
 
+    /**
+     * Starts collecting config changes which are sent to Syncthing in a single request.
+     */
+    public ConfigTransaction beginConfigTransaction() {
+        return new ConfigTransaction();
+    }
+
+    /**
+     * Collects pause and resume changes of folders and devices. {@link #commit} applies them
+     * to mConfig and sends the config in one request. The "ConfigSaved" event carrying the
+     * sent config does not trigger another {@link #reloadConfig}.
+     * Not thread-safe.
+     */
+    public class ConfigTransaction {
+
+        private final Map<String, Boolean> mFolderPaused = new LinkedHashMap<>();
+        private final Map<String, Boolean> mDevicePaused = new LinkedHashMap<>();
+
+        private ConfigTransaction() {
+        }
+
+        public ConfigTransaction setFolderPaused(String folderId, boolean paused) {
+            mFolderPaused.put(folderId, paused);
+            return this;
+        }
+
+        public ConfigTransaction setDevicePaused(String deviceId, boolean paused) {
+            mDevicePaused.put(deviceId, paused);
+            return this;
+        }
+
+        /**
+         * Returns true if the config changed and was sent.
+         */
+        public boolean commit() {
+            String jsonConfig;
+            synchronized (mConfigLock) {
+                if (mConfig == null || mConfig.folders == null || mConfig.devices == null) {
+                    Log.w(TAG, "ConfigTransaction: mConfig is not ready yet.");
+                    return false;
+                }
+                int changes = 0;
+                for (Folder folder : mConfig.folders) {
+                    Boolean paused = mFolderPaused.get(folder.id);
+                    if (paused != null && folder.paused != paused) {
+                        folder.paused = paused;
+                        changes++;
+                    }
+                }
+                for (Device device : mConfig.devices) {
+                    Boolean paused = mDevicePaused.get(device.deviceID);
+                    if (paused != null && device.paused != paused) {
+                        device.paused = paused;
+                        changes++;
+                    }
+                }
+                if (changes == 0) {
+                    return false;
+                }
+                LogV("ConfigTransaction: Sending " + changes + " change(s)");
+                jsonConfig = mGson.toJson(mConfig);
+                mConfigSnapshot = null;
+                mLastSentConfigJson = jsonConfig;
+            }
+            new PutRequest(mContext, mUrl, PutRequest.URI_CONFIG, mApiKey, jsonConfig, null, error -> {
+                Log.w(TAG, "ConfigTransaction: Failed to send config, " + error.getMessage());
+                /**
+                 * Syncthing may or may not have applied the config, e.g. on a timeout.
+                 * Stop expecting it and get back in sync with Syncthing.
+                 */
+                synchronized (mConfigLock) {
+                    if (jsonConfig.equals(mLastSentConfigJson)) {
+                        mLastSentConfigJson = null;
+                    }
+                }
+                reloadConfig();
+            });
+            mOnConfigChangedListener.onConfigChanged();
+            return true;
+        }
+    }
+
     /**
      * Posts shutdown request.
      * This will cause SyncthingNative to exit and not restart.
      */
     public void shutdown() {
         hasShutdown = true;
-        executorService.shutdownNow();
-        Util.killProcess("find");
+        mFolderFinisher.shutdown();
+        mPollScheduler.shutdown();
+        mSyncConflictIndex.shutdown();
         new PostRequest(mContext, mUrl, PostRequest.URI_SYSTEM_SHUTDOWN, mApiKey,
                 null, null, null);
     }
@@ -625,20 +819,22 @@ public class RestApi {
         return mVersion;
     }
 
+    /**
+     * Returns copies of all folders which may be modified by the caller.
+     */
     public List<Folder> getFolders() {
-        List<Folder> folders;
-        synchronized (mConfigLock) {
-            folders = deepCopy(mConfig.folders, new TypeToken<List<Folder>>(){}.getType());
+        final List<Folder> snapshot = getConfigSnapshot().folders;
+        List<Folder> folders = new ArrayList<>(snapshot.size());
+        for (Folder folder : snapshot) {
+            folders.add(folder.copy());
         }
-        for (Folder folder : folders) {
-            if (folder.path.startsWith("~/")) {
-                folder.path = folder.path.replaceFirst("^~", FileUtils.getSyncthingTildeAbsolutePath());
-            }
-        }
-        Collections.sort(folders, FOLDERS_COMPARATOR);
         return folders;
     }
 
+    /**
+     * Returns the folder with the given id or null.
+     * The returned object is shared and must not be modified.
+     */
     public final Folder getFolderByID(String folderID) {
         if (ENABLE_TEST_DATA && folderID.equals("abcd-efgh")) {
             final Folder folder = new Folder();
@@ -649,13 +845,16 @@ public class RestApi {
             return folder;
         }
 
-        final List<Folder> folders = getFolders();
-        for (Folder folder : folders) {
-            if (folder.id.equals(folderID)) {
-                return folder;
+        return getConfigSnapshot().foldersById.get(folderID);
+    }
+
+    private ConfigSnapshot getConfigSnapshot() {
+        synchronized (mConfigLock) {
+            if (mConfigSnapshot == null) {
+                mConfigSnapshot = new ConfigSnapshot(mConfig);
             }
+            return mConfigSnapshot;
         }
-        return null;
     }
 
     /**
@@ -710,32 +909,27 @@ public class RestApi {
      * @param includeLocal True if the local device should be included in the result.
      */
     public List<Device> getDevices(Boolean includeLocal) {
-        List<Device> devices;
-        synchronized (mConfigLock) {
-            devices = deepCopy(mConfig.devices, new TypeToken<List<Device>>(){}.getType());
-        }
-
-        Iterator<Device> it = devices.iterator();
-        while (it.hasNext()) {
-            Device device = it.next();
+        final List<Device> snapshot = getConfigSnapshot().devices;
+        List<Device> devices = new ArrayList<>(snapshot.size());
+        for (Device device : snapshot) {
             boolean isLocalDevice = Objects.equal(mLocalDeviceId, device.deviceID);
             if (!includeLocal && isLocalDevice) {
-                it.remove();
-                break;
+                continue;
             }
+            devices.add(device.copy());
         }
         return devices;
     }
 
     public Device getLocalDevice() {
-        List<Device> devices = getDevices(true);
+        List<Device> devices = getConfigSnapshot().devices;
         if (devices.isEmpty()) {
             throw new RuntimeException("RestApi.getLocalDevice: devices is empty.");
         }
         LogV("getLocalDevice: Looking for local device ID " + mLocalDeviceId);
         for (Device d : devices) {
             if (d.deviceID.equals(mLocalDeviceId)) {
-                return deepCopy(d, Device.class);
+                return d.copy();
             }
         }
         throw new RuntimeException("RestApi.getLocalDevice: Failed to get the local device crucial to continuing execution.");
@@ -774,21 +968,20 @@ public class RestApi {
     }
 
     public Options getOptions() {
-        synchronized (mConfigLock) {
-            return deepCopy(mConfig.options, Options.class);
-        }
+        final Options options = getConfigSnapshot().options;
+        return (options == null) ? null : options.copy();
     }
 
     public Gui getGui() {
-        synchronized (mConfigLock) {
-            return deepCopy(mConfig.gui, Gui.class);
-        }
+        final Gui gui = getConfigSnapshot().gui;
+        return (gui == null) ? null : gui.copy();
     }
 
     public void editSettings(Gui newGui, Options newOptions) {
         synchronized (mConfigLock) {
             mConfig.gui = newGui;
             mConfig.options = newOptions;
+            mConfigSnapshot = null;
         }
     }
 
@@ -800,28 +993,38 @@ public class RestApi {
     }
 
     /**
-     * Returns a deep copy of object.
-     *
-     * This method uses Gson and only works with objects that can be converted with Gson.
+     * Requests and parses information about current system status and resource usage.
+     * Shares the request with one already in flight.
      */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
+    public void getSystemStatus(OnResultListener1<SystemStatus> listener) {
+        mPollScheduler.request(GetRequest.URI_SYSTEM_STATUS, 0, listener);
     }
 
     /**
-     * Requests and parses information about current system status and resource usage.
+     * Delivers system status to listener at least every maxAgeMs until {@link #unsubscribe}
+     * is called. Subscribers share the same requests.
      */
-    public void getSystemStatus(OnResultListener1<SystemStatus> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_SYSTEM_STATUS, mApiKey, null, result -> {
-            SystemStatus systemStatus;
-            try {
-                systemStatus = mGson.fromJson(result, SystemStatus.class);
-                listener.onResult(systemStatus);
-            } catch (Exception e) {
-                Log.e(TAG, "getSystemStatus: Parsing REST API result failed. result=" + result);
-            }
-        }, error -> {});
+    public void subscribeSystemStatus(Object subscriber, long maxAgeMs,
+                                      OnResultListener1<SystemStatus> listener) {
+        mPollScheduler.subscribe(subscriber, GetRequest.URI_SYSTEM_STATUS, maxAgeMs, listener);
+    }
+
+    /**
+     * Keeps the cached status of all remote devices, see {@link #getRemoteDeviceStatus},
+     * at most maxAgeMs old and calls listener after each update until {@link #unsubscribe}
+     * is called. Subscribers share the same requests.
+     */
+    public void subscribeDeviceStatus(Object subscriber, long maxAgeMs,
+                                      OnResultListener1<Connections> listener) {
+        mPollScheduler.subscribe(subscriber, GetRequest.URI_CONNECTIONS, maxAgeMs, listener);
+        mPollScheduler.subscribe(subscriber, GetRequest.URI_STATS_DEVICE, maxAgeMs, result -> {});
+    }
+
+    /**
+     * Removes all subscriptions made by subscriber.
+     */
+    public void unsubscribe(Object subscriber) {
+        mPollScheduler.unsubscribe(subscriber);
     }
 
     public boolean isConfigLoaded() {
@@ -893,47 +1096,38 @@ public class RestApi {
             if (!TextUtils.isEmpty(deviceId)) {
                 LogV("getRemoteDeviceStatus: Cache miss, deviceId=\"" + deviceId + "\". Performing query.");
             }
-            new GetRequest(mContext, mUrl, GetRequest.URI_CONNECTIONS, mApiKey, null, result -> {
-                    /**
-                     * We got connection status information for ALL devices instead of one.
-                     * It does not hurt storing all of them.
-                     */
-                    Connections connections = mGson.fromJson(result, Connections.class);
-                    calculateConnectionStats(connections);
-                    for (Map.Entry<String, Connection> e : connections.connections.entrySet()) {
-                        mRemoteCompletion.setDeviceStatus(
-                                e.getKey(),             // deviceId
-                                e.getValue()            // connection
-                        );
-                    }
-            }, error -> {});
-            new GetRequest(mContext, mUrl, GetRequest.URI_STATS_DEVICE, mApiKey, null, result -> {
-                    /**
-                     * We got the last seen timestamp for ALL devices - including the local device - instead of one.
-                     * It does not hurt storing all of them.
-                     */
-                    if (result == null) {
-                        Log.e(TAG, "getRemoteDeviceStatus: URI_STATS_DEVICE, result == null");
-                        return;
-                    }
-                    JsonObject jsonObject = new JsonParser().parse(result).getAsJsonObject();
-                    if (jsonObject == null) {
-                        Log.e(TAG, "getRemoteDeviceStatus: URI_STATS_DEVICE, jsonObject == null");
-                        return;
-                    }
-                    Set<Map.Entry<String, JsonElement>> entries = jsonObject.entrySet();
-                    for (Map.Entry<String, JsonElement> entry: entries) {
-                        final String resultDeviceId = entry.getKey();
-                        final DeviceStat deviceStat = mGson.fromJson(entry.getValue(), DeviceStat.class);
-                        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
-                                .putString(Constants.PREF_CACHE_DEVICE_LASTSEEN_PREFIX + resultDeviceId, deviceStat.lastSeen)
-                                .apply();
-                    }
-            }, error -> {});
+            mPollScheduler.request(GetRequest.URI_CONNECTIONS, Constants.REST_UPDATE_INTERVAL, null);
+            mPollScheduler.request(GetRequest.URI_STATS_DEVICE, Constants.REST_UPDATE_INTERVAL, null);
         }
         return cacheEntry;
     }
 
+    /**
+     * We get connection status information for ALL devices instead of one.
+     * It does not hurt storing all of them.
+     */
+    private void onReceiveConnections(Connections connections) {
+        calculateConnectionStats(connections);
+        for (Map.Entry<String, Connection> e : connections.connections.entrySet()) {
+            mRemoteCompletion.setDeviceStatus(
+                    e.getKey(),             // deviceId
+                    e.getValue()            // connection
+            );
+        }
+    }
+
+    /**
+     * We get the last seen timestamp for ALL devices - including the local device - instead of one.
+     * It does not hurt storing all of them.
+     */
+    private void onReceiveDeviceStats(Map<String, DeviceStat> deviceStats) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        for (Map.Entry<String, DeviceStat> entry : deviceStats.entrySet()) {
+            editor.putString(Constants.PREF_CACHE_DEVICE_LASTSEEN_PREFIX + entry.getKey(), entry.getValue().lastSeen);
+        }
+        editor.apply();
+    }
+
     public final int getRemoteDeviceCompletion(
             final String deviceId) {
         return mRemoteCompletion.getDeviceCompletion(deviceId);
@@ -944,11 +1138,14 @@ public class RestApi {
         return mRemoteCompletion.getDeviceNeedBytes(deviceId);
     }
 
+    /**
+     * The returned object is shared and must not be modified.
+     */
     public final Connection getTotalConnectionStatistic() {
         if (!mPreviousConnections.isPresent()) {
             return new Connection();
         }
-        return deepCopy(mPreviousConnections.get().total, Connection.class);
+        return mPreviousConnections.get().total;
     }
 
     /**
@@ -958,7 +1155,6 @@ public class RestApi {
         Long now = System.currentTimeMillis();
         Long msElapsed = now - mPreviousConnectionTime;
         if (msElapsed < Constants.REST_UPDATE_INTERVAL) {
-            connections = deepCopy(mPreviousConnections.get(), Connections.class);
             return;
         }
 
@@ -1016,25 +1212,32 @@ public class RestApi {
 
     /**
      * Requests and parses information about recent changes.
+     * Only events with an id greater than sinceId are returned, at most the newest limit ones.
+     * Returns immediately if there are none, instead of waiting for the next event.
      */
-    public void getDiskEvents(int limit, OnResultListener1<List<DiskEvent>> listener) {
+    public void getDiskEvents(long sinceId, int limit, OnResultListener1<List<DiskEvent>> listener) {
         new GetRequest(
                 mContext, mUrl,
                 GetRequest.URI_EVENTS_DISK, mApiKey,
-                ImmutableMap.of("limit", Integer.toString(limit)),
-                result -> {
+                ImmutableMap.of(
+                        "since", Long.toString(sinceId),
+                        "limit", Integer.toString(limit),
+                        "timeout", "0"
+                ),
+                reader -> {
+                    // Decoded on a background thread, newest event first.
                     List<DiskEvent> diskEvents = new ArrayList<>();
-                    try {
-                        JsonArray jsonDiskEvents = new JsonParser().parse(result).getAsJsonArray();
-                        for (int i = jsonDiskEvents.size()-1; i >= 0; i--) {
-                            JsonElement jsonDiskEvent = jsonDiskEvents.get(i);
-                            diskEvents.add(mGson.fromJson(jsonDiskEvent, DiskEvent.class));
-                        }
-                        listener.onResult(diskEvents);
-                    } catch (Exception e) {
-                        Log.e(TAG, "getDiskEvents: Parsing REST API result failed. result=" + result);
+                    JsonReader jsonReader = new JsonReader(reader);
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) {
+                        diskEvents.add(mGson.fromJson(jsonReader, DiskEvent.class));
                     }
-                }, error -> {}
+                    jsonReader.endArray();
+                    Collections.reverse(diskEvents);
+                    return diskEvents;
+                },
+                listener::onResult,
+                error -> Log.e(TAG, "getDiskEvents: Request or parsing REST API result failed", error)
         );
     }
 
@@ -1063,23 +1266,54 @@ public class RestApi {
      * The OnReceiveEventListeners onEvent method is called for each event.
      */
     public final void getEvents(final long sinceId, final long limit, final OnReceiveEventListener listener) {
-        Map<String, String> params =
-                ImmutableMap.of("since", String.valueOf(sinceId), "limit", String.valueOf(limit));
-        new GetRequest(mContext, mUrl, GetRequest.URI_EVENTS, mApiKey, params, result -> {
-            JsonArray jsonEvents = new JsonParser().parse(result).getAsJsonArray();
-            long lastId = 0;
+        getEvents(sinceId, limit, 0, listener);
+    }
 
-            for (int i = 0; i < jsonEvents.size(); i++) {
-                JsonElement json = jsonEvents.get(i);
-                try {
-                    Event event = mGson.fromJson(json, Event.class);
-                    if (lastId < event.id) {
-                        lastId = event.id;
+    /**
+     * Retrieves the events that have accumulated since the given event id.
+     * If no such event is available yet, syncthing holds the request open for up to
+     * timeoutS seconds and answers as soon as the next event occurs (long polling).
+     *
+     * The OnReceiveEventListeners onEvent method is called for each event.
+     */
+    public final void getEvents(final long sinceId, final long limit, final int timeoutS,
+                                    final OnReceiveEventListener listener) {
+        Map<String, String> params = ImmutableMap.of(
+                "since", String.valueOf(sinceId),
+                "limit", String.valueOf(limit),
+                "timeout", String.valueOf(timeoutS)
+        );
+        // Leave the socket open a bit longer than syncthing holds the request.
+        int requestTimeoutMs = (int) TimeUnit.SECONDS.toMillis(timeoutS + EVENT_REQUEST_TIMEOUT_GRACE_S);
+        new GetRequest(mContext, mUrl, GetRequest.URI_EVENTS, mApiKey, params, requestTimeoutMs, result -> {
+            /**
+             * Decode the event array one element at a time and dispatch each event as soon
+             * as it was read. This keeps only a single event tree in memory instead of the
+             * whole batch, e.g. after a reconnect with thousands of backlogged events.
+             */
+            long lastId = 0;
+            try (JsonReader reader = new JsonReader(new StringReader(result))) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    JsonElement json = JsonParser.parseReader(reader);
+                    try {
+                        Event event = mGson.fromJson(json, Event.class);
+                        if (lastId < event.id) {
+                            lastId = event.id;
+                        }
+                        listener.onEvent(event, json);
+                    } catch (com.google.gson.JsonSyntaxException ex) {
+                        Log.e(TAG, "getEvents: Skipping event due to JsonSyntaxException, raw=[" + json.toString() + "]");
                     }
-                    listener.onEvent(event, json);
-                } catch (com.google.gson.JsonSyntaxException ex) {
-                    Log.e(TAG, "getEvents: Skipping event due to JsonSyntaxException, raw=[" + json.toString() + "]");
                 }
+                reader.endArray();
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                Log.e(TAG, "getEvents: Failed to decode events after id " + lastId, e);
+                if (lastId == 0) {
+                    listener.onError();
+                    return;
+                }
+                // Continue after the last event that was dispatched successfully.
             }
 
             listener.onDone(lastId);
@@ -1101,7 +1335,9 @@ public class RestApi {
              */
             LogV("getFolderStatus: Cache miss, folderId=\"" + folderId + "\". Performing query.");
             new GetRequest(mContext, mUrl, GetRequest.URI_DB_STATUS, mApiKey,
-                    ImmutableMap.of("folder", folderId), result -> {
+                    ImmutableMap.of("folder", folderId),
+                    reader -> mGson.fromJson(reader, FolderStatus.class),
+                    folderStatus -> {
                 final Folder folder = getFolderByID(folderId);
                 if (folder == null) {
                     Log.e(TAG, "getFolderStatus#GetRequest#onResult: folderId == null");
@@ -1110,7 +1346,7 @@ public class RestApi {
                 mLocalCompletion.setFolderStatus(
                         folderId,
                         folder.paused,
-                        mGson.fromJson(result, FolderStatus.class)
+                        folderStatus
                 );
             }, error -> {});
         }
@@ -1232,43 +1468,57 @@ public class RestApi {
         }
 
         // Execute planned workloads.
-        final Boolean finalPlanGetSyncConflictFiles = planGetSyncConflictFiles;
-        final Boolean finalPlanOnFolderSyncCompleted = planOnFolderSyncCompleted;
-        if (hasShutdown || executorService.isShutdown()) {
+        if (hasShutdown || mFolderFinisher.isShutdown()) {
             // We are on the way to shutdown SynchtingNative.
             return;
         }
-        if (!finalPlanGetSyncConflictFiles && !finalPlanOnFolderSyncCompleted) {
+        if (!planGetSyncConflictFiles && !planOnFolderSyncCompleted) {
             // No work to do.
             return;
         }
+        mFolderFinisher.submit(
+                folder,
+                planGetSyncConflictFiles,
+                planOnFolderSyncCompleted ? deviceId : null,
+                folderStatus.state
+        );
+    }
 
-        executorService.execute(() -> {
-            if (hasShutdown) {
-                return;
-            }
+    /**
+     * Returns queue depth and latency of the folder's completion workloads,
+     * null if none ran yet.
+     */
+    public FolderFinisherScheduler.FolderStats getFolderFinisherStats(final String folderId) {
+        return mFolderFinisher.getStats(folderId);
+    }
 
-            if (finalPlanGetSyncConflictFiles) {
-                // Check for ".sync-conflict-YYYYMMDD-HHMMSS-DEVICEI*" files.
-                mLocalCompletion.setDiscoveredConflictFiles(
-                        folderId,
-                        Util.getSyncConflictFiles(folder.path)
-                );
-            }
+    /**
+     * Runs on a {@link FolderFinisherScheduler} thread, never concurrently for the same folder.
+     */
+    private void runFolderFinisher(final FolderFinisherScheduler.Job job) {
+        if (hasShutdown) {
+            return;
+        }
 
-            if (finalPlanOnFolderSyncCompleted) {
-                onFolderSyncCompleted(
-                        folder, 
-                        folderStatus.state, 
-                        deviceId
-                );
-            }
-        });
+        if (job.scanConflicts) {
+            // Check for ".sync-conflict-YYYYMMDD-HHMMSS-DEVICEI*" files.
+            mLocalCompletion.setDiscoveredConflictFiles(
+                    job.folderId,
+                    mSyncConflictIndex.getConflictFiles(job.folderId, job.folder.path)
+            );
+        }
+
+        if (!job.syncCompletedDevices.isEmpty()) {
+            onFolderSyncCompleted(job.folder, job.syncCompletedDevices);
+        }
     }
 
-    public void onFolderSyncCompleted(final Folder folder, 
-                                            final String folderState, 
-                                            final String deviceId) {
+    /**
+     * @param folderStateByDevice Maps deviceId to folder state of each device that
+     *                            completed the folder since the last run.
+     */
+    public void onFolderSyncCompleted(final Folder folder,
+                                            final Map<String, String> folderStateByDevice) {
         Log.d(TAG, "onFolderSyncCompleted: Completed folder=[" + folder.id + "]");
 
         // Run folder script set if enabled by user pref.
@@ -1286,7 +1536,21 @@ public class RestApi {
         }
 
         // Notify listening third-party apps.
-        sendBroadcastFolderSyncComplete(deviceId, folder, folderState);
+        for (Map.Entry<String, String> entry : folderStateByDevice.entrySet()) {
+            sendBroadcastFolderSyncComplete(entry.getKey(), folder, entry.getValue());
+        }
+    }
+
+    /**
+     * Called by {@link EventProcessor} for files reported by "ItemFinished" and
+     * "LocalIndexUpdated" events to keep the sync conflict index up to date.
+     */
+    public void onFolderFileChanged(final String folderId, final String relativePath) {
+        final Folder folder = getFolderByID(folderId);
+        if (folder == null) {
+            return;
+        }
+        mSyncConflictIndex.onFileChanged(folderId, folder.path, relativePath);
     }
 
     public void setRemoteIndexUpdated(final String deviceId,
@@ -1302,19 +1566,20 @@ public class RestApi {
 
     public void updateLocalFolderState(final String folderId, final String newState) {
         final Map.Entry<FolderStatus, CachedFolderStatus> cacheEntry = mLocalCompletion.getFolderStatus(folderId);
-        cacheEntry.getKey().state = newState;
-        mLocalCompletion.setFolderStatus(folderId, cacheEntry.getKey());
+        final FolderStatus folderStatus = cacheEntry.getKey().copy();
+        folderStatus.state = newState;
+        mLocalCompletion.setFolderStatus(folderId, folderStatus);
     }
 
     public void updateRemoteDeviceConnected(final String deviceId, final Boolean newConnected) {
-        Connection cacheEntry = mRemoteCompletion.getDeviceStatus(deviceId);
+        Connection cacheEntry = mRemoteCompletion.getDeviceStatus(deviceId).copy();
         cacheEntry.connected = newConnected;
         mRemoteCompletion.setDeviceStatus(deviceId, cacheEntry);
         onTotalSyncCompletionChange();
     }
 
     public void updateRemoteDevicePaused(final String deviceId, final Boolean newPaused) {
-        Connection cacheEntry = mRemoteCompletion.getDeviceStatus(deviceId);
+        Connection cacheEntry = mRemoteCompletion.getDeviceStatus(deviceId).copy();
         cacheEntry.connected = false;
         cacheEntry.paused = newPaused;
         mRemoteCompletion.setDeviceStatus(deviceId, cacheEntry);
@@ -1341,7 +1606,7 @@ public class RestApi {
     }
 
     public Boolean isUsageReportingAccepted() {
-        Options options = getOptions();
+        Options options = getConfigSnapshot().options;
         if (options == null) {
             Log.e(TAG, "isUsageReportingAccepted called while options == null");
             return false;
@@ -1350,7 +1615,7 @@ public class RestApi {
     }
 
     public Boolean isUsageReportingDecided() {
-        Options options = getOptions();
+        Options options = getConfigSnapshot().options;
         if (options == null) {
             Log.e(TAG, "isUsageReportingDecided called while options == null");
             return true;
@@ -1367,6 +1632,7 @@ public class RestApi {
         options.urAccepted = acceptUsageReporting ? mUrVersionMax : Options.USAGE_REPORTING_DENIED;
         synchronized (mConfigLock) {
             mConfig.options = options;
+            mConfigSnapshot = null;
         }
     }
 
@@ -1406,15 +1672,18 @@ public class RestApi {
      */
     public void applyCustomRunConditions(RunConditionMonitor runConditionMonitor) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        ConfigTransaction transaction = beginConfigTransaction();
         synchronized (mConfigLock) {
-            Boolean configChanged = false;
-
             // Check if the config has been loaded.
             if (mConfig == null) {
                 Log.w(TAG, "applyCustomRunConditions: mConfig is not ready yet.");
                 return;
             }
 
+            // Capture the system state once for all objects.
+            RunConditionMonitor.ObjectSyncConditionsEvaluation syncConditions =
+                    runConditionMonitor.newObjectSyncConditionsEvaluation();
+
             // Check if the folders are available from config.
             if (mConfig.folders != null) {
                 for (Folder folder : mConfig.folders) {
@@ -1423,14 +1692,13 @@ public class RestApi {
                         Constants.DYN_PREF_OBJECT_CUSTOM_SYNC_CONDITIONS(Constants.PREF_OBJECT_PREFIX_FOLDER + folder.id), false
                     );
                     if (folderCustomSyncConditionsEnabled) {
-                        Boolean syncConditionsMet = runConditionMonitor.checkObjectSyncConditions(
+                        Boolean syncConditionsMet = syncConditions.check(
                             Constants.PREF_OBJECT_PREFIX_FOLDER + folder.id
                         );
                         LogV("applyCustomRunConditions: f(" + folder.label + ")=" + (syncConditionsMet ? "1" : "0"));
                         if (folder.paused != !syncConditionsMet) {
-                            folder.paused = !syncConditionsMet;
                             Log.d(TAG, "applyCustomRunConditions: f(" + folder.label + ")=" + (syncConditionsMet ? ">1" : ">0"));
-                            configChanged = true;
+                            transaction.setFolderPaused(folder.id, !syncConditionsMet);
                         }
                     }
                 }
@@ -1447,14 +1715,13 @@ public class RestApi {
                         Constants.DYN_PREF_OBJECT_CUSTOM_SYNC_CONDITIONS(Constants.PREF_OBJECT_PREFIX_DEVICE + device.deviceID), false
                     );
                     if (deviceCustomSyncConditionsEnabled) {
-                        Boolean syncConditionsMet = runConditionMonitor.checkObjectSyncConditions(
+                        Boolean syncConditionsMet = syncConditions.check(
                             Constants.PREF_OBJECT_PREFIX_DEVICE + device.deviceID
                         );
                         LogV("applyCustomRunConditions: d(" + device.name + ")=" + (syncConditionsMet ? "1" : "0"));
                         if (device.paused != !syncConditionsMet) {
-                            device.paused = !syncConditionsMet;
                             Log.d(TAG, "applyCustomRunConditions: d(" + device.name + ")=" + (syncConditionsMet ? ">1" : ">0"));
-                            configChanged = true;
+                            transaction.setDevicePaused(device.deviceID, !syncConditionsMet);
                         }
                     }
                 }
@@ -1462,13 +1729,11 @@ public class RestApi {
                 Log.d(TAG, "applyCustomRunConditions: mConfig.devices is not ready yet.");
                 return;
             }
+        }
 
-            if (configChanged) {
-                LogV("applyCustomRunConditions: Sending changed config ...");
-                sendConfig();
-            } else {
-                LogV("applyCustomRunConditions: No action was necessary.");
-            }
+        // Send all pause and resume changes at once.
+        if (!transaction.commit()) {
+            LogV("applyCustomRunConditions: No action was necessary.");
         }
     }
 
@@ -0,0 +1,337 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import com.nutomic.syncthingandroid.http.ApiRequest;
+import com.nutomic.syncthingandroid.service.RestApi.OnResultListener1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Polls REST API endpoints on behalf of UI components, so screens showing the same data
+ * share one request instead of each querying it on its own timer.
+ *
+ * Components subscribe to an endpoint with the maximum age of data they accept. An endpoint
+ * is polled at the shortest interval requested by its subscribers and polling stops once
+ * its last subscriber is gone. Parsed results are cached, so one-shot requests are answered
+ * from the cache while fresh and otherwise merged with a request already in flight.
+ *
+ * Results are delivered on the main thread.
+ */
+public class RestPollScheduler {
+
+    private static final String TAG = "RestPollScheduler";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    /**
+     * Issues the GET request for an endpoint, decoding the response with parser.
+     */
+    public interface Fetcher {
+        void fetch(String path, ApiRequest.ResponseParser<Object> parser,
+                   ApiRequest.OnParsedListener<Object> onSuccess,
+                   ApiRequest.OnErrorListener onError);
+    }
+
+    private static class Subscription {
+        final Object subscriber;
+        final long maxAgeMs;
+        final OnResultListener1<Object> listener;
+
+        Subscription(Object subscriber, long maxAgeMs, OnResultListener1<Object> listener) {
+            this.subscriber = subscriber;
+            this.maxAgeMs = maxAgeMs;
+            this.listener = listener;
+        }
+    }
+
+    private class Endpoint {
+        final String path;
+        final ApiRequest.ResponseParser<Object> parser;
+
+        /**
+         * Called once per response, regardless of the number of listeners waiting for it.
+         */
+        final OnResultListener1<Object> processor;
+        final List<Subscription> subscriptions = new ArrayList<>();
+
+        /**
+         * One-shot listeners waiting for the request in flight.
+         */
+        final List<OnResultListener1<Object>> waiting = new ArrayList<>();
+
+        final Runnable pollRunnable = () -> poll(this);
+
+        Object cachedResult = null;
+
+        /**
+         * Timestamps in {@link SystemClock#elapsedRealtime} ms.
+         */
+        long cachedAt = 0;
+        long lastFetchAt = 0;
+
+        boolean inFlight = false;
+
+        Endpoint(String path, ApiRequest.ResponseParser<Object> parser,
+                 OnResultListener1<Object> processor) {
+            this.path = path;
+            this.parser = parser;
+            this.processor = processor;
+        }
+
+        boolean isFresh(long maxAgeMs) {
+            return cachedResult != null &&
+                    SystemClock.elapsedRealtime() - cachedAt <= maxAgeMs;
+        }
+    }
+
+    private final Fetcher mFetcher;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Object that must be locked upon accessing mEndpoints, its contents and mShutdown
+     */
+    private final Object mLock = new Object();
+
+    private final Map<String, Endpoint> mEndpoints = new HashMap<>();
+
+    private boolean mShutdown = false;
+
+    public RestPollScheduler(Fetcher fetcher, Boolean enableVerboseLog) {
+        mFetcher = fetcher;
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+    }
+
+    /**
+     * Makes an endpoint available for {@link #subscribe} and {@link #request}.
+     *
+     * @param parser Decodes responses on a background thread.
+     * @param processor Optional, called on the main thread with each result
+     *                  before it is passed to listeners.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void registerEndpoint(String path, ApiRequest.ResponseParser<T> parser,
+                                     @Nullable OnResultListener1<T> processor) {
+        synchronized (mLock) {
+            mEndpoints.put(path, new Endpoint(path,
+                    (ApiRequest.ResponseParser<Object>) parser,
+                    (OnResultListener1<Object>) processor));
+        }
+    }
+
+    /**
+     * Delivers results of the endpoint to listener until {@link #unsubscribe} is called.
+     * A subscriber has at most one subscription per endpoint, subscribing again replaces it.
+     * A cached result that is not older than maxAgeMs is delivered right away.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void subscribe(Object subscriber, String path, long maxAgeMs,
+                              OnResultListener1<T> listener) {
+        synchronized (mLock) {
+            Endpoint endpoint = getEndpoint(path);
+            if (mShutdown || endpoint == null) {
+                return;
+            }
+            removeSubscription(endpoint, subscriber);
+            Subscription subscription = new Subscription(subscriber, maxAgeMs,
+                    (OnResultListener1<Object>) listener);
+            endpoint.subscriptions.add(subscription);
+            LogV("subscribe: path=" + path + ", maxAgeMs=" + maxAgeMs +
+                    ", subscribers=" + endpoint.subscriptions.size());
+            if (endpoint.isFresh(maxAgeMs)) {
+                final Object result = endpoint.cachedResult;
+                mMainHandler.post(() -> deliver(endpoint, subscription, result));
+            }
+            schedule(endpoint);
+        }
+    }
+
+    /**
+     * Removes all subscriptions of subscriber. Endpoints without subscribers are no longer polled.
+     */
+    public void unsubscribe(Object subscriber) {
+        synchronized (mLock) {
+            for (Endpoint endpoint : mEndpoints.values()) {
+                if (removeSubscription(endpoint, subscriber)) {
+                    LogV("unsubscribe: path=" + endpoint.path +
+                            ", subscribers=" + endpoint.subscriptions.size());
+                    schedule(endpoint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers a result of the endpoint to listener once. Uses the cached result if it is
+     * not older than maxAgeMs, otherwise waits for the request in flight or starts one.
+     *
+     * @param listener May be null if the caller only relies on the parser's side effects.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void request(String path, long maxAgeMs, OnResultListener1<T> listener) {
+        synchronized (mLock) {
+            Endpoint endpoint = getEndpoint(path);
+            if (mShutdown || endpoint == null) {
+                return;
+            }
+            if (endpoint.isFresh(maxAgeMs)) {
+                if (listener != null) {
+                    final Object result = endpoint.cachedResult;
+                    mMainHandler.post(() -> ((OnResultListener1<Object>) listener).onResult(result));
+                }
+                return;
+            }
+            if (listener != null) {
+                endpoint.waiting.add((OnResultListener1<Object>) listener);
+            }
+            if (!endpoint.inFlight) {
+                fetch(endpoint);
+            } else {
+                LogV("request: Merged with request in flight, path=" + path);
+            }
+        }
+    }
+
+    /**
+     * Stops polling and drops all subscriptions and pending results.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            for (Endpoint endpoint : mEndpoints.values()) {
+                mMainHandler.removeCallbacks(endpoint.pollRunnable);
+                endpoint.subscriptions.clear();
+                endpoint.waiting.clear();
+            }
+        }
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private Endpoint getEndpoint(String path) {
+        Endpoint endpoint = mEndpoints.get(path);
+        if (endpoint == null) {
+            Log.e(TAG, "getEndpoint: Endpoint not registered, path=" + path);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private boolean removeSubscription(Endpoint endpoint, Object subscriber) {
+        boolean removed = false;
+        Iterator<Subscription> it = endpoint.subscriptions.iterator();
+        while (it.hasNext()) {
+            if (it.next().subscriber == subscriber) {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Schedules the next poll of the endpoint according to its most demanding subscriber.
+     * Precondition: mLock is held.
+     */
+    private void schedule(Endpoint endpoint) {
+        mMainHandler.removeCallbacks(endpoint.pollRunnable);
+        if (mShutdown || endpoint.subscriptions.isEmpty()) {
+            return;
+        }
+        long interval = Long.MAX_VALUE;
+        for (Subscription subscription : endpoint.subscriptions) {
+            interval = Math.min(interval, subscription.maxAgeMs);
+        }
+        long delay = Math.max(0, endpoint.lastFetchAt + interval - SystemClock.elapsedRealtime());
+        if (endpoint.lastFetchAt == 0) {
+            delay = 0;
+        }
+        mMainHandler.postDelayed(endpoint.pollRunnable, delay);
+    }
+
+    private void poll(Endpoint endpoint) {
+        synchronized (mLock) {
+            if (mShutdown || endpoint.subscriptions.isEmpty() || endpoint.inFlight) {
+                // A request in flight reschedules polling once it completes.
+                return;
+            }
+            fetch(endpoint);
+        }
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private void fetch(Endpoint endpoint) {
+        endpoint.inFlight = true;
+        endpoint.lastFetchAt = SystemClock.elapsedRealtime();
+        mFetcher.fetch(endpoint.path, endpoint.parser,
+                result -> onFetchComplete(endpoint, result),
+                error -> {
+                    Log.w(TAG, "fetch: Request failed, path=" + endpoint.path, error);
+                    onFetchComplete(endpoint, null);
+                });
+    }
+
+    /**
+     * @param parsed Null if the request or parsing the response failed.
+     */
+    private void onFetchComplete(Endpoint endpoint, @Nullable Object parsed) {
+        final List<Subscription> subscriptions;
+        final List<OnResultListener1<Object>> waiting;
+        synchronized (mLock) {
+            endpoint.inFlight = false;
+            if (mShutdown) {
+                return;
+            }
+            if (parsed != null) {
+                endpoint.cachedResult = parsed;
+                endpoint.cachedAt = SystemClock.elapsedRealtime();
+            }
+            subscriptions = new ArrayList<>(endpoint.subscriptions);
+            waiting = new ArrayList<>(endpoint.waiting);
+            endpoint.waiting.clear();
+            schedule(endpoint);
+        }
+        if (parsed == null) {
+            return;
+        }
+        if (endpoint.processor != null) {
+            endpoint.processor.onResult(parsed);
+        }
+        for (Subscription subscription : subscriptions) {
+            deliver(endpoint, subscription, parsed);
+        }
+        for (OnResultListener1<Object> listener : waiting) {
+            listener.onResult(parsed);
+        }
+    }
+
+    private void deliver(Endpoint endpoint, Subscription subscription, Object result) {
+        synchronized (mLock) {
+            // Skip results for subscriptions removed after the delivery was queued.
+            if (mShutdown || !endpoint.subscriptions.contains(subscription)) {
+                return;
+            }
+        }
+        subscription.listener.onResult(result);
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
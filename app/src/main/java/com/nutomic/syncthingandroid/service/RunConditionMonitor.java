@@ -9,11 +9,6 @@ import android.content.SharedPreferences;
 import android.content.SyncStatusObserver;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
-import android.os.BatteryManager;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.PowerManager;
@@ -26,7 +21,11 @@ import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.util.JobUtils;
 
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -51,18 +50,53 @@ public class RunConditionMonitor {
     public static final String EXTRA_BEGIN_ACTIVE_TIME_WINDOW =
         ".service.RunConditionMonitor.BEGIN_ACTIVE_TIME_WINDOW";
 
+    /**
+     * System events which can fire in bursts, e.g. during a wifi handover or when the
+     * charger is plugged in. Run conditions are evaluated once the state had time to settle.
+     */
+    private enum Trigger {
+        NETWORK(1500),
+        POWER_SOURCE(5000),
+        POWER_SAVE_MODE(500),
+        MASTER_SYNC(500);
+
+        final long settleTimeMs;
+
+        Trigger(long settleTimeMs) {
+            this.settleTimeMs = settleTimeMs;
+        }
+    }
+
+    /**
+     * Upper bound for postponing an evaluation while triggers keep firing.
+     */
+    private static final long MAX_TRIGGER_DELAY_MS = 10000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Triggers fired since the last debounced evaluation.
+     * Only accessed on the main thread.
+     */
+    private final EnumSet<Trigger> mPendingTriggers = EnumSet.noneOf(Trigger.class);
+    private long mFirstPendingTriggerTime = 0;
+    private long mPendingEvaluationTime = 0;
+
+    private final Runnable mDebouncedUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "updateShouldRunDecision: Triggered by " + mPendingTriggers);
+            mPendingTriggers.clear();
+            mPendingEvaluationTime = 0;
+            updateShouldRunDecision();
+        }
+    };
+
     private @Nullable Object mSyncStatusObserverHandle = null;
     private final SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
         @Override
         public void onStatusChanged(int which) {
-            Handler mainLooper = new Handler(Looper.getMainLooper());
-            Runnable updateShouldRunDecisionRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    updateShouldRunDecision();
-                }
-            };
-            mainLooper.post(updateShouldRunDecisionRunnable);
+            mMainHandler.post(() -> onTrigger(Trigger.MASTER_SYNC));
         }
     };
 
@@ -213,6 +247,8 @@ public class RunConditionMonitor {
 
     public void shutdown() {
         LogV("Shutting down");
+        mMainHandler.removeCallbacks(mDebouncedUpdateRunnable);
+        mPendingTriggers.clear();
         JobUtils.cancelAllScheduledJobs(mContext);
         if (mSyncStatusObserverHandle != null) {
             ContentResolver.removeStatusChangeListener(mSyncStatusObserverHandle);
@@ -240,8 +276,7 @@ public class RunConditionMonitor {
         public void onReceive(Context context, Intent intent) {
             if (Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())
                     || Intent.ACTION_POWER_DISCONNECTED.equals(intent.getAction())) {
-                SystemClock.sleep(5000);
-                updateShouldRunDecision();
+                onTrigger(Trigger.POWER_SOURCE);
             }
         }
     }
@@ -250,7 +285,7 @@ public class RunConditionMonitor {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
-                updateShouldRunDecision();
+                onTrigger(Trigger.NETWORK);
             }
         }
     }
@@ -259,7 +294,7 @@ public class RunConditionMonitor {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (PowerManager.ACTION_POWER_SAVE_MODE_CHANGED.equals(intent.getAction())) {
-                updateShouldRunDecision();
+                onTrigger(Trigger.POWER_SAVE_MODE);
             }
         }
     }
@@ -361,6 +396,28 @@ public class RunConditionMonitor {
         }
     }
 
+    /**
+     * Merges bursts of triggers into one call to {@link #updateShouldRunDecision}, so
+     * SyncthingNative is not stopped and started repeatedly while the state flaps.
+     * Each trigger postpones the evaluation until its settle time elapsed, but no longer than
+     * {@link #MAX_TRIGGER_DELAY_MS} after the first pending trigger.
+     * Must be called on the main thread.
+     */
+    private void onTrigger(Trigger trigger) {
+        long now = SystemClock.elapsedRealtime();
+        if (mPendingTriggers.isEmpty()) {
+            mFirstPendingTriggerTime = now;
+        }
+        mPendingTriggers.add(trigger);
+        long evaluationTime = Math.min(now + trigger.settleTimeMs,
+                mFirstPendingTriggerTime + MAX_TRIGGER_DELAY_MS);
+        mPendingEvaluationTime = Math.max(mPendingEvaluationTime, evaluationTime);
+        mMainHandler.removeCallbacks(mDebouncedUpdateRunnable);
+        mMainHandler.postDelayed(mDebouncedUpdateRunnable, mPendingEvaluationTime - now);
+        LogV("onTrigger: " + trigger + ", pending=" + mPendingTriggers +
+                ", evaluating in " + (mPendingEvaluationTime - now) + " ms");
+    }
+
     /**
      * Event handler that is fired after preconditions changed.
      * We then need to decide if syncthing should run.
@@ -433,13 +490,13 @@ public class RunConditionMonitor {
     /**
      * Constants.PREF_RUN_ON_WIFI
      */
-    private SyncConditionResult checkConditionSyncOnWifi(String prefNameSyncOnWifi) {
-        boolean prefSyncOnWifi = mPreferences.getBoolean(prefNameSyncOnWifi, true);
+    private SyncConditionResult checkConditionSyncOnWifi(RunConditionSnapshot snapshot,
+            boolean prefSyncOnWifi) {
         if (!prefSyncOnWifi) {
             return new SyncConditionResult(false, "\n" + res.getString(R.string.reason_wifi_disallowed));
         }
 
-        if (isWifiOrEthernetConnection()) {
+        if (snapshot.isWifiOrEthernetConnection) {
             return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_wifi));
         }
 
@@ -449,20 +506,21 @@ public class RunConditionMonitor {
          * relevant for some phone models needs to be done by the code below.
          * ConnectivityManager.getActiveNetworkInfo() returns "null" on those phones which
          * results in assuming !isWifiOrEthernetConnection even if the phone is connected
-         * to wifi during flight mode, see {@link isWifiOrEthernetConnection}.
+         * to wifi during flight mode, see {@link RunConditionSnapshot#capture}.
          */
         return new SyncConditionResult(false, "\n" + res.getString(R.string.reason_not_on_wifi));
     }
 
-    private SyncConditionResult checkConditionSyncOnPowerSource(String prefNameSyncOnPowerSource) {
-        switch (mPreferences.getString(prefNameSyncOnPowerSource, Constants.PowerSource.CHARGER_BATTERY)) {
+    private SyncConditionResult checkConditionSyncOnPowerSource(RunConditionSnapshot snapshot,
+            String prefPowerSource) {
+        switch (prefPowerSource) {
             case Constants.PowerSource.CHARGER:
-                if (!isCharging()) {
+                if (!snapshot.isCharging) {
                     return new SyncConditionResult(false, res.getString(R.string.reason_not_charging));
                 }
                 break;
             case Constants.PowerSource.BATTERY:
-                if (isCharging()) {
+                if (snapshot.isCharging) {
                     return new SyncConditionResult(false, res.getString(R.string.reason_not_on_battery_power));
                 }
                 break;
@@ -475,34 +533,37 @@ public class RunConditionMonitor {
 
     /**
      * Constants.PREF_WIFI_SSID_WHITELIST
+     * Precondition: An active wifi connection has been detected.
      */
-    private SyncConditionResult checkConditionSyncOnWhitelistedWifi(
-            String prefNameUseWifiWhitelist,
-            String prefNameSelectedWhitelistSsid) {
-        boolean wifiWhitelistEnabled = mPreferences.getBoolean(prefNameUseWifiWhitelist, false);
-        Set<String> whitelistedWifiSsids = mPreferences.getStringSet(prefNameSelectedWhitelistSsid, new HashSet<>());
-        try {
-            if (wifiWhitelistConditionMet(wifiWhitelistEnabled, whitelistedWifiSsids)) {
-                return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_whitelisted_wifi));
-            }
-            return new SyncConditionResult(false, "\n" + res.getString(R.string.reason_not_on_whitelisted_wifi));
-        } catch (LocationUnavailableException e) {
+    private SyncConditionResult checkConditionSyncOnWhitelistedWifi(RunConditionSnapshot snapshot,
+            boolean prefWifiWhitelistEnabled, Set<String> whitelistedWifiSsids) {
+        if (!prefWifiWhitelistEnabled) {
+            LogV("checkConditionSyncOnWhitelistedWifi: !prefWifiWhitelistEnabled");
+            return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_whitelisted_wifi));
+        }
+        if (snapshot.isLocationUnavailable) {
             return new SyncConditionResult(false, "\n" + res.getString(R.string.reason_location_unavailable));
         }
+        // DO NOT RELEASE WITH THIS LINE: Log.v(TAG, "checkConditionSyncOnWhitelistedWifi: wifiSsid=[" + snapshot.wifiSsid + "]");
+        if (snapshot.wifiSsid != null && whitelistedWifiSsids.contains(snapshot.wifiSsid)) {
+            LogV("checkConditionSyncOnWhitelistedWifi: isWifiConnectionWhitelisted");
+            return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_whitelisted_wifi));
+        }
+        return new SyncConditionResult(false, "\n" + res.getString(R.string.reason_not_on_whitelisted_wifi));
     }
 
     /**
      * Constants.PREF_RUN_ON_METERED_WIFI
      */
-    private SyncConditionResult checkConditionSyncOnMeteredWifi(String prefNameSyncOnMeteredWifi) {
-        boolean prefSyncOnMeteredWifi = mPreferences.getBoolean(prefNameSyncOnMeteredWifi, false);
+    private SyncConditionResult checkConditionSyncOnMeteredWifi(RunConditionSnapshot snapshot,
+            boolean prefSyncOnMeteredWifi) {
         if (prefSyncOnMeteredWifi) {
             // Condition is always met as we allow both types of wifi - metered and non-metered.
             return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_metered_nonmetered_wifi));
         }
 
         // Check if we are on a non-metered wifi.
-        if (!isMeteredNetworkConnection()) {
+        if (!snapshot.isMeteredNetworkConnection) {
             return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_nonmetered_wifi));
         }
 
@@ -513,13 +574,13 @@ public class RunConditionMonitor {
     /**
      * Constants.PREF_RUN_ON_MOBILE_DATA
      */
-    private SyncConditionResult checkConditionSyncOnMobileData(String prefNameSyncOnMobileData) {
-        boolean prefSyncOnMobileData = mPreferences.getBoolean(prefNameSyncOnMobileData, false);
+    private SyncConditionResult checkConditionSyncOnMobileData(RunConditionSnapshot snapshot,
+            boolean prefSyncOnMobileData) {
         if (!prefSyncOnMobileData) {
             return new SyncConditionResult(false, res.getString(R.string.reason_mobile_data_disallowed));
         }
 
-        if (isMobileDataConnection()) {
+        if (snapshot.isMobileDataConnection) {
             return new SyncConditionResult(true, res.getString(R.string.reason_on_mobile_data));
         }
 
@@ -529,15 +590,15 @@ public class RunConditionMonitor {
     /**
      * Constants.PREF_RUN_ON_ROAMING
      */
-    private SyncConditionResult checkConditionSyncOnRoaming(String prefNameSyncOnRoaming) {
-        boolean prefSyncOnRoaming = mPreferences.getBoolean(prefNameSyncOnRoaming, false);
+    private SyncConditionResult checkConditionSyncOnRoaming(RunConditionSnapshot snapshot,
+            boolean prefSyncOnRoaming) {
         if (prefSyncOnRoaming) {
             // Condition is always met as we allow both types of mobile data networks - roaming and non-roaming.
             return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_roaming_nonroaming_mobile_data));
         }
 
         // Check if we are on a non-roaming mobile data network.
-        if (!isRoamingNetworkConnection()) {
+        if (!snapshot.isRoamingNetworkConnection) {
             return new SyncConditionResult(true, "\n" + res.getString(R.string.reason_on_nonroaming_mobile_data));
         }
 
@@ -551,6 +612,8 @@ public class RunConditionMonitor {
      */
     private boolean decideShouldRun() {
         mRunDecisionExplanation = "";
+        RunConditionSnapshot snapshot = RunConditionSnapshot.capture(mContext);
+        LogV("decideShouldRun: " + snapshot);
 
         // Get sync condition preferences.
         int prefBtnStateForceStartStop = mPreferences.getInt(Constants.PREF_BTNSTATE_FORCE_START_STOP, Constants.BTNSTATE_NO_FORCE_START_STOP);
@@ -589,7 +652,8 @@ public class RunConditionMonitor {
         }
 
         // PREF_POWER_SOURCE
-        SyncConditionResult scr = checkConditionSyncOnPowerSource(Constants.PREF_POWER_SOURCE);
+        SyncConditionResult scr = checkConditionSyncOnPowerSource(snapshot,
+                mPreferences.getString(Constants.PREF_POWER_SOURCE, Constants.PowerSource.CHARGER_BATTERY));
         if (!scr.conditionMet) {
             LogV("checkConditionSyncOnPowerSource: " + scr.explanation);
             mRunDecisionExplanation = scr.explanation;
@@ -597,7 +661,7 @@ public class RunConditionMonitor {
         }
 
         // Power saving
-        if (prefRespectPowerSaving && isPowerSaving()) {
+        if (prefRespectPowerSaving && snapshot.isPowerSaving) {
             LogV("decideShouldRun: prefRespectPowerSaving && isPowerSaving");
             mRunDecisionExplanation = res.getString(R.string.reason_not_while_power_saving);
             return false;
@@ -611,13 +675,15 @@ public class RunConditionMonitor {
         }
 
         // Run on mobile data?
-        scr = checkConditionSyncOnMobileData(Constants.PREF_RUN_ON_MOBILE_DATA);
+        scr = checkConditionSyncOnMobileData(snapshot,
+                mPreferences.getBoolean(Constants.PREF_RUN_ON_MOBILE_DATA, false));
         mRunDecisionExplanation += scr.explanation;
         if (scr.conditionMet) {
             // Mobile data is connected.
             LogV("decideShouldRun: checkConditionSyncOnMobileData");
 
-            scr = checkConditionSyncOnRoaming(Constants.PREF_RUN_ON_ROAMING);
+            scr = checkConditionSyncOnRoaming(snapshot,
+                    mPreferences.getBoolean(Constants.PREF_RUN_ON_ROAMING, false));
             mRunDecisionExplanation += scr.explanation;
             if (scr.conditionMet) {
                 // Mobile data connection type is allowed.
@@ -627,19 +693,23 @@ public class RunConditionMonitor {
         }
 
         // Run on WiFi?
-        scr = checkConditionSyncOnWifi(Constants.PREF_RUN_ON_WIFI);
+        scr = checkConditionSyncOnWifi(snapshot,
+                mPreferences.getBoolean(Constants.PREF_RUN_ON_WIFI, true));
         mRunDecisionExplanation += scr.explanation;
         if (scr.conditionMet) {
             // Wifi is connected.
             LogV("decideShouldRun: checkConditionSyncOnWifi");
 
-            scr = checkConditionSyncOnMeteredWifi(Constants.PREF_RUN_ON_METERED_WIFI);
+            scr = checkConditionSyncOnMeteredWifi(snapshot,
+                    mPreferences.getBoolean(Constants.PREF_RUN_ON_METERED_WIFI, false));
             mRunDecisionExplanation += scr.explanation;
             if (scr.conditionMet) {
                 // Wifi type is allowed.
                 LogV("decideShouldRun: checkConditionSyncOnWifi && checkConditionSyncOnMeteredWifi");
 
-                scr = checkConditionSyncOnWhitelistedWifi(Constants.PREF_USE_WIFI_SSID_WHITELIST, Constants.PREF_WIFI_SSID_WHITELIST);
+                scr = checkConditionSyncOnWhitelistedWifi(snapshot,
+                        mPreferences.getBoolean(Constants.PREF_USE_WIFI_SSID_WHITELIST, false),
+                        mPreferences.getStringSet(Constants.PREF_WIFI_SSID_WHITELIST, new HashSet<>()));
                 mRunDecisionExplanation += scr.explanation;
                 if (scr.conditionMet) {
                     // Wifi is whitelisted.
@@ -650,7 +720,7 @@ public class RunConditionMonitor {
         }
 
         // Run in flight mode.
-        if (prefRunInFlightMode && isFlightMode()) {
+        if (prefRunInFlightMode && snapshot.isFlightMode) {
             LogV("decideShouldRun: prefRunInFlightMode && isFlightMode");
             mRunDecisionExplanation += "\n" + res.getString(R.string.reason_on_flight_mode);
             return true;
@@ -666,209 +736,141 @@ public class RunConditionMonitor {
     /**
      * Check if an object's individual sync conditions are met.
      * Precondition: Object must own pref "...CustomSyncConditionsEnabled == true".
+     * Use {@link #newObjectSyncConditionsEvaluation} to check several objects.
      */
     public Boolean checkObjectSyncConditions(String objectPrefixAndId) {
-        // Sync on specific power source?
-        SyncConditionResult scr = checkConditionSyncOnPowerSource(Constants.DYN_PREF_OBJECT_SYNC_ON_POWER_SOURCE(objectPrefixAndId));
-        if (!scr.conditionMet) {
-            LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnPowerSource");
-            return false;
-        }
-
-        // Sync on mobile data?
-        scr = checkConditionSyncOnMobileData(Constants.DYN_PREF_OBJECT_SYNC_ON_MOBILE_DATA(objectPrefixAndId));
-        if (scr.conditionMet) {
-            // Mobile data is connected.
-            LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnMobileData");
-            return true;
-        }
-
-        // Sync on WiFi?
-        scr = checkConditionSyncOnWifi(Constants.DYN_PREF_OBJECT_SYNC_ON_WIFI(objectPrefixAndId));
-        if (scr.conditionMet) {
-            // Wifi is connected.
-            LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi");
-
-            scr = checkConditionSyncOnMeteredWifi(Constants.DYN_PREF_OBJECT_SYNC_ON_METERED_WIFI(objectPrefixAndId));
-            if (scr.conditionMet) {
-                // Wifi type is allowed.
-                LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi && checkConditionSyncOnMeteredWifi");
-
-                scr = checkConditionSyncOnWhitelistedWifi(
-                    Constants.DYN_PREF_OBJECT_USE_WIFI_SSID_WHITELIST(objectPrefixAndId),
-                    Constants.DYN_PREF_OBJECT_SELECTED_WHITELIST_SSID(objectPrefixAndId)
-                );
-                if (scr.conditionMet) {
-                    // Wifi is whitelisted.
-                    LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi && checkConditionSyncOnMeteredWifi && checkConditionSyncOnWhitelistedWifi");
-                    return true;
-                }
-            }
-        }
-        return false;
+        return newObjectSyncConditionsEvaluation().check(objectPrefixAndId);
     }
 
     /**
-     * Return whether the wifi whitelist run condition is met.
-     * Precondition: An active wifi connection has been detected.
+     * Captures the current system state to check the sync conditions of many objects against.
      */
-    private boolean wifiWhitelistConditionMet (boolean prefWifiWhitelistEnabled,
-            Set<String> whitelistedWifiSsids) throws LocationUnavailableException {
-        if (!prefWifiWhitelistEnabled) {
-            LogV("handleWifiWhitelist: !prefWifiWhitelistEnabled");
-            return true;
-        }
-        if (isWifiConnectionWhitelisted(whitelistedWifiSsids)) {
-            LogV("handleWifiWhitelist: isWifiConnectionWhitelisted");
-            return true;
-        }
-        return false;
+    public ObjectSyncConditionsEvaluation newObjectSyncConditionsEvaluation() {
+        RunConditionSnapshot snapshot = RunConditionSnapshot.capture(mContext);
+        LogV("newObjectSyncConditionsEvaluation: " + snapshot);
+        return new ObjectSyncConditionsEvaluation(snapshot);
     }
 
     /**
-     * Functions for run condition information retrieval.
+     * Checks per-object sync conditions against one {@link RunConditionSnapshot}.
+     * Objects with the same sync preferences share one result, so the cost of an evaluation
+     * depends on the number of distinct preference sets instead of the number of objects.
+     * Not thread-safe.
      */
-    private boolean isCharging() {
-        Intent intent = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        if (intent == null) {
-            LogV("isCharging: Checking battery status intent returned null");
-            return false;
-        }
-        int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-        LogV("isCharging: Battery status intent extras: " + (intent.getExtras() != null ? intent.getExtras().toString() : "null"));
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
-            return plugged == BatteryManager.BATTERY_PLUGGED_AC ||
-                plugged == BatteryManager.BATTERY_PLUGGED_USB ||
-                plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS;
-        }
-        return plugged == BatteryManager.BATTERY_PLUGGED_AC ||
-            plugged == BatteryManager.BATTERY_PLUGGED_USB ||
-            plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS ||
-            plugged == BatteryManager.BATTERY_PLUGGED_DOCK;
-    }
+    public class ObjectSyncConditionsEvaluation {
 
-    private boolean isPowerSaving() {
-        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
-        if (powerManager == null) {
-            Log.e(TAG, "getSystemService(POWER_SERVICE) unexpectedly returned NULL.");
-            return false;
-        }
-        return powerManager.isPowerSaveMode();
-    }
+        private final RunConditionSnapshot mSnapshot;
 
-    private boolean isFlightMode() {
-        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo ni = cm.getActiveNetworkInfo();
-        return ni == null;
-    }
+        private final Map<ObjectSyncConditions, Boolean> mResults = new HashMap<>();
 
-    private boolean isMeteredNetworkConnection() {
-        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo ni = cm.getActiveNetworkInfo();
-        if (ni == null) {
-            // In flight mode.
-            return false;
+        private ObjectSyncConditionsEvaluation(RunConditionSnapshot snapshot) {
+            mSnapshot = snapshot;
         }
-        if (!ni.isConnected()) {
-            // No network connection.
-            return false;
-        }
-        if (ni.getType() == ConnectivityManager.TYPE_ETHERNET) {
-            /**
-             * We treat Wi-Fi and ETHERNET as "Wi-Fi" connection.
-             * Assume ETHERNET connection is un-metered to allow syncing on
-             * Android TV or VirtualBox ETHERNET connection.
-             */
-             return false;
-        }
-        return cm.isActiveNetworkMetered();
-    }
 
-    private boolean isMobileDataConnection() {
-        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo ni = cm.getActiveNetworkInfo();
-        if (ni == null) {
-            // In flight mode.
-            return false;
-        }
-        if (!ni.isConnected()) {
-            // No network connection.
-            return false;
-        }
-        switch (ni.getType()) {
-            case ConnectivityManager.TYPE_BLUETOOTH:
-            case ConnectivityManager.TYPE_MOBILE:
-            case ConnectivityManager.TYPE_MOBILE_DUN:
-            case ConnectivityManager.TYPE_MOBILE_HIPRI:
-                return true;
-            default:
-                return false;
+        /**
+         * Precondition: Object must own pref "...CustomSyncConditionsEnabled == true".
+         */
+        public Boolean check(String objectPrefixAndId) {
+            ObjectSyncConditions conditions = new ObjectSyncConditions(mPreferences, objectPrefixAndId);
+            Boolean result = mResults.get(conditions);
+            if (result == null) {
+                result = evaluate(conditions, objectPrefixAndId);
+                mResults.put(conditions, result);
+            }
+            return result;
         }
-    }
 
-    private boolean isRoamingNetworkConnection() {
-        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo ni = cm.getActiveNetworkInfo();
-        if (ni == null) {
-            // In flight mode.
-            return false;
-        }
-        if (!ni.isConnected()) {
-            // No network connection.
-            return false;
-        }
-        return ni.isRoaming();
-    }
+        private Boolean evaluate(ObjectSyncConditions conditions, String objectPrefixAndId) {
+            // Sync on specific power source?
+            SyncConditionResult scr = checkConditionSyncOnPowerSource(mSnapshot, conditions.powerSource);
+            if (!scr.conditionMet) {
+                LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnPowerSource");
+                return false;
+            }
 
-    private boolean isWifiOrEthernetConnection() {
-        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo ni = cm.getActiveNetworkInfo();
-        if (ni == null) {
-            // In flight mode.
-            return false;
-        }
-        if (!ni.isConnected()) {
-            // No network connection.
-            return false;
-        }
-        switch (ni.getType()) {
-            case ConnectivityManager.TYPE_WIFI:
-            case ConnectivityManager.TYPE_WIMAX:
-            case ConnectivityManager.TYPE_ETHERNET:
+            // Sync on mobile data?
+            scr = checkConditionSyncOnMobileData(mSnapshot, conditions.syncOnMobileData);
+            if (scr.conditionMet) {
+                // Mobile data is connected.
+                LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnMobileData");
                 return true;
-            default:
-                return false;
-        }
-    }
+            }
+
+            // Sync on WiFi?
+            scr = checkConditionSyncOnWifi(mSnapshot, conditions.syncOnWifi);
+            if (scr.conditionMet) {
+                // Wifi is connected.
+                LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi");
 
-    private boolean isWifiConnectionWhitelisted(Set<String> whitelistedSsids)
-            throws LocationUnavailableException{
-        WifiManager wifiManager = (WifiManager) mContext.getApplicationContext()
-                .getSystemService(Context.WIFI_SERVICE);
-        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-        if (wifiInfo == null) {
-            // May be null, if wifi has been turned off in the meantime.
-            Log.d(TAG, "isWifiConnectionWhitelisted: SSID unknown due to wifiInfo == null");
+                scr = checkConditionSyncOnMeteredWifi(mSnapshot, conditions.syncOnMeteredWifi);
+                if (scr.conditionMet) {
+                    // Wifi type is allowed.
+                    LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi && checkConditionSyncOnMeteredWifi");
+
+                    scr = checkConditionSyncOnWhitelistedWifi(mSnapshot,
+                            conditions.useWifiWhitelist, conditions.wifiWhitelist);
+                    if (scr.conditionMet) {
+                        // Wifi is whitelisted.
+                        LogV("checkObjectSyncConditions(" + objectPrefixAndId + "): checkConditionSyncOnWifi && checkConditionSyncOnMeteredWifi && checkConditionSyncOnWhitelistedWifi");
+                        return true;
+                    }
+                }
+            }
             return false;
         }
-        String wifiSsid = wifiInfo.getSSID();
-        if (wifiSsid == null || wifiSsid.equals("<unknown ssid>")) {
-            throw new LocationUnavailableException("isWifiConnectionWhitelisted: Got null SSID. Try to enable android location service.");
-        }
-        // DO NOT RELEASE WITH THIS LINE: Log.v(TAG, "isWifiConnectionWhitelisted: wifiSsid=[" + wifiSsid + "]");
-        return whitelistedSsids.contains(wifiSsid);
     }
 
-    public class LocationUnavailableException extends Exception {
-
-        public LocationUnavailableException(String message) {
-            super(message);
+    /**
+     * Per-object sync preferences, used as key to share results between objects.
+     */
+    private static class ObjectSyncConditions {
+        final String powerSource;
+        final boolean syncOnMobileData;
+        final boolean syncOnWifi;
+        final boolean syncOnMeteredWifi;
+        final boolean useWifiWhitelist;
+        final Set<String> wifiWhitelist;
+
+        ObjectSyncConditions(SharedPreferences preferences, String objectPrefixAndId) {
+            powerSource = preferences.getString(
+                    Constants.DYN_PREF_OBJECT_SYNC_ON_POWER_SOURCE(objectPrefixAndId),
+                    Constants.PowerSource.CHARGER_BATTERY);
+            syncOnMobileData = preferences.getBoolean(
+                    Constants.DYN_PREF_OBJECT_SYNC_ON_MOBILE_DATA(objectPrefixAndId), false);
+            syncOnWifi = preferences.getBoolean(
+                    Constants.DYN_PREF_OBJECT_SYNC_ON_WIFI(objectPrefixAndId), true);
+            syncOnMeteredWifi = preferences.getBoolean(
+                    Constants.DYN_PREF_OBJECT_SYNC_ON_METERED_WIFI(objectPrefixAndId), false);
+            useWifiWhitelist = preferences.getBoolean(
+                    Constants.DYN_PREF_OBJECT_USE_WIFI_SSID_WHITELIST(objectPrefixAndId), false);
+            wifiWhitelist = useWifiWhitelist
+                    ? new HashSet<>(preferences.getStringSet(
+                            Constants.DYN_PREF_OBJECT_SELECTED_WHITELIST_SSID(objectPrefixAndId), new HashSet<>()))
+                    : new HashSet<>();
         }
 
-        public LocationUnavailableException(String message, Throwable throwable) {
-            super(message, throwable);
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ObjectSyncConditions)) {
+                return false;
+            }
+            ObjectSyncConditions other = (ObjectSyncConditions) o;
+            return syncOnMobileData == other.syncOnMobileData &&
+                    syncOnWifi == other.syncOnWifi &&
+                    syncOnMeteredWifi == other.syncOnMeteredWifi &&
+                    useWifiWhitelist == other.useWifiWhitelist &&
+                    powerSource.equals(other.powerSource) &&
+                    wifiWhitelist.equals(other.wifiWhitelist);
         }
 
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] {powerSource, syncOnMobileData, syncOnWifi,
+                    syncOnMeteredWifi, useWifiWhitelist, wifiWhitelist});
+        }
     }
 
     private void LogV(String logMessage) {
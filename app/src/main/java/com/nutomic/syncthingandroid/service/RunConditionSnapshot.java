@@ -0,0 +1,168 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable state of the device the run conditions are evaluated against.
+ *
+ * {@link #capture} queries the system services once, so a whole evaluation of the global and
+ * all per-object run conditions sees a consistent state.
+ */
+public class RunConditionSnapshot {
+
+    private static final String TAG = "RunConditionSnapshot";
+
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+    public final boolean isCharging;
+    public final boolean isPowerSaving;
+    public final boolean isFlightMode;
+
+    /**
+     * We treat Wi-Fi and ETHERNET as "Wi-Fi" connection.
+     */
+    public final boolean isWifiOrEthernetConnection;
+    public final boolean isMobileDataConnection;
+    public final boolean isMeteredNetworkConnection;
+    public final boolean isRoamingNetworkConnection;
+
+    /**
+     * SSID of the connected wifi, null if unknown.
+     * Only queried while {@link #isWifiOrEthernetConnection}.
+     */
+    public final @Nullable String wifiSsid;
+
+    /**
+     * The SSID is hidden because the location service is unavailable.
+     */
+    public final boolean isLocationUnavailable;
+
+    private RunConditionSnapshot(boolean isCharging, boolean isPowerSaving, boolean isFlightMode,
+                                 boolean isWifiOrEthernetConnection, boolean isMobileDataConnection,
+                                 boolean isMeteredNetworkConnection, boolean isRoamingNetworkConnection,
+                                 @Nullable String wifiSsid, boolean isLocationUnavailable) {
+        this.isCharging = isCharging;
+        this.isPowerSaving = isPowerSaving;
+        this.isFlightMode = isFlightMode;
+        this.isWifiOrEthernetConnection = isWifiOrEthernetConnection;
+        this.isMobileDataConnection = isMobileDataConnection;
+        this.isMeteredNetworkConnection = isMeteredNetworkConnection;
+        this.isRoamingNetworkConnection = isRoamingNetworkConnection;
+        this.wifiSsid = wifiSsid;
+        this.isLocationUnavailable = isLocationUnavailable;
+    }
+
+    public static RunConditionSnapshot capture(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo ni = cm.getActiveNetworkInfo();
+
+        // ni == null in flight mode.
+        boolean isConnected = ni != null && ni.isConnected();
+        boolean isWifiOrEthernetConnection = false;
+        boolean isMobileDataConnection = false;
+        if (isConnected) {
+            switch (ni.getType()) {
+                case ConnectivityManager.TYPE_WIFI:
+                case ConnectivityManager.TYPE_WIMAX:
+                case ConnectivityManager.TYPE_ETHERNET:
+                    isWifiOrEthernetConnection = true;
+                    break;
+                case ConnectivityManager.TYPE_BLUETOOTH:
+                case ConnectivityManager.TYPE_MOBILE:
+                case ConnectivityManager.TYPE_MOBILE_DUN:
+                case ConnectivityManager.TYPE_MOBILE_HIPRI:
+                    isMobileDataConnection = true;
+                    break;
+            }
+        }
+
+        /**
+         * Assume ETHERNET connection is un-metered to allow syncing on
+         * Android TV or VirtualBox ETHERNET connection.
+         */
+        boolean isMeteredNetworkConnection = isConnected
+                && ni.getType() != ConnectivityManager.TYPE_ETHERNET
+                && cm.isActiveNetworkMetered();
+
+        String wifiSsid = null;
+        boolean isLocationUnavailable = false;
+        if (isWifiOrEthernetConnection) {
+            WifiManager wifiManager = (WifiManager) context.getApplicationContext()
+                    .getSystemService(Context.WIFI_SERVICE);
+            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+            if (wifiInfo == null) {
+                // May be null, if wifi has been turned off in the meantime.
+                Log.d(TAG, "capture: SSID unknown due to wifiInfo == null");
+            } else {
+                wifiSsid = wifiInfo.getSSID();
+                if (wifiSsid == null || wifiSsid.equals(UNKNOWN_SSID)) {
+                    wifiSsid = null;
+                    isLocationUnavailable = true;
+                }
+            }
+        }
+
+        return new RunConditionSnapshot(
+                isCharging(context),
+                isPowerSaving(context),
+                ni == null,
+                isWifiOrEthernetConnection,
+                isMobileDataConnection,
+                isMeteredNetworkConnection,
+                isConnected && ni.isRoaming(),
+                wifiSsid,
+                isLocationUnavailable
+        );
+    }
+
+    private static boolean isCharging(Context context) {
+        Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (intent == null) {
+            Log.d(TAG, "isCharging: Checking battery status intent returned null");
+            return false;
+        }
+        int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return plugged == BatteryManager.BATTERY_PLUGGED_AC ||
+                plugged == BatteryManager.BATTERY_PLUGGED_USB ||
+                plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS;
+        }
+        return plugged == BatteryManager.BATTERY_PLUGGED_AC ||
+            plugged == BatteryManager.BATTERY_PLUGGED_USB ||
+            plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS ||
+            plugged == BatteryManager.BATTERY_PLUGGED_DOCK;
+    }
+
+    private static boolean isPowerSaving(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            Log.e(TAG, "getSystemService(POWER_SERVICE) unexpectedly returned NULL.");
+            return false;
+        }
+        return powerManager.isPowerSaveMode();
+    }
+
+    @Override
+    public String toString() {
+        return "charging=" + isCharging +
+                ", powerSaving=" + isPowerSaving +
+                ", flightMode=" + isFlightMode +
+                ", wifiOrEthernet=" + isWifiOrEthernetConnection +
+                ", mobileData=" + isMobileDataConnection +
+                ", metered=" + isMeteredNetworkConnection +
+                ", roaming=" + isRoamingNetworkConnection +
+                ", locationUnavailable=" + isLocationUnavailable;
+    }
+}
@@ -0,0 +1,279 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of ".sync-conflict-YYYYMMDD-HHMMSS-DEVICEI*" files per folder.
+ *
+ * The index of a folder is built by walking its tree once, in parallel and without
+ * descending into {@link Constants#FOLDER_NAME_STVERSIONS} or symbolic links. Afterwards
+ * it is only updated for files reported by "ItemFinished" and "LocalIndexUpdated" events,
+ * so querying conflicts after a folder completed costs O(changes) instead of O(tree).
+ */
+public class SyncConflictIndex {
+
+    private static final String TAG = "SyncConflictIndex";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    private static final Pattern SYNC_CONFLICT_PATTERN =
+            Pattern.compile("\\.sync-conflict-[0-9]{8}-[0-9]{6}-[a-zA-Z0-9]{7}");
+
+    private static class FolderIndex {
+        final String path;
+
+        /**
+         * Paths relative to the folder root.
+         */
+        final Set<String> conflictFiles = new HashSet<>();
+
+        /**
+         * Maps paths reported while the index is being built to true if the file exists,
+         * null once it was built.
+         */
+        Map<String, Boolean> pendingChanges = new HashMap<>();
+
+        FolderIndex(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Object that must be locked upon accessing mFolders and its contents, mWalkPool, mShutdown
+     */
+    private final Object mLock = new Object();
+
+    private final Map<String, FolderIndex> mFolders = new HashMap<>();
+
+    private ForkJoinPool mWalkPool = null;
+
+    private Boolean mShutdown = false;
+
+    public SyncConflictIndex(Boolean enableVerboseLog) {
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+    }
+
+    /**
+     * Returns conflict files of the folder, relative to its root and sorted.
+     * Blocks while the index of the folder is built on first use, so it must not be
+     * called on the main thread.
+     */
+    public String[] getConflictFiles(final String folderId, final String folderPath) {
+        FolderIndex index;
+        synchronized (mLock) {
+            index = mFolders.get(folderId);
+            if (index != null && index.path.equals(folderPath) && index.pendingChanges == null) {
+                return toSortedArray(index.conflictFiles);
+            }
+            if (index == null || !index.path.equals(folderPath)) {
+                index = new FolderIndex(folderPath);
+                mFolders.put(folderId, index);
+            }
+        }
+
+        ForkJoinPool walkPool = getWalkPool();
+        if (walkPool == null) {
+            Log.w(TAG, "getConflictFiles: Not indexing folder '" + folderId + "' after shutdown");
+            return new String[0];
+        }
+        long startTime = System.currentTimeMillis();
+        List<String> conflictFiles;
+        try {
+            conflictFiles = walkPool.invoke(new WalkTask(new File(folderPath), ""));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "getConflictFiles: Not indexing folder '" + folderId + "' after shutdown");
+            return new String[0];
+        }
+        LogV("getConflictFiles: Indexed folder '" + folderId + "' in " +
+                (System.currentTimeMillis() - startTime) + " ms, found " +
+                conflictFiles.size() + " conflict(s)");
+
+        synchronized (mLock) {
+            if (mFolders.get(folderId) != index) {
+                // The folder was removed or moved meanwhile.
+                return toSortedArray(conflictFiles);
+            }
+            if (index.pendingChanges != null) {
+                index.conflictFiles.addAll(conflictFiles);
+                for (Map.Entry<String, Boolean> change : index.pendingChanges.entrySet()) {
+                    applyChange(index, change.getKey(), change.getValue());
+                }
+                index.pendingChanges = null;
+            }
+            return toSortedArray(index.conflictFiles);
+        }
+    }
+
+    /**
+     * Updates the index after a file of the folder was created, changed or deleted.
+     */
+    public void onFileChanged(final String folderId, final String folderPath,
+                              final String relativePath) {
+        if (!isConflictFile(relativePath)) {
+            return;
+        }
+        // Stat the file before taking the lock, so file system latency does not block
+        // readers of the index.
+        final boolean isFile = new File(folderPath, relativePath).isFile();
+        synchronized (mLock) {
+            FolderIndex index = mFolders.get(folderId);
+            if (index == null || !index.path.equals(folderPath)) {
+                // Not indexed yet, the walk will find the file.
+                return;
+            }
+            if (index.pendingChanges != null) {
+                index.pendingChanges.put(relativePath, isFile);
+                return;
+            }
+            applyChange(index, relativePath, isFile);
+        }
+    }
+
+    /**
+     * Drops indexes of folders which are no longer configured.
+     */
+    public void retainFolders(final Collection<String> folderIds) {
+        synchronized (mLock) {
+            Iterator<String> it = mFolders.keySet().iterator();
+            while (it.hasNext()) {
+                if (!folderIds.contains(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the pool used to build indexes. Walks which are already running complete,
+     * folders which were not indexed yet report no conflicts afterwards.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            if (mWalkPool != null) {
+                mWalkPool.shutdown();
+                mWalkPool = null;
+            }
+        }
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private void applyChange(FolderIndex index, String relativePath, boolean isFile) {
+        if (isFile) {
+            if (index.conflictFiles.add(relativePath)) {
+                LogV("applyChange: Added conflict file [" + relativePath + "]");
+            }
+        } else if (index.conflictFiles.remove(relativePath)) {
+            LogV("applyChange: Removed conflict file [" + relativePath + "]");
+        }
+    }
+
+    /**
+     * Returns null after {@link #shutdown}.
+     */
+    private ForkJoinPool getWalkPool() {
+        synchronized (mLock) {
+            if (mShutdown) {
+                return null;
+            }
+            if (mWalkPool == null) {
+                mWalkPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+            }
+            return mWalkPool;
+        }
+    }
+
+    private static boolean isConflictFile(String relativePath) {
+        if (relativePath.startsWith(Constants.FOLDER_NAME_STVERSIONS + "/")) {
+            return false;
+        }
+        String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return SYNC_CONFLICT_PATTERN.matcher(fileName).find();
+    }
+
+    private static String[] toSortedArray(Collection<String> conflictFiles) {
+        return new TreeSet<>(conflictFiles).toArray(new String[0]);
+    }
+
+    /**
+     * Collects conflict files below a directory, forking a subtask per subdirectory.
+     */
+    private static class WalkTask extends RecursiveTask<List<String>> {
+
+        private final File mDir;
+
+        /**
+         * Path of mDir relative to the folder root, "" for the root.
+         */
+        private final String mRelativeDir;
+
+        WalkTask(File dir, String relativeDir) {
+            mDir = dir;
+            mRelativeDir = relativeDir;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> conflictFiles = new ArrayList<>();
+            File[] children = mDir.listFiles();
+            if (children == null) {
+                return conflictFiles;
+            }
+            List<WalkTask> subtasks = new ArrayList<>();
+            for (File child : children) {
+                String name = child.getName();
+                String relativePath = mRelativeDir.isEmpty() ? name : mRelativeDir + "/" + name;
+                if (child.isDirectory()) {
+                    if (mRelativeDir.isEmpty() && name.equals(Constants.FOLDER_NAME_STVERSIONS)) {
+                        continue;
+                    }
+                    if (isSymbolicLink(child)) {
+                        continue;
+                    }
+                    subtasks.add(new WalkTask(child, relativePath));
+                } else if (SYNC_CONFLICT_PATTERN.matcher(name).find() && child.isFile()) {
+                    conflictFiles.add(relativePath);
+                }
+            }
+            for (WalkTask subtask : invokeAll(subtasks)) {
+                conflictFiles.addAll(subtask.join());
+            }
+            return conflictFiles;
+        }
+
+        private static boolean isSymbolicLink(File file) {
+            try {
+                return OsConstants.S_ISLNK(Os.lstat(file.getPath()).st_mode);
+            } catch (ErrnoException e) {
+                Log.w(TAG, "isSymbolicLink: Failed to stat " + file.getPath(), e);
+                return true;
+            }
+        }
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
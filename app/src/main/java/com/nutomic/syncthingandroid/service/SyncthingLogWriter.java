@@ -0,0 +1,170 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends SyncthingNative's output to {@link Constants#getSyncthingLogFile}.
+ *
+ * The file is kept open for the lifetime of the native process and written through a buffer
+ * which is flushed once it is full or {@link #FLUSH_DELAY} after the first unflushed line.
+ * Once the file exceeds {@link #SEGMENT_MAX_BYTES}, it is rotated to "syncthing.log.1",
+ * shifting older segments up to "syncthing.log.{@value #MAX_ROTATED_SEGMENTS}".
+ * This caps the disk space taken by the log without rewriting it.
+ */
+public class SyncthingLogWriter {
+
+    private static final String TAG = "SyncthingLogWriter";
+
+    /**
+     * Maximum size of one log segment in bytes.
+     */
+    private static final long SEGMENT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Number of rotated segments kept next to the current log file.
+     */
+    public static final int MAX_ROTATED_SEGMENTS = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum time a written line may stay in the buffer.
+     */
+    private static final long FLUSH_DELAY = TimeUnit.SECONDS.toMillis(1);
+
+    private final File mLogFile;
+
+    private final ScheduledExecutorService mFlushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Object that must be locked upon accessing the following variables:
+     * mOutputStream, mSegmentBytes, mFlushScheduled
+     */
+    private final Object mLock = new Object();
+
+    private OutputStream mOutputStream = null;
+    private long mSegmentBytes = 0;
+    private boolean mFlushScheduled = false;
+
+    public SyncthingLogWriter(File logFile) {
+        mLogFile = logFile;
+    }
+
+    /**
+     * Returns the file holding the rotated segment with the given index,
+     * e.g. "syncthing.log.1" for the most recently rotated segment.
+     */
+    public static File getRotatedSegment(File logFile, int index) {
+        return new File(logFile.getParentFile(), logFile.getName() + "." + index);
+    }
+
+    /**
+     * Appends a line to the log. Called from the threads reading stdout and stderr.
+     */
+    public void writeLine(String line) {
+        byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (mLock) {
+            try {
+                if (mOutputStream == null) {
+                    open();
+                } else if (mSegmentBytes + data.length > SEGMENT_MAX_BYTES) {
+                    mOutputStream.close();
+                    mOutputStream = null;
+                    rotate();
+                    open();
+                }
+                mOutputStream.write(data);
+                mSegmentBytes += data.length;
+                if (!mFlushScheduled && !mFlushExecutor.isShutdown()) {
+                    mFlushScheduled = true;
+                    mFlushExecutor.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "writeLine: Failed to write to " + mLogFile.getName(), e);
+                closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Flushes buffered lines and closes the log file.
+     */
+    public void close() {
+        mFlushExecutor.shutdownNow();
+        synchronized (mLock) {
+            closeQuietly();
+        }
+    }
+
+    private void flush() {
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            if (mOutputStream == null) {
+                return;
+            }
+            try {
+                mOutputStream.flush();
+            } catch (IOException e) {
+                Log.w(TAG, "flush: Failed to write to " + mLogFile.getName(), e);
+                closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private void open() throws IOException {
+        if (mLogFile.length() >= SEGMENT_MAX_BYTES) {
+            rotate();
+        }
+        mSegmentBytes = mLogFile.length();
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(mLogFile, true), BUFFER_SIZE);
+    }
+
+    /**
+     * Shifts "syncthing.log.{n}" to "syncthing.log.{n+1}", dropping the oldest segment,
+     * and moves the current log file to "syncthing.log.1".
+     * Precondition: mLock is held and mOutputStream is closed.
+     */
+    private void rotate() {
+        File oldest = getRotatedSegment(mLogFile, MAX_ROTATED_SEGMENTS);
+        if (oldest.exists() && !oldest.delete()) {
+            Log.w(TAG, "rotate: Failed to delete " + oldest.getName());
+        }
+        for (int i = MAX_ROTATED_SEGMENTS - 1; i >= 1; i--) {
+            File segment = getRotatedSegment(mLogFile, i);
+            if (segment.exists() && !segment.renameTo(getRotatedSegment(mLogFile, i + 1))) {
+                Log.w(TAG, "rotate: Failed to rename " + segment.getName());
+            }
+        }
+        if (mLogFile.exists() && !mLogFile.renameTo(getRotatedSegment(mLogFile, 1))) {
+            Log.w(TAG, "rotate: Failed to rename " + mLogFile.getName());
+        }
+    }
+
+    /**
+     * Precondition: mLock is held.
+     */
+    private void closeQuietly() {
+        if (mOutputStream == null) {
+            return;
+        }
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "closeQuietly: Failed to close " + mLogFile.getName(), e);
+        }
+        mOutputStream = null;
+    }
+}
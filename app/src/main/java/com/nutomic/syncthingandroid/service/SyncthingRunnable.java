@@ -14,7 +14,6 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.util.FileUtils;
@@ -22,11 +21,9 @@ import com.nutomic.syncthingandroid.util.Util;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.security.InvalidParameterException;
@@ -50,9 +47,12 @@ public class SyncthingRunnable implements Runnable {
     private static final String TAG_NATIVE = "SyncthingNativeCode";
     private static final String TAG_NICE = "SyncthingRunnableIoNice";
 
+    /**
+     * Logged by the native binary once its web gui and REST API accept connections.
+     */
+    private static final String GUI_LISTENING_MARKER = "GUI and API listening";
+
     private Boolean ENABLE_VERBOSE_LOG = false;
-    private static final int LOG_FILE_MAX_LINES = 200000;
-    private static final int LOG_FILE_BUFFER_SIZE = 1024 * 1024;
 
     private static final AtomicReference<Process> mSyncthing = new AtomicReference<>();
     private final Context mContext;
@@ -60,6 +60,13 @@ public class SyncthingRunnable implements Runnable {
     private String[] mCommand;
     private final File mSyncthingLogFile;
 
+    private OnGuiListeningListener mOnGuiListeningListener = null;
+
+    /**
+     * Set once {@link #GUI_LISTENING_MARKER} was seen, so later lines are not searched.
+     */
+    private volatile boolean mGuiListeningReported = false;
+
     @Inject
     SharedPreferences mPreferences;
 
@@ -74,6 +81,10 @@ public class SyncthingRunnable implements Runnable {
         resetdeltas,        // Reset Syncthing's delta indexes
     }
 
+    public interface OnGuiListeningListener {
+        void onGuiListening();
+    }
+
     /**
      * Constructs instance.
      *
@@ -109,6 +120,14 @@ public class SyncthingRunnable implements Runnable {
         }
     }
 
+    /**
+     * Called from a log thread when the native binary reports its web gui is listening.
+     * Must be set before the runnable is started.
+     */
+    public void setOnGuiListeningListener(OnGuiListeningListener listener) {
+        mOnGuiListeningListener = listener;
+    }
+
     @Override
     public void run() {
         try {
@@ -124,11 +143,9 @@ public class SyncthingRunnable implements Runnable {
         int exitCode;
         String capturedStdOut = "";
 
-        // Trim Syncthing log.
-        trimSyncthingLogFile();
-
         MulticastLock multicastLock = null;
         Process process = null;
+        SyncthingLogWriter logWriter = null;
         try {
             // Android 11 blocks local discovery if we did not acquire MulticastLock.
             WifiManager wifi = (WifiManager) mContext.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
@@ -162,8 +179,9 @@ public class SyncthingRunnable implements Runnable {
                         br.close();
                 }
             } else {
-                lInfo = log(process.getInputStream(), Log.INFO);
-                lWarn = log(process.getErrorStream(), Log.WARN);
+                logWriter = new SyncthingLogWriter(mSyncthingLogFile);
+                lInfo = log(process.getInputStream(), Log.INFO, logWriter);
+                lWarn = log(process.getErrorStream(), Log.WARN, logWriter);
             }
 
             exitCode = process.waitFor();
@@ -223,6 +241,9 @@ public class SyncthingRunnable implements Runnable {
             if (process != null) {
                 process.destroy();
             }
+            if (logWriter != null) {
+                logWriter.close();
+            }
         }
 
         // Restart syncthing if it exited unexpectedly while running on a separate thread.
@@ -256,13 +277,13 @@ public class SyncthingRunnable implements Runnable {
     }
 
     /**
-     * Logs the outputs of a stream to logcat and mNativeLog.
+     * Logs the outputs of a stream to {@link #mSyncthingLogFile}.
      *
-     * @param is       The stream to log.
-     * @param priority The priority level.
-     * @param saveLog  True if the log should be stored to {@link #mSyncthingLogFile}.
+     * @param is        The stream to log.
+     * @param priority  The priority level.
+     * @param logWriter Shared writer appending to {@link #mSyncthingLogFile}.
      */
-    private Thread log(final InputStream is, final int priority) {
+    private Thread log(final InputStream is, final int priority, final SyncthingLogWriter logWriter) {
         Thread t = new Thread(() -> {
             BufferedReader br = null;
             try {
@@ -276,7 +297,13 @@ public class SyncthingRunnable implements Runnable {
                     }
                     */
                     // Always output SynchtingNative's output to "syncthing.log".
-                    Files.append(line + "\n", mSyncthingLogFile, Charsets.UTF_8);
+                    logWriter.writeLine(line);
+                    if (!mGuiListeningReported && line.contains(GUI_LISTENING_MARKER)) {
+                        mGuiListeningReported = true;
+                        if (mOnGuiListeningListener != null) {
+                            mOnGuiListeningListener.onGuiListening();
+                        }
+                    }
                 }
             } catch (IOException e) {
                 Log.w(TAG, "Failed to read Syncthing's command line output", e);
@@ -293,89 +320,6 @@ public class SyncthingRunnable implements Runnable {
         return t;
     }
 
-    // If the nth last newline is found within this buffer, then the offset of that newline within
-    // the buffer is returned. Otherwise, the negative of (nth - newlines consumed) is returned for
-    // use with the new search.
-    private static int findNthLastNewline(byte[] data, int size, int nth) {
-        if (nth <= 0) {
-            throw new IllegalArgumentException("nth must be positive: " + nth);
-        }
-
-        for (int i = size - 1; i >= 0; i--) {
-            if (data[i] == '\n') {
-                nth--;
-
-                if (nth == 0) {
-                    return i;
-                }
-            }
-        }
-
-        return -nth;
-    }
-
-    /**
-     * Only keep last {@link #LOG_FILE_MAX_LINES} lines in log file, to avoid bloat.
-     */
-    private void trimSyncthingLogFile() {
-        if (!mSyncthingLogFile.exists()) {
-            return;
-        }
-
-        try (RandomAccessFile input = new RandomAccessFile(mSyncthingLogFile, "r")) {
-            // Find the offset of the (n + 1)th newline with constant memory. The last n lines is
-            // everything after that point. This will read in block-aligned chunks if
-            // LOG_FILE_BUFFER_SIZE is a multiple of the filesystem block size.
-            byte[] buf = new byte[LOG_FILE_BUFFER_SIZE];
-            long length = input.length();
-            long chunks = Math.ceilDiv(length, buf.length);
-            int newlinesRemaining = LOG_FILE_MAX_LINES + 1;
-            long truncationOffset = -1;
-
-            for (long chunk = chunks - 1; chunk >= 0; chunk--) {
-                long offset = buf.length * chunk;
-                input.seek(offset);
-
-                // Last chunk can be smaller than the whole buffer.
-                int n = (int) Math.min(length - offset, buf.length);
-                input.readFully(buf, 0, n);
-
-                int ret = findNthLastNewline(buf, n, newlinesRemaining);
-                if (ret >= 0) {
-                    truncationOffset = offset + ret + 1;
-                    break;
-                } else {
-                    newlinesRemaining = -ret;
-                }
-            }
-
-            if (truncationOffset < 0) {
-                // The file already contains fewer than maximum lines.
-                return;
-            }
-
-            input.seek(truncationOffset);
-
-            File tempFile = new File(mContext.getFilesDir().toString(), "syncthing.log.tmp");
-            long remain = length - truncationOffset;
-
-            try (FileOutputStream output = new FileOutputStream(tempFile)) {
-                while (remain > 0) {
-                    int n = (int) Math.min(remain, buf.length);
-
-                    input.readFully(buf, 0, n);
-                    output.write(buf, 0, n);
-
-                    remain -= n;
-                }
-            }
-
-            tempFile.renameTo(mSyncthingLogFile);
-        } catch (IOException e) {
-            Log.w(TAG, "Failed to trim log file", e);
-        }
-    }
-
     private HashMap<String, String> buildEnvironment() {
         HashMap<String, String> targetEnv = new HashMap<>();
 
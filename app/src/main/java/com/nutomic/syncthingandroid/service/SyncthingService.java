@@ -15,6 +15,7 @@ import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.http.PollWebGuiAvailableTask;
 import com.nutomic.syncthingandroid.model.Device;
 import com.nutomic.syncthingandroid.model.Folder;
+import com.nutomic.syncthingandroid.util.ConfigBackup;
 import com.nutomic.syncthingandroid.util.ConfigRouter;
 import com.nutomic.syncthingandroid.util.ConfigXml;
 import com.nutomic.syncthingandroid.util.FileUtils;
@@ -22,9 +23,9 @@ import com.nutomic.syncthingandroid.util.PermissionUtil;
 import com.nutomic.syncthingandroid.util.Util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
@@ -37,12 +38,6 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.model.enums.CompressionLevel;
-import net.lingala.zip4j.model.enums.CompressionMethod;
-import net.lingala.zip4j.model.enums.EncryptionMethod;
-import net.lingala.zip4j.model.enums.AesKeyStrength;
 
 /**
  * Holds the native syncthing instance and provides an API to access it.
@@ -474,6 +469,10 @@ public class SyncthingService extends Service {
             return;
         }
 
+        // Capture the system state once for all objects.
+        RunConditionMonitor.ObjectSyncConditionsEvaluation syncConditions =
+                runConditionMonitor.newObjectSyncConditionsEvaluation();
+
         // Check if the folders are available from config.
         List<Folder> folders = configXml.getFolders();
         if (folders != null) {
@@ -483,12 +482,11 @@ public class SyncthingService extends Service {
                     Constants.DYN_PREF_OBJECT_CUSTOM_SYNC_CONDITIONS(Constants.PREF_OBJECT_PREFIX_FOLDER + folder.id), false
                 );
                 if (folderCustomSyncConditionsEnabled) {
-                    Boolean syncConditionsMet = runConditionMonitor.checkObjectSyncConditions(
+                    Boolean syncConditionsMet = syncConditions.check(
                         Constants.PREF_OBJECT_PREFIX_FOLDER + folder.id
                     );
                     LogV("applyCustomRunConditions: f(" + folder.label + ")=" + (syncConditionsMet ? "1" : "0"));
-                    if (folder.paused != !syncConditionsMet) {
-                        configXml.setFolderPause(folder.id, !syncConditionsMet);
+                    if (configXml.setFolderPause(folder.id, !syncConditionsMet)) {
                         Log.d(TAG, "applyCustomRunConditions: f(" + folder.label + ")=" + (syncConditionsMet ? ">1" : ">0"));
                         configChanged = true;
                     }
@@ -508,12 +506,11 @@ public class SyncthingService extends Service {
                     Constants.DYN_PREF_OBJECT_CUSTOM_SYNC_CONDITIONS(Constants.PREF_OBJECT_PREFIX_DEVICE + device.deviceID), false
                 );
                 if (deviceCustomSyncConditionsEnabled) {
-                    Boolean syncConditionsMet = runConditionMonitor.checkObjectSyncConditions(
+                    Boolean syncConditionsMet = syncConditions.check(
                         Constants.PREF_OBJECT_PREFIX_DEVICE + device.deviceID
                     );
                     LogV("applyCustomRunConditions: d(" + device.name + ")=" + (syncConditionsMet ? "1" : "0"));
-                    if (device.paused != !syncConditionsMet) {
-                        configXml.setDevicePause(device.deviceID, !syncConditionsMet);
+                    if (configXml.setDevicePause(device.deviceID, !syncConditionsMet)) {
                         Log.d(TAG, "applyCustomRunConditions: d(" + device.name + ")=" + (syncConditionsMet ? ">1" : ">0"));
                         configChanged = true;
                     }
@@ -580,6 +577,26 @@ public class SyncthingService extends Service {
         }
         mSyncthingRunnable = new SyncthingRunnable(this, srCommand);
 
+        /**
+         * Wait for the web-gui of the native syncthing binary to come online.
+         *
+         * In case the binary is to be stopped, also be aware that another thread could request
+         * to stop the binary in the time while waiting for the GUI to become active. See the comment
+         * for {@link SyncthingService#onDestroy} for details.
+         */
+        if (mPollWebGuiAvailableTask == null) {
+            final PollWebGuiAvailableTask pollWebGuiAvailableTask = new PollWebGuiAvailableTask(
+                    this, mConfig.getWebGuiUrl(), mConfig.getApiKey(), webGuiTcpPort, result -> {
+                Log.i(TAG, "Web GUI has come online at " + mConfig.getWebGuiUrl());
+                if (mRestApi != null) {
+                    mRestApi.readConfigFromRestApi();
+                }
+            }
+            );
+            mPollWebGuiAvailableTask = pollWebGuiAvailableTask;
+            mSyncthingRunnable.setOnGuiListeningListener(pollWebGuiAvailableTask::onGuiListening);
+        }
+
         /**
          * Check if an old syncthing instance is still running.
          * This happens after an in-place app upgrade. If so, end it.
@@ -596,24 +613,6 @@ public class SyncthingService extends Service {
         mSyncthingRunnableThread = new Thread(mSyncthingRunnable);
         mSyncthingRunnableThread.setUncaughtExceptionHandler(syncthingRunnableThreadExceptionHandler);
         mSyncthingRunnableThread.start();
-
-        /**
-         * Wait for the web-gui of the native syncthing binary to come online.
-         *
-         * In case the binary is to be stopped, also be aware that another thread could request
-         * to stop the binary in the time while waiting for the GUI to become active. See the comment
-         * for {@link SyncthingService#onDestroy} for details.
-         */
-        if (mPollWebGuiAvailableTask == null) {
-            mPollWebGuiAvailableTask = new PollWebGuiAvailableTask(
-                    this, mConfig.getWebGuiUrl(), mConfig.getApiKey(), result -> {
-                Log.i(TAG, "Web GUI has come online at " + mConfig.getWebGuiUrl());
-                if (mRestApi != null) {
-                    mRestApi.readConfigFromRestApi();
-                }
-            }
-            );
-        }
     }
 
     /**
@@ -833,6 +832,14 @@ public class SyncthingService extends Service {
      *
      */
     public boolean exportConfig() {
+        return exportConfig(true);
+    }
+
+    /**
+     * @param incremental Reuse compressed data of files unchanged since the previous
+     *                    unencrypted backup.
+     */
+    public boolean exportConfig(boolean incremental) {
         Boolean failSuccess = true;
         Log.d(TAG, "exportConfig BEGIN");
 
@@ -845,36 +852,6 @@ public class SyncthingService extends Service {
         File targetZip = getBackupZipFile();
         targetZip.getParentFile().mkdirs();
 
-        // Export SharedPreferences.
-        File sharedPreferencesFile = null;
-        FileOutputStream fileOutputStream = null;
-        ObjectOutputStream objectOutputStream = null;
-        try {
-            sharedPreferencesFile = Constants.getSharedPrefsFile(this);
-            fileOutputStream = new FileOutputStream(sharedPreferencesFile);
-            if (!sharedPreferencesFile.exists()) {
-                sharedPreferencesFile.createNewFile();
-            }
-            objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            objectOutputStream.writeObject(mPreferences.getAll());
-            objectOutputStream.flush();
-            fileOutputStream.flush();
-        } catch (IOException e) {
-            Log.e(TAG, "exportConfig: Failed to export SharedPreferences #1", e);
-            failSuccess = false;
-        } finally {
-            try {
-                if (objectOutputStream != null) {
-                    objectOutputStream.close();
-                }
-                if (fileOutputStream != null) {
-                    fileOutputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "exportConfig: Failed to export SharedPreferences #2", e);
-            }
-        }
-
         // Make a list of files to backup.
         List<File> includePaths = Arrays.asList(
             Constants.getConfigFile(this),
@@ -885,50 +862,21 @@ public class SyncthingService extends Service {
             Constants.getHttpsCertFile(this),
             Constants.getHttpsKeyFile(this),
 
-            Constants.getSharedPrefsFile(this),
-
             Constants.getIndexDbFolder(this)
         );
 
         // If user set one, apply a password and encrypt the zip file.
         String zipEncryptionPassword = mPreferences.getString(Constants.PREF_BACKUP_PASSWORD, "");
 
-        // Compress files to zip file.
+        // Stream files and SharedPreferences to the zip file.
         try {
-            // Delete existing ZIP file to ensure we create a fresh archive instead of appending
-            if (targetZip.exists()) {
-                targetZip.delete();
-            }
-            
-            ZipParameters parameters = new ZipParameters();
-            parameters.setCompressionMethod(CompressionMethod.DEFLATE);
-            parameters.setCompressionLevel(CompressionLevel.NORMAL);
-
-            ZipFile zipFile;
-            if (zipEncryptionPassword.isEmpty()) {
-                zipFile = new ZipFile(targetZip);
-                parameters.setEncryptFiles(false);
-            } else {
-                zipFile = new ZipFile(targetZip, zipEncryptionPassword.toCharArray());
-                parameters.setEncryptFiles(true);
-                parameters.setEncryptionMethod(EncryptionMethod.AES);
-                parameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
-            }
-
-            // Add files.
-            for (File includePath : includePaths) {
-                if (includePath.exists()) {
-                    if (includePath.isFile()) {
-                        zipFile.addFile(includePath, parameters);
-                    } else if (includePath.isDirectory()) {
-                        zipFile.addFolder(includePath, parameters);
-                    }
-                }
-            }
-
-            if (sharedPreferencesFile != null && sharedPreferencesFile.exists()) {
-                sharedPreferencesFile.delete();
-            }
+            ConfigBackup.export(targetZip, getFilesDir(), includePaths,
+                    Constants.SHARED_PREFS_FILE, outputStream -> {
+                        ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+                        objectOutputStream.writeObject(mPreferences.getAll());
+                        objectOutputStream.flush();
+                    },
+                    zipEncryptionPassword, incremental);
         } catch (Exception e) {
             Log.w(TAG, "exportConfig: Failed to export config, " + e.getMessage());
             failSuccess = false;
@@ -997,10 +945,12 @@ public class SyncthingService extends Service {
             }
 
             // Test if supplied encryption password is correct.
-            String cacheDir = this.getCacheDir().getAbsolutePath();
-            zipFile.extractFile(Constants.PUBLIC_KEY_FILE, cacheDir);
-            new File(cacheDir, Constants.PUBLIC_KEY_FILE).delete();
-        } catch (ZipException e) {
+            try (InputStream inputStream = zipFile.getInputStream(zipFile.getFileHeader(Constants.PUBLIC_KEY_FILE))) {
+                byte[] buffer = new byte[8192];
+                while (inputStream.read(buffer) != -1) {
+                }
+            }
+        } catch (IOException e) {
             Log.e(TAG, "importConfig: Failed to open zip, " + e.getMessage());
             return false;
         }
@@ -1024,10 +974,16 @@ public class SyncthingService extends Service {
             }
         }
 
-        // Decompress zip file.
+        // Stream zip file entries to their final paths and import shared preferences.
+        final boolean[] sharedPrefsImported = {false};
         try {
-            zipFile.extractAll(this.getFilesDir().getAbsolutePath());
-        } catch (ZipException e) {
+            ConfigBackup.restore(zipFilePath, getFilesDir(),
+                    mPreferences.getString(Constants.PREF_BACKUP_PASSWORD, ""),
+                    Constants.SHARED_PREFS_FILE, inputStream -> {
+                        Log.d(TAG, "importConfig: Importing shared preferences");
+                        sharedPrefsImported[0] = importConfigSharedPrefs(inputStream);
+                    });
+        } catch (IOException e) {
             Log.e(TAG, "importConfig: Failed to extract zip, " + e.getMessage());
             failSuccess = false;
         }
@@ -1040,9 +996,7 @@ public class SyncthingService extends Service {
             Constants.getPublicKeyFile(this),
 
             Constants.getHttpsCertFile(this),
-            Constants.getHttpsKeyFile(this),
-
-            Constants.getSharedPrefsFile(this)
+            Constants.getHttpsKeyFile(this)
         );
         for (final File checkPath : checkPaths) {
             if (!checkPath.exists()) {
@@ -1050,13 +1004,9 @@ public class SyncthingService extends Service {
                 failSuccess = false;
             }
         }
-        
-        // Import shared preferences.
-        File sharedPreferencesFile = Constants.getSharedPrefsFile(this);
-        if (sharedPreferencesFile.exists()) {
-            Log.d(TAG, "importConfig: Importing shared preferences");
-            failSuccess = failSuccess && importConfigSharedPrefs(sharedPreferencesFile);
-            sharedPreferencesFile.delete();
+        if (!sharedPrefsImported[0]) {
+            Log.e(TAG, "importConfig: Shared preferences were not imported [" + Constants.SHARED_PREFS_FILE + "]");
+            failSuccess = false;
         }
 
         try {
@@ -1346,16 +1296,16 @@ public class SyncthingService extends Service {
         }
     }
 
-    private boolean importConfigSharedPrefs(final File file) {
+    /**
+     * Does not close inputStream.
+     */
+    private boolean importConfigSharedPrefs(final InputStream inputStream) {
         Boolean failSuccess = true;
-        FileInputStream fileInputStream = null;
-        ObjectInputStream objectInputStream = null;
         Map<?, ?> sharedPrefsMap = null;
         try {
             
             // Read, deserialize shared preferences.
-            fileInputStream = new FileInputStream(file);
-            objectInputStream = new ObjectInputStream(fileInputStream);
+            ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
             Object objectFromInputStream = objectInputStream.readObject();
             if (objectFromInputStream instanceof Map) {
                 sharedPrefsMap = (Map<?, ?>) objectFromInputStream;
@@ -1431,19 +1381,8 @@ public class SyncthingService extends Service {
                 Log.e(TAG, "importConfig: Invalid object stream");
             }
         } catch (IOException | ClassNotFoundException e) {
-            Log.e(TAG, "importConfig: Failed to import SharedPreferences #1", e);
+            Log.e(TAG, "importConfig: Failed to import SharedPreferences", e);
             failSuccess = false;
-        } finally {
-            try {
-                if (objectInputStream != null) {
-                    objectInputStream.close();
-                }
-                if (fileInputStream != null) {
-                    fileInputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "importConfig: Failed to import SharedPreferences #2", e);
-            }
         }
         return failSuccess;
     }
@@ -0,0 +1,286 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import net.lingala.zip4j.io.inputstream.ZipInputStream;
+import net.lingala.zip4j.io.outputstream.ZipOutputStream;
+import net.lingala.zip4j.model.LocalFileHeader;
+import net.lingala.zip4j.model.ZipParameters;
+import net.lingala.zip4j.model.enums.AesKeyStrength;
+import net.lingala.zip4j.model.enums.CompressionLevel;
+import net.lingala.zip4j.model.enums.CompressionMethod;
+import net.lingala.zip4j.model.enums.EncryptionMethod;
+
+/**
+ * Streams the config backup zip archive.
+ *
+ * Export writes the archive in a single pass to a temporary file next to the target and
+ * renames it when complete. Unencrypted archives are compressed on several threads by
+ * {@link ParallelZipWriter}; in incremental mode, files whose size and modification time match
+ * the previous archive have their compressed data copied over instead of being compressed again.
+ * Encrypted archives are streamed through zip4j.
+ *
+ * Restore streams the archive once and writes each entry to its final path via a temporary file,
+ * which is only renamed after the CRC, or the MAC of AES encrypted entries, has been verified.
+ */
+public class ConfigBackup {
+
+    private static final String TAG = "ConfigBackup";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes an entry which is not backed by a file. Must not close the stream.
+     */
+    public interface EntryWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Reads an entry which is not restored to a file. Must not close the stream.
+     */
+    public interface EntryReader {
+        void read(InputStream inputStream) throws IOException;
+    }
+
+    private ConfigBackup() {
+    }
+
+    /**
+     * Writes the files and folders in includePaths, named relative to baseDir, followed by
+     * the extra entry.
+     *
+     * @param password Encrypts the archive with AES-256 if not empty.
+     * @param incremental Reuse unchanged entries of the existing unencrypted targetZip.
+     */
+    public static void export(File targetZip, File baseDir, List<File> includePaths,
+                              String extraEntryName, EntryWriter extraEntryWriter,
+                              String password, boolean incremental) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File includePath : includePaths) {
+            collectFiles(includePath, files);
+        }
+        File tempZip = new File(targetZip.getParentFile(), targetZip.getName() + TEMP_SUFFIX);
+        boolean success = false;
+        try {
+            if (password.isEmpty()) {
+                exportParallel(tempZip, targetZip, baseDir, files, extraEntryName,
+                        extraEntryWriter, incremental);
+            } else {
+                exportEncrypted(tempZip, baseDir, files, extraEntryName, extraEntryWriter, password);
+            }
+            if (!tempZip.renameTo(targetZip)) {
+                throw new IOException("Failed to rename " + tempZip.getName() + " to " + targetZip.getName());
+            }
+            success = true;
+        } finally {
+            if (!success && tempZip.exists() && !tempZip.delete()) {
+                Log.w(TAG, "export: Failed to delete " + tempZip);
+            }
+        }
+    }
+
+    private static void exportParallel(File tempZip, File previousZip, File baseDir, List<File> files,
+                                       String extraEntryName, EntryWriter extraEntryWriter,
+                                       boolean incremental) throws IOException {
+        FileInputStream previousInputStream = null;
+        Map<String, ZipCentralDirectory.Entry> previousEntries = Collections.emptyMap();
+        if (incremental && previousZip.isFile()) {
+            try {
+                previousInputStream = new FileInputStream(previousZip);
+                previousEntries = ZipCentralDirectory.read(previousInputStream.getChannel());
+            } catch (IOException e) {
+                Log.w(TAG, "export: Cannot reuse previous archive, " + e.getMessage());
+            }
+        }
+        int reused = 0;
+        try (ParallelZipWriter writer = new ParallelZipWriter(tempZip, Deflater.DEFAULT_COMPRESSION)) {
+            for (File file : files) {
+                String name = getEntryName(baseDir, file);
+                if (file.isDirectory()) {
+                    writer.putDirectory(name, file.lastModified());
+                    continue;
+                }
+                ZipCentralDirectory.Entry previous = previousEntries.get(name);
+                if (previous != null && previous.isReusable()
+                        && previous.size == file.length()
+                        && previous.lastModifiedSeconds == file.lastModified() / 1000) {
+                    writer.copyEntry(previous, previousInputStream.getChannel());
+                    reused++;
+                } else {
+                    writer.putFile(name, file);
+                }
+            }
+            try (OutputStream outputStream = writer.putEntry(extraEntryName, System.currentTimeMillis(), -1)) {
+                extraEntryWriter.write(outputStream);
+            }
+        } finally {
+            if (previousInputStream != null) {
+                previousInputStream.close();
+            }
+        }
+        Log.d(TAG, "export: Wrote " + (files.size() + 1) + " entries, reused " + reused);
+    }
+
+    private static void exportEncrypted(File tempZip, File baseDir, List<File> files,
+                                        String extraEntryName, EntryWriter extraEntryWriter,
+                                        String password) throws IOException {
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempZip), BUFFER_SIZE), password.toCharArray())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (File file : files) {
+                String name = getEntryName(baseDir, file);
+                if (file.isDirectory()) {
+                    ZipParameters parameters = new ZipParameters();
+                    parameters.setFileNameInZip(name + "/");
+                    parameters.setCompressionMethod(CompressionMethod.STORE);
+                    parameters.setEntrySize(0);
+                    parameters.setLastModifiedFileTime(file.lastModified());
+                    zipOutputStream.putNextEntry(parameters);
+                    zipOutputStream.closeEntry();
+                    continue;
+                }
+                zipOutputStream.putNextEntry(getEncryptedParameters(name, file.lastModified()));
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        zipOutputStream.write(buffer, 0, read);
+                    }
+                }
+                zipOutputStream.closeEntry();
+            }
+            zipOutputStream.putNextEntry(getEncryptedParameters(extraEntryName, System.currentTimeMillis()));
+            extraEntryWriter.write(zipOutputStream);
+            zipOutputStream.closeEntry();
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(tempZip, true)) {
+            outputStream.getFD().sync();
+        }
+    }
+
+    private static ZipParameters getEncryptedParameters(String name, long lastModified) {
+        ZipParameters parameters = new ZipParameters();
+        parameters.setFileNameInZip(name);
+        parameters.setLastModifiedFileTime(lastModified);
+        parameters.setCompressionMethod(CompressionMethod.DEFLATE);
+        parameters.setCompressionLevel(CompressionLevel.NORMAL);
+        parameters.setEncryptFiles(true);
+        parameters.setEncryptionMethod(EncryptionMethod.AES);
+        parameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
+        return parameters;
+    }
+
+    /**
+     * Restores all entries below baseDir, except the extra entry which is passed to
+     * extraEntryReader if present.
+     *
+     * @param password Empty if the archive is not encrypted.
+     */
+    public static void restore(File zip, File baseDir, String password,
+                               String extraEntryName, EntryReader extraEntryReader) throws IOException {
+        String basePath = baseDir.getCanonicalPath() + File.separator;
+        int restored = 0;
+        try (ZipInputStream zipInputStream = new ZipInputStream(
+                new BufferedInputStream(new FileInputStream(zip), BUFFER_SIZE),
+                password.isEmpty() ? null : password.toCharArray())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            LocalFileHeader header;
+            while ((header = zipInputStream.getNextEntry()) != null) {
+                String name = header.getFileName();
+                if (name.equals(extraEntryName)) {
+                    extraEntryReader.read(new FilterInputStream(zipInputStream) {
+                        @Override
+                        public void close() {
+                        }
+                    });
+                    // Read to the end of the entry, which verifies its checksum.
+                    while (zipInputStream.read(buffer) != -1) {
+                    }
+                    continue;
+                }
+                File target = new File(baseDir, name);
+                if (!target.getCanonicalPath().startsWith(basePath)) {
+                    throw new IOException("Entry outside of target directory: " + name);
+                }
+                if (header.isDirectory()) {
+                    if (!target.isDirectory() && !target.mkdirs()) {
+                        throw new IOException("Failed to create " + target);
+                    }
+                    continue;
+                }
+                File parent = target.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Failed to create " + parent);
+                }
+                restoreEntry(zipInputStream, target, buffer);
+                restored++;
+            }
+        }
+        Log.d(TAG, "restore: Restored " + restored + " files");
+    }
+
+    private static void restoreEntry(ZipInputStream zipInputStream, File target,
+                                     byte[] buffer) throws IOException {
+        File tempFile = new File(target.getParentFile(), target.getName() + TEMP_SUFFIX);
+        boolean success = false;
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                int read;
+                while ((read = zipInputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                // Make sure the content is on disk before the rename replaces the target.
+                outputStream.getFD().sync();
+            }
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + target);
+            }
+            success = true;
+        } finally {
+            if (!success && tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "restore: Failed to delete " + tempFile);
+            }
+        }
+    }
+
+    /**
+     * Adds the file, or the folder and everything below it, in a stable order.
+     */
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            return;
+        }
+        files.add(file);
+        Arrays.sort(children);
+        for (File child : children) {
+            collectFiles(child, files);
+        }
+    }
+
+    private static String getEntryName(File baseDir, File file) {
+        return baseDir.toURI().relativize(file.toURI()).getPath().replaceAll("/$", "");
+    }
+}
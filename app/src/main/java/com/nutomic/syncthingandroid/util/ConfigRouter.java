@@ -18,6 +18,8 @@ import java.util.List;
  * Provides a transparent access to the config if ...
  * a) Syncthing is running and REST API is available.
  * b) Syncthing is NOT running and config.xml is accessed.
+ *    Reads are served from {@link OfflineConfigCache} and return copies,
+ *    so config.xml is only parsed again after it changed.
  */
 public class ConfigRouter {
 
@@ -39,8 +41,11 @@ public class ConfigRouter {
     public List<Folder> getFolders(RestApi restApi) {
         if (restApi == null || !restApi.isConfigLoaded()) {
             // Syncthing is not running or REST API is not (yet) available.
-            configXml.loadConfig();
-            return configXml.getFolders();
+            List<Folder> folders = new ArrayList<>();
+            for (Folder folder : getOfflineConfig().folders) {
+                folders.add(folder.copy());
+            }
+            return folders;
         }
 
         // Syncthing is running and REST API is available.
@@ -48,13 +53,12 @@ public class ConfigRouter {
     }
 
     public List<Folder> getSharedFolders(String deviceID) {
-        List<Folder> folders = getFolders(null);
         List<Folder> sharedFolders = new ArrayList<>();
 
-        for (Folder folder : folders) {
+        for (Folder folder : getOfflineConfig().folders) {
             if (folder.getDevice(deviceID) != null) {
                 // "device" is sharing "folder".
-                sharedFolders.add(folder);
+                sharedFolders.add(folder.copy());
             }
         }
 
@@ -148,19 +152,18 @@ public class ConfigRouter {
     }
 
     public List<Device> getDevices(RestApi restApi, Boolean includeLocal) {
-        List<Device> devices;
-        List<Folder> folders;
-
         if (restApi == null || !restApi.isConfigLoaded()) {
             // Syncthing is not running or REST API is not (yet) available.
-            configXml.loadConfig();
-            devices = configXml.getDevices(includeLocal);
-        } else {
-            // Syncthing is running and REST API is available.
-            devices = restApi.getDevices(includeLocal);
+            OfflineConfigCache.Snapshot config = getOfflineConfig();
+            List<Device> devices = new ArrayList<>();
+            for (Device device : includeLocal ? config.devices : config.devicesWithoutLocal) {
+                devices.add(device.copy());
+            }
+            return devices;
         }
 
-        return devices;
+        // Syncthing is running and REST API is available.
+        return restApi.getDevices(includeLocal);
     }
 
     public void updateDevice(RestApi restApi, final Device device) {
@@ -209,8 +212,7 @@ public class ConfigRouter {
     public Gui getGui(RestApi restApi) {
         if (restApi == null || !restApi.isConfigLoaded()) {
             // Syncthing is not running or REST API is not (yet) available.
-            configXml.loadConfig();
-            return configXml.getGui();
+            return getOfflineConfig().gui.copy();
         }
 
         // Syncthing is running and REST API is available.
@@ -233,12 +235,18 @@ public class ConfigRouter {
     public Options getOptions(RestApi restApi) {
         if (restApi == null || !restApi.isConfigLoaded()) {
             // Syncthing is not running or REST API is not (yet) available.
-            configXml.loadConfig();
-            return configXml.getOptions();
+            return getOfflineConfig().options.copy();
         }
 
         // Syncthing is running and REST API is available.
         return restApi.getOptions();
     }
 
+    /**
+     * Returns the parsed config.xml, which is shared across the process and must not be modified.
+     */
+    private OfflineConfigCache.Snapshot getOfflineConfig() {
+        return OfflineConfigCache.getInstance(mContext).get();
+    }
+
 }
@@ -20,21 +20,27 @@ import com.nutomic.syncthingandroid.service.Constants;
 import com.nutomic.syncthingandroid.service.SyncthingRunnable;
 import com.nutomic.syncthingandroid.util.FileUtils.ExternalStorageDirType;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -46,6 +52,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -96,12 +103,49 @@ public class ConfigXml {
 
     private static final int FOLDER_ID_APPENDIX_LENGTH = 4;
 
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Object-to-XML transformer shared by all instances as creating it is expensive.
+     * Transformers are not thread-safe, so sTransformerLock must be held while using it.
+     */
+    private static Transformer sTransformer = null;
+
+    private static final Object sTransformerLock = new Object();
+
     private final Context mContext;
 
     private final File mConfigFile;
 
     private Document mConfig;
 
+    /**
+     * Top-level folder and device elements of mConfig indexed by their ID.
+     * Rebuilt on every parse and kept in sync by the add and remove methods.
+     */
+    private final Map<String, Element> mFolderElements = new LinkedHashMap<>();
+    private final Map<String, Element> mDeviceElements = new LinkedHashMap<>();
+
+    /**
+     * Typed models parsed from the elements above. An entry is dropped as soon as
+     * its element is modified and parsed again on the next read.
+     */
+    private final Map<String, Folder> mFolderCache = new HashMap<>();
+    private final Map<String, Device> mDeviceCache = new HashMap<>();
+
+    /**
+     * Set if mConfig was modified since it was parsed or last saved.
+     */
+    private boolean mDirty = false;
+
+    /**
+     * SHA-256 of the config file contents as last read or written.
+     * Used to skip replacing the file if the serialized config did not change.
+     */
+    private byte[] mConfigDigest = null;
+
     public ConfigXml(Context context) {
         mContext = context;
         ENABLE_VERBOSE_LOG = AppPrefs.getPrefVerboseLog(context);
@@ -184,6 +228,7 @@ public class ConfigXml {
 
         // Save changes if we made any.
         if (changed) {
+            mDirty = true;
             saveChanges();
         }
     }
@@ -230,7 +275,8 @@ public class ConfigXml {
             throw new OpenConfigException();
         }
         try {
-            FileInputStream inputStream = new FileInputStream(mConfigFile);
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            DigestInputStream inputStream = new DigestInputStream(new FileInputStream(mConfigFile), messageDigest);
             InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
             InputSource inputSource = new InputSource(inputStreamReader);
             inputSource.setEncoding("UTF-8");
@@ -238,12 +284,39 @@ public class ConfigXml {
             DocumentBuilder db = dbfactory.newDocumentBuilder();
             // LogV("Parsing config file '" + mConfigFile + "'");
             mConfig = db.parse(inputSource);
+            // Digest trailing bytes the parser did not consume.
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) {
+            }
             inputStream.close();
+            mConfigDigest = messageDigest.digest();
             // LogV("Successfully parsed config file");
-        } catch (SAXException | ParserConfigurationException | IOException e) {
+        } catch (SAXException | ParserConfigurationException | IOException | NoSuchAlgorithmException e) {
             Log.w(TAG, "Failed to parse config file '" + mConfigFile + "'", e);
             throw new OpenConfigException();
         }
+        mDirty = false;
+        buildIndex();
+    }
+
+    /**
+     * Indexes the top-level "<folder>" and "<device>" elements by ID. Nodes below
+     * "<defaults>" or "<folder>" are not indexed as only direct children are enumerated.
+     */
+    private void buildIndex() {
+        mFolderElements.clear();
+        mDeviceElements.clear();
+        mFolderCache.clear();
+        mDeviceCache.clear();
+        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node node = childNodes.item(i);
+            if (node.getNodeName().equals("folder")) {
+                mFolderElements.put(getAttributeOrDefault((Element) node, "id", ""), (Element) node);
+            } else if (node.getNodeName().equals("device")) {
+                mDeviceElements.put(getAttributeOrDefault((Element) node, "id", ""), (Element) node);
+            }
+        }
     }
 
     public URL getWebGuiUrl() {
@@ -378,6 +451,7 @@ public class ConfigXml {
 
         // Save changes if we made any.
         if (changed) {
+            mDirty = true;
             saveChanges();
         }
     }
@@ -476,127 +550,125 @@ public class ConfigXml {
          return (node == null) ? defaultValue : node.getTextContent();
     }
 
+    /**
+     * Returns all folders sorted by label.
+     * The returned objects are shared with the parsed model until the next
+     * {@link #loadConfig}, so callers must pass modified copies to {@link #updateFolder}.
+     */
     public List<Folder> getFolders() {
         String localDeviceID = getLocalDeviceIDfromPref();
-        List<Folder> folders = new ArrayList<>();
-
-        // Prevent enumerating "<folder>" tags below "<default>" nodes by enumerating child nodes manually.
-        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (!node.getNodeName().equals("folder")) {
-                continue;
-            }
-            Element r = (Element) node;
-            Folder folder = new Folder();
-            folder.id = getAttributeOrDefault(r, "id", "");
-            folder.group = getAttributeOrDefault(r, "group", folder.group);
-            folder.label = getAttributeOrDefault(r, "label", folder.label);
-            
-            folder.path = getAttributeOrDefault(r, "path", "");
-            if (folder.path.startsWith("~/")) {
-                folder.path = folder.path.replaceFirst("^~", FileUtils.getSyncthingTildeAbsolutePath());
-            }
-            
-            folder.type = getAttributeOrDefault(r, "type", Constants.FOLDER_TYPE_SEND_RECEIVE);
-            folder.autoNormalize = getAttributeOrDefault(r, "autoNormalize", folder.autoNormalize);
-            folder.fsWatcherDelayS = getAttributeOrDefault(r, "fsWatcherDelayS", folder.fsWatcherDelayS);
-            folder.fsWatcherEnabled = getAttributeOrDefault(r, "fsWatcherEnabled", folder.fsWatcherEnabled);
-            folder.ignorePerms = getAttributeOrDefault(r, "ignorePerms", folder.ignorePerms);
-            folder.rescanIntervalS = getAttributeOrDefault(r, "rescanIntervalS", folder.rescanIntervalS);
-
-            folder.copiers = getContentOrDefault(r.getElementsByTagName("copiers").item(0), folder.copiers);
-            folder.hashers = getContentOrDefault(r.getElementsByTagName("hashers").item(0), folder.hashers);
-            folder.order = getContentOrDefault(r.getElementsByTagName("order").item(0), folder.order);
-            folder.paused = getContentOrDefault(r.getElementsByTagName("paused").item(0), folder.paused);
-            folder.ignoreDelete = getContentOrDefault(r.getElementsByTagName("ignoreDelete").item(0), folder.ignoreDelete);
-            folder.copyOwnershipFromParent = getContentOrDefault(r.getElementsByTagName("copyOwnershipFromParent").item(0), folder.copyOwnershipFromParent);
-            folder.modTimeWindowS = getContentOrDefault(r.getElementsByTagName("modTimeWindowS").item(0), folder.modTimeWindowS);
-            folder.blockPullOrder = getContentOrDefault(r.getElementsByTagName("blockPullOrder").item(0), folder.blockPullOrder);
-            folder.disableFsync = getContentOrDefault(r.getElementsByTagName("disableFsync").item(0), folder.disableFsync);
-            folder.maxConcurrentWrites = getContentOrDefault(r.getElementsByTagName("maxConcurrentWrites").item(0), folder.maxConcurrentWrites);
-            folder.maxConflicts = getContentOrDefault(r.getElementsByTagName("maxConflicts").item(0), folder.maxConflicts);
-            folder.copyRangeMethod = getContentOrDefault(r.getElementsByTagName("copyRangeMethod").item(0), folder.copyRangeMethod);
-            folder.caseSensitiveFS = getContentOrDefault(r.getElementsByTagName("caseSensitiveFS").item(0), folder.caseSensitiveFS);
-            folder.syncOwnership = getContentOrDefault(r.getElementsByTagName("syncOwnership").item(0), folder.syncOwnership);
-            folder.sendOwnership = getContentOrDefault(r.getElementsByTagName("sendOwnership").item(0), folder.sendOwnership);
-            folder.syncXattrs = getContentOrDefault(r.getElementsByTagName("syncXattrs").item(0), folder.syncXattrs);
-            folder.sendXattrs = getContentOrDefault(r.getElementsByTagName("sendXattrs").item(0), folder.sendXattrs);
-            folder.blockIndexing = getContentOrDefault(r.getElementsByTagName("blockIndexing").item(0), folder.blockIndexing);
-            folder.filesystemType = getContentOrDefault(r.getElementsByTagName("filesystemType").item(0), folder.filesystemType);
-
-            // Devices
-            /*
-            <device id="[DEVICE_ID]" introducedBy=""/>
-            */
-            NodeList nodeDevices = r.getElementsByTagName("device");
-            for (int j = 0; j < nodeDevices.getLength(); j++) {
-                Element elementDevice = (Element) nodeDevices.item(j);
-                SharedWithDevice device = new SharedWithDevice();
-                device.deviceID = getAttributeOrDefault(elementDevice, "id", "");
-
-                // Exclude self.
-                if (!TextUtils.isEmpty(device.deviceID) && !device.deviceID.equals(localDeviceID)) {
-                    device.introducedBy = getAttributeOrDefault(elementDevice, "introducedBy", device.introducedBy);
-                    // LogV("getFolders: deviceID=" + device.deviceID + ", introducedBy=" + device.introducedBy);
-                    device.encryptionPassword = getContentOrDefault(elementDevice.getElementsByTagName("encryptionPassword").item(0), device.encryptionPassword);
-                    folder.addDevice(device);
-                }
-            }
-
-            // MinDiskFree
-            /*
-            <minDiskFree unit="MB">5</minDiskFree>
-            */
-            folder.minDiskFree = new Folder.MinDiskFree();
-            Element elementMinDiskFree = (Element) r.getElementsByTagName("minDiskFree").item(0);
-            if (elementMinDiskFree != null) {
-                folder.minDiskFree.unit = getAttributeOrDefault(elementMinDiskFree, "unit", folder.minDiskFree.unit);
-                folder.minDiskFree.value = getContentOrDefault(elementMinDiskFree, folder.minDiskFree.value);
-            }
-            // LogV("folder.minDiskFree.unit=" + folder.minDiskFree.unit + ", folder.minDiskFree.value=" + folder.minDiskFree.value);
-
-            // Versioning
-            /*
-            <versioning></versioning>
-            <versioning type="trashcan">
-                <param key="cleanoutDays" val="90"></param>
-                <cleanupIntervalS>3600</cleanupIntervalS>
-                <fsPath></fsPath>
-                <fsType>basic</fsType>
-            </versioning>
-            */
-            folder.versioning = new Folder.Versioning();
-            Element elementVersioning = (Element) r.getElementsByTagName("versioning").item(0);
-            if (elementVersioning != null) {
-                folder.versioning.type = getAttributeOrDefault(elementVersioning, "type", "");
-                folder.versioning.cleanupIntervalS = getContentOrDefault(elementVersioning.getElementsByTagName("cleanupIntervalS").item(0), 3600);
-                folder.versioning.fsPath = getContentOrDefault(elementVersioning.getElementsByTagName("fsPath").item(0), "");
-                folder.versioning.fsType = getContentOrDefault(elementVersioning.getElementsByTagName("fsType").item(0), "basic");
-                NodeList nodeVersioningParam = elementVersioning.getElementsByTagName("param");
-                for (int j = 0; j < nodeVersioningParam.getLength(); j++) {
-                    Element elementVersioningParam = (Element) nodeVersioningParam.item(j);
-                    folder.versioning.params.put(
-                            getAttributeOrDefault(elementVersioningParam, "key", ""),
-                            getAttributeOrDefault(elementVersioningParam, "val", "")
-                    );
-                    /*
-                    Log.v(TAG, "folder.versioning.type=" + folder.versioning.type +
-                            ", key=" + getAttributeOrDefault(elementVersioningParam, "key", "") +
-                            ", val=" + getAttributeOrDefault(elementVersioningParam, "val", "")
-                    );
-                    */
-                }
+        List<Folder> folders = new ArrayList<>(mFolderElements.size());
+        for (Map.Entry<String, Element> entry : mFolderElements.entrySet()) {
+            Folder folder = mFolderCache.get(entry.getKey());
+            if (folder == null) {
+                folder = parseFolder(entry.getValue(), localDeviceID);
+                mFolderCache.put(entry.getKey(), folder);
             }
-
-            // For testing purposes only.
-            // LogV("folder.label=" + folder.label + "/" +"folder.type=" + folder.type + "/" + "folder.paused=" + folder.paused);
             folders.add(folder);
         }
         Collections.sort(folders, FOLDERS_COMPARATOR);
         return folders;
     }
 
+    private Folder parseFolder(final Element r, final String localDeviceID) {
+        Map<String, List<Element>> children = getChildElements(r);
+        Folder folder = new Folder();
+        folder.id = getAttributeOrDefault(r, "id", "");
+        folder.group = getAttributeOrDefault(r, "group", folder.group);
+        folder.label = getAttributeOrDefault(r, "label", folder.label);
+
+        folder.path = getAttributeOrDefault(r, "path", "");
+        if (folder.path.startsWith("~/")) {
+            folder.path = folder.path.replaceFirst("^~", FileUtils.getSyncthingTildeAbsolutePath());
+        }
+
+        folder.type = getAttributeOrDefault(r, "type", Constants.FOLDER_TYPE_SEND_RECEIVE);
+        folder.autoNormalize = getAttributeOrDefault(r, "autoNormalize", folder.autoNormalize);
+        folder.fsWatcherDelayS = getAttributeOrDefault(r, "fsWatcherDelayS", folder.fsWatcherDelayS);
+        folder.fsWatcherEnabled = getAttributeOrDefault(r, "fsWatcherEnabled", folder.fsWatcherEnabled);
+        folder.ignorePerms = getAttributeOrDefault(r, "ignorePerms", folder.ignorePerms);
+        folder.rescanIntervalS = getAttributeOrDefault(r, "rescanIntervalS", folder.rescanIntervalS);
+
+        folder.copiers = getContentOrDefault(getFirst(children, "copiers"), folder.copiers);
+        folder.hashers = getContentOrDefault(getFirst(children, "hashers"), folder.hashers);
+        folder.order = getContentOrDefault(getFirst(children, "order"), folder.order);
+        folder.paused = getContentOrDefault(getFirst(children, "paused"), folder.paused);
+        folder.ignoreDelete = getContentOrDefault(getFirst(children, "ignoreDelete"), folder.ignoreDelete);
+        folder.copyOwnershipFromParent = getContentOrDefault(getFirst(children, "copyOwnershipFromParent"), folder.copyOwnershipFromParent);
+        folder.modTimeWindowS = getContentOrDefault(getFirst(children, "modTimeWindowS"), folder.modTimeWindowS);
+        folder.blockPullOrder = getContentOrDefault(getFirst(children, "blockPullOrder"), folder.blockPullOrder);
+        folder.disableFsync = getContentOrDefault(getFirst(children, "disableFsync"), folder.disableFsync);
+        folder.maxConcurrentWrites = getContentOrDefault(getFirst(children, "maxConcurrentWrites"), folder.maxConcurrentWrites);
+        folder.maxConflicts = getContentOrDefault(getFirst(children, "maxConflicts"), folder.maxConflicts);
+        folder.copyRangeMethod = getContentOrDefault(getFirst(children, "copyRangeMethod"), folder.copyRangeMethod);
+        folder.caseSensitiveFS = getContentOrDefault(getFirst(children, "caseSensitiveFS"), folder.caseSensitiveFS);
+        folder.syncOwnership = getContentOrDefault(getFirst(children, "syncOwnership"), folder.syncOwnership);
+        folder.sendOwnership = getContentOrDefault(getFirst(children, "sendOwnership"), folder.sendOwnership);
+        folder.syncXattrs = getContentOrDefault(getFirst(children, "syncXattrs"), folder.syncXattrs);
+        folder.sendXattrs = getContentOrDefault(getFirst(children, "sendXattrs"), folder.sendXattrs);
+        folder.blockIndexing = getContentOrDefault(getFirst(children, "blockIndexing"), folder.blockIndexing);
+        folder.filesystemType = getContentOrDefault(getFirst(children, "filesystemType"), folder.filesystemType);
+
+        // Devices
+        /*
+        <device id="[DEVICE_ID]" introducedBy=""/>
+        */
+        for (Element elementDevice : getAll(children, "device")) {
+            SharedWithDevice device = new SharedWithDevice();
+            device.deviceID = getAttributeOrDefault(elementDevice, "id", "");
+
+            // Exclude self.
+            if (!TextUtils.isEmpty(device.deviceID) && !device.deviceID.equals(localDeviceID)) {
+                device.introducedBy = getAttributeOrDefault(elementDevice, "introducedBy", device.introducedBy);
+                // LogV("getFolders: deviceID=" + device.deviceID + ", introducedBy=" + device.introducedBy);
+                device.encryptionPassword = getContentOrDefault(getChildElement(elementDevice, "encryptionPassword"), device.encryptionPassword);
+                folder.addDevice(device);
+            }
+        }
+
+        // MinDiskFree
+        /*
+        <minDiskFree unit="MB">5</minDiskFree>
+        */
+        folder.minDiskFree = new Folder.MinDiskFree();
+        Element elementMinDiskFree = getFirst(children, "minDiskFree");
+        if (elementMinDiskFree != null) {
+            folder.minDiskFree.unit = getAttributeOrDefault(elementMinDiskFree, "unit", folder.minDiskFree.unit);
+            folder.minDiskFree.value = getContentOrDefault(elementMinDiskFree, folder.minDiskFree.value);
+        }
+        // LogV("folder.minDiskFree.unit=" + folder.minDiskFree.unit + ", folder.minDiskFree.value=" + folder.minDiskFree.value);
+
+        // Versioning
+        /*
+        <versioning></versioning>
+        <versioning type="trashcan">
+            <param key="cleanoutDays" val="90"></param>
+            <cleanupIntervalS>3600</cleanupIntervalS>
+            <fsPath></fsPath>
+            <fsType>basic</fsType>
+        </versioning>
+        */
+        folder.versioning = new Folder.Versioning();
+        Element elementVersioning = getFirst(children, "versioning");
+        if (elementVersioning != null) {
+            Map<String, List<Element>> versioningChildren = getChildElements(elementVersioning);
+            folder.versioning.type = getAttributeOrDefault(elementVersioning, "type", "");
+            folder.versioning.cleanupIntervalS = getContentOrDefault(getFirst(versioningChildren, "cleanupIntervalS"), 3600);
+            folder.versioning.fsPath = getContentOrDefault(getFirst(versioningChildren, "fsPath"), "");
+            folder.versioning.fsType = getContentOrDefault(getFirst(versioningChildren, "fsType"), "basic");
+            for (Element elementVersioningParam : getAll(versioningChildren, "param")) {
+                folder.versioning.params.put(
+                        getAttributeOrDefault(elementVersioningParam, "key", ""),
+                        getAttributeOrDefault(elementVersioningParam, "val", "")
+                );
+            }
+        }
+
+        // For testing purposes only.
+        // LogV("folder.label=" + folder.label + "/" +"folder.type=" + folder.type + "/" + "folder.paused=" + folder.paused);
+        return folder;
+    }
+
     public void addFolder(final Folder folder) {
         Log.d(TAG, "addFolder: folder.id=" + folder.id);
         Node nodeConfig = mConfig.getDocumentElement();
@@ -604,284 +676,174 @@ public class ConfigXml {
         nodeConfig.appendChild(nodeFolder);
         Element elementFolder = (Element) nodeFolder;
         elementFolder.setAttribute("id", folder.id);
+        mFolderElements.put(folder.id, elementFolder);
         updateFolder(folder);
     }
 
     public void updateFolder(final Folder folder) {
         String localDeviceID = getLocalDeviceIDfromPref();
-        NodeList nodeFolders = mConfig.getDocumentElement().getElementsByTagName("folder");
-        for (int i = 0; i < nodeFolders.getLength(); i++) {
-            Element r = (Element) nodeFolders.item(i);
-            if (folder.id.equals(getAttributeOrDefault(r, "id", ""))) {
-                // Found folder node to update.
-                r.setAttribute("group", folder.group);
-                r.setAttribute("label", folder.label);
-                r.setAttribute("path", folder.path);
-                r.setAttribute("type", folder.type);
-                r.setAttribute("autoNormalize", Boolean.toString(folder.autoNormalize));
-                r.setAttribute("fsWatcherDelayS", Float.toString(folder.fsWatcherDelayS));
-                r.setAttribute("fsWatcherEnabled", Boolean.toString(folder.fsWatcherEnabled));
-                r.setAttribute("ignorePerms", Boolean.toString(folder.ignorePerms));
-                r.setAttribute("rescanIntervalS", Integer.toString(folder.rescanIntervalS));
-
-                setConfigElement(r, "copiers", Integer.toString(folder.copiers));
-                setConfigElement(r, "hashers", Integer.toString(folder.hashers));
-                setConfigElement(r, "order", folder.order);
-                setConfigElement(r, "paused", folder.paused);
-                setConfigElement(r, "ignoreDelete", folder.ignoreDelete);
-                setConfigElement(r, "copyOwnershipFromParent", folder.copyOwnershipFromParent);
-                setConfigElement(r, "modTimeWindowS", Integer.toString(folder.modTimeWindowS));
-                setConfigElement(r, "blockPullOrder", folder.blockPullOrder);
-                setConfigElement(r, "disableFsync", folder.disableFsync);
-                setConfigElement(r, "maxConcurrentWrites", Integer.toString(folder.maxConcurrentWrites));
-                setConfigElement(r, "maxConflicts", Integer.toString(folder.maxConflicts));
-                setConfigElement(r, "copyRangeMethod", folder.copyRangeMethod);
-                setConfigElement(r, "caseSensitiveFS", folder.caseSensitiveFS);
-                setConfigElement(r, "syncOwnership", folder.syncOwnership);
-                setConfigElement(r, "sendOwnership", folder.sendOwnership);
-                setConfigElement(r, "syncXattrs", folder.syncXattrs);
-                setConfigElement(r, "sendXattrs", folder.sendXattrs);
-                setConfigElement(r, "blockIndexing", folder.blockIndexing);
-                setConfigElement(r, "filesystemType", folder.filesystemType);
-
-                // Update devices that share this folder.
-                // Pass 1: Remove all devices below that folder in XML except the local device.
-                NodeList nodeDevices = r.getElementsByTagName("device");
-                for (int j = nodeDevices.getLength() - 1; j >= 0; j--) {
-                    Element elementDevice = (Element) nodeDevices.item(j);
-                    if (!getAttributeOrDefault(elementDevice, "id", "").equals(localDeviceID)) {
-                        Log.d(TAG, "updateFolder: nodeDevices: Removing deviceID=" + getAttributeOrDefault(elementDevice, "id", ""));
-                        removeChildElementFromTextNode(r, elementDevice);
-                    }
-                }
+        Element r = mFolderElements.get(folder.id);
+        if (r == null) {
+            return;
+        }
+        mFolderCache.remove(folder.id);
+        mDirty = true;
+
+        r.setAttribute("group", folder.group);
+        r.setAttribute("label", folder.label);
+        r.setAttribute("path", folder.path);
+        r.setAttribute("type", folder.type);
+        r.setAttribute("autoNormalize", Boolean.toString(folder.autoNormalize));
+        r.setAttribute("fsWatcherDelayS", Float.toString(folder.fsWatcherDelayS));
+        r.setAttribute("fsWatcherEnabled", Boolean.toString(folder.fsWatcherEnabled));
+        r.setAttribute("ignorePerms", Boolean.toString(folder.ignorePerms));
+        r.setAttribute("rescanIntervalS", Integer.toString(folder.rescanIntervalS));
+
+        setConfigElement(r, "copiers", Integer.toString(folder.copiers));
+        setConfigElement(r, "hashers", Integer.toString(folder.hashers));
+        setConfigElement(r, "order", folder.order);
+        setConfigElement(r, "paused", folder.paused);
+        setConfigElement(r, "ignoreDelete", folder.ignoreDelete);
+        setConfigElement(r, "copyOwnershipFromParent", folder.copyOwnershipFromParent);
+        setConfigElement(r, "modTimeWindowS", Integer.toString(folder.modTimeWindowS));
+        setConfigElement(r, "blockPullOrder", folder.blockPullOrder);
+        setConfigElement(r, "disableFsync", folder.disableFsync);
+        setConfigElement(r, "maxConcurrentWrites", Integer.toString(folder.maxConcurrentWrites));
+        setConfigElement(r, "maxConflicts", Integer.toString(folder.maxConflicts));
+        setConfigElement(r, "copyRangeMethod", folder.copyRangeMethod);
+        setConfigElement(r, "caseSensitiveFS", folder.caseSensitiveFS);
+        setConfigElement(r, "syncOwnership", folder.syncOwnership);
+        setConfigElement(r, "sendOwnership", folder.sendOwnership);
+        setConfigElement(r, "syncXattrs", folder.syncXattrs);
+        setConfigElement(r, "sendXattrs", folder.sendXattrs);
+        setConfigElement(r, "blockIndexing", folder.blockIndexing);
+        setConfigElement(r, "filesystemType", folder.filesystemType);
+
+        // Update devices that share this folder.
+        // Pass 1: Remove all devices below that folder in XML except the local device.
+        for (Element elementDevice : getAll(getChildElements(r), "device")) {
+            if (!getAttributeOrDefault(elementDevice, "id", "").equals(localDeviceID)) {
+                Log.d(TAG, "updateFolder: nodeDevices: Removing deviceID=" + getAttributeOrDefault(elementDevice, "id", ""));
+                removeChildElementFromTextNode(r, elementDevice);
+            }
+        }
 
-                // Pass 2: Add devices below that folder from the POJO model.
-                final List<SharedWithDevice> devices = folder.getSharedWithDevices();
-                for (SharedWithDevice device : devices) {
-                    Log.d(TAG, "updateFolder: nodeDevices: Adding deviceID=" + device.deviceID);
-                    Node nodeDevice = mConfig.createElement("device");
-                    r.appendChild(nodeDevice);
-                    Element elementDevice = (Element) nodeDevice;
-                    elementDevice.setAttribute("id", device.deviceID);
-                    elementDevice.setAttribute("introducedBy", device.introducedBy);
-                    setConfigElement(elementDevice, "encryptionPassword", device.encryptionPassword);
-                }
+        // Pass 2: Add devices below that folder from the POJO model.
+        final List<SharedWithDevice> devices = folder.getSharedWithDevices();
+        for (SharedWithDevice device : devices) {
+            Log.d(TAG, "updateFolder: nodeDevices: Adding deviceID=" + device.deviceID);
+            Node nodeDevice = mConfig.createElement("device");
+            r.appendChild(nodeDevice);
+            Element elementDevice = (Element) nodeDevice;
+            elementDevice.setAttribute("id", device.deviceID);
+            elementDevice.setAttribute("introducedBy", device.introducedBy);
+            setConfigElement(elementDevice, "encryptionPassword", device.encryptionPassword);
+        }
 
-                // minDiskFree
-                if (folder.minDiskFree != null) {
-                    // Pass 1: Remove all minDiskFree nodes from XML (usually one)
-                    Element elementMinDiskFree = (Element) r.getElementsByTagName("minDiskFree").item(0);
-                    if (elementMinDiskFree != null) {
-                        Log.d(TAG, "updateFolder: nodeMinDiskFree: Removing minDiskFree node");
-                        removeChildElementFromTextNode(r, elementMinDiskFree);
-                    }
-
-                    // Pass 2: Add minDiskFree node from the POJO model to XML.
-                    Node nodeMinDiskFree = mConfig.createElement("minDiskFree");
-                    r.appendChild(nodeMinDiskFree);
-                    elementMinDiskFree = (Element) nodeMinDiskFree;
-                    elementMinDiskFree.setAttribute("unit", folder.minDiskFree.unit);
-                    setConfigElement(r, "minDiskFree", Float.toString(folder.minDiskFree.value));
-                }
+        // minDiskFree
+        if (folder.minDiskFree != null) {
+            // Pass 1: Remove all minDiskFree nodes from XML (usually one)
+            Element elementMinDiskFree = getChildElement(r, "minDiskFree");
+            if (elementMinDiskFree != null) {
+                Log.d(TAG, "updateFolder: nodeMinDiskFree: Removing minDiskFree node");
+                removeChildElementFromTextNode(r, elementMinDiskFree);
+            }
 
-                // Versioning
-                // Pass 1: Remove all versioning nodes from XML (usually one)
-                Element elementVersioning = (Element) r.getElementsByTagName("versioning").item(0);
-                if (elementVersioning != null) {
-                    Log.d(TAG, "updateFolder: nodeVersioning: Removing versioning node");
-                    removeChildElementFromTextNode(r, elementVersioning);
-                }
+            // Pass 2: Add minDiskFree node from the POJO model to XML.
+            Node nodeMinDiskFree = mConfig.createElement("minDiskFree");
+            r.appendChild(nodeMinDiskFree);
+            elementMinDiskFree = (Element) nodeMinDiskFree;
+            elementMinDiskFree.setAttribute("unit", folder.minDiskFree.unit);
+            setConfigElement(r, "minDiskFree", Float.toString(folder.minDiskFree.value));
+        }
 
-                // Pass 2: Add versioning node from the POJO model to XML.
-                Node nodeVersioning = mConfig.createElement("versioning");
-                r.appendChild(nodeVersioning);
-                elementVersioning = (Element) nodeVersioning;
-                if (!TextUtils.isEmpty(folder.versioning.type)) {
-                    elementVersioning.setAttribute("type", folder.versioning.type);
-                    setConfigElement(elementVersioning, "cleanupIntervalS", Integer.toString(folder.versioning.cleanupIntervalS));
-                    setConfigElement(elementVersioning, "fsPath", folder.versioning.fsPath);
-                    setConfigElement(elementVersioning, "fsType", folder.versioning.fsType);
-                    for (Map.Entry<String, String> param : folder.versioning.params.entrySet()) {
-                        Log.d(TAG, "updateFolder: nodeVersioning: Adding param key=" + param.getKey() + ", val=" + param.getValue());
-                        Node nodeParam = mConfig.createElement("param");
-                        elementVersioning.appendChild(nodeParam);
-                        Element elementParam = (Element) nodeParam;
-                        elementParam.setAttribute("key", param.getKey());
-                        elementParam.setAttribute("val", param.getValue());
-                    }
-                }
+        // Versioning
+        // Pass 1: Remove all versioning nodes from XML (usually one)
+        Element elementVersioning = getChildElement(r, "versioning");
+        if (elementVersioning != null) {
+            Log.d(TAG, "updateFolder: nodeVersioning: Removing versioning node");
+            removeChildElementFromTextNode(r, elementVersioning);
+        }
 
-                break;
+        // Pass 2: Add versioning node from the POJO model to XML.
+        Node nodeVersioning = mConfig.createElement("versioning");
+        r.appendChild(nodeVersioning);
+        elementVersioning = (Element) nodeVersioning;
+        if (!TextUtils.isEmpty(folder.versioning.type)) {
+            elementVersioning.setAttribute("type", folder.versioning.type);
+            setConfigElement(elementVersioning, "cleanupIntervalS", Integer.toString(folder.versioning.cleanupIntervalS));
+            setConfigElement(elementVersioning, "fsPath", folder.versioning.fsPath);
+            setConfigElement(elementVersioning, "fsType", folder.versioning.fsType);
+            for (Map.Entry<String, String> param : folder.versioning.params.entrySet()) {
+                Log.d(TAG, "updateFolder: nodeVersioning: Adding param key=" + param.getKey() + ", val=" + param.getValue());
+                Node nodeParam = mConfig.createElement("param");
+                elementVersioning.appendChild(nodeParam);
+                Element elementParam = (Element) nodeParam;
+                elementParam.setAttribute("key", param.getKey());
+                elementParam.setAttribute("val", param.getValue());
             }
         }
     }
 
     public void removeFolder(String folderId) {
-        NodeList nodeFolders = mConfig.getDocumentElement().getElementsByTagName("folder");
-        for (int i = nodeFolders.getLength() - 1; i >= 0; i--) {
-            Element r = (Element) nodeFolders.item(i);
-            if (folderId.equals(getAttributeOrDefault(r, "id", ""))) {
-                // Found folder node to remove.
-                Log.d(TAG, "removeFolder: Removing folder node, folderId=" + folderId);
-                removeChildElementFromTextNode((Element) r.getParentNode(), r);
-                break;
-            }
+        Element r = mFolderElements.remove(folderId);
+        mFolderCache.remove(folderId);
+        if (r != null) {
+            // Found folder node to remove.
+            Log.d(TAG, "removeFolder: Removing folder node, folderId=" + folderId);
+            removeChildElementFromTextNode((Element) r.getParentNode(), r);
+            mDirty = true;
         }
     }
 
-    public void setFolderPause(String folderId, Boolean paused) {
-        NodeList nodeFolders = mConfig.getDocumentElement().getElementsByTagName("folder");
-        for (int i = 0; i < nodeFolders.getLength(); i++) {
-            Element r = (Element) nodeFolders.item(i);
-            if (getAttributeOrDefault(r, "id", "").equals(folderId))
-            {
-                setConfigElement(r, "paused", paused);
-                break;
-            }
+    /**
+     * Returns if the config was changed.
+     */
+    public boolean setFolderPause(String folderId, Boolean paused) {
+        Element r = mFolderElements.get(folderId);
+        if (r == null || !setConfigElement(r, "paused", paused)) {
+            return false;
         }
+        mFolderCache.remove(folderId);
+        mDirty = true;
+        return true;
     }
 
     /**
      * Gets ignore list for given folder.
+     * The file is read in the background, listener is called on the main thread.
      */
     public void getFolderIgnoreList(Folder folder, OnResultListener1<FolderIgnoreList> listener) {
-        FolderIgnoreList folderIgnoreList = new FolderIgnoreList();
-        File file;
-        FileInputStream fileInputStream = null;
-        try {
-            file = new File(folder.path, Constants.FILENAME_STIGNORE);
-            if (file.exists()) {
-                fileInputStream = new FileInputStream(file);
-                InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, StandardCharsets.UTF_8);
-                byte[] data = new byte[(int) file.length()];
-                fileInputStream.read(data);
-                folderIgnoreList.ignore = new String(data, StandardCharsets.UTF_8).split("\n");
-            } else {
-                // File not found.
-                Log.w(TAG, "getFolderIgnoreList: File missing " + file);
-                /**
-                 * Don't fail as the file might be expectedly missing when users didn't
-                 * set ignores in the past storyline of that folder.
-                 */
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "getFolderIgnoreList: Failed to read '" + folder.path + "/" + Constants.FILENAME_STIGNORE + "' #1", e);
-        } finally {
-            try {
-                if (fileInputStream != null) {
-                    fileInputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "getFolderIgnoreList: Failed to read '" + folder.path + "/" + Constants.FILENAME_STIGNORE + "' #2", e);
-            }
-        }
-        listener.onResult(folderIgnoreList);
+        IgnoreListStore.getInstance().load(folder.path, lines -> {
+            FolderIgnoreList folderIgnoreList = new FolderIgnoreList();
+            folderIgnoreList.ignore = (lines == null) ? null : lines.clone();
+            listener.onResult(folderIgnoreList);
+        });
     }
 
     /**
      * Stores ignore list for given folder.
+     * The file is written in the background.
      */
     public void postFolderIgnoreList(Folder folder, String[] ignore) {
-        File file;
-        FileOutputStream fileOutputStream = null;
-        try {
-            file = new File(folder.path, Constants.FILENAME_STIGNORE);
-            if (!file.exists()) {
-                file.createNewFile();
-            }
-            fileOutputStream = new FileOutputStream(file);
-            // LogV("postFolderIgnoreList: Writing " + Constants.FILENAME_STIGNORE + " content=" + TextUtils.join("\n", ignore));
-            fileOutputStream.write(TextUtils.join("\n", ignore).getBytes(StandardCharsets.UTF_8));
-            fileOutputStream.flush();
-        } catch (IOException e) {
-            /**
-             * This will happen on external storage folders which exist outside the
-             * "/Android/data/[package_name]/files" folder on Android 5+.
-             */
-            Log.w(TAG, "postFolderIgnoreList: Failed to write '" + folder.path + "/" + Constants.FILENAME_STIGNORE + "' #1", e);
-        } finally {
-            try {
-                if (fileOutputStream != null) {
-                    fileOutputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "postFolderIgnoreList: Failed to write '" + folder.path + "/" + Constants.FILENAME_STIGNORE + "' #2", e);
-            }
-        }
+        IgnoreListStore.getInstance().save(folder.path, ignore);
     }
 
+    /**
+     * Returns all devices sorted by name.
+     * The returned objects are shared with the parsed model until the next
+     * {@link #loadConfig}, so callers must pass modified copies to {@link #updateDevice}.
+     */
     public List<Device> getDevices(Boolean includeLocal) {
         String localDeviceID = getLocalDeviceIDfromPref();
-        List<Device> devices = new ArrayList<>();
-
-        // Prevent enumerating "<device>" tags below "<defaults>", "<folder>" nodes by enumerating child nodes manually.
-        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (!node.getNodeName().equals("device")) {
-                continue;
-            }
-            Element r = (Element) node;
-            Device device = new Device();
-            device.compression = getAttributeOrDefault(r, "compression", device.compression);
-            device.deviceID = getAttributeOrDefault(r, "id", "");
-            device.introducedBy = getAttributeOrDefault(r, "introducedBy", device.introducedBy);
-            device.introducer =  getAttributeOrDefault(r, "introducer", device.introducer);
-            device.name = getAttributeOrDefault(r, "name", device.name);
-            device.autoAcceptFolders = getContentOrDefault(r.getElementsByTagName("autoAcceptFolders").item(0), device.autoAcceptFolders);
-            device.maxRecvKbps = getContentOrDefault(r.getElementsByTagName("maxRecvKbps").item(0), device.maxRecvKbps);
-            device.maxSendKbps = getContentOrDefault(r.getElementsByTagName("maxSendKbps").item(0), device.maxSendKbps);
-            device.paused = getContentOrDefault(r.getElementsByTagName("paused").item(0), device.paused);
-            device.untrusted = getContentOrDefault(r.getElementsByTagName("untrusted").item(0), device.untrusted);
-            device.numConnections = getContentOrDefault(r.getElementsByTagName("numConnections").item(0), device.numConnections);
-
-            // Addresses
-            /*
-            <device ...>
-                <address>dynamic</address>
-                <address>tcp4://192.168.1.67:2222</address>
-            </device>
-            */
-            device.addresses = new ArrayList<>();
-            NodeList nodeAddresses = r.getElementsByTagName("address");
-            for (int j = 0; j < nodeAddresses.getLength(); j++) {
-                String address = getContentOrDefault(nodeAddresses.item(j), "");
-                device.addresses.add(address);
-                // LogV("getDevices: address=" + address);
-            }
-
-            // Allowed Networks
-            /*
-            <device ...>
-                <allowedNetwork>192.168.0.0/24</allowedNetwork>
-                <allowedNetwork>192.168.1.0/24</allowedNetwork>
-            </device>
-            */
-            device.allowedNetworks = new ArrayList<>();
-            NodeList nodeAllowedNetworks = r.getElementsByTagName("allowedNetwork");
-            for (int j = 0; j < nodeAllowedNetworks.getLength(); j++) {
-                String allowedNetwork = getContentOrDefault(nodeAllowedNetworks.item(j), "");
-                device.allowedNetworks.add(allowedNetwork);
-                // LogV("getDevices: allowedNetwork=" + allowedNetwork);
+        List<Device> devices = new ArrayList<>(mDeviceElements.size());
+        for (Map.Entry<String, Element> entry : mDeviceElements.entrySet()) {
+            Device device = mDeviceCache.get(entry.getKey());
+            if (device == null) {
+                device = parseDevice(entry.getValue());
+                mDeviceCache.put(entry.getKey(), device);
             }
 
-            // ignoredFolders
-            device.ignoredFolders = new ArrayList<>();
-            NodeList nodeIgnoredFolders = r.getElementsByTagName("ignoredFolder");
-            for (int j = 0; j < nodeIgnoredFolders.getLength(); j++) {
-                Element elementIgnoredFolder = (Element) nodeIgnoredFolders.item(j);
-                IgnoredFolder ignoredFolder = new IgnoredFolder();
-                ignoredFolder.id = getAttributeOrDefault(elementIgnoredFolder, "id", ignoredFolder.id);
-                ignoredFolder.label = getAttributeOrDefault(elementIgnoredFolder, "label", ignoredFolder.label);
-                ignoredFolder.time = getAttributeOrDefault(elementIgnoredFolder, "time", ignoredFolder.time);
-
-                // LogV("getDevices: ignoredFolder=[id=" + ignoredFolder.id + ", label=" + ignoredFolder.label + ", time=" + ignoredFolder.time + "]");
-                device.ignoredFolders.add(ignoredFolder);
-            }
-
-            // For testing purposes only.
-            // LogV("getDevices: device.name=" + device.name + "/" +"device.id=" + device.deviceID + "/" + "device.paused=" + device.paused);
-
             // Exclude self if requested.
             Boolean isLocalDevice = !TextUtils.isEmpty(device.deviceID) && device.deviceID.equals(localDeviceID);
             if (includeLocal || !isLocalDevice) {
@@ -892,114 +854,137 @@ public class ConfigXml {
         return devices;
     }
 
+    private Device parseDevice(final Element r) {
+        Map<String, List<Element>> children = getChildElements(r);
+        Device device = new Device();
+        device.compression = getAttributeOrDefault(r, "compression", device.compression);
+        device.deviceID = getAttributeOrDefault(r, "id", "");
+        device.introducedBy = getAttributeOrDefault(r, "introducedBy", device.introducedBy);
+        device.introducer =  getAttributeOrDefault(r, "introducer", device.introducer);
+        device.name = getAttributeOrDefault(r, "name", device.name);
+        device.autoAcceptFolders = getContentOrDefault(getFirst(children, "autoAcceptFolders"), device.autoAcceptFolders);
+        device.maxRecvKbps = getContentOrDefault(getFirst(children, "maxRecvKbps"), device.maxRecvKbps);
+        device.maxSendKbps = getContentOrDefault(getFirst(children, "maxSendKbps"), device.maxSendKbps);
+        device.paused = getContentOrDefault(getFirst(children, "paused"), device.paused);
+        device.untrusted = getContentOrDefault(getFirst(children, "untrusted"), device.untrusted);
+        device.numConnections = getContentOrDefault(getFirst(children, "numConnections"), device.numConnections);
+
+        // Addresses
+        /*
+        <device ...>
+            <address>dynamic</address>
+            <address>tcp4://192.168.1.67:2222</address>
+        </device>
+        */
+        device.addresses = new ArrayList<>();
+        for (Element elementAddress : getAll(children, "address")) {
+            device.addresses.add(getContentOrDefault(elementAddress, ""));
+        }
+
+        // Allowed Networks
+        /*
+        <device ...>
+            <allowedNetwork>192.168.0.0/24</allowedNetwork>
+            <allowedNetwork>192.168.1.0/24</allowedNetwork>
+        </device>
+        */
+        device.allowedNetworks = new ArrayList<>();
+        for (Element elementAllowedNetwork : getAll(children, "allowedNetwork")) {
+            device.allowedNetworks.add(getContentOrDefault(elementAllowedNetwork, ""));
+        }
+
+        // ignoredFolders
+        device.ignoredFolders = new ArrayList<>();
+        for (Element elementIgnoredFolder : getAll(children, "ignoredFolder")) {
+            IgnoredFolder ignoredFolder = new IgnoredFolder();
+            ignoredFolder.id = getAttributeOrDefault(elementIgnoredFolder, "id", ignoredFolder.id);
+            ignoredFolder.label = getAttributeOrDefault(elementIgnoredFolder, "label", ignoredFolder.label);
+            ignoredFolder.time = getAttributeOrDefault(elementIgnoredFolder, "time", ignoredFolder.time);
+
+            // LogV("getDevices: ignoredFolder=[id=" + ignoredFolder.id + ", label=" + ignoredFolder.label + ", time=" + ignoredFolder.time + "]");
+            device.ignoredFolders.add(ignoredFolder);
+        }
+
+        // For testing purposes only.
+        // LogV("getDevices: device.name=" + device.name + "/" +"device.id=" + device.deviceID + "/" + "device.paused=" + device.paused);
+        return device;
+    }
+
     /**
      * Adds or updates a device identified by its device ID.
      */
     public void updateDevice(final Device device) {
-        NodeList childNodes;
-        boolean deviceExists = false;
-
-        // Prevent enumerating "<device>" tags below "<folder>" nodes by enumerating child nodes manually.
-        childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node.getNodeName().equals("device")) {
-                Element r = (Element) node;
-                if (device.deviceID.equals(getAttributeOrDefault(r, "id", ""))) {
-                    deviceExists = true;
-                    break;
-                }
-            }
-        }
+        Element r = mDeviceElements.get(device.deviceID);
 
         // If the device does not exist in config, add it.
-        if (!deviceExists) {
+        if (r == null) {
             Log.d(TAG, "updateDevice: [addDevice] Adding deviceID='" + device.deviceID + "' to config ...");
             Node nodeConfig = mConfig.getDocumentElement();
             Node nodeDevice = mConfig.createElement("device");
             nodeConfig.appendChild(nodeDevice);
-            Element elementDevice = (Element) nodeDevice;
-            elementDevice.setAttribute("id", device.deviceID);
+            r = (Element) nodeDevice;
+            r.setAttribute("id", device.deviceID);
+            mDeviceElements.put(device.deviceID, r);
+        }
+        mDeviceCache.remove(device.deviceID);
+        mDirty = true;
+
+        r.setAttribute("compression", device.compression);
+        r.setAttribute("introducedBy", device.introducedBy);
+        r.setAttribute("introducer", Boolean.toString(device.introducer));
+        r.setAttribute("name", device.name);
+
+        setConfigElement(r, "autoAcceptFolders", device.autoAcceptFolders);
+        setConfigElement(r, "paused", device.paused);
+        setConfigElement(r, "untrusted", device.untrusted);
+        setConfigElement(r, "numConnections", Integer.toString(device.numConnections));
+
+        // Addresses
+        // Pass 1: Remove all addresses in XML.
+        Map<String, List<Element>> children = getChildElements(r);
+        for (Element elementAddress : getAll(children, "address")) {
+            Log.d(TAG, "updateDevice: nodeAddresses: Removing address=" + getContentOrDefault(elementAddress, ""));
+            removeChildElementFromTextNode(r, elementAddress);
         }
 
-        // Prevent enumerating "<device>" tags below "<folder>" nodes by enumerating child nodes manually.
-        childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node.getNodeName().equals("device")) {
-                Element r = (Element) node;
-                if (device.deviceID.equals(getAttributeOrDefault(r, "id", ""))) {
-                    // Found device to update.
-                    r.setAttribute("compression", device.compression);
-                    r.setAttribute("introducedBy", device.introducedBy);
-                    r.setAttribute("introducer", Boolean.toString(device.introducer));
-                    r.setAttribute("name", device.name);
-
-                    setConfigElement(r, "autoAcceptFolders", device.autoAcceptFolders);
-                    setConfigElement(r, "paused", device.paused);
-                    setConfigElement(r, "untrusted", device.untrusted);
-                    setConfigElement(r, "numConnections", Integer.toString(device.numConnections));
-
-                    // Addresses
-                    // Pass 1: Remove all addresses in XML.
-                    NodeList nodeAddresses = r.getElementsByTagName("address");
-                    for (int j = nodeAddresses.getLength() - 1; j >= 0; j--) {
-                        Element elementAddress = (Element) nodeAddresses.item(j);
-                        Log.d(TAG, "updateDevice: nodeAddresses: Removing address=" + getContentOrDefault(elementAddress, ""));
-                        removeChildElementFromTextNode(r, elementAddress);
-                    }
-
-                    // Pass 2: Add addresses from the POJO model.
-                    if (device.addresses != null) {
-                        for (String address : device.addresses) {
-                            Log.d(TAG, "updateDevice: nodeAddresses: Adding address=" + address);
-                            Node nodeAddress = mConfig.createElement("address");
-                            r.appendChild(nodeAddress);
-                            Element elementAddress = (Element) nodeAddress;
-                            elementAddress.setTextContent(address);
-                        }
-                    }
-
-                    // Allowed Networks
-                    // Pass 1: Remove all allowed networks in XML.
-                    NodeList nodeAllowedNetworks = r.getElementsByTagName("allowedNetwork");
-                    for (int j = nodeAllowedNetworks.getLength() - 1; j >= 0; j--) {
-                        Element elementAllowedNetwork = (Element) nodeAllowedNetworks.item(j);
-                        Log.d(TAG, "updateDevice: nodeAllowedNetworks: Removing allowedNetwork=" + getContentOrDefault(elementAllowedNetwork, ""));
-                        removeChildElementFromTextNode(r, elementAllowedNetwork);
-                    }
-
-                    // Pass 2: Add allowed networks from the POJO model.
-                    if (device.allowedNetworks != null) {
-                        for (String allowedNetwork : device.allowedNetworks) {
-                            Log.d(TAG, "updateDevice: nodeAllowedNetworks: Adding allowedNetwork=" + allowedNetwork);
-                            Node nodeAllowedNetwork = mConfig.createElement("allowedNetwork");
-                            r.appendChild(nodeAllowedNetwork);
-                            Element elementAllowedNetwork = (Element) nodeAllowedNetwork;
-                            elementAllowedNetwork.setTextContent(allowedNetwork);
-                        }
-                    }
+        // Pass 2: Add addresses from the POJO model.
+        if (device.addresses != null) {
+            for (String address : device.addresses) {
+                Log.d(TAG, "updateDevice: nodeAddresses: Adding address=" + address);
+                Node nodeAddress = mConfig.createElement("address");
+                r.appendChild(nodeAddress);
+                Element elementAddress = (Element) nodeAddress;
+                elementAddress.setTextContent(address);
+            }
+        }
 
-                    break;
-                }
+        // Allowed Networks
+        // Pass 1: Remove all allowed networks in XML.
+        for (Element elementAllowedNetwork : getAll(children, "allowedNetwork")) {
+            Log.d(TAG, "updateDevice: nodeAllowedNetworks: Removing allowedNetwork=" + getContentOrDefault(elementAllowedNetwork, ""));
+            removeChildElementFromTextNode(r, elementAllowedNetwork);
+        }
+
+        // Pass 2: Add allowed networks from the POJO model.
+        if (device.allowedNetworks != null) {
+            for (String allowedNetwork : device.allowedNetworks) {
+                Log.d(TAG, "updateDevice: nodeAllowedNetworks: Adding allowedNetwork=" + allowedNetwork);
+                Node nodeAllowedNetwork = mConfig.createElement("allowedNetwork");
+                r.appendChild(nodeAllowedNetwork);
+                Element elementAllowedNetwork = (Element) nodeAllowedNetwork;
+                elementAllowedNetwork.setTextContent(allowedNetwork);
             }
         }
     }
 
     public void removeDevice(String deviceID) {
-        // Prevent enumerating "<device>" tags below "<folder>" nodes by enumerating child nodes manually.
-        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node.getNodeName().equals("device")) {
-                Element r = (Element) node;
-                if (deviceID.equals(getAttributeOrDefault(r, "id", ""))) {
-                    // Found device to remove.
-                    Log.d(TAG, "removeDevice: Removing device node, deviceID=" + deviceID);
-                    removeChildElementFromTextNode((Element) r.getParentNode(), r);
-                    break;
-                }
-            }
+        Element r = mDeviceElements.remove(deviceID);
+        mDeviceCache.remove(deviceID);
+        if (r != null) {
+            // Found device to remove.
+            Log.d(TAG, "removeDevice: Removing device node, deviceID=" + deviceID);
+            removeChildElementFromTextNode((Element) r.getParentNode(), r);
+            mDirty = true;
         }
     }
 
@@ -1032,6 +1017,7 @@ public class ConfigXml {
             return;
         }
 
+        mDirty = true;
         elementGui.setAttribute("enabled", Boolean.toString(gui.enabled));
         elementGui.setAttribute("tls", Boolean.toString(gui.useTLS));
 
@@ -1113,20 +1099,17 @@ public class ConfigXml {
         return options;
     }
 
-    public void setDevicePause(String deviceId, Boolean paused) {
-        // Prevent enumerating "<device>" tags below "<folder>" nodes by enumerating child nodes manually.
-        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node.getNodeName().equals("device")) {
-                Element r = (Element) node;
-                if (getAttributeOrDefault(r, "id", "").equals(deviceId))
-                {
-                    setConfigElement(r, "paused", paused);
-                    break;
-                }
-            }
+    /**
+     * Returns if the config was changed.
+     */
+    public boolean setDevicePause(String deviceId, Boolean paused) {
+        Element r = mDeviceElements.get(deviceId);
+        if (r == null || !setConfigElement(r, "paused", paused)) {
+            return false;
         }
+        mDeviceCache.remove(deviceId);
+        mDirty = true;
+        return true;
     }
 
     /**
@@ -1149,7 +1132,7 @@ public class ConfigXml {
     }
 
     private boolean setConfigElement(Element parent, String tagName, String textContent) {
-        Node element = parent.getElementsByTagName(tagName).item(0);
+        Node element = getChildElement(parent, tagName);
         if (element == null) {
             element = mConfig.createElement(tagName);
             parent.appendChild(element);
@@ -1181,30 +1164,70 @@ public class ConfigXml {
         return (!toRemove.isEmpty() || textArray.length > 0);
     }
 
+    /**
+     * Groups the direct child elements of parent by tag name in document order.
+     * Unlike getElementsByTagName, this walks the children once instead of searching
+     * the whole subtree for every tag.
+     */
+    private static Map<String, List<Element>> getChildElements(final Element parent) {
+        Map<String, List<Element>> children = new HashMap<>();
+        NodeList childNodes = parent.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node node = childNodes.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            List<Element> elements = children.get(node.getNodeName());
+            if (elements == null) {
+                elements = new ArrayList<>(1);
+                children.put(node.getNodeName(), elements);
+            }
+            elements.add((Element) node);
+        }
+        return children;
+    }
+
+    private static List<Element> getAll(final Map<String, List<Element>> children, String tagName) {
+        List<Element> elements = children.get(tagName);
+        return elements != null ? elements : Collections.emptyList();
+    }
+
+    private static Element getFirst(final Map<String, List<Element>> children, String tagName) {
+        List<Element> elements = children.get(tagName);
+        return elements != null ? elements.get(0) : null;
+    }
+
+    /**
+     * Returns the first direct child element of parent with the given tag name.
+     */
+    private static Element getChildElement(final Element parent, String tagName) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && node.getNodeName().equals(tagName)) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
     private Element getGuiElement() {
         return (Element) mConfig.getDocumentElement().getElementsByTagName("gui").item(0);
     }
 
     /**
      * Set device model name as device name for Syncthing.
-     * We need to iterate through XML nodes manually, as mConfig.getDocumentElement() will also
-     * return nested elements inside folder element. We have to check that we only rename the
-     * device corresponding to the local device ID.
+     * Only the top-level device element corresponding to the local device ID is renamed,
+     * devices nested inside folder elements are not part of the index.
      * Returns if changes to the config have been made.
      */
     private boolean changeLocalDeviceName(String localDeviceID) {
-        NodeList childNodes = mConfig.getDocumentElement().getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node.getNodeName().equals("device")) {
-                if (((Element) node).getAttribute("id").equals(localDeviceID)) {
-                    Log.i(TAG, "changeLocalDeviceName: Rename device ID " + localDeviceID + " to " + Build.MODEL);
-                    ((Element) node).setAttribute("name", Build.MODEL);
-                    return true;
-                }
-            }
+        Element r = mDeviceElements.get(localDeviceID);
+        if (r == null) {
+            return false;
         }
-        return false;
+        Log.i(TAG, "changeLocalDeviceName: Rename device ID " + localDeviceID + " to " + Build.MODEL);
+        r.setAttribute("name", Build.MODEL);
+        mDeviceCache.remove(localDeviceID);
+        return true;
     }
 
     /**
@@ -1214,17 +1237,7 @@ public class ConfigXml {
      */
     private boolean addSyncthingCameraFolder() {
         // LogV("addSyncthingCameraFolder: Examining config if folder already exists ...");
-        NodeList nodeFolders = mConfig.getDocumentElement().getElementsByTagName("folder");
-        Boolean folderAlreadyPresentInConfig = false;
-        for (int i = 0; i < nodeFolders.getLength(); i++) {
-            Element r = (Element) nodeFolders.item(i);
-            String folderId = getAttributeOrDefault(r, "id", "");
-            if (!TextUtils.isEmpty(folderId) && folderId.equals(Constants.syncthingCameraFolderId)) {
-                folderAlreadyPresentInConfig = true;
-                break;
-            }
-        }
-        if (folderAlreadyPresentInConfig) {
+        if (mFolderElements.containsKey(Constants.syncthingCameraFolderId)) {
             // LogV("addSyncthingCameraFolder: Folder [" + Constants.syncthingCameraFolderId + "] already present in config.");
             return false;
         }
@@ -1258,52 +1271,81 @@ public class ConfigXml {
     }
 
     /**
-     * Writes updated mConfig back to file.
+     * Writes updated mConfig back to file if it was modified since it was parsed or last saved.
+     * The XML is streamed into a temporary file which is synced to disk and renamed over the
+     * config file, so a crash cannot leave a truncated config behind. If the serialized
+     * config is identical to the file on disk, the temporary file is discarded instead.
      */
     public void saveChanges() {
+        if (!mDirty) {
+            LogV("saveChanges: Config unchanged, skipping write.");
+            return;
+        }
         if (!mConfigFile.canWrite()) {
             Log.w(TAG, "Failed to save updated config. Cannot change the owner of the config file.");
             return;
         }
 
         Log.i(TAG, "Saving config file");
-        File mConfigTempFile = Constants.getConfigTempFile(mContext);
-        try {
-            // Write XML header.
-            FileOutputStream fileOutputStream = new FileOutputStream(mConfigTempFile);
-            fileOutputStream.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>".getBytes(StandardCharsets.UTF_8));
+        File configTempFile = Constants.getConfigTempFile(mContext);
+        byte[] digest;
+        try (FileOutputStream fileOutputStream = new FileOutputStream(configTempFile)) {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            Writer writer = new OutputStreamWriter(
+                    new DigestOutputStream(
+                            new BufferedOutputStream(fileOutputStream, WRITE_BUFFER_SIZE),
+                            messageDigest
+                    ),
+                    StandardCharsets.UTF_8
+            );
+            writer.write(XML_HEADER);
+            synchronized (sTransformerLock) {
+                getTransformer().transform(new DOMSource(mConfig), new StreamResult(writer));
+            }
+            writer.flush();
+            digest = messageDigest.digest();
+            if (!Arrays.equals(digest, mConfigDigest)) {
+                fileOutputStream.getFD().sync();
+            }
+        } catch (TransformerException e) {
+            Log.w(TAG, "Failed to transform object to xml and save temporary config file", e);
+            configTempFile.delete();
+            return;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(TAG, "Failed to save temporary config file", e);
+            configTempFile.delete();
+            return;
+        }
+
+        if (Arrays.equals(digest, mConfigDigest)) {
+            LogV("saveChanges: Serialized config matches file on disk, skipping write.");
+            configTempFile.delete();
+            mDirty = false;
+            return;
+        }
+        if (!configTempFile.renameTo(mConfigFile)) {
+            Log.w(TAG, "Failed to rename temporary config file to original file");
+            configTempFile.delete();
+            return;
+        }
+        mConfigDigest = digest;
+        mDirty = false;
+    }
 
-            // Prepare Object-to-XML transform.
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
+    /**
+     * Precondition: sTransformerLock is held.
+     */
+    private static Transformer getTransformer() throws TransformerConfigurationException {
+        if (sTransformer == null) {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
             transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-16");
             transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-
-            // Output XML body.
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            StreamResult streamResult = new StreamResult(new OutputStreamWriter(byteArrayOutputStream, StandardCharsets.UTF_8));
-            transformer.transform(new DOMSource(mConfig), streamResult);
-            byte[] outputBytes = byteArrayOutputStream.toByteArray();
-            fileOutputStream.write(outputBytes);
-            fileOutputStream.close();
-        } catch (TransformerException e) {
-            Log.w(TAG, "Failed to transform object to xml and save temporary config file", e);
-            return;
-        } catch (FileNotFoundException e) {
-            Log.w(TAG, "Failed to save temporary config file, FileNotFoundException", e);
-        } catch (UnsupportedEncodingException e) {
-            Log.w(TAG, "Failed to save temporary config file, UnsupportedEncodingException", e);
-        } catch (IOException e) {
-            Log.w(TAG, "Failed to save temporary config file, IOException", e);
-        }
-        try {
-            mConfigTempFile.renameTo(mConfigFile);
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to rename temporary config file to original file");
+            sTransformer = transformer;
         }
+        return sTransformer;
     }
 
     private void LogV(String logMessage) {
@@ -0,0 +1,190 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.nutomic.syncthingandroid.model.DiskEvent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounded ring buffer of the most recent disk events, fed by "/rest/events/disk" queries
+ * starting after {@link #getLastId}, so each refresh only transfers new events.
+ *
+ * The feed is persisted, so it can be shown right away when the screen is opened again.
+ * Event ids restart whenever SyncthingNative restarts, which is detected by a change of the
+ * session passed to {@link #setSession}.
+ *
+ * Not thread-safe, calls must be serialized by the caller.
+ */
+public class DiskEventFeed {
+
+    private static final String TAG = "DiskEventFeed";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    /**
+     * Persisted state of the feed.
+     */
+    private static class State {
+        String session = "";
+        long lastId = 0;
+
+        /**
+         * Oldest event first.
+         */
+        List<DiskEvent> events = new ArrayList<>();
+    }
+
+    private final File mFile;
+
+    private final int mCapacity;
+
+    /**
+     * Oldest event first, holds at most mCapacity events.
+     */
+    private final ArrayDeque<DiskEvent> mEvents;
+
+    private String mSession = "";
+
+    private long mLastId = 0;
+
+    public DiskEventFeed(File file, int capacity, Boolean enableVerboseLog) {
+        mFile = file;
+        mCapacity = capacity;
+        mEvents = new ArrayDeque<>(capacity);
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+    }
+
+    /**
+     * Returns the id of the newest event received, 0 if none.
+     */
+    public long getLastId() {
+        return mLastId;
+    }
+
+    /**
+     * Identifies the SyncthingNative instance events are received from.
+     * Returns true and clears the feed if it differs from the previous session.
+     */
+    public boolean setSession(final String session) {
+        if (mSession.equals(session)) {
+            return false;
+        }
+        LogV("setSession: Session changed, clearing " + mEvents.size() + " event(s)");
+        mSession = session;
+        mEvents.clear();
+        mLastId = 0;
+        return true;
+    }
+
+    /**
+     * Appends events newer than {@link #getLastId}, dropping the oldest ones beyond capacity.
+     * Returns true if the feed changed.
+     */
+    public boolean append(final List<DiskEvent> diskEvents) {
+        List<DiskEvent> newEvents = new ArrayList<>();
+        for (DiskEvent diskEvent : diskEvents) {
+            if (diskEvent.id > mLastId) {
+                newEvents.add(diskEvent);
+            }
+        }
+        if (newEvents.isEmpty()) {
+            return false;
+        }
+        Collections.sort(newEvents, (a, b) -> Long.compare(a.id, b.id));
+        for (DiskEvent diskEvent : newEvents) {
+            if (mEvents.size() == mCapacity) {
+                mEvents.pollFirst();
+            }
+            mEvents.addLast(diskEvent);
+        }
+        mLastId = newEvents.get(newEvents.size() - 1).id;
+        LogV("append: Added " + newEvents.size() + " event(s), lastId=" + mLastId);
+        return true;
+    }
+
+    /**
+     * Returns the events of the feed, newest first.
+     * The events are shared and must not be modified.
+     */
+    public List<DiskEvent> getEvents() {
+        List<DiskEvent> events = new ArrayList<>(mEvents.size());
+        for (Iterator<DiskEvent> it = mEvents.descendingIterator(); it.hasNext();) {
+            events.add(it.next());
+        }
+        return events;
+    }
+
+    /**
+     * Restores the feed persisted by {@link #save}. Blocks on disk I/O.
+     */
+    public void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        State state;
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            state = new Gson().fromJson(reader, State.class);
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, "load: Failed to read " + mFile.getName(), e);
+            return;
+        }
+        if (state == null || state.session == null || state.events == null) {
+            return;
+        }
+        mSession = state.session;
+        mEvents.clear();
+        mLastId = 0;
+        append(state.events);
+        mLastId = Math.max(mLastId, state.lastId);
+        LogV("load: Restored " + mEvents.size() + " event(s), lastId=" + mLastId);
+    }
+
+    /**
+     * Persists the feed. Blocks on disk I/O.
+     */
+    public void save() {
+        State state = new State();
+        state.session = mSession;
+        state.lastId = mLastId;
+        state.events = new ArrayList<>(mEvents);
+        File tmp = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            new Gson().toJson(state, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "save: Failed to write " + tmp.getName(), e);
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.w(TAG, "save: Failed to rename " + tmp.getName() + " to " + mFile.getName());
+            if (!tmp.delete()) {
+                Log.w(TAG, "save: Failed to delete " + tmp.getName());
+            }
+        }
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.util.Log;
+
+import com.nutomic.syncthingandroid.model.DiskEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Hides disk events that are useless to display:
+ * - events without data,
+ * - "added" events of files that were deleted afterwards,
+ * - events below a directory that was deleted afterwards.
+ *
+ * Events are reduced in a single pass from oldest to newest, keeping the retained events
+ * indexed by path. Subsequent calls of {@link #update} only process events newer than the
+ * last processed one, so repeated queries of the same window cost O(new events).
+ *
+ * Not thread-safe, calls must be serialized by the caller.
+ */
+public class DiskEventReducer {
+
+    private static final String TAG = "DiskEventReducer";
+
+    private Boolean ENABLE_VERBOSE_LOG = false;
+
+    /**
+     * Separates folderID and path in keys of mRetainedByPath.
+     */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * Events worth displaying, by id.
+     */
+    private final TreeMap<Long, DiskEvent> mRetained = new TreeMap<>();
+
+    /**
+     * Events of mRetained by {@link #getKey}. Keys are sorted, so events below a directory
+     * form a contiguous range.
+     */
+    private final TreeMap<String, List<DiskEvent>> mRetainedByPath = new TreeMap<>();
+
+    private long mLastProcessedId = 0;
+
+    public DiskEventReducer(Boolean enableVerboseLog) {
+        ENABLE_VERBOSE_LOG = enableVerboseLog;
+    }
+
+    /**
+     * Returns the id of the newest event processed so far, 0 if none.
+     */
+    public long getLastProcessedId() {
+        return mLastProcessedId;
+    }
+
+    /**
+     * Forgets all events processed so far.
+     */
+    public void reset() {
+        mRetained.clear();
+        mRetainedByPath.clear();
+        mLastProcessedId = 0;
+    }
+
+    /**
+     * Applies the latest window of disk events and returns the events worth displaying,
+     * newest first. Events no longer contained in the window are dropped.
+     */
+    public List<DiskEvent> update(final List<DiskEvent> diskEvents) {
+        long oldestId = Long.MAX_VALUE;
+        long newestId = 0;
+        for (DiskEvent diskEvent : diskEvents) {
+            oldestId = Math.min(oldestId, diskEvent.id);
+            newestId = Math.max(newestId, diskEvent.id);
+        }
+        if (newestId < mLastProcessedId) {
+            // SyncthingNative restarted and started counting event ids from the beginning.
+            LogV("update: Event ids restarted, resetting");
+            reset();
+        }
+
+        // Events that dropped out of the window are no longer displayed.
+        while (!mRetained.isEmpty() && mRetained.firstKey() < oldestId) {
+            DiskEvent diskEvent = mRetained.pollFirstEntry().getValue();
+            removeFromPathIndex(getKey(diskEvent), diskEvent);
+        }
+
+        List<DiskEvent> newEvents = new ArrayList<>();
+        for (DiskEvent diskEvent : diskEvents) {
+            if (diskEvent.id <= mLastProcessedId) {
+                continue;
+            }
+            if (diskEvent.data == null) {
+                Log.d(TAG, "update: Clearing event with data == null");
+                continue;
+            }
+            newEvents.add(diskEvent);
+        }
+        Collections.sort(newEvents, (a, b) -> Long.compare(a.id, b.id));
+        for (DiskEvent diskEvent : newEvents) {
+            apply(diskEvent);
+        }
+        mLastProcessedId = Math.max(mLastProcessedId, newestId);
+
+        return new ArrayList<>(mRetained.descendingMap().values());
+    }
+
+    private void apply(final DiskEvent diskEvent) {
+        final String key = getKey(diskEvent);
+        if ("deleted".equals(diskEvent.data.action)) {
+            // The file does not exist anymore, so its creation is not worth displaying.
+            List<DiskEvent> samePath = mRetainedByPath.get(key);
+            if (samePath != null) {
+                for (Iterator<DiskEvent> it = samePath.iterator(); it.hasNext();) {
+                    DiskEvent prior = it.next();
+                    if ("added".equals(prior.data.action)) {
+                        LogV("apply: Removing \"added\" event because file was deleted afterwards, path=[" + prior.data.path + "]");
+                        mRetained.remove(prior.id);
+                        it.remove();
+                    }
+                }
+                if (samePath.isEmpty()) {
+                    mRetainedByPath.remove(key);
+                }
+            }
+
+            if ("dir".equals(diskEvent.data.type)) {
+                // Prior events below the deleted directory, '0' follows '/' in the sort order.
+                SortedMap<String, List<DiskEvent>> descendants =
+                        mRetainedByPath.subMap(key + "/", key + "0");
+                for (List<DiskEvent> events : descendants.values()) {
+                    for (DiskEvent prior : events) {
+                        LogV("apply: Removing event because folder was deleted afterwards, path=[" + prior.data.path + "]");
+                        mRetained.remove(prior.id);
+                    }
+                }
+                descendants.clear();
+            }
+        }
+
+        mRetained.put(diskEvent.id, diskEvent);
+        List<DiskEvent> events = mRetainedByPath.get(key);
+        if (events == null) {
+            events = new ArrayList<>();
+            mRetainedByPath.put(key, events);
+        }
+        events.add(diskEvent);
+    }
+
+    private void removeFromPathIndex(final String key, final DiskEvent diskEvent) {
+        List<DiskEvent> events = mRetainedByPath.get(key);
+        if (events == null) {
+            return;
+        }
+        events.remove(diskEvent);
+        if (events.isEmpty()) {
+            mRetainedByPath.remove(key);
+        }
+    }
+
+    /**
+     * Paths of different folders are unrelated, so they are indexed separately.
+     */
+    private static String getKey(final DiskEvent diskEvent) {
+        return diskEvent.data.folderID + KEY_SEPARATOR + diskEvent.data.path;
+    }
+
+    private void LogV(String logMessage) {
+        if (ENABLE_VERBOSE_LOG) {
+            Log.v(TAG, logMessage);
+        }
+    }
+}
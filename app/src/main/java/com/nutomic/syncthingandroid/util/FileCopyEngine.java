@@ -0,0 +1,330 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies shared files into a Syncthing folder.
+ *
+ * Several files are copied at once to overlap the latency of content providers. Sources backed
+ * by a regular file are copied with {@link FileChannel#transferFrom}, others are streamed.
+ * Each file is written to its own temporary file named like Syncthing's own temporary files,
+ * which the native scanner skips, and renamed to its final name once it is complete.
+ * Sources sharing a target name are copied one after another in the order they were given,
+ * so the existing file check and the rename of one do not race with the other.
+ *
+ * Listener callbacks are delivered on the main thread.
+ */
+public class FileCopyEngine {
+
+    private static final String TAG = "FileCopyEngine";
+
+    private static final int MAX_PARALLEL_COPIES = 3;
+
+    /**
+     * Bytes transferred between checks for cancellation.
+     */
+    private static final long TRANSFER_CHUNK_BYTES = 1024 * 1024;
+
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    /**
+     * Syncthing ignores files named ".syncthing.*.tmp" while scanning.
+     */
+    private static final String TEMP_FILE_PREFIX = ".syncthing.";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    public static class Result {
+        public int copied = 0;
+
+        /**
+         * Files skipped because they already exist and overwriting is not allowed.
+         */
+        public int ignored = 0;
+
+        public boolean isError = false;
+        public boolean isCancelled = false;
+    }
+
+    public interface Listener {
+        /**
+         * @param totalBytes -1 if the size of at least one source is unknown.
+         */
+        void onProgress(long copiedBytes, long totalBytes);
+
+        void onFinished(Result result);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Map<Uri, String> mFiles;
+
+    /**
+     * Maps target file name to the sources copied to it, in their original order.
+     */
+    private final Map<String, List<Uri>> mJobs = new LinkedHashMap<>();
+    private final File mDirectory;
+    private final boolean mAllowOverwrite;
+    private final Listener mListener;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private ExecutorService mExecutor = null;
+
+    private final AtomicInteger mRemaining = new AtomicInteger();
+    private final AtomicInteger mCopied = new AtomicInteger();
+    private final AtomicInteger mIgnored = new AtomicInteger();
+    private final AtomicLong mCopiedBytes = new AtomicLong();
+    private final AtomicBoolean mProgressPending = new AtomicBoolean(false);
+
+    private volatile long mTotalBytes = -1;
+    private volatile boolean mError = false;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Only accessed on the main thread.
+     */
+    private boolean mFinishedDelivered = false;
+
+    /**
+     * @param files Maps source Uri to target file name within directory.
+     */
+    public FileCopyEngine(ContentResolver contentResolver, Map<Uri, String> files,
+                          File directory, boolean allowOverwrite, Listener listener) {
+        mContentResolver = contentResolver;
+        mFiles = new LinkedHashMap<>(files);
+        mDirectory = directory;
+        mAllowOverwrite = allowOverwrite;
+        mListener = listener;
+        for (Map.Entry<Uri, String> entry : mFiles.entrySet()) {
+            List<Uri> uris = mJobs.get(entry.getValue());
+            if (uris == null) {
+                uris = new ArrayList<>();
+                mJobs.put(entry.getValue(), uris);
+            }
+            uris.add(entry.getKey());
+        }
+    }
+
+    public void start() {
+        mRemaining.set(mJobs.size());
+        if (mJobs.isEmpty()) {
+            finish();
+            return;
+        }
+        mExecutor = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_COPIES, mJobs.size()));
+        mExecutor.execute(() -> {
+            mTotalBytes = getTotalBytes();
+            for (Map.Entry<String, List<Uri>> job : mJobs.entrySet()) {
+                mExecutor.execute(() -> copyFiles(job.getValue(), job.getKey()));
+            }
+        });
+    }
+
+    /**
+     * Stops copying after the current chunk. Incomplete files are deleted.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Copies the sources which share a target name one after another.
+     */
+    private void copyFiles(final List<Uri> uris, final String fileName) {
+        try {
+            for (Uri uri : uris) {
+                copyFile(uri, fileName);
+            }
+        } finally {
+            if (mRemaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    private void copyFile(final Uri uri, final String fileName) {
+        if (mCancelled) {
+            return;
+        }
+        File outFile = new File(mDirectory, fileName);
+        if (outFile.isFile() && !mAllowOverwrite) {
+            mIgnored.incrementAndGet();
+            return;
+        }
+        File tempFile = null;
+        boolean complete = false;
+        try {
+            // Unique per copy, so concurrent copies never share a temporary file.
+            tempFile = File.createTempFile(TEMP_FILE_PREFIX + fileName + ".", TEMP_FILE_SUFFIX, mDirectory);
+            copyToFile(uri, tempFile);
+            complete = !mCancelled;
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, String.format("Can't find input file \"%s\" to copy", uri), e);
+            mError = true;
+        } catch (IOException | SecurityException e) {
+            if (!mCancelled) {
+                Log.e(TAG, String.format("IO exception during file \"%s\" sharing", uri), e);
+                mError = true;
+            }
+        }
+        if (complete && !tempFile.renameTo(outFile)) {
+            Log.e(TAG, "copyFile: Failed to rename '" + tempFile + "' to '" + outFile + "'");
+            mError = true;
+            complete = false;
+        }
+        if (!complete) {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "copyFile: Failed to delete '" + tempFile + "'");
+            }
+            return;
+        }
+        mCopied.incrementAndGet();
+    }
+
+    private void copyToFile(final Uri uri, final File tempFile) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile);
+             FileChannel outChannel = outputStream.getChannel()) {
+            ParcelFileDescriptor pfd;
+            try {
+                pfd = mContentResolver.openFileDescriptor(uri, "r");
+            } catch (FileNotFoundException e) {
+                // Some providers only offer streams.
+                pfd = null;
+            }
+            if (pfd != null) {
+                try (ParcelFileDescriptor.AutoCloseInputStream inputStream =
+                             new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+                    if (pfd.getStatSize() >= 0) {
+                        // Regular file, let the kernel copy it.
+                        transfer(inputStream.getChannel(), outChannel);
+                    } else {
+                        // Pipe or socket.
+                        copyStream(inputStream, outChannel);
+                    }
+                }
+            } else {
+                try (InputStream inputStream = mContentResolver.openInputStream(uri)) {
+                    if (inputStream == null) {
+                        throw new FileNotFoundException("openInputStream returned null");
+                    }
+                    copyStream(inputStream, outChannel);
+                }
+            }
+            if (!mCancelled) {
+                outputStream.getFD().sync();
+            }
+        }
+    }
+
+    private void transfer(FileChannel inChannel, FileChannel outChannel) throws IOException {
+        long position = 0;
+        while (!mCancelled) {
+            long transferred = outChannel.transferFrom(inChannel, position, TRANSFER_CHUNK_BYTES);
+            if (transferred <= 0) {
+                return;
+            }
+            position += transferred;
+            onBytesCopied(transferred);
+        }
+    }
+
+    private void copyStream(InputStream inputStream, FileChannel outChannel) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+        int read;
+        while (!mCancelled && (read = inputStream.read(buffer)) != -1) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining()) {
+                outChannel.write(byteBuffer);
+            }
+            onBytesCopied(read);
+        }
+    }
+
+    /**
+     * Reports progress at most every {@link #PROGRESS_INTERVAL_MS}.
+     */
+    private void onBytesCopied(long bytes) {
+        mCopiedBytes.addAndGet(bytes);
+        if (!mProgressPending.compareAndSet(false, true)) {
+            return;
+        }
+        mMainHandler.postDelayed(() -> {
+            mProgressPending.set(false);
+            if (!mFinishedDelivered) {
+                mListener.onProgress(mCopiedBytes.get(), mTotalBytes);
+            }
+        }, PROGRESS_INTERVAL_MS);
+    }
+
+    private void finish() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+        final Result result = new Result();
+        result.copied = mCopied.get();
+        result.ignored = mIgnored.get();
+        result.isError = mError;
+        result.isCancelled = mCancelled;
+        mMainHandler.post(() -> {
+            mFinishedDelivered = true;
+            mListener.onFinished(result);
+        });
+    }
+
+    /**
+     * Returns the sum of source sizes, -1 if one of them is unknown.
+     */
+    private long getTotalBytes() {
+        long totalBytes = 0;
+        for (Uri uri : mFiles.keySet()) {
+            long size = getSize(uri);
+            if (size < 0) {
+                return -1;
+            }
+            totalBytes += size;
+        }
+        return totalBytes;
+    }
+
+    private long getSize(Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            return file.isFile() ? file.length() : -1;
+        }
+        try (Cursor cursor = mContentResolver.query(uri,
+                new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst() || cursor.isNull(0)) {
+                return -1;
+            }
+            return cursor.getLong(0);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "getSize: Failed to query size of " + uri, e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.nutomic.syncthingandroid.service.Constants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads and writes the .stignore files of folders while Syncthing is not running.
+ *
+ * All file access happens on a single background thread, so writes are applied in order and a
+ * read issued after a write sees its result. Results are delivered on the main thread.
+ * Parsed files are cached per folder and reused as long as their modification time and length
+ * are unchanged. Writes go to a temporary file, which is synced and renamed over the original.
+ */
+public class IgnoreListStore {
+
+    private static final String TAG = "IgnoreListStore";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static IgnoreListStore sInstance = null;
+
+    private static final Object sInstanceLock = new Object();
+
+    public interface OnResultListener<T> {
+        void onResult(T t);
+    }
+
+    private static class CacheEntry {
+        final long lastModified;
+        final long length;
+
+        /**
+         * Null if the file does not exist. Must not be modified.
+         */
+        final @Nullable String[] lines;
+
+        CacheEntry(long lastModified, long length, @Nullable String[] lines) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.lines = lines;
+        }
+
+        boolean isValidFor(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    /**
+     * Maps the path of a .stignore file to its parsed content.
+     */
+    private final Map<String, CacheEntry> mCache = new ConcurrentHashMap<>();
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static IgnoreListStore getInstance() {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new IgnoreListStore();
+            }
+            return sInstance;
+        }
+    }
+
+    private IgnoreListStore() {
+    }
+
+    /**
+     * Reads the ignore patterns of the folder.
+     *
+     * @param listener Receives the lines of the file, or null if it does not exist
+     *                 or cannot be read. The array must not be modified.
+     */
+    public void load(String folderPath, OnResultListener<String[]> listener) {
+        mExecutor.execute(() -> {
+            String[] lines = loadBlocking(new File(folderPath, Constants.FILENAME_STIGNORE));
+            mMainHandler.post(() -> listener.onResult(lines));
+        });
+    }
+
+    /**
+     * Replaces the ignore patterns of the folder.
+     */
+    public void save(String folderPath, String[] lines) {
+        final String[] linesCopy = lines.clone();
+        mExecutor.execute(() -> saveBlocking(new File(folderPath, Constants.FILENAME_STIGNORE), linesCopy));
+    }
+
+    /**
+     * Lists the paths below the folder which the patterns exclude.
+     * Contents of an excluded directory are not listed, unless a "!" pattern
+     * may re-include some of them.
+     *
+     * @param limit Maximum number of paths returned.
+     * @param listener Receives paths relative to the folder root.
+     */
+    public void preview(String folderPath, String[] patterns, int limit,
+                        OnResultListener<List<String>> listener) {
+        final IgnoreMatcher matcher = new IgnoreMatcher(patterns);
+        mExecutor.execute(() -> {
+            List<String> ignored = new ArrayList<>();
+            collectIgnored(new File(folderPath), "", matcher, limit, ignored);
+            mMainHandler.post(() -> listener.onResult(ignored));
+        });
+    }
+
+    private @Nullable String[] loadBlocking(File file) {
+        CacheEntry entry = mCache.get(file.getPath());
+        if (entry != null && entry.isValidFor(file)) {
+            return entry.lines;
+        }
+        if (!file.exists()) {
+            /**
+             * Don't fail as the file might be expectedly missing when users didn't
+             * set ignores in the past storyline of that folder.
+             */
+            Log.w(TAG, "load: File missing " + file);
+            mCache.remove(file.getPath());
+            return null;
+        }
+        long lastModified = file.lastModified();
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            buffer.flip();
+            String[] lines = StandardCharsets.UTF_8.decode(buffer).toString().split("\n");
+            mCache.put(file.getPath(), new CacheEntry(lastModified, buffer.limit(), lines));
+            return lines;
+        } catch (IOException e) {
+            Log.e(TAG, "load: Failed to read '" + file + "'", e);
+            return null;
+        }
+    }
+
+    private void saveBlocking(File file, String[] lines) {
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                outputStream.write(TextUtils.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+                outputStream.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile.getName() + " to " + file.getName());
+            }
+            mCache.put(file.getPath(), new CacheEntry(file.lastModified(), file.length(), lines));
+        } catch (IOException e) {
+            /**
+             * This will happen on external storage folders which exist outside the
+             * "/Android/data/[package_name]/files" folder on Android 5+.
+             */
+            Log.w(TAG, "save: Failed to write '" + file + "'", e);
+            mCache.remove(file.getPath());
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "save: Failed to delete " + tempFile);
+            }
+        }
+    }
+
+    private static void collectIgnored(File dir, String relativeDir, IgnoreMatcher matcher,
+                                       int limit, List<String> ignored) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (ignored.size() >= limit) {
+                return;
+            }
+            String relativePath = relativeDir + child.getName();
+            if (relativeDir.isEmpty() && (child.getName().equals(Constants.FILENAME_STIGNORE) ||
+                    child.getName().equals(Constants.FILENAME_STFOLDER))) {
+                // Always ignored by Syncthing itself.
+                continue;
+            }
+            boolean isIgnored = matcher.isIgnored(relativePath);
+            if (isIgnored) {
+                ignored.add(relativePath);
+            }
+            if (child.isDirectory() && (!isIgnored || matcher.hasNegatedPatterns())) {
+                collectIgnored(child, relativePath + "/", matcher, limit, ignored);
+            }
+        }
+    }
+}
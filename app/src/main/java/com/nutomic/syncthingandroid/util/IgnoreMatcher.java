@@ -0,0 +1,172 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches folder relative paths against the patterns of a .stignore file, following the
+ * syntax documented at https://docs.syncthing.net/users/ignoring.html.
+ *
+ * Used to preview which paths a set of patterns excludes without asking the native binary.
+ * "#include" lines are skipped, as the included files are not read for a preview.
+ * The first matching pattern decides, "!" patterns re-include what they match.
+ */
+public class IgnoreMatcher {
+
+    private static final String TAG = "IgnoreMatcher";
+
+    private static class Rule {
+        final Pattern regex;
+        final boolean negated;
+
+        Rule(Pattern regex, boolean negated) {
+            this.regex = regex;
+            this.negated = negated;
+        }
+    }
+
+    private final List<Rule> mRules = new ArrayList<>();
+
+    private boolean mHasNegatedRules = false;
+
+    public IgnoreMatcher(String[] patterns) {
+        for (String line : patterns) {
+            Rule rule = parseLine(line);
+            if (rule != null) {
+                mRules.add(rule);
+                mHasNegatedRules |= rule.negated;
+            }
+        }
+    }
+
+    /**
+     * Returns if the path is ignored.
+     *
+     * @param relativePath Path relative to the folder root, separated by "/".
+     */
+    public boolean isIgnored(String relativePath) {
+        for (Rule rule : mRules) {
+            if (rule.regex.matcher(relativePath).matches()) {
+                return !rule.negated;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a "!" pattern may re-include paths below an ignored directory,
+     * so the contents of ignored directories must still be checked.
+     */
+    public boolean hasNegatedPatterns() {
+        return mHasNegatedRules;
+    }
+
+    private static Rule parseLine(String line) {
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.trim().isEmpty() || line.startsWith("//") || line.startsWith("#include ")) {
+            return null;
+        }
+
+        boolean negated = false;
+        boolean caseInsensitive = false;
+        while (true) {
+            if (line.startsWith("!")) {
+                negated = true;
+                line = line.substring(1);
+            } else if (line.startsWith("(?i)")) {
+                caseInsensitive = true;
+                line = line.substring(4);
+            } else if (line.startsWith("(?d)")) {
+                // Only affects deletion of ignored files, not matching.
+                line = line.substring(4);
+            } else {
+                break;
+            }
+        }
+
+        boolean anchored = line.startsWith("/");
+        if (anchored) {
+            line = line.substring(1);
+        }
+        if (line.endsWith("/")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.isEmpty()) {
+            return null;
+        }
+
+        // A pattern also matches everything below the paths it matches.
+        String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(line) + "(?:/.*)?";
+        try {
+            return new Rule(Pattern.compile(regex, caseInsensitive ? Pattern.CASE_INSENSITIVE : 0), negated);
+        } catch (PatternSyntaxException e) {
+            Log.w(TAG, "Skipping invalid pattern '" + line + "'", e);
+            return null;
+        }
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                            // "**/" also matches no directory at all.
+                            regex.append("(?:.*/)?");
+                            i += 3;
+                        } else {
+                            regex.append(".*");
+                            i += 2;
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                        i++;
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    i++;
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end == -1) {
+                        regex.append("\\[");
+                        i++;
+                        break;
+                    }
+                    String content = glob.substring(i + 1, end);
+                    regex.append('[');
+                    if (content.startsWith("!")) {
+                        regex.append('^');
+                        content = content.substring(1);
+                    }
+                    regex.append(content.replace("\\", "\\\\").replace("[", "\\["));
+                    regex.append(']');
+                    i = end + 1;
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                        i += 2;
+                    } else {
+                        regex.append("\\\\");
+                        i++;
+                    }
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    i++;
+            }
+        }
+        return regex.toString();
+    }
+}
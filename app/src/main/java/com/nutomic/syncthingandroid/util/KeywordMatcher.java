@@ -0,0 +1,140 @@
+package com.nutomic.syncthingandroid.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Tells if a text contains any of a fixed set of keywords.
+ *
+ * The keywords are compiled into an Aho-Corasick automaton once, so each text is
+ * scanned in a single pass regardless of the number of keywords.
+ * Instances are immutable and may be shared between threads.
+ */
+public class KeywordMatcher {
+
+    private static final int ROOT = 0;
+
+    /**
+     * Outgoing edges of each state, sorted by character.
+     */
+    private final char[][] mEdgeChars;
+    private final int[][] mEdgeTargets;
+
+    /**
+     * State to continue with if the current one has no edge for the next character.
+     */
+    private final int[] mFailure;
+
+    /**
+     * True if a keyword ends in the state or in one of its failure states.
+     */
+    private final boolean[] mMatches;
+
+    public KeywordMatcher(String... keywords) {
+        List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        List<Boolean> matches = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        matches.add(false);
+
+        // Build the trie of keywords.
+        for (String keyword : keywords) {
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = edges.get(state).get(keyword.charAt(i));
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new TreeMap<>());
+                    matches.add(false);
+                    edges.get(state).put(keyword.charAt(i), next);
+                }
+                state = next;
+            }
+            matches.set(state, true);
+        }
+
+        int stateCount = edges.size();
+        mEdgeChars = new char[stateCount][];
+        mEdgeTargets = new int[stateCount][];
+        mFailure = new int[stateCount];
+        mMatches = new boolean[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            Map<Character, Integer> stateEdges = edges.get(state);
+            mEdgeChars[state] = new char[stateEdges.size()];
+            mEdgeTargets[state] = new int[stateEdges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : stateEdges.entrySet()) {
+                mEdgeChars[state][i] = edge.getKey();
+                mEdgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+            mMatches[state] = matches.get(state);
+        }
+
+        // Compute failure links breadth first, so links of shorter prefixes are known.
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int target : mEdgeTargets[ROOT]) {
+            mFailure[target] = ROOT;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < mEdgeChars[state].length; i++) {
+                char c = mEdgeChars[state][i];
+                int target = mEdgeTargets[state][i];
+                int failure = mFailure[state];
+                int next = step(failure, c);
+                while (next < 0 && failure != ROOT) {
+                    failure = mFailure[failure];
+                    next = step(failure, c);
+                }
+                mFailure[target] = (next < 0) ? ROOT : next;
+                mMatches[target] |= mMatches[mFailure[target]];
+                queue.add(target);
+            }
+        }
+    }
+
+    /**
+     * Returns true if text contains at least one of the keywords.
+     */
+    public boolean containsAny(CharSequence text) {
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next = step(state, c);
+            while (next < 0 && state != ROOT) {
+                state = mFailure[state];
+                next = step(state, c);
+            }
+            state = (next < 0) ? ROOT : next;
+            if (mMatches[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the target of the state's edge for c, -1 if there is none.
+     */
+    private int step(int state, char c) {
+        char[] chars = mEdgeChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chars[mid] < c) {
+                low = mid + 1;
+            } else if (chars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return mEdgeTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+}
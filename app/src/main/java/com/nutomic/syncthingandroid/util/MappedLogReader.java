@@ -0,0 +1,163 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Presents one or more log files as a single sequence of lines without loading them into memory.
+ *
+ * The files are memory-mapped and scanned once for line starts when the reader is opened.
+ * Lines are decoded in pages of {@link #PAGE_LINES} when they are first requested, keeping the
+ * most recently used pages only.
+ */
+public class MappedLogReader {
+
+    private static final String TAG = "MappedLogReader";
+
+    private static final int PAGE_LINES = 256;
+
+    private static final int CACHED_PAGES = 8;
+
+    private static class Segment {
+        final ByteBuffer buffer;
+
+        /**
+         * Byte offsets of line starts, followed by the end of the last line.
+         */
+        final int[] lineStarts;
+
+        /**
+         * Number of lines in preceding segments.
+         */
+        final int firstLine;
+
+        Segment(ByteBuffer buffer, int[] lineStarts, int firstLine) {
+            this.buffer = buffer;
+            this.lineStarts = lineStarts;
+            this.firstLine = firstLine;
+        }
+    }
+
+    private final List<Segment> mSegments;
+
+    private final int mLineCount;
+
+    private final LruCache<Integer, String[]> mPages = new LruCache<>(CACHED_PAGES);
+
+    private MappedLogReader(List<Segment> segments, int lineCount) {
+        mSegments = segments;
+        mLineCount = lineCount;
+    }
+
+    /**
+     * Maps and indexes the files in the given order, skipping missing or unreadable ones.
+     * Blocks on disk I/O, must not be called on the main thread.
+     */
+    public static MappedLogReader open(File... files) {
+        List<Segment> segments = new ArrayList<>();
+        int lineCount = 0;
+        for (File file : files) {
+            if (!file.exists()) {
+                continue;
+            }
+            ByteBuffer buffer;
+            try (FileInputStream inputStream = new FileInputStream(file);
+                 FileChannel channel = inputStream.getChannel()) {
+                // The mapping stays valid after the channel was closed.
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(channel.size(), Integer.MAX_VALUE));
+            } catch (IOException e) {
+                Log.e(TAG, "open: Failed to map '" + file + "'", e);
+                continue;
+            }
+            int[] lineStarts = indexLines(buffer);
+            if (lineStarts.length > 1) {
+                segments.add(new Segment(buffer, lineStarts, lineCount));
+                lineCount += lineStarts.length - 1;
+            }
+        }
+        return new MappedLogReader(segments, lineCount);
+    }
+
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * Returns the line without its line break, decoding its page if it is not cached.
+     */
+    public String getLine(int index) {
+        int page = index / PAGE_LINES;
+        String[] lines = mPages.get(page);
+        if (lines == null) {
+            lines = decodePage(page);
+            mPages.put(page, lines);
+        }
+        return lines[index - page * PAGE_LINES];
+    }
+
+    private String[] decodePage(int page) {
+        int first = page * PAGE_LINES;
+        int count = Math.min(PAGE_LINES, mLineCount - first);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = decodeLine(first + i);
+        }
+        return lines;
+    }
+
+    private String decodeLine(int index) {
+        Segment segment = mSegments.get(0);
+        for (Segment candidate : mSegments) {
+            if (candidate.firstLine > index) {
+                break;
+            }
+            segment = candidate;
+        }
+        int line = index - segment.firstLine;
+        int start = segment.lineStarts[line];
+        int end = segment.lineStarts[line + 1];
+
+        // Strip the line break.
+        while (end > start && (segment.buffer.get(end - 1) == '\n' || segment.buffer.get(end - 1) == '\r')) {
+            end--;
+        }
+        ByteBuffer slice = segment.buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    /**
+     * Returns the offsets of line starts in buffer, followed by its size.
+     */
+    private static int[] indexLines(ByteBuffer buffer) {
+        int size = buffer.limit();
+        int[] lineStarts = new int[1024];
+        int count = 0;
+        if (size > 0) {
+            lineStarts[count++] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (buffer.get(i) == '\n' && i + 1 < size) {
+                if (count == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, count * 2);
+                }
+                lineStarts[count++] = i + 1;
+            }
+        }
+        lineStarts = Arrays.copyOf(lineStarts, count + 1);
+        lineStarts[count] = size;
+        return lineStarts;
+    }
+}
@@ -0,0 +1,207 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.preference.PreferenceManager;
+
+import com.nutomic.syncthingandroid.model.Device;
+import com.nutomic.syncthingandroid.model.Folder;
+import com.nutomic.syncthingandroid.model.Gui;
+import com.nutomic.syncthingandroid.model.Options;
+import com.nutomic.syncthingandroid.service.Constants;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide cache of the models parsed from config.xml, used by {@link ConfigRouter} while
+ * Syncthing is not running.
+ *
+ * A snapshot is reused as long as the file's inode, size and modification time are unchanged,
+ * so repeated reads of an unchanged file do not parse it again. A {@link FileObserver} on the
+ * config directory drops the snapshot as soon as the file is written or replaced.
+ * Snapshots are immutable and swapped atomically, readers must copy models before modifying them.
+ */
+public class OfflineConfigCache {
+
+    private static final String TAG = "OfflineConfigCache";
+
+    private static final int OBSERVER_MASK = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.MOVED_FROM | FileObserver.DELETE;
+
+    private static OfflineConfigCache sInstance = null;
+
+    private static final Object sInstanceLock = new Object();
+
+    /**
+     * Identifies a version of config.xml on disk.
+     */
+    private static class FileKey {
+        final long inode;
+        final long size;
+        final long lastModified;
+        final String localDeviceID;
+
+        FileKey(long inode, long size, long lastModified, String localDeviceID) {
+            this.inode = inode;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.localDeviceID = localDeviceID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey) o;
+            return inode == other.inode &&
+                    size == other.size &&
+                    lastModified == other.lastModified &&
+                    localDeviceID.equals(other.localDeviceID);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (inode ^ size ^ lastModified) ^ localDeviceID.hashCode();
+        }
+    }
+
+    /**
+     * Models parsed from one version of config.xml. Must not be modified.
+     */
+    public static class Snapshot {
+        private final FileKey key;
+
+        /**
+         * Sorted by label.
+         */
+        public final List<Folder> folders;
+
+        /**
+         * Sorted by name.
+         */
+        public final List<Device> devices;
+        public final List<Device> devicesWithoutLocal;
+
+        public final Gui gui;
+        public final Options options;
+
+        private Snapshot(FileKey key, ConfigXml configXml) {
+            this.key = key;
+            folders = Collections.unmodifiableList(configXml.getFolders());
+            devices = Collections.unmodifiableList(configXml.getDevices(true));
+            devicesWithoutLocal = Collections.unmodifiableList(configXml.getDevices(false));
+            gui = configXml.getGui();
+            options = configXml.getOptions();
+        }
+    }
+
+    private final Context mContext;
+
+    private final File mConfigFile;
+
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<>(null);
+
+    /**
+     * Incremented on every change reported by mFileObserver, so a parse racing with a change
+     * does not publish its result.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger(0);
+
+    /**
+     * Object that must be locked upon parsing config.xml, so concurrent readers
+     * of a changed file parse it only once.
+     */
+    private final Object mParseLock = new Object();
+
+    /**
+     * Must be referenced as long as the cache exists, the observer stops when it is
+     * garbage collected.
+     */
+    private final FileObserver mFileObserver;
+
+    public static OfflineConfigCache getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new OfflineConfigCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private OfflineConfigCache(Context context) {
+        mContext = context;
+        mConfigFile = Constants.getConfigFile(context);
+        mFileObserver = new FileObserver(mConfigFile.getParent(), OBSERVER_MASK) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (Constants.CONFIG_FILE.equals(path)) {
+                    invalidate();
+                }
+            }
+        };
+        mFileObserver.startWatching();
+    }
+
+    /**
+     * Drops the current snapshot, the next {@link #get} parses the file again.
+     */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+        mSnapshot.set(null);
+    }
+
+    /**
+     * Returns the models of the current config.xml, parsing it only if it changed.
+     *
+     * @throws ConfigXml.OpenConfigException if the file cannot be read or parsed.
+     */
+    public Snapshot get() throws ConfigXml.OpenConfigException {
+        Snapshot snapshot = mSnapshot.get();
+        if (snapshot != null && snapshot.key.equals(getFileKey())) {
+            return snapshot;
+        }
+        synchronized (mParseLock) {
+            // Another thread may have parsed the file while we waited.
+            snapshot = mSnapshot.get();
+            FileKey key = getFileKey();
+            if (snapshot != null && snapshot.key.equals(key)) {
+                return snapshot;
+            }
+            int generation = mGeneration.get();
+            ConfigXml configXml = new ConfigXml(mContext);
+            configXml.loadConfig();
+
+            // loadConfig() may have migrated and saved the file, so the key is taken afterwards.
+            Snapshot newSnapshot = new Snapshot(getFileKey(), configXml);
+            if (mGeneration.get() == generation) {
+                mSnapshot.set(newSnapshot);
+            } else {
+                Log.d(TAG, "get: Config changed while parsing, not caching result.");
+            }
+            return newSnapshot;
+        }
+    }
+
+    private FileKey getFileKey() {
+        long inode = -1;
+        try {
+            inode = Os.stat(mConfigFile.getPath()).st_ino;
+        } catch (ErrnoException e) {
+            // The file is missing, loadConfig() will report it.
+        }
+        String localDeviceID = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(Constants.PREF_LOCAL_DEVICE_ID, "");
+        return new FileKey(inode, mConfigFile.length(), mConfigFile.lastModified(), localDeviceID);
+    }
+}
@@ -0,0 +1,516 @@
+package com.nutomic.syncthingandroid.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.CENTRAL_DIRECTORY_SIGNATURE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.END_OF_CENTRAL_DIRECTORY_SIGNATURE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.EXTENDED_TIMESTAMP_EXTRA_ID;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.LOCAL_FILE_HEADER_SIGNATURE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.LOCAL_FILE_HEADER_SIZE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.ZIP64_EXTRA_ID;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.ZIP64_LOCATOR_SIGNATURE;
+import static com.nutomic.syncthingandroid.util.ZipCentralDirectory.ZIP64_MAGIC;
+
+/**
+ * Writes an unencrypted zip archive in a single pass, compressing entries on several threads.
+ *
+ * Entry data is split into blocks which are deflated in parallel, each primed with the tail of
+ * the previous block as dictionary and ended with a sync flush, so the concatenated output is a
+ * single deflate stream any unzip tool can read. The local file header is patched with the CRC
+ * and sizes once an entry is complete, so no data descriptors are needed. Zip64 records are
+ * written when sizes or offsets exceed the classic limits.
+ *
+ * Not thread-safe, entries must be written one after the other.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * Entries at least this large reserve room for zip64 sizes in their local file header,
+     * leaving margin for deflate expanding incompressible data.
+     */
+    private static final long ZIP64_SIZE_THRESHOLD = 0xF0000000L;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int VERSION_MADE_BY_UNIX = 3 << 8;
+
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int UNIX_FILE_MODE = 0100644;
+    private static final int UNIX_DIRECTORY_MODE = 040755;
+    private static final int DOS_DIRECTORY_ATTRIBUTE = 0x10;
+
+    private static class CentralEntry {
+        byte[] name;
+        int method;
+        long dosTime;
+        long lastModifiedSeconds;
+        long crc;
+        long compressedSize;
+        long size;
+        long localHeaderOffset;
+        boolean directory;
+    }
+
+    private final FileOutputStream mFileOutputStream;
+    private final FileChannel mChannel;
+    private final BufferedOutputStream mOutputStream;
+
+    private final int mLevel;
+
+    private final int mThreads;
+
+    private final ExecutorService mExecutor;
+
+    private final List<CentralEntry> mEntries = new ArrayList<>();
+
+    /**
+     * Number of bytes written to the archive so far.
+     */
+    private long mPosition = 0;
+
+    private EntryOutputStream mOpenEntry = null;
+
+    private boolean mClosed = false;
+
+    public ParallelZipWriter(File file, int level) throws IOException {
+        mFileOutputStream = new FileOutputStream(file);
+        mChannel = mFileOutputStream.getChannel();
+        mOutputStream = new BufferedOutputStream(mFileOutputStream, 64 * 1024);
+        mLevel = level;
+        mThreads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+    }
+
+    public void putDirectory(String name, long lastModified) throws IOException {
+        checkNoOpenEntry();
+        CentralEntry entry = newEntry(name.endsWith("/") ? name : name + "/", METHOD_STORED, lastModified);
+        entry.directory = true;
+        writeLocalFileHeader(entry, false);
+        mEntries.add(entry);
+    }
+
+    /**
+     * Starts a deflated entry. The entry is complete when the returned stream is closed.
+     *
+     * @param sizeHint Expected uncompressed size, -1 if unknown.
+     */
+    public OutputStream putEntry(String name, long lastModified, long sizeHint) throws IOException {
+        checkNoOpenEntry();
+        CentralEntry entry = newEntry(name, METHOD_DEFLATED, lastModified);
+        boolean zip64 = sizeHint < 0 || sizeHint >= ZIP64_SIZE_THRESHOLD;
+        writeLocalFileHeader(entry, zip64);
+        mOpenEntry = new EntryOutputStream(entry, zip64);
+        return mOpenEntry;
+    }
+
+    public void putFile(String name, File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file);
+             OutputStream outputStream = putEntry(name, file.lastModified(), file.length())) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Copies the compressed data of an entry from another archive without recompressing it.
+     *
+     * @param source Channel of the archive the entry was read from by {@link ZipCentralDirectory}.
+     */
+    public void copyEntry(ZipCentralDirectory.Entry sourceEntry, FileChannel source) throws IOException {
+        checkNoOpenEntry();
+        CentralEntry entry = newEntry(sourceEntry.name, sourceEntry.method,
+                sourceEntry.lastModifiedSeconds * 1000);
+        entry.crc = sourceEntry.crc;
+        entry.compressedSize = sourceEntry.compressedSize;
+        entry.size = sourceEntry.size;
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        writeLocalFileHeader(entry, zip64);
+
+        long dataOffset = ZipCentralDirectory.getDataOffset(source, sourceEntry);
+        mOutputStream.flush();
+        long transferred = 0;
+        while (transferred < entry.compressedSize) {
+            long count = source.transferTo(dataOffset + transferred,
+                    entry.compressedSize - transferred, mChannel);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of entry " + sourceEntry.name);
+            }
+            transferred += count;
+        }
+        mPosition += transferred;
+        mEntries.add(entry);
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mOpenEntry != null) {
+                throw new IOException("Entry still open");
+            }
+            writeCentralDirectory();
+            mOutputStream.flush();
+            mFileOutputStream.getFD().sync();
+        } finally {
+            mExecutor.shutdownNow();
+            mOutputStream.close();
+        }
+    }
+
+    private void checkNoOpenEntry() throws IOException {
+        if (mClosed) {
+            throw new IOException("Archive closed");
+        }
+        if (mOpenEntry != null) {
+            throw new IOException("Previous entry still open");
+        }
+    }
+
+    private CentralEntry newEntry(String name, int method, long lastModified) {
+        CentralEntry entry = new CentralEntry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.method = method;
+        entry.dosTime = toDosTime(lastModified);
+        entry.lastModifiedSeconds = lastModified / 1000;
+        entry.localHeaderOffset = mPosition;
+        return entry;
+    }
+
+    private void writeLocalFileHeader(CentralEntry entry, boolean zip64) throws IOException {
+        ByteBuffer header = newBuffer(LOCAL_FILE_HEADER_SIZE + entry.name.length + 9 + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_FILE_HEADER_SIGNATURE);
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (9 + (zip64 ? 20 : 0)));
+        header.put(entry.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        putExtendedTimestamp(header, entry);
+        write(header);
+    }
+
+    /**
+     * Writes the CRC and sizes of a complete entry into its local file header.
+     */
+    private void patchLocalFileHeader(CentralEntry entry, boolean zip64) throws IOException {
+        mOutputStream.flush();
+        ByteBuffer sizes = newBuffer(12);
+        sizes.putInt((int) entry.crc);
+        if (zip64) {
+            sizes.putInt((int) ZIP64_MAGIC);
+            sizes.putInt((int) ZIP64_MAGIC);
+        } else if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+            throw new IOException("Entry exceeds its expected size");
+        } else {
+            sizes.putInt((int) entry.compressedSize);
+            sizes.putInt((int) entry.size);
+        }
+        writeAt(sizes, entry.localHeaderOffset + 14);
+        if (zip64) {
+            ByteBuffer zip64Sizes = newBuffer(16);
+            zip64Sizes.putLong(entry.size);
+            zip64Sizes.putLong(entry.compressedSize);
+            writeAt(zip64Sizes, entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + entry.name.length + 4);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long directoryOffset = mPosition;
+        for (CentralEntry entry : mEntries) {
+            boolean sizeZip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+            boolean offsetZip64 = entry.localHeaderOffset >= ZIP64_MAGIC;
+            int zip64Length = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+            int extraLength = 9 + (zip64Length > 0 ? 4 + zip64Length : 0);
+            ByteBuffer header = newBuffer(46 + entry.name.length + extraLength);
+            header.putInt(CENTRAL_DIRECTORY_SIGNATURE);
+            int version = zip64Length > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+            header.putShort((short) (VERSION_MADE_BY_UNIX | version));
+            header.putShort((short) version);
+            header.putShort((short) FLAG_UTF8);
+            header.putShort((short) entry.method);
+            header.putInt((int) entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (sizeZip64 ? ZIP64_MAGIC : entry.compressedSize));
+            header.putInt((int) (sizeZip64 ? ZIP64_MAGIC : entry.size));
+            header.putShort((short) entry.name.length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(entry.directory
+                    ? (UNIX_DIRECTORY_MODE << 16) | DOS_DIRECTORY_ATTRIBUTE
+                    : UNIX_FILE_MODE << 16);
+            header.putInt((int) (offsetZip64 ? ZIP64_MAGIC : entry.localHeaderOffset));
+            header.put(entry.name);
+            if (zip64Length > 0) {
+                header.putShort((short) ZIP64_EXTRA_ID);
+                header.putShort((short) zip64Length);
+                if (sizeZip64) {
+                    header.putLong(entry.size);
+                    header.putLong(entry.compressedSize);
+                }
+                if (offsetZip64) {
+                    header.putLong(entry.localHeaderOffset);
+                }
+            }
+            putExtendedTimestamp(header, entry);
+            write(header);
+        }
+        long directorySize = mPosition - directoryOffset;
+
+        boolean zip64 = mEntries.size() >= 0xFFFF || directoryOffset >= ZIP64_MAGIC
+                || directorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = mPosition;
+            ByteBuffer end = newBuffer(56 + 20);
+            end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putLong(44);
+            end.putShort((short) (VERSION_MADE_BY_UNIX | VERSION_ZIP64));
+            end.putShort((short) VERSION_ZIP64);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(mEntries.size());
+            end.putLong(mEntries.size());
+            end.putLong(directorySize);
+            end.putLong(directoryOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE);
+            end.putInt(0);
+            end.putLong(zip64EndOffset);
+            end.putInt(1);
+            write(end);
+        }
+        ByteBuffer end = newBuffer(22);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? 0xFFFF : mEntries.size()));
+        end.putShort((short) (zip64 ? 0xFFFF : mEntries.size()));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : directorySize));
+        end.putInt((int) (zip64 ? ZIP64_MAGIC : directoryOffset));
+        end.putShort((short) 0);
+        write(end);
+    }
+
+    private static void putExtendedTimestamp(ByteBuffer buffer, CentralEntry entry) {
+        buffer.putShort((short) EXTENDED_TIMESTAMP_EXTRA_ID);
+        buffer.putShort((short) 5);
+        buffer.put((byte) 0x01);
+        buffer.putInt((int) entry.lastModifiedSeconds);
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        mOutputStream.write(buffer.array(), 0, buffer.position());
+        mPosition += buffer.position();
+    }
+
+    private void writeAt(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Collects entry data in blocks, hands them to the executor and writes the deflated blocks
+     * in order, keeping at most two blocks per thread in flight.
+     */
+    private class EntryOutputStream extends OutputStream {
+
+        private final CentralEntry mEntry;
+        private final boolean mZip64;
+
+        private final CRC32 mCrc = new CRC32();
+
+        private final ArrayDeque<Future<byte[]>> mPending = new ArrayDeque<>();
+
+        private byte[] mBlock = new byte[BLOCK_SIZE];
+        private int mBlockLength = 0;
+
+        private byte[] mDictionary = null;
+
+        private boolean mEntryClosed = false;
+
+        EntryOutputStream(CentralEntry entry, boolean zip64) {
+            mEntry = entry;
+            mZip64 = zip64;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mEntryClosed) {
+                throw new IOException("Entry closed");
+            }
+            mCrc.update(b, off, len);
+            mEntry.size += len;
+            while (len > 0) {
+                int count = Math.min(len, BLOCK_SIZE - mBlockLength);
+                System.arraycopy(b, off, mBlock, mBlockLength, count);
+                mBlockLength += count;
+                off += count;
+                len -= count;
+                if (mBlockLength == BLOCK_SIZE) {
+                    submitBlock(false);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mEntryClosed) {
+                return;
+            }
+            mEntryClosed = true;
+            try {
+                submitBlock(true);
+                while (!mPending.isEmpty()) {
+                    writeOldestBlock();
+                }
+            } finally {
+                for (Future<byte[]> future : mPending) {
+                    future.cancel(true);
+                }
+                mOpenEntry = null;
+            }
+            mEntry.crc = mCrc.getValue();
+            patchLocalFileHeader(mEntry, mZip64);
+            mEntries.add(mEntry);
+        }
+
+        private void submitBlock(final boolean last) throws IOException {
+            final byte[] block = mBlock;
+            final int length = mBlockLength;
+            final byte[] dictionary = mDictionary;
+            if (length >= DICTIONARY_SIZE) {
+                mDictionary = Arrays.copyOfRange(block, length - DICTIONARY_SIZE, length);
+            }
+            mPending.add(mExecutor.submit(() -> deflate(block, length, dictionary, last)));
+            mBlock = new byte[BLOCK_SIZE];
+            mBlockLength = 0;
+            while (mPending.size() > 2 * mThreads) {
+                writeOldestBlock();
+            }
+        }
+
+        private void writeOldestBlock() throws IOException {
+            byte[] compressed;
+            try {
+                compressed = mPending.peekFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to compress block", e.getCause());
+            }
+            mPending.removeFirst();
+            mOutputStream.write(compressed);
+            mPosition += compressed.length;
+            mEntry.compressedSize += compressed.length;
+        }
+
+        private byte[] deflate(byte[] block, int length, byte[] dictionary, boolean last) {
+            Deflater deflater = new Deflater(mLevel, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(block, 0, length);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int count = deflater.deflate(buffer);
+                        compressed.write(buffer, 0, count);
+                    }
+                } else {
+                    // Ends on a byte boundary without marking the final block.
+                    int count;
+                    do {
+                        count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, count);
+                    } while (count == buffer.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.nutomic.syncthingandroid.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the central directory of an existing zip archive, so unchanged entries can be copied
+ * into a new archive by {@link ParallelZipWriter#copyEntry} without recompressing them.
+ */
+public class ZipCentralDirectory {
+
+    static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final int EXTENDED_TIMESTAMP_EXTRA_ID = 0x5455;
+
+    static final int LOCAL_FILE_HEADER_SIZE = 30;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        final long localHeaderOffset;
+
+        /**
+         * Seconds since the epoch, -1 if the entry has no extended timestamp.
+         */
+        public final long lastModifiedSeconds;
+
+        final boolean encrypted;
+
+        Entry(String name, int method, long crc, long compressedSize, long size,
+              long localHeaderOffset, long lastModifiedSeconds, boolean encrypted) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.lastModifiedSeconds = lastModifiedSeconds;
+            this.encrypted = encrypted;
+        }
+
+        /**
+         * True if the entry data can be copied as is.
+         */
+        public boolean isReusable() {
+            return !encrypted && lastModifiedSeconds >= 0
+                    && (method == ParallelZipWriter.METHOD_DEFLATED
+                        || method == ParallelZipWriter.METHOD_STORED);
+        }
+    }
+
+    private ZipCentralDirectory() {
+    }
+
+    /**
+     * Returns the entries of the archive by name.
+     *
+     * @throws IOException if the archive is not a readable zip file.
+     */
+    public static Map<String, Entry> read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("End of central directory not found");
+        }
+        long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+        if (entryCount == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            long locator = size - tailSize + eocd - ZIP64_LOCATOR_SIZE;
+            if (locator < 0) {
+                throw new IOException("Zip64 locator not found");
+            }
+            ByteBuffer locatorBuffer = readFully(channel, locator, ZIP64_LOCATOR_SIZE);
+            if (locatorBuffer.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new IOException("Zip64 locator not found");
+            }
+            ByteBuffer zip64 = readFully(channel, locatorBuffer.getLong(8), 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new IOException("Zip64 end of central directory not found");
+            }
+            entryCount = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > size) {
+            throw new IOException("Invalid central directory");
+        }
+
+        ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+        Map<String, Entry> entries = new HashMap<>();
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new IOException("Invalid central directory header");
+            }
+            int flags = directory.getShort(position + 8) & 0xFFFF;
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            long crc = directory.getInt(position + 16) & ZIP64_MAGIC;
+            long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+            long entrySize = directory.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+            byte[] nameBytes = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // Parse extra fields for zip64 values and the modification time.
+            long lastModifiedSeconds = -1;
+            int extra = position + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xFFFF;
+                int length = directory.getShort(extra + 2) & 0xFFFF;
+                int data = extra + 4;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (entrySize == ZIP64_MAGIC) {
+                        entrySize = directory.getLong(data);
+                        data += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = directory.getLong(data);
+                        data += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = directory.getLong(data);
+                    }
+                } else if (id == EXTENDED_TIMESTAMP_EXTRA_ID && length >= 5
+                        && (directory.get(data) & 0x01) != 0) {
+                    lastModifiedSeconds = directory.getInt(data + 1) & ZIP64_MAGIC;
+                }
+                extra += 4 + length;
+            }
+            entries.put(name, new Entry(name, method, crc, compressedSize, entrySize,
+                    localHeaderOffset, lastModifiedSeconds, (flags & FLAG_ENCRYPTED) != 0));
+            position = extraEnd + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the offset of the entry's data, which follows its local file header.
+     */
+    static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local file header for " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        return entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -3,6 +3,7 @@ package com.nutomic.syncthingandroid.views;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.net.Uri;
 import android.os.Build;
@@ -19,6 +20,7 @@ import com.nutomic.syncthingandroid.util.Util;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 public class ChangeListAdapter extends RecyclerView.Adapter<ChangeListAdapter.ViewHolder> {
 
@@ -40,12 +42,43 @@ public class ChangeListAdapter extends RecyclerView.Adapter<ChangeListAdapter.Vi
         mLayoutInflater = LayoutInflater.from(mContext);
     }
 
-    public void clear() {
-        mChangeData.clear();
+    /**
+     * Compares two lists of disk events, may be called on a background thread.
+     * Disk events are never modified after they were displayed, so unchanged items
+     * are the same instance.
+     */
+    public static DiffUtil.DiffResult calculateDiff(final List<DiskEvent> oldChanges,
+                                                    final List<DiskEvent> newChanges) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldChanges.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newChanges.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldChanges.get(oldItemPosition).id == newChanges.get(newItemPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldChanges.get(oldItemPosition) == newChanges.get(newItemPosition);
+            }
+        });
     }
 
-    public void add(DiskEvent diskEvent) {
-        mChangeData.add(diskEvent);
+    /**
+     * Replaces the displayed changes.
+     * @param diffResult Result of {@link #calculateDiff} from the displayed to the new changes.
+     */
+    public void setChanges(List<DiskEvent> changes, DiffUtil.DiffResult diffResult) {
+        mChangeData = new ArrayList<>(changes);
+        diffResult.dispatchUpdatesTo(this);
     }
 
     public void setOnClickListener(ItemClickListener onClickListener) {
@@ -73,6 +106,10 @@ public class ChangeListAdapter extends RecyclerView.Adapter<ChangeListAdapter.Vi
         @Override
         public void onClick(View view) {
             int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                // The item is being removed.
+                return;
+            }
             DiskEvent diskEvent = mChangeData.get(position);
             if (mOnClickListener != null) {
                 mOnClickListener.onItemClick(diskEvent);
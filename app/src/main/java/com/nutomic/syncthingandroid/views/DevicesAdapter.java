@@ -9,13 +9,16 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceManager;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.model.Connection;
@@ -27,15 +30,21 @@ import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.util.ConfigRouter;
 import com.nutomic.syncthingandroid.util.Util;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
 /**
  * Generates item views for device items.
+ *
+ * The list is diffed on a background thread, so only rows whose device config or
+ * status changed since the last update are bound again.
  */
-public class DevicesAdapter extends ArrayAdapter<Device> {
+public class DevicesAdapter extends RecyclerView.Adapter<DevicesAdapter.ViewHolder> {
 
     private static final String TAG = "DevicesAdapter";
 
@@ -46,21 +55,110 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
     private static final long ACTIVE_SYNC_BITS_PER_SECOND_THRESHOLD = 50 * 1024 * 8;
 
     private final Context mContext;
+    private final LayoutInflater mLayoutInflater;
+    private ItemClickListener mOnClickListener;
 
-    private ConfigRouter mConfigRouter;
-    private RestApi mRestApi;
+    /**
+     * Stable item IDs assigned to device IDs, so rows keep their identity across updates.
+     */
+    private final Map<String, Long> mItemIds = new HashMap<>();
+
+    public interface ItemClickListener {
+        void onItemClick(Device device);
+    }
+
+    /**
+     * Device row as displayed. Never modified after it was submitted.
+     */
+    private static class Item {
+        final Device device;
+        final String lastSeen;
+
+        /**
+         * Labels of the folders shared with the device, empty if there are none.
+         */
+        final List<String> sharedFolders;
+
+        /**
+         * Null if Syncthing is not running. The connection is replaced by a new instance
+         * in {@link RestApi}'s cache whenever it changes.
+         */
+        final @Nullable Connection connection;
+        final int completion;
+        final double needBytes;
+
+        Item(Device device, String lastSeen, List<String> sharedFolders,
+                @Nullable Connection connection, int completion, double needBytes) {
+            this.device = device;
+            this.lastSeen = lastSeen;
+            this.sharedFolders = sharedFolders;
+            this.connection = connection;
+            this.completion = completion;
+            this.needBytes = needBytes;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Item> DIFF_CALLBACK = new DiffUtil.ItemCallback<Item>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.device.deviceID.equals(newItem.device.deviceID);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.connection == newItem.connection &&
+                    oldItem.completion == newItem.completion &&
+                    oldItem.needBytes == newItem.needBytes &&
+                    oldItem.device.paused == newItem.device.paused &&
+                    oldItem.device.getDisplayName().equals(newItem.device.getDisplayName()) &&
+                    oldItem.lastSeen.equals(newItem.lastSeen) &&
+                    oldItem.sharedFolders.equals(newItem.sharedFolders);
+        }
+    };
+
+    private final AsyncListDiffer<Item> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
     public DevicesAdapter(Context context) {
-        super(context, 0);
         mContext = context;
+        mLayoutInflater = LayoutInflater.from(mContext);
+        setHasStableIds(true);
     }
 
-    public void setRestApi(ConfigRouter configRouter, RestApi restApi) {
-        mConfigRouter = configRouter;
-        mRestApi = restApi;
+    public void setOnClickListener(ItemClickListener onClickListener) {
+        mOnClickListener = onClickListener;
+    }
+
+    /**
+     * Replaces the displayed devices, the changes are calculated asynchronously.
+     * Must be called on the UI thread.
+     *
+     * @param restApi Device status is shown if Syncthing is running, may be null.
+     */
+    public void setDevices(List<Device> devices, ConfigRouter configRouter, @Nullable RestApi restApi) {
+        boolean showStatus = restApi != null && restApi.isConfigLoaded();
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        List<Item> items = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            String lastSeen = sharedPreferences.getString(
+                Constants.PREF_CACHE_DEVICE_LASTSEEN_PREFIX + device.deviceID, ""
+            );
+            List<String> sharedFolders = new ArrayList<>();
+            for (Folder folder : configRouter.getSharedFolders(device.deviceID)) {
+                sharedFolders.add(folder.toString());
+            }
+            if (!showStatus) {
+                items.add(new Item(device, lastSeen, sharedFolders, null, 0, 0));
+                continue;
+            }
+            items.add(new Item(device, lastSeen, sharedFolders,
+                    restApi.getRemoteDeviceStatus(device.deviceID),
+                    restApi.getRemoteDeviceCompletion(device.deviceID),
+                    restApi.getRemoteDeviceNeedBytes(device.deviceID)));
+        }
+        mDiffer.submitList(items);
     }
 
-    static class ViewHolder {
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         TextView name;
         TextView lastSeen;
         TextView sharedFoldersTitle;
@@ -69,59 +167,82 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
         TextView status;
         TextView bandwidthUpDown;
         View rateInOutView;
+
+        public ViewHolder(View view) {
+            super(view);
+            name = view.findViewById(R.id.name);
+            lastSeen = view.findViewById(R.id.lastSeen);
+            sharedFoldersTitle = view.findViewById(R.id.sharedFoldersTitle);
+            sharedFolders = view.findViewById(R.id.sharedFolders);
+            progressBar = view.findViewById(R.id.progressBar);
+            status = view.findViewById(R.id.status);
+            bandwidthUpDown = view.findViewById(R.id.bandwidthUpDown);
+            rateInOutView = view.findViewById(R.id.rateInOutContainer);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                // The item is being removed.
+                return;
+            }
+            Device device = mDiffer.getCurrentList().get(position).device;
+            if (mOnClickListener != null) {
+                mOnClickListener.onItemClick(device);
+            }
+        }
     }
 
     @Override
-    @NonNull
-    public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-        ViewHolder holder;
-
-        if (convertView == null) {
-            convertView = LayoutInflater.from(mContext).inflate(R.layout.item_device_list, parent, false);
-
-            holder = new ViewHolder();
-            holder.name = convertView.findViewById(R.id.name);
-            holder.lastSeen = convertView.findViewById(R.id.lastSeen);
-            holder.sharedFoldersTitle = convertView.findViewById(R.id.sharedFoldersTitle);
-            holder.sharedFolders = convertView.findViewById(R.id.sharedFolders);
-            holder.progressBar = convertView.findViewById(R.id.progressBar);
-            holder.status = convertView.findViewById(R.id.status);
-            holder.bandwidthUpDown = convertView.findViewById(R.id.bandwidthUpDown);
-            holder.rateInOutView = convertView.findViewById(R.id.rateInOutContainer);
-
-            convertView.setTag(holder);
-        } else {
-            holder = (ViewHolder) convertView.getTag();
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String deviceId = mDiffer.getCurrentList().get(position).device.deviceID;
+        Long itemId = mItemIds.get(deviceId);
+        if (itemId == null) {
+            itemId = (long) mItemIds.size();
+            mItemIds.put(deviceId, itemId);
         }
+        return itemId;
+    }
 
-        Device device = getItem(position);
-        holder.name.setText(device.getDisplayName());
+    @Override
+    @NonNull
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = mLayoutInflater.inflate(R.layout.item_device_list, parent, false);
+        return new ViewHolder(view);
+    }
 
-        updateDeviceStatusView(holder, device);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Item item = mDiffer.getCurrentList().get(position);
+        holder.name.setText(item.device.getDisplayName());
 
-        return convertView;
+        updateDeviceStatusView(holder, item);
     }
 
     @SuppressLint("SetTextI18n")
-    private void updateDeviceStatusView(ViewHolder holder, Device device) {
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
-        String deviceLastSeen = sharedPreferences.getString(
-            Constants.PREF_CACHE_DEVICE_LASTSEEN_PREFIX + device.deviceID, ""
-        );
+    private void updateDeviceStatusView(ViewHolder holder, Item item) {
+        final Device device = item.device;
+        final String deviceLastSeen = item.lastSeen;
         final String TIMESTAMP_NEVER_SEEN = "1970-01-01T00:00:00Z";
         holder.lastSeen.setText(mContext.getString(R.string.device_last_seen,
                 TextUtils.isEmpty(deviceLastSeen) || deviceLastSeen.equals(TIMESTAMP_NEVER_SEEN) ?
                         mContext.getString(R.string.device_last_seen_never) : Util.formatDateTime(deviceLastSeen))
         );
 
-        List<Folder> sharedFolders = mConfigRouter.getSharedFolders(device.deviceID);
-        if (sharedFolders.size() == 0) {
+        if (item.sharedFolders.size() == 0) {
             holder.sharedFoldersTitle.setText(R.string.device_state_unused);
             holder.sharedFolders.setVisibility(GONE);
         } else {
             holder.sharedFoldersTitle.setText(R.string.shared_folders_title_colon);
             holder.sharedFolders.setVisibility(VISIBLE);
-            holder.sharedFolders.setText("\u2022 " + TextUtils.join("\n\u2022 ", sharedFolders));
+            holder.sharedFolders.setText("\u2022 " + TextUtils.join("\n\u2022 ", item.sharedFolders));
         }
 
         if (device.paused) {
@@ -129,22 +250,22 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
             holder.rateInOutView.setVisibility(GONE);
             holder.status.setVisibility(VISIBLE);
             holder.status.setText(R.string.device_paused);
-            holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_purple));
+            holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_purple));
             return;
         }
 
-        if  (mRestApi == null || !mRestApi.isConfigLoaded()) {
+        if (item.connection == null) {
             // Syncthing is not running.
             holder.progressBar.setVisibility(GONE);
             holder.rateInOutView.setVisibility(GONE);
             holder.status.setText(R.string.device_disconnected);
-            holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_red));
+            holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_red));
             return;
         }
 
-        final Connection conn = mRestApi.getRemoteDeviceStatus(device.deviceID);
-        final int completion = mRestApi.getRemoteDeviceCompletion(device.deviceID);
-        final double needBytes = mRestApi.getRemoteDeviceNeedBytes(device.deviceID);
+        final Connection conn = item.connection;
+        final int completion = item.completion;
+        final double needBytes = item.needBytes;
 
         if (conn.connected) {
             holder.status.setVisibility(VISIBLE);
@@ -152,11 +273,11 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
             String bandwidthUpDownText = "\u21f5 ";     // down+up arrow
             bandwidthUpDownText += mContext.getString(R.string.download_title);
             bandwidthUpDownText += " \u02c5 ";          // down arrow
-            bandwidthUpDownText += Util.readableTransferRate(getContext(), conn.inBits);
+            bandwidthUpDownText += Util.readableTransferRate(mContext, conn.inBits);
             bandwidthUpDownText += " \u2022 ";          // dot
             bandwidthUpDownText += mContext.getString(R.string.upload_title);
             bandwidthUpDownText += " \u02c4 ";          // up arrow
-            bandwidthUpDownText += Util.readableTransferRate(getContext(), conn.outBits);
+            bandwidthUpDownText += Util.readableTransferRate(mContext, conn.outBits);
             holder.bandwidthUpDown.setText(bandwidthUpDownText);
             holder.rateInOutView.setVisibility(VISIBLE);
 
@@ -171,21 +292,21 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
                 if ((conn.inBits + conn.outBits) >= ACTIVE_SYNC_BITS_PER_SECOND_THRESHOLD) {
                     // case a) device_syncing
                     holder.status.setText(R.string.state_syncing_general);
-                    holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_blue));
+                    holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_blue));
                 } else {
                     // case b) device_up_to_date
                     holder.status.setText(R.string.device_up_to_date);
-                    holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_green));
+                    holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_green));
                 }
             } else {
                 holder.progressBar.setProgress(completion);
                 holder.status.setText(
                         mContext.getString(R.string.device_syncing_percent_bytes,
                                 completion,
-                                Util.readableFileSize(getContext(), needBytes)
+                                Util.readableFileSize(mContext, needBytes)
                         )
                 );
-                holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_blue));
+                holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_blue));
             }
             return;
         }
@@ -199,10 +320,10 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
         } else {
             holder.status.setText(
                     mContext.getString(R.string.device_disconnected_not_synced,
-                            Util.readableFileSize(getContext(), needBytes)
+                            Util.readableFileSize(mContext, needBytes)
                     )
             );
         }
-        holder.status.setTextColor(ContextCompat.getColor(getContext(), R.color.text_red));
+        holder.status.setTextColor(ContextCompat.getColor(mContext, R.color.text_red));
     }
 }
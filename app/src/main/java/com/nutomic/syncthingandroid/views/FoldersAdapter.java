@@ -7,14 +7,17 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.model.CachedFolderStatus;
@@ -26,6 +29,9 @@ import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.util.FileUtils;
 import com.nutomic.syncthingandroid.util.Util;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static android.view.View.GONE;
@@ -33,25 +39,102 @@ import static android.view.View.VISIBLE;
 
 /**
  * Generates item views for folder items.
+ *
+ * The list is diffed on a background thread, so only rows whose folder config or
+ * status changed since the last update are bound again.
  */
-public class FoldersAdapter extends ArrayAdapter<Folder> {
+public class FoldersAdapter extends RecyclerView.Adapter<FoldersAdapter.ViewHolder> {
 
     // private static final String TAG = "FoldersAdapter";
 
     private final Context mContext;
+    private final LayoutInflater mLayoutInflater;
+    private ItemClickListener mOnClickListener;
 
-    private RestApi mRestApi;
+    /**
+     * Stable item IDs assigned to folder IDs, so rows keep their identity across updates.
+     */
+    private final Map<String, Long> mItemIds = new HashMap<>();
+
+    public interface ItemClickListener {
+        void onItemClick(Folder folder);
+    }
+
+    /**
+     * Folder row as displayed. Never modified after it was submitted.
+     */
+    private static class Item {
+        final Folder folder;
+
+        /**
+         * Null if Syncthing is not running. Both are replaced by new instances in
+         * {@link RestApi}'s cache whenever the status changes.
+         */
+        final @Nullable FolderStatus folderStatus;
+        final @Nullable CachedFolderStatus cachedFolderStatus;
+
+        Item(Folder folder, @Nullable FolderStatus folderStatus,
+                @Nullable CachedFolderStatus cachedFolderStatus) {
+            this.folder = folder;
+            this.folderStatus = folderStatus;
+            this.cachedFolderStatus = cachedFolderStatus;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Item> DIFF_CALLBACK = new DiffUtil.ItemCallback<Item>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.folder.id.equals(newItem.folder.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            Folder oldFolder = oldItem.folder;
+            Folder newFolder = newItem.folder;
+            return oldItem.folderStatus == newItem.folderStatus &&
+                    oldItem.cachedFolderStatus == newItem.cachedFolderStatus &&
+                    TextUtils.equals(oldFolder.label, newFolder.label) &&
+                    TextUtils.equals(oldFolder.path, newFolder.path) &&
+                    TextUtils.equals(oldFolder.type, newFolder.type) &&
+                    TextUtils.equals(oldFolder.invalid, newFolder.invalid) &&
+                    oldFolder.paused == newFolder.paused &&
+                    oldFolder.getDeviceCount() == newFolder.getDeviceCount();
+        }
+    };
+
+    private final AsyncListDiffer<Item> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
     public FoldersAdapter(Context context) {
-        super(context, 0);
         mContext = context;
+        mLayoutInflater = LayoutInflater.from(mContext);
+        setHasStableIds(true);
     }
 
-    public void setRestApi(RestApi restApi) {
-        mRestApi = restApi;
+    public void setOnClickListener(ItemClickListener onClickListener) {
+        mOnClickListener = onClickListener;
     }
 
-    static class ViewHolder {
+    /**
+     * Replaces the displayed folders, the changes are calculated asynchronously.
+     * Must be called on the UI thread.
+     *
+     * @param restApi Folder status is shown if Syncthing is running, may be null.
+     */
+    public void setFolders(List<Folder> folders, @Nullable RestApi restApi) {
+        boolean showStatus = restApi != null && restApi.isConfigLoaded();
+        List<Item> items = new ArrayList<>(folders.size());
+        for (Folder folder : folders) {
+            if (!showStatus) {
+                items.add(new Item(folder, null, null));
+                continue;
+            }
+            final Map.Entry<FolderStatus, CachedFolderStatus> folderEntry = restApi.getFolderStatus(folder.id);
+            items.add(new Item(folder, folderEntry.getKey(), folderEntry.getValue()));
+        }
+        mDiffer.submitList(items);
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         TextView label;
         TextView directory;
         TextView items;
@@ -64,41 +147,92 @@ public class FoldersAdapter extends ArrayAdapter<Folder> {
         TextView conflicts;
         ProgressBar progressBar;
         ImageView openFolder;
+
+        public ViewHolder(View view) {
+            super(view);
+            label = view.findViewById(R.id.label);
+            directory = view.findViewById(R.id.directory);
+            items = view.findViewById(R.id.items);
+            state = view.findViewById(R.id.state);
+            revert = view.findViewById(R.id.revert);
+            override = view.findViewById(R.id.override);
+            invalid = view.findViewById(R.id.invalid);
+            lastItemFinishedItem = view.findViewById(R.id.lastItemFinishedItem);
+            lastItemFinishedTime = view.findViewById(R.id.lastItemFinishedTime);
+            conflicts = view.findViewById(R.id.conflicts);
+            progressBar = view.findViewById(R.id.progressBar);
+            openFolder = view.findViewById(R.id.openFolder);
+
+            view.setOnClickListener(this);
+            override.setOnClickListener(v -> {
+                Folder folder = getFolder();
+                if (folder != null) {
+                    onClickOverride(v, folder);
+                }
+            });
+            revert.setOnClickListener(v -> {
+                Folder folder = getFolder();
+                if (folder != null) {
+                    onClickRevert(v, folder);
+                }
+            });
+            openFolder.setOnClickListener(v -> {
+                Folder folder = getFolder();
+                if (folder != null) {
+                    FileUtils.openFolder(mContext, folder.path);
+                }
+            });
+        }
+
+        /**
+         * Returns the folder currently bound to this row, or null if it is being removed.
+         */
+        private @Nullable Folder getFolder() {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return null;
+            }
+            return mDiffer.getCurrentList().get(position).folder;
+        }
+
+        @Override
+        public void onClick(View view) {
+            Folder folder = getFolder();
+            if (folder != null && mOnClickListener != null) {
+                mOnClickListener.onItemClick(folder);
+            }
+        }
     }
 
     @Override
-    @NonNull
-    public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-        ViewHolder holder;
-
-        if (convertView == null) {
-            convertView = LayoutInflater.from(mContext).inflate(R.layout.item_folder_list, parent, false);
-
-            holder = new ViewHolder();
-            holder.label = convertView.findViewById(R.id.label);
-            holder.directory = convertView.findViewById(R.id.directory);
-            holder.items = convertView.findViewById(R.id.items);
-            holder.state = convertView.findViewById(R.id.state);
-            holder.revert = convertView.findViewById(R.id.revert);
-            holder.override = convertView.findViewById(R.id.override);
-            holder.invalid = convertView.findViewById(R.id.invalid);
-            holder.lastItemFinishedItem = convertView.findViewById(R.id.lastItemFinishedItem);
-            holder.lastItemFinishedTime = convertView.findViewById(R.id.lastItemFinishedTime);
-            holder.conflicts = convertView.findViewById(R.id.conflicts);
-            holder.progressBar = convertView.findViewById(R.id.progressBar);
-            holder.openFolder = convertView.findViewById(R.id.openFolder);
-
-            convertView.setTag(holder);
-        } else {
-            holder = (ViewHolder) convertView.getTag();
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String folderId = mDiffer.getCurrentList().get(position).folder.id;
+        Long itemId = mItemIds.get(folderId);
+        if (itemId == null) {
+            itemId = (long) mItemIds.size();
+            mItemIds.put(folderId, itemId);
         }
+        return itemId;
+    }
 
-        Folder folder = getItem(position);
+    @Override
+    @NonNull
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = mLayoutInflater.inflate(R.layout.item_folder_list, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Item item = mDiffer.getCurrentList().get(position);
+        Folder folder = item.folder;
         holder.label.setText(TextUtils.isEmpty(folder.label) ? folder.id : folder.label);
         holder.directory.setText(getShortPathForUI(folder.path));
-        holder.override.setOnClickListener(view -> { onClickOverride(view, folder); });
-        holder.revert.setOnClickListener(view -> { onClickRevert(view, folder); });
-        holder.openFolder.setOnClickListener(view -> { FileUtils.openFolder(mContext, folder.path); });
 
         // Update folder icon.
         int drawableId = R.drawable.baseline_folder_24;
@@ -116,12 +250,14 @@ public class FoldersAdapter extends ArrayAdapter<Folder> {
         }
         holder.openFolder.setImageResource(drawableId);
 
-        updateFolderStatusView(holder, folder);
-        return convertView;
+        updateFolderStatusView(holder, item);
     }
 
-    private void updateFolderStatusView(ViewHolder holder, Folder folder) {
-        if (mRestApi == null || !mRestApi.isConfigLoaded()) {
+    private void updateFolderStatusView(ViewHolder holder, Item item) {
+        final Folder folder = item.folder;
+        final FolderStatus folderStatus = item.folderStatus;
+        final CachedFolderStatus cachedFolderStatus = item.cachedFolderStatus;
+        if (folderStatus == null || cachedFolderStatus == null) {
             holder.conflicts.setVisibility(GONE);
             holder.lastItemFinishedItem.setVisibility(GONE);
             holder.lastItemFinishedTime.setVisibility(GONE);
@@ -134,11 +270,7 @@ public class FoldersAdapter extends ArrayAdapter<Folder> {
             return;
         }
 
-        // mRestApi is available.
-        final Map.Entry<FolderStatus, CachedFolderStatus> folderEntry = mRestApi.getFolderStatus(folder.id);
-        final FolderStatus folderStatus = folderEntry.getKey();
-        final CachedFolderStatus cachedFolderStatus = folderEntry.getValue();
-
+        // Syncthing is running.
         boolean failedItems = folderStatus.errors > 0;
 
         long neededItems = folderStatus.needFiles + folderStatus.needDirectories + folderStatus.needSymlinks + folderStatus.needDeletes;
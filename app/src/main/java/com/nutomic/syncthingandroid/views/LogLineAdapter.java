@@ -0,0 +1,59 @@
+package com.nutomic.syncthingandroid.views;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import androidx.recyclerview.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.nutomic.syncthingandroid.R;
+import com.nutomic.syncthingandroid.util.MappedLogReader;
+
+/**
+ * Shows the lines of a log, decoding them from {@link MappedLogReader} while scrolling.
+ */
+public class LogLineAdapter extends RecyclerView.Adapter<LogLineAdapter.ViewHolder> {
+
+    private MappedLogReader mLogReader = null;
+    private LayoutInflater mLayoutInflater;
+
+    public LogLineAdapter(Context context) {
+        mLayoutInflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * @param logReader Null to show no lines.
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void setLogReader(MappedLogReader logReader) {
+        mLogReader = logReader;
+        notifyDataSetChanged();
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder {
+        public TextView line;
+
+        public ViewHolder(View view) {
+            super(view);
+            line = view.findViewById(R.id.log_line);
+        }
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = mLayoutInflater.inflate(R.layout.item_log_line, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, final int position) {
+        viewHolder.line.setText(mLogReader.getLine(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return (mLogReader == null) ? 0 : mLogReader.getLineCount();
+    }
+}